@@ -31,6 +31,7 @@ import edu.umass.cs.gnscommon.exceptions.client.VerificationException;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
 import edu.umass.cs.gnscommon.utils.ByteUtils;
+import edu.umass.cs.gnscommon.utils.CanonicalCommand;
 import edu.umass.cs.gnscommon.utils.CanonicalJSON;
 import edu.umass.cs.gnscommon.utils.Format;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.OPERATION_NOT_SUPPORTED;
@@ -174,10 +175,26 @@ public class CommandUtils {
           String message) throws NoSuchAlgorithmException,
           InvalidKeyException, SignatureException,
           UnsupportedEncodingException {
+    return signDigestOfMessage(privateKey, message.getBytes("UTF-8"));
+  }
+
+  /**
+   * Signs a digest of the bytes of a message using private key of the given guid.
+   *
+   * @param privateKey
+   * @param message
+   * @return a signed digest of the message bytes
+   * @throws NoSuchAlgorithmException
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   */
+  public static String signDigestOfMessage(PrivateKey privateKey,
+          byte[] message) throws NoSuchAlgorithmException,
+          InvalidKeyException, SignatureException {
     Signature signatureInstance = getSignatureInstance();
     synchronized (signatureInstance) {
       signatureInstance.initSign(privateKey);
-      signatureInstance.update(message.getBytes("UTF-8"));
+      signatureInstance.update(message);
       byte[] signedString = signatureInstance.sign();
       // FIXME CHANGE THIS TO BASE64 (below) TO SAVE SOME SPACE ONCE THE
       // IOS CLIENT IS UPDATED AS WELL
@@ -247,11 +264,20 @@ public class CommandUtils {
           SignatureException, UnsupportedEncodingException,
           IllegalBlockSizeException, BadPaddingException,
           NoSuchPaddingException {
+    return signDigestOfMessage(privateKey, publicKey,
+            message.getBytes(GNSCommandProtocol.CHARSET));
+  }
+
+  private static String signDigestOfMessage(PrivateKey privateKey,
+          PublicKey publicKey, byte[] body)
+          throws NoSuchAlgorithmException, InvalidKeyException,
+          SignatureException, UnsupportedEncodingException,
+          IllegalBlockSizeException, BadPaddingException,
+          NoSuchPaddingException {
     SecretKey secretKey = SessionKeys.getOrGenerateSecretKey(publicKey,
             privateKey);
     MessageDigest md = getMessageDigestInstance();
     byte[] digest = null;
-    byte[] body = message.getBytes(GNSCommandProtocol.CHARSET);
     synchronized (md) {
       digest = md.digest(body);
     }
@@ -477,14 +503,23 @@ public class CommandUtils {
               Format.formatDateISO8601UTC(new Date()));
       result.put(GNSCommandProtocol.NONCE, getRandomRequestNonce());
 
-      String canonicalJSON = CanonicalJSON.getCanonicalForm(result);
-      String signatureString = null;
       long t = System.nanoTime();
-      if (!Config.getGlobalBoolean(GNSCC.ENABLE_SECRET_KEY)) {
-        signatureString = signDigestOfMessage(privateKey, canonicalJSON);
+      boolean secretKey = Config.getGlobalBoolean(GNSCC.ENABLE_SECRET_KEY);
+      byte[] message;
+      if (Config.getGlobalBoolean(GNSCC.SIGN_CANONICAL_BYTES)) {
+        // tells the server to verify against the canonical bytes
+        result.put(GNSCommandProtocol.SIGNATURE_FORMAT, CanonicalCommand.VERSION);
+        message = CanonicalCommand.getCanonicalBytes(result);
+      } else {
+        message = CanonicalJSON.getCanonicalForm(result)
+                .getBytes(secretKey ? GNSCommandProtocol.CHARSET : "UTF-8");
+      }
+      String signatureString = null;
+      if (!secretKey) {
+        signatureString = signDigestOfMessage(privateKey, message);
       } else {
         signatureString = signDigestOfMessage(privateKey, publicKey,
-                canonicalJSON);
+                message);
       }
       result.put(GNSCommandProtocol.SIGNATURE, signatureString);
       if (edu.umass.cs.utils.Util.oneIn(10)) {
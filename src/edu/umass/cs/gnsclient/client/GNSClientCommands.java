@@ -30,6 +30,7 @@ import edu.umass.cs.gnscommon.AclAccessType;
 import edu.umass.cs.gnscommon.SharedGuidUtils;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCESSER;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCOUNT_GUID;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCOUNT_RECORD_GUID_PAGE;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACL_TYPE;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.AC_ACTION;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.AC_CODE;
@@ -636,6 +637,26 @@ public class GNSClientCommands extends GNSClient //implements GNSClientInterface
     }
   }
 
+  /**
+   * Obtains the account info for the given account guid along with one
+   * page of its guids. The response says how many pages there are.
+   *
+   * @param accountGuid
+   * @param page the page of guids to return, starting at 0
+   * @return accountGUID meta info
+   * @throws IOException
+   * @throws ClientException
+   */
+  public JSONObject lookupAccountRecord(String accountGuid, int page)
+          throws IOException, ClientException {
+    try {
+      return new JSONObject(getResponse(CommandType.LookupAccountRecord, GUID, accountGuid,
+              ACCOUNT_RECORD_GUID_PAGE, page));
+    } catch (JSONException e) {
+      throw new ClientException("Failed to parse LOOKUP_ACCOUNT_RECORD response", e);
+    }
+  }
+
   /**
    * Get the public key for a given alias.
    *
@@ -2279,6 +2300,22 @@ public class GNSClientCommands extends GNSClient //implements GNSClientInterface
             "Admin");
   }
 
+  /**
+   *
+   * @return Returns the active code invocation counts and times of the server.
+   * @throws Exception
+   */
+  public String activeCodeStats() throws Exception {
+    //Create the admin account if it doesn't already exist.
+    try {
+      accountGuidCreate("Admin", Config.getGlobalString(GNSConfig.GNSC.INTERNAL_OP_SECRET));
+    } catch (DuplicateNameException dne) {
+      //Do nothing if it already exists.
+    }
+    return getResponse(CommandType.ActiveCodeStats, NAME,
+            "Admin");
+  }
+
   @Override
   public void close() {
     super.close();
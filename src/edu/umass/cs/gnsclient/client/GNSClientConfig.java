@@ -78,9 +78,18 @@ public class GNSClientConfig {
     VERIFICATION_SECRET("EXPOSED_SECRET"),
     /**
      * Byteification mode for "important" packets like CommandPacket,
-     * CommandValueReturnPacket, etc.
+     * CommandValueReturnPacket, etc. 5 sends commands as the canonical
+     * bytes their signatures are computed over so that servers
+     * can verify the signatures against the bytes they receive.
      */
     BYTE_MODE(0),
+    /**
+     * If true the client signs commands over their canonical bytes
+     * (see {@link edu.umass.cs.gnscommon.utils.CanonicalCommand}) instead
+     * of their canonical JSON strings. Only turn this on once all the
+     * servers understand the former.
+     */
+    SIGN_CANONICAL_BYTES(false),
     /**
      * If set to true, the client uses java preferences to store keys rather than DerbyDB.
      * Specifically, KeyPairUtils class uses JavaPreferences instead of DerbyDB.
@@ -17,6 +17,7 @@ package edu.umass.cs.gnsclient.client;
 
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCESSER;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCOUNT_GUID;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCOUNT_RECORD_GUID_PAGE;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACL_TYPE;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.AC_ACTION;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.AC_CODE;
@@ -509,6 +510,23 @@ public class GNSCommand extends CommandPacket {
     return getCommand(CommandType.LookupAccountRecord, GUID, accountGUID);
   }
 
+  /**
+   * Looks up the the metadata for {@code accountGUID} along with one page
+   * of its guids. The response says how many pages there are.
+   *
+   * @param accountGUID
+   * The account GUID being queried.
+   * @param page
+   * The page of guids to return, starting at 0.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket lookupAccountRecord(String accountGUID, int page)
+          throws ClientException {
+    return getCommand(CommandType.LookupAccountRecord, GUID, accountGUID,
+            ACCOUNT_RECORD_GUID_PAGE, page);
+  }
+
   /**
    * Get the public key for {@code alias}.
    *
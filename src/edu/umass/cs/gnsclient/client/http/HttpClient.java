@@ -23,10 +23,15 @@ import edu.umass.cs.gnsclient.client.CommandUtils;
 import static edu.umass.cs.gnsclient.client.CommandUtils.commandResponseToJSONArray;
 import edu.umass.cs.gnsclient.client.GNSClientConfig;
 import edu.umass.cs.gnscommon.GNSCommandProtocol;
+import edu.umass.cs.gnscommon.GNSProtocol;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -65,8 +70,17 @@ import static edu.umass.cs.gnscommon.GNSCommandProtocol.VALUE;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.WRITER;
 import edu.umass.cs.gnscommon.exceptions.client.FieldNotFoundException;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 /**
@@ -78,6 +92,13 @@ import java.util.logging.Level;
  * MANY USER ACCESIBLE METHODS IN HERE ARE EXACT DUPLICATES OF THE
  * ONES IN GNS CLIENT. THERE COULD REALLY BE A GNSClientInterface class.
  *
+ * Requests reuse keep-alive connections to the server, and at most
+ * {@link #getMaxConcurrentRequests()} of them are outstanding at once.
+ * Java keeps at most http.maxConnections (5 by default) idle connections to a server,
+ * so a client with more concurrent requests than that should raise it.
+ * The asynchronous methods return futures and run on threads of the client,
+ * and {@link #executeBatch(List)} sends several commands in one request.
+ *
  * @author <a href="mailto:cecchet@cs.umass.edu">Emmanuel Cecchet</a>
  * @version 1.0
  */
@@ -111,6 +132,21 @@ public class HttpClient {
    * service.
    */
   private int readRetries = 1;
+  /**
+   * The number of requests to the server that can be outstanding at once
+   * when the constructor isn't given one.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 16;
+  /**
+   * The number of requests to the server that can be outstanding at once,
+   * counting the ones of the blocking methods and the asynchronous ones.
+   */
+  private final int maxConcurrentRequests;
+  private final Semaphore requestPermits;
+  /**
+   * Runs the asynchronous methods. Created when the first one is called.
+   */
+  private ExecutorService asyncExecutor;
 
   /**
    * Creates a new <code>AbstractGnrsClient</code> object
@@ -119,9 +155,26 @@ public class HttpClient {
    * @param port Port number of the GNS instance
    */
   public HttpClient(String host, int port) {
+    this(host, port, DEFAULT_MAX_CONCURRENT_REQUESTS);
+  }
 
+  /**
+   * Creates a new <code>HttpClient</code> object that has at most the given
+   * number of requests to the server outstanding at once. Further requests
+   * wait until one of those is done.
+   *
+   * @param host Hostname of the GNS instance
+   * @param port Port number of the GNS instance
+   * @param maxConcurrentRequests
+   */
+  public HttpClient(String host, int port, int maxConcurrentRequests) {
+    if (maxConcurrentRequests < 1) {
+      throw new IllegalArgumentException("maxConcurrentRequests must be at least 1");
+    }
     this.host = host;
     this.port = port;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.requestPermits = new Semaphore(maxConcurrentRequests, true);
   }
 
   /**
@@ -153,6 +206,15 @@ public class HttpClient {
     this.readTimeout = readTimeout;
   }
 
+  /**
+   * Returns the number of requests to the server that can be outstanding at once.
+   *
+   * @return the number of requests
+   */
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
   /**
    * Returns the number of potential retries used when sending commands to the
    * server.
@@ -1570,6 +1632,280 @@ public class HttpClient {
     }
   }
 
+  // /////////////////////////////////////////
+  // // ASYNCHRONOUS AND BATCH METHODS /////
+  // /////////////////////////////////////////
+  /**
+   * Runs one of the blocking methods of this client on the client's threads.
+   * There are at most {@link #getMaxConcurrentRequests()} of them.
+   * The methods most often used have variants below that call this.
+   *
+   * @param <T>
+   * @param operation calls the blocking method
+   * @return a future that completes with what the method returns or
+   * exceptionally with what it throws
+   */
+  public <T> CompletableFuture<T> submitAsync(final Callable<T> operation) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    getAsyncExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          future.complete(operation.call());
+        } catch (Exception e) {
+          future.completeExceptionally(e);
+        }
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Sends any command to the server without waiting for the response.
+   *
+   * @param commandType
+   * @param querier the guid that signs the command, or null for an unsigned command
+   * @param keysAndValues
+   * @return a future that completes with the return value of the command
+   */
+  public CompletableFuture<String> executeAsync(final CommandType commandType,
+          final GuidEntry querier, final Object... keysAndValues) {
+    return submitAsync(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return getResponse(commandType, querier, keysAndValues);
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #lookupGuid(String)}.
+   *
+   * @param alias
+   * @return a future that completes with the guid
+   */
+  public CompletableFuture<String> lookupGuidAsync(final String alias) {
+    return submitAsync(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return lookupGuid(alias);
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #lookupPrimaryGuid(String)}.
+   *
+   * @param guid
+   * @return a future that completes with the account guid
+   */
+  public CompletableFuture<String> lookupPrimaryGuidAsync(final String guid) {
+    return submitAsync(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return lookupPrimaryGuid(guid);
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #lookupGuidRecord(String)}.
+   *
+   * @param guid
+   * @return a future that completes with the guid record
+   */
+  public CompletableFuture<JSONObject> lookupGuidRecordAsync(final String guid) {
+    return submitAsync(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call() throws Exception {
+        return lookupGuidRecord(guid);
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #publicKeyLookupFromGuid(String)}.
+   *
+   * @param guid
+   * @return a future that completes with the public key
+   */
+  public CompletableFuture<PublicKey> publicKeyLookupFromGuidAsync(final String guid) {
+    return submitAsync(new Callable<PublicKey>() {
+      @Override
+      public PublicKey call() throws Exception {
+        return publicKeyLookupFromGuid(guid);
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #read(String, GuidEntry)}.
+   *
+   * @param targetGuid
+   * @param reader if null guid must be all fields readable for all users
+   * @return a future that completes with the record
+   */
+  public CompletableFuture<JSONObject> readAsync(final String targetGuid, final GuidEntry reader) {
+    return submitAsync(new Callable<JSONObject>() {
+      @Override
+      public JSONObject call() throws Exception {
+        return read(targetGuid, reader);
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #fieldRead(String, String, GuidEntry)}.
+   *
+   * @param targetGuid
+   * @param field
+   * @param reader if null the field must be readable for all
+   * @return a future that completes with the values in the field
+   */
+  public CompletableFuture<String> fieldReadAsync(final String targetGuid, final String field,
+          final GuidEntry reader) {
+    return submitAsync(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return fieldRead(targetGuid, field, reader);
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #fieldReadArray(String, String, GuidEntry)}.
+   *
+   * @param guid
+   * @param field
+   * @param reader if null the field must be readable for all
+   * @return a future that completes with the values in the field
+   */
+  public CompletableFuture<JSONArray> fieldReadArrayAsync(final String guid, final String field,
+          final GuidEntry reader) {
+    return submitAsync(new Callable<JSONArray>() {
+      @Override
+      public JSONArray call() throws Exception {
+        return fieldReadArray(guid, field, reader);
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #update(String, JSONObject, GuidEntry)}.
+   *
+   * @param targetGuid
+   * @param json
+   * @param writer
+   * @return a future that completes when the update is done
+   */
+  public CompletableFuture<Void> updateAsync(final String targetGuid, final JSONObject json,
+          final GuidEntry writer) {
+    return submitAsync(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        update(targetGuid, json, writer);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #fieldUpdate(String, String, Object, GuidEntry)}.
+   *
+   * @param targetGuid
+   * @param field
+   * @param value
+   * @param writer
+   * @return a future that completes when the update is done
+   */
+  public CompletableFuture<Void> fieldUpdateAsync(final String targetGuid, final String field,
+          final Object value, final GuidEntry writer) {
+    return submitAsync(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        fieldUpdate(targetGuid, field, value, writer);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * The asynchronous version of {@link #selectQuery(String)}.
+   *
+   * @param query
+   * @return a future that completes with the guids
+   */
+  public CompletableFuture<JSONArray> selectQueryAsync(final String query) {
+    return submitAsync(new Callable<JSONArray>() {
+      @Override
+      public JSONArray call() throws Exception {
+        return selectQuery(query);
+      }
+    });
+  }
+
+  /**
+   * Sends several commands to the server in one request, which the server
+   * executes concurrently. The commands are made with
+   * {@link CommandUtils#createAndSignCommand(CommandType, GuidEntry, Object...)}.
+   *
+   * One command failing doesn't fail the others. The return value of each is either
+   * its value or an error, and {@link CommandUtils#checkResponseOldSchool(String)}
+   * turns it into the value or the exception the blocking method would have thrown.
+   *
+   * @param commands
+   * @return the return values of the commands in the same order
+   * @throws IOException if the batch couldn't be sent or the server refused it
+   * @throws ClientException if the response couldn't be parsed
+   */
+  public List<String> executeBatch(List<JSONObject> commands) throws IOException, ClientException {
+    JSONArray responses = sendBatch(new JSONArray(commands));
+    if (responses.length() != commands.size()) {
+      throw new ClientException("Sent " + commands.size() + " commands but received "
+              + responses.length() + " responses");
+    }
+    List<String> result = new ArrayList<>(responses.length());
+    try {
+      for (int i = 0; i < responses.length(); i++) {
+        result.add(responses.getJSONObject(i).getString(GNSProtocol.RETURN_VALUE.toString()));
+      }
+    } catch (JSONException e) {
+      throw new ClientException("Failed to parse batch response", e);
+    }
+    return result;
+  }
+
+  /**
+   * The asynchronous version of {@link #executeBatch(List)}.
+   *
+   * @param commands
+   * @return a future that completes with the return values of the commands
+   */
+  public CompletableFuture<List<String>> executeBatchAsync(final List<JSONObject> commands) {
+    return submitAsync(new Callable<List<String>>() {
+      @Override
+      public List<String> call() throws Exception {
+        return executeBatch(commands);
+      }
+    });
+  }
+
+  private synchronized ExecutorService getAsyncExecutor() {
+    if (asyncExecutor == null) {
+      asyncExecutor = Executors.newFixedThreadPool(maxConcurrentRequests, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "HttpClient" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return asyncExecutor;
+  }
+
   private String getResponse(CommandType commandType, Object... keysAndValues) throws ClientException, IOException {
     return getResponse(commandType, null, keysAndValues);
   }
@@ -1702,10 +2038,24 @@ public class HttpClient {
    * @throws IOException if an error occurs
    */
   private String sendGetCommand(String queryString) throws IOException {
-    if (IS_ANDROID) {
-      return androidSendGetCommand(queryString);
-    } else {
-      return desktopSendGetCommmand(queryString);
+    acquireRequestPermit();
+    try {
+      if (IS_ANDROID) {
+        return androidSendGetCommand(queryString);
+      } else {
+        return desktopSendGetCommmand(queryString);
+      }
+    } finally {
+      requestPermits.release();
+    }
+  }
+
+  private void acquireRequestPermit() throws InterruptedIOException {
+    try {
+      requestPermits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to send a request");
     }
   }
 
@@ -1719,6 +2069,7 @@ public class HttpClient {
    */
   private String desktopSendGetCommmand(String queryString) throws IOException {
     HttpURLConnection connection = null;
+    boolean reusable = false;
     try {
 
       String urlString = "http://" + host + ":" + port;
@@ -1751,12 +2102,18 @@ public class HttpClient {
         }
       } while (cnt-- > 0);
       try {
-        // in theory this close should allow the keepalive mechanism to operate
-        // correctly
+        // Reading the rest of the response and closing the stream without
+        // disconnecting hands the connection back to the keep-alive cache
+        // so the next request to the server doesn't need a new one.
         // http://docs.oracle.com/javase/6/docs/technotes/guides/net/http-keepalive.html
+        if (response != null) {
+          skipRest(inputStream);
+          reusable = true;
+        }
         inputStream.close();
       } catch (IOException e) {
         GNSClientConfig.getLogger().warning("Problem closing the HttpURLConnection's stream.");
+        reusable = false;
       }
       GNSClientConfig.getLogger().log(Level.FINE, "Received: {0}", response);
       if (response != null) {
@@ -1765,13 +2122,83 @@ public class HttpClient {
         throw new IOException("No response to command: " + queryString);
       }
     } finally {
-      // close the connection, set all objects to null
-      if (connection != null) {
+      // a connection we didn't read the whole response from can't be reused
+      if (connection != null && !reusable) {
         connection.disconnect();
       }
     }
   }
 
+  /**
+   * Posts a JSON array of commands to the host specified by the
+   * {@link host} field.
+   *
+   * @param commands
+   * @return the JSON array of responses
+   * @throws IOException if an error occurs
+   * @throws ClientException if the response isn't a JSON array
+   */
+  private JSONArray sendBatch(JSONArray commands) throws IOException, ClientException {
+    byte[] body = commands.toString().getBytes(StandardCharsets.UTF_8);
+    acquireRequestPermit();
+    HttpURLConnection connection = null;
+    boolean reusable = false;
+    try {
+      URL serverURL = new URL("http://" + host + ":" + port + "/GNS");
+      GNSClientConfig.getLogger().log(Level.FINE, "Sending {0} commands to {1}",
+              new Object[]{commands.length(), serverURL});
+      connection = (HttpURLConnection) serverURL.openConnection();
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.setReadTimeout(readTimeout);
+      connection.setRequestProperty("Content-Type", "application/json");
+      connection.setFixedLengthStreamingMode(body.length);
+      OutputStream outputStream = connection.getOutputStream();
+      outputStream.write(body);
+      outputStream.close();
+      int status = connection.getResponseCode();
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Batch failed with status " + status + ": "
+                + readFully(connection.getErrorStream()));
+      }
+      String response = readFully(connection.getInputStream());
+      reusable = true;
+      GNSClientConfig.getLogger().log(Level.FINE, "Received: {0}", response);
+      try {
+        return new JSONArray(response);
+      } catch (JSONException e) {
+        throw new ClientException("Failed to parse batch response", e);
+      }
+    } finally {
+      if (connection != null && !reusable) {
+        connection.disconnect();
+      }
+      requestPermits.release();
+    }
+  }
+
+  private static String readFully(InputStream inputStream) throws IOException {
+    if (inputStream == null) {
+      return "";
+    }
+    Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+    StringBuilder result = new StringBuilder();
+    char[] buffer = new char[8192];
+    int length;
+    while ((length = reader.read(buffer)) >= 0) {
+      result.append(buffer, 0, length);
+    }
+    reader.close();
+    return result.toString();
+  }
+
+  private static void skipRest(Reader reader) throws IOException {
+    char[] buffer = new char[1024];
+    while (reader.read(buffer) >= 0) {
+      // nothing to do with it
+    }
+  }
+
   private String androidSendGetCommand(String queryString) throws IOException {
     String urlString = "http://" + host + ":" + port + "/GNS/" + queryString;
     final AndroidHttpGet httpGet = new AndroidHttpGet();
@@ -1789,10 +2216,13 @@ public class HttpClient {
   }
 
   /**
-   *
+   * Stops the threads that run the asynchronous methods once the
+   * operations already submitted are done.
    */
-  public void close() {
-    // nothing to stop
+  public synchronized void close() {
+    if (asyncExecutor != null) {
+      asyncExecutor.shutdown();
+    }
   }
 
   private class AndroidHttpGet extends DownloadTask {
@@ -3364,6 +3364,13 @@ public enum CommandType {
   /**
    *
    */
+  ActiveCodeStats(727, CommandCategory.MUTUAL_AUTH, edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.admin.ActiveCodeStats.class,
+          CommandResultType.STRING, true, false,
+          "[ONLY IN ADMIN MODE] Returns the active code invocation counts and times per worker and guid.",
+          new String[]{}),
+  /**
+   *
+   */
   ConnectionCheck(737, CommandCategory.OTHER, edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.admin.ConnectionCheck.class,
           CommandResultType.STRING, true, false,
           "Checks connectivity.",
@@ -3829,6 +3836,7 @@ public enum CommandType {
     ListParameters.setChain();
     ClearCache.setChain();
     DumpCache.setChain();
+    ActiveCodeStats.setChain();
     ConnectionCheck.setChain();
     Unknown.setChain();
 
@@ -305,6 +305,13 @@ public class GNSCommandProtocol {
    * The signature field in a command.
    */
   public final static String SIGNATURE = "signature";
+  /**
+   * The signature format field in a command. If present the signature was
+   * computed over the canonical bytes of the command (see
+   * {@link edu.umass.cs.gnscommon.utils.CanonicalCommand}) instead of
+   * its canonical JSON string. The value is the version of those bytes.
+   */
+  public final static String SIGNATURE_FORMAT = "sigFormat";
   // select commands
   /**
    * The signature field in a command. Used for select within.
@@ -413,6 +420,15 @@ public class GNSCommandProtocol {
    * The guids field in a account record.
    */
   public static final String ACCOUNT_RECORD_GUIDS = "guids";
+  /**
+   * The page of guids in a account record. Also used in a LookupAccountRecord
+   * command to ask for that page of the account's guids.
+   */
+  public static final String ACCOUNT_RECORD_GUID_PAGE = "guidPage";
+  /**
+   * The number of pages of guids in a account record.
+   */
+  public static final String ACCOUNT_RECORD_GUID_PAGE_CNT = "guidPageCnt";
   /**
    * The guid field in a account record.
    */
@@ -610,6 +610,25 @@ public class ClientAsynchBase extends ReconfigurableAppClientAsync<Request> {
             WRITER, Config.getGlobalString(GNSConfig.GNSC.INTERNAL_OP_SECRET)), callback);
   }
 
+  /**
+   * Removes a field at a remote replica.
+   *
+   * @param guid
+   * @param field
+   * @param callback
+   * @return the request id
+   * @throws IOException
+   * @throws JSONException
+   * @throws ClientException
+   */
+  public long fieldRemoveField(String guid, String field, RequestCallback callback) throws IOException, JSONException, ClientException {
+    // Send a remove command that doesn't need authentication.
+    return sendCommandAsynch(createCommand(CommandType.RemoveFieldUnsigned,
+            GUID, guid,
+            FIELD, field,
+            WRITER, Config.getGlobalString(GNSConfig.GNSC.INTERNAL_OP_SECRET)), callback);
+  }
+
   /**
    * Removes all the values from from field that is an array at a remote replica.
    *
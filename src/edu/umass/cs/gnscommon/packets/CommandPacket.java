@@ -27,6 +27,8 @@ import edu.umass.cs.gnscommon.GNSCommandProtocol;
 import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnscommon.utils.CanonicalCommand;
+import edu.umass.cs.gnscommon.utils.CanonicalJSON;
 import edu.umass.cs.gnscommon.utils.JSONByteConverter;
 import edu.umass.cs.gnsserver.gnsapp.packet.BasicPacketWithClientAddress;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
@@ -91,6 +93,14 @@ public class CommandPacket extends BasicPacketWithClientAddress implements
   // never serialized
   private Object result = null;
 
+  /**
+   * The canonical bytes of the command as they were received in the
+   * canonical byte mode, null otherwise. Never serialized.
+   */
+  private byte[] receivedBytes = null;
+  private int receivedOffset;
+  private int receivedLength;
+
   /**
    * Create a CommandPacket instance.
    *
@@ -166,8 +176,29 @@ public class CommandPacket extends BasicPacketWithClientAddress implements
     // ByteMode
     ByteMode mode = ByteMode.byteModeMap.get(
             (int) buf.get());
-    // JSON command
-    this.command = getJSONObject(buf, mode);
+    if (mode == ByteMode.CANONICAL) {
+      try {
+        // the signed part followed by the signature
+        this.receivedLength = buf.getInt();
+        this.receivedOffset = buf.position();
+        this.receivedBytes = bytes;
+        this.command = CanonicalCommand.fromCanonicalBytes(bytes, receivedOffset, receivedLength);
+        buf.position(receivedOffset + receivedLength);
+        JSONObject unsigned = CanonicalCommand.getObject(buf);
+        for (String key : JSONObject.getNames(unsigned) != null ? JSONObject.getNames(unsigned) : new String[0]) {
+          // anything else would be trusted as if it had been signed
+          if (!GNSCommandProtocol.SIGNATURE.equals(key) || this.command.has(key)) {
+            throw new JSONException("Unexpected field " + key + " after the signed command");
+          }
+          this.command.put(key, unsigned.get(key));
+        }
+      } catch (JSONException | RuntimeException e) {
+        throw new RequestParseException(e);
+      }
+    } else {
+      // JSON command
+      this.command = getJSONObject(buf, mode);
+    }
 
     validateCommandType();
   }
@@ -226,7 +257,7 @@ public class CommandPacket extends BasicPacketWithClientAddress implements
   }
 
   private static enum ByteMode {
-    ORG_JSON(0), HOMEBREW(1), JACKSON(2), MSGPACK(3), STRING_WING(4);
+    ORG_JSON(0), HOMEBREW(1), JACKSON(2), MSGPACK(3), STRING_WING(4), CANONICAL(5);
 
     private final int val;
 
@@ -278,6 +309,13 @@ public class CommandPacket extends BasicPacketWithClientAddress implements
           // different from above three
           return this.toBytesWingItAsString(
                   toByteBufferWithOuterFields(), this.command);
+        case CANONICAL:
+          // GNSApp.fromBytes only knows how to read plain command packets
+          if (this.getType() != PacketType.COMMAND) {
+            return this.toJSONObject().toString()
+                    .getBytes(MessageNIOTransport.NIO_CHARSET_ENCODING);
+          }
+          return this.toBytesCanonical(toByteBufferWithOuterFields());
         default:
           throw new RuntimeException("Unrecognized byteification mode");
       }
@@ -302,6 +340,82 @@ public class CommandPacket extends BasicPacketWithClientAddress implements
     }
   }
 
+  /* The command is sent as its canonical bytes, the ones the signature is
+   * computed over, followed by the signature. The other field left out of
+   * them, SIGNATUREFULLMESSAGE, is recomputed by the receiving server. */
+  private byte[] toBytesCanonical(ByteBuffer buf) throws JSONException {
+    JSONObject unsigned = new JSONObject();
+    byte[] canonical;
+    synchronized (command) {
+      canonical = CanonicalCommand.getCanonicalBytes(command);
+      if (command.has(GNSCommandProtocol.SIGNATURE)) {
+        unsigned.put(GNSCommandProtocol.SIGNATURE, command.get(GNSCommandProtocol.SIGNATURE));
+      }
+    }
+    if (buf.remaining() < Integer.BYTES + canonical.length) {
+      buf = ByteBuffer.allocate(buf.position() + Integer.BYTES + canonical.length)
+              .put((ByteBuffer) buf.flip());
+    }
+    buf.putInt(canonical.length).put(canonical);
+    buf = CanonicalCommand.putObject(unsigned, buf);
+    return Arrays.copyOf(buf.array(), buf.position());
+  }
+
+  /**
+   * Returns the message the signature of the command was computed over or
+   * null if the command isn't signed. If the command was signed over its
+   * canonical bytes and was received as those bytes they are returned
+   * as they were received, otherwise the message is computed from the command.
+   *
+   * @return the message
+   * @throws JSONException
+   */
+  public String getSignedMessage() throws JSONException {
+    String message = getReceivedSignedMessage();
+    return message != null ? message : getSignedMessage(command);
+  }
+
+  /**
+   * Returns the canonical bytes of the command as a message if the
+   * command is signed over them and was received as them, otherwise null.
+   * Doesn't read anything but the command so it can be called
+   * from any thread as long as the command isn't being modified.
+   *
+   * @return the message or null
+   */
+  public String getReceivedSignedMessage() {
+    if (receivedBytes != null && command.has(GNSCommandProtocol.SIGNATURE)
+            && command.has(GNSCommandProtocol.SIGNATURE_FORMAT)) {
+      return CanonicalCommand.toMessage(receivedBytes, receivedOffset, receivedLength);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the message the signature of the command was computed over or
+   * null if the command isn't signed. Temporarily removes the signature
+   * from a command signed over its canonical JSON.
+   *
+   * @param command
+   * @return the message
+   * @throws JSONException
+   */
+  public static String getSignedMessage(JSONObject command) throws JSONException {
+    if (!command.has(GNSCommandProtocol.SIGNATURE)) {
+      return null;
+    }
+    if (command.has(GNSCommandProtocol.SIGNATURE_FORMAT)) {
+      byte[] canonical = CanonicalCommand.getCanonicalBytes(command);
+      return CanonicalCommand.toMessage(canonical, 0, canonical.length);
+    }
+    Object signature = command.remove(GNSCommandProtocol.SIGNATURE);
+    try {
+      return CanonicalJSON.getCanonicalForm(command);
+    } finally {
+      command.put(GNSCommandProtocol.SIGNATURE, signature);
+    }
+  }
+
   private byte[] appendByteifiedInnerJSONCommand(ByteBuffer bbuf, byte[] inner) {
     return bbuf.remaining() >= inner.length ? Arrays.copyOfRange(
             bbuf.put(inner).array(), 0, bbuf.position()) : ByteBuffer
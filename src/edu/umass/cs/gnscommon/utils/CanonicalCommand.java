@@ -0,0 +1,348 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import edu.umass.cs.gnscommon.GNSCommandProtocol;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Generates the canonical binary form of a command, the bytes a command
+ * with a {@link GNSCommandProtocol#SIGNATURE_FORMAT} field is signed over.
+ * These are also the bytes a CommandPacket sends the command as in the
+ * canonical byte mode, so a server can verify the signature against the bytes
+ * it received instead of re-rendering the command.
+ *
+ * The form starts with a zero byte and the version, which a canonical JSON
+ * string can't, and then has the command object with its keys in sorted order.
+ * The signature itself and the full message field added by the server are left out.
+ * Each value is a type byte followed by the value. Numbers are written as their
+ * JSON strings so that 1 and 1.0 are the same number after a trip through JSON text,
+ * like they are in {@link CanonicalJSON}.
+ *
+ * Messages are passed to the signature code as strings. The canonical bytes are
+ * passed as ISO-8859-1 strings, one char per byte, which
+ * {@link #getMessageBytes(String, Charset)} turns back into the same bytes.
+ *
+ * @author westy
+ */
+public class CanonicalCommand {
+
+  /**
+   * The first byte of the canonical form.
+   */
+  public static final byte MAGIC = 0;
+  /**
+   * The version of the canonical form this code writes.
+   */
+  public static final byte VERSION = 1;
+
+  private static final byte STRING_INDICATOR = 0;
+  private static final byte ARRAY_INDICATOR = 1;
+  private static final byte MAP_INDICATOR = 2;
+  private static final byte NUMBER_INDICATOR = 3;
+  private static final byte BOOLEAN_INDICATOR = 4;
+  private static final byte NULL_INDICATOR = 5;
+
+  /**
+   * Returns the canonical bytes of the command. Leaves out the signature
+   * and the full message fields.
+   *
+   * @param command
+   * @return the bytes
+   * @throws JSONException
+   */
+  public static byte[] getCanonicalBytes(JSONObject command) throws JSONException {
+    Output out = new Output(256);
+    out.put(MAGIC);
+    out.put(VERSION);
+    writeMap(command, out, true);
+    return out.toByteArray();
+  }
+
+  /**
+   * Reads a command from its canonical bytes.
+   *
+   * @param bytes
+   * @param offset
+   * @param length
+   * @return the command
+   * @throws JSONException if the bytes aren't a canonical command of a version we can read
+   */
+  public static JSONObject fromCanonicalBytes(byte[] bytes, int offset, int length) throws JSONException {
+    ByteBuffer buf = ByteBuffer.wrap(bytes, offset, length);
+    try {
+      if (buf.get() != MAGIC) {
+        throw new JSONException("Not a canonical command");
+      }
+      byte version = buf.get();
+      if (version != VERSION) {
+        throw new JSONException("Unknown canonical command version " + version);
+      }
+      if (buf.get() != MAP_INDICATOR) {
+        throw new JSONException("Canonical command is not an object");
+      }
+      return readMap(buf);
+    } catch (RuntimeException e) {
+      // the bytes were cut short or a length is bogus
+      throw new JSONException("Bad canonical command: " + e);
+    }
+  }
+
+  /**
+   * Writes a JSON object, in the same form the canonical bytes use for values.
+   * Used for the parts of a packet that aren't signed.
+   *
+   * @param json
+   * @param buf
+   * @return the buffer, which is a new one if the given one was too small
+   * @throws JSONException
+   */
+  public static ByteBuffer putObject(JSONObject json, ByteBuffer buf) throws JSONException {
+    Output out = new Output(64);
+    writeMap(json, out, false);
+    if (buf.remaining() < out.size) {
+      buf = ByteBuffer.allocate(buf.position() + out.size).put((ByteBuffer) buf.flip());
+    }
+    return buf.put(out.bytes, 0, out.size);
+  }
+
+  /**
+   * Reads a JSON object written by {@link #putObject(JSONObject, ByteBuffer)}.
+   *
+   * @param buf
+   * @return the object
+   * @throws JSONException
+   */
+  public static JSONObject getObject(ByteBuffer buf) throws JSONException {
+    try {
+      if (buf.get() != MAP_INDICATOR) {
+        throw new JSONException("Not an object");
+      }
+      return readMap(buf);
+    } catch (RuntimeException e) {
+      throw new JSONException("Bad object: " + e);
+    }
+  }
+
+  /**
+   * Returns true if the message is the canonical bytes of a command
+   * rather than a canonical JSON string.
+   *
+   * @param message
+   * @return true or false
+   */
+  public static boolean isCanonicalMessage(String message) {
+    return message.length() > 1 && message.charAt(0) == MAGIC;
+  }
+
+  /**
+   * Returns the canonical bytes as a message string.
+   *
+   * @param bytes
+   * @param offset
+   * @param length
+   * @return the message
+   */
+  public static String toMessage(byte[] bytes, int offset, int length) {
+    return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns the bytes of a message that were signed.
+   *
+   * @param message either canonical bytes from {@link #toMessage} or a JSON string
+   * @param charset the charset JSON strings were signed in
+   * @return the bytes
+   */
+  public static byte[] getMessageBytes(String message, Charset charset) {
+    return message.getBytes(isCanonicalMessage(message)
+            ? StandardCharsets.ISO_8859_1 : charset);
+  }
+
+  private static void writeMap(JSONObject json, Output out, boolean leaveOutSignature) throws JSONException {
+    String[] keys = JSONObject.getNames(json);
+    if (keys == null) {
+      keys = new String[0];
+    }
+    Arrays.sort(keys);
+    int count = keys.length;
+    if (leaveOutSignature) {
+      for (String key : keys) {
+        if (isLeftOut(key)) {
+          count--;
+        }
+      }
+    }
+    out.put(MAP_INDICATOR);
+    out.putInt(count);
+    for (String key : keys) {
+      if (leaveOutSignature && isLeftOut(key)) {
+        continue;
+      }
+      out.putString(key);
+      writeValue(json.get(key), out);
+    }
+  }
+
+  private static boolean isLeftOut(String key) {
+    return GNSCommandProtocol.SIGNATURE.equals(key)
+            || GNSCommandProtocol.SIGNATUREFULLMESSAGE.equals(key);
+  }
+
+  private static void writeValue(Object value, Output out) throws JSONException {
+    if (value == null || JSONObject.NULL.equals(value)) {
+      out.put(NULL_INDICATOR);
+    } else if (value instanceof JSONObject) {
+      writeMap((JSONObject) value, out, false);
+    } else if (value instanceof Map) {
+      writeMap(new JSONObject((Map<?, ?>) value), out, false);
+    } else if (value instanceof JSONArray) {
+      writeArray((JSONArray) value, out);
+    } else if (value instanceof Collection) {
+      writeArray(new JSONArray((Collection<?>) value), out);
+    } else if (value instanceof Number) {
+      out.put(NUMBER_INDICATOR);
+      out.putString(JSONObject.numberToString((Number) value));
+    } else if (value instanceof Boolean) {
+      out.put(BOOLEAN_INDICATOR);
+      out.put((Boolean) value ? (byte) 1 : (byte) 0);
+    } else {
+      out.put(STRING_INDICATOR);
+      out.putString(value.toString());
+    }
+  }
+
+  private static void writeArray(JSONArray array, Output out) throws JSONException {
+    out.put(ARRAY_INDICATOR);
+    out.putInt(array.length());
+    for (int i = 0; i < array.length(); i++) {
+      writeValue(array.get(i), out);
+    }
+  }
+
+  private static Object readValue(ByteBuffer buf) throws JSONException {
+    byte indicator = buf.get();
+    switch (indicator) {
+      case STRING_INDICATOR:
+        return readString(buf);
+      case MAP_INDICATOR:
+        return readMap(buf);
+      case ARRAY_INDICATOR:
+        int length = buf.getInt();
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < length; i++) {
+          array.put(readValue(buf));
+        }
+        return array;
+      case NUMBER_INDICATOR:
+        return readNumber(readString(buf));
+      case BOOLEAN_INDICATOR:
+        return buf.get() == 1;
+      case NULL_INDICATOR:
+        return JSONObject.NULL;
+      default:
+        throw new JSONException("Unknown value type " + indicator);
+    }
+  }
+
+  private static JSONObject readMap(ByteBuffer buf) throws JSONException {
+    int count = buf.getInt();
+    JSONObject json = new JSONObject();
+    for (int i = 0; i < count; i++) {
+      String key = readString(buf);
+      json.put(key, readValue(buf));
+    }
+    return json;
+  }
+
+  private static String readString(ByteBuffer buf) {
+    int length = buf.getInt();
+    String string = new String(buf.array(), buf.arrayOffset() + buf.position(), length,
+            StandardCharsets.UTF_8);
+    buf.position(buf.position() + length);
+    return string;
+  }
+
+  // Same types the JSON parser would give us for the number.
+  private static Number readNumber(String string) throws JSONException {
+    try {
+      if (string.indexOf('.') < 0 && string.indexOf('e') < 0 && string.indexOf('E') < 0) {
+        long value = Long.parseLong(string);
+        if (value == (int) value) {
+          return (int) value;
+        }
+        return value;
+      }
+      return Double.valueOf(string);
+    } catch (NumberFormatException e) {
+      throw new JSONException("Bad number " + string);
+    }
+  }
+
+  // A ByteArrayOutputStream without the locking.
+  private static class Output {
+
+    private byte[] bytes;
+    private int size;
+
+    Output(int capacity) {
+      bytes = new byte[capacity];
+    }
+
+    private void ensure(int more) {
+      if (size + more > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+      }
+    }
+
+    void put(byte b) {
+      ensure(1);
+      bytes[size++] = b;
+    }
+
+    void putInt(int value) {
+      ensure(4);
+      bytes[size++] = (byte) (value >>> 24);
+      bytes[size++] = (byte) (value >>> 16);
+      bytes[size++] = (byte) (value >>> 8);
+      bytes[size++] = (byte) value;
+    }
+
+    void putString(String string) {
+      byte[] stringBytes = string.getBytes(StandardCharsets.UTF_8);
+      putInt(stringBytes.length);
+      ensure(stringBytes.length);
+      System.arraycopy(stringBytes, 0, bytes, size, stringBytes.length);
+      size += stringBytes.length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import edu.umass.cs.gnscommon.GNSCommandProtocol;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compares the ways a server can get the message the signature of a command
+ * was computed over, for commands of different sizes: rendering the canonical
+ * JSON string of the command, rendering its canonical bytes and using the
+ * canonical bytes it was received as.
+ * Prints the time and the bytes allocated per message.
+ *
+ * Typical incantation:
+
+ java -cp jars/GNS.jar edu.umass.cs.gnscommon.utils.CanonicalCommandBenchmark
+ *
+ * @author westy
+ */
+public class CanonicalCommandBenchmark {
+
+  private static final int[] COMMAND_SIZES = {1, 10, 100, 1000};
+  private static final int WARMUP = 20000;
+  private static final long MEASURE_NANOS = 2000000000L;
+
+  private enum Mode {
+    JSON, BYTES, RECEIVED
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   * @throws JSONException
+   */
+  public static void main(String[] args) throws JSONException {
+    System.out.println("size\tjson ns/op\tjson B/op\tbytes ns/op\tbytes B/op\treceived ns/op\treceived B/op");
+    for (int size : COMMAND_SIZES) {
+      JSONObject command = command(size);
+      byte[] received = CanonicalCommand.getCanonicalBytes(command);
+      StringBuilder line = new StringBuilder().append(size);
+      for (Mode mode : Mode.values()) {
+        long[] result = measure(command, received, mode);
+        line.append("\t").append(result[0]).append("\t").append(result[1]);
+      }
+      System.out.println(line);
+    }
+  }
+
+  // An update of a guid with some fields, signed like a client would.
+  private static JSONObject command(int size) throws JSONException {
+    JSONObject userJSON = new JSONObject();
+    for (int i = 0; i < size; i++) {
+      userJSON.put("field" + i, new JSONArray().put("value" + i).put(i));
+    }
+    JSONObject command = new JSONObject();
+    command.put(GNSCommandProtocol.COMMAND_INT, 210);
+    command.put(GNSCommandProtocol.GUID, "6A5D3B5C8F4E3C2A1B0D9E8F7A6B5C4D3E2F1A0B");
+    command.put(GNSCommandProtocol.WRITER, "6A5D3B5C8F4E3C2A1B0D9E8F7A6B5C4D3E2F1A0B");
+    command.put(GNSCommandProtocol.USER_JSON, userJSON);
+    command.put(GNSCommandProtocol.TIMESTAMP, "2016-12-01T12:00:00Z");
+    command.put(GNSCommandProtocol.NONCE, "-4281396018470386170");
+    command.put(GNSCommandProtocol.SIGNATURE_FORMAT, CanonicalCommand.VERSION);
+    command.put(GNSCommandProtocol.SIGNATURE, "5F3A");
+    return command;
+  }
+
+  // returns the nanoseconds and bytes allocated per message
+  private static long[] measure(JSONObject command, byte[] received, Mode mode)
+          throws JSONException {
+    for (int i = 0; i < WARMUP; i++) {
+      message(command, received, mode);
+    }
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    long messages = 0;
+    while (System.nanoTime() - start < MEASURE_NANOS) {
+      message(command, received, mode);
+      messages++;
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocatedBefore < 0 ? -1 : (allocatedBytes() - allocatedBefore) / messages;
+    return new long[]{elapsed / messages, allocated};
+  }
+
+  // the bytes handed to the signature code
+  private static byte[] message(JSONObject command, byte[] received, Mode mode)
+          throws JSONException {
+    switch (mode) {
+      case JSON:
+        Object signature = command.remove(GNSCommandProtocol.SIGNATURE);
+        String json = CanonicalJSON.getCanonicalForm(command);
+        command.put(GNSCommandProtocol.SIGNATURE, signature);
+        return json.getBytes(StandardCharsets.UTF_8);
+      case BYTES:
+        return CanonicalCommand.getCanonicalBytes(command);
+      default:
+        return CanonicalCommand.getMessageBytes(CanonicalCommand.toMessage(received, 0, received.length),
+                StandardCharsets.UTF_8);
+    }
+  }
+
+  // -1 when the JVM can't tell
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
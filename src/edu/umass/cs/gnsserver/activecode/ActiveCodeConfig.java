@@ -50,6 +50,15 @@ public class ActiveCodeConfig {
 	   * Enable debug message in active code package
 	   */
 	  public static boolean activeCodeEnableDebugging = false;
+	  /**
+	   * True if workers communicate through memory mapped ring buffers
+	   * instead of named pipes.
+	   */
+	  public static boolean activeCodeEnableSharedMemory = false;
+	  /**
+	   * The size in bytes of each of the ring buffers between a client and its worker.
+	   */
+	  public static int activeCodeChannelBufferSize = 1 << 20;
 	  
 	  
 	  private static final String ACTIVE_CODE_WORKER_COUNT = "ACTIVE_CODE_WORKER_COUNT";
@@ -62,6 +71,10 @@ public class ActiveCodeConfig {
 	  
 	  private static final String ACTIVE_CODE_ENABLE_DEBUGGING = "ACTIVE_CODE_ENABLE_DEBUGGING";
 	  
+	  private static final String ACTIVE_CODE_ENABLE_SHARED_MEMORY = "ACTIVE_CODE_ENABLE_SHARED_MEMORY";
+	  
+	  private static final String ACTIVE_CODE_CHANNEL_BUFFER_SIZE = "ACTIVE_CODE_CHANNEL_BUFFER_SIZE";
+	  
 	  
 	/**
 	 * @param allValues
@@ -86,6 +99,14 @@ public class ActiveCodeConfig {
 		    if (allValues.containsKey(ACTIVE_CODE_ENABLE_DEBUGGING)) {
 		    	activeCodeEnableDebugging = Boolean.parseBoolean(allValues.getProperty(ACTIVE_CODE_ENABLE_DEBUGGING));
 		    }
+		    
+		    if (allValues.containsKey(ACTIVE_CODE_ENABLE_SHARED_MEMORY)) {
+		    	activeCodeEnableSharedMemory = Boolean.parseBoolean(allValues.getProperty(ACTIVE_CODE_ENABLE_SHARED_MEMORY));
+		    }
+		    
+		    if (allValues.containsKey(ACTIVE_CODE_CHANNEL_BUFFER_SIZE)) {
+		    	activeCodeChannelBufferSize = Integer.parseInt(allValues.getProperty(ACTIVE_CODE_CHANNEL_BUFFER_SIZE));
+		    }
 	  }
 	 
 	/**
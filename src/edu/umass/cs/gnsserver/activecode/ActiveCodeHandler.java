@@ -22,18 +22,21 @@ package edu.umass.cs.gnsserver.activecode;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import edu.umass.cs.gigapaxos.interfaces.Callback;
 import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveException;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveHandler;
-import edu.umass.cs.gnsserver.gnsapp.GNSApp;
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.ActiveCallback;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+import edu.umass.cs.gnsserver.metrics.ServerMetrics;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 
 /**
@@ -99,14 +102,55 @@ public class ActiveCodeHandler {
 	 * @return executed result
 	 */
 	public static ValuesMap runCode(InternalRequestHeader header, String code, String guid, String field, String action, ValuesMap valuesMap, int activeCodeTTL) {
+		long startNanos = System.nanoTime();
 		try {
 			return handler.runCode(header, guid, field, code, valuesMap, activeCodeTTL);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			ServerMetrics.record(ServerMetrics.Phase.ACTIVE_CODE, startNanos);
 		}
 		return valuesMap;
 	}
 	
+	/**
+	 * @return the active code metrics as a JSON string, or an empty JSON object
+	 * if active code isn't enabled
+	 * @throws JSONException 
+	 */
+	public static String getMetrics() throws JSONException {
+		return handler != null ? handler.getMetrics().toJSON().toString() : new JSONObject().toString();
+	}
+	
+	/**
+	 * Runs the code without waiting for it. The callback is called with the 
+	 * result of the code or, if the code fails, with the original values.
+	 * 
+	 * @param header 
+	 * @param code
+	 * @param guid
+	 * @param field
+	 * @param action
+	 * @param valuesMap
+	 * @param activeCodeTTL
+	 * @param callback
+	 */
+	public static void runCodeAsync(InternalRequestHeader header, String code, String guid, String field, String action, 
+			final ValuesMap valuesMap, int activeCodeTTL, final Callback<ValuesMap, ValuesMap> callback) {
+		handler.runCodeAsync(header, guid, field, code, valuesMap, activeCodeTTL, new ActiveCallback(){
+			@Override
+			public void onResult(ValuesMap result) {
+				callback.processResponse(result);
+			}
+
+			@Override
+			public void onError(ActiveException e) {
+				logger.log(Level.FINE, "Active code error: {0}", e.getMessage());
+				callback.processResponse(valuesMap);
+			}
+		});
+	}
+	
 	/**
 	 * @return logger
 	 */
@@ -147,17 +191,4 @@ public class ActiveCodeHandler {
 		
 	}
 
-
-	/**
-	 * @param header
-	 * @param fields
-	 * @param guid
-	 * @param valuesMap
-	 * @param app
-	 * @return a values map
-	 */
-	public ValuesMap handleActiveCode(InternalRequestHeader header,
-			List<String> fields, String guid, ValuesMap valuesMap, GNSApp app) {
-		throw new RuntimeException("Unimplemented");
-	}
 }
@@ -0,0 +1,179 @@
+package edu.umass.cs.gnsserver.activecode.prototype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * This class counts what active code costs, per guid and per worker, so
+ * that the scripts that take up the most worker time can be found.
+ *
+ * <p>The clients record every request they send to their worker. The time
+ * charged to a request is the time from sending it until its response
+ * arrives, less the time the client spent answering the queries the code
+ * made. It includes the time the request waited in the worker's queue.
+ *
+ * <p>Only the guids that ran code most recently are kept.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveCodeMetrics {
+
+	private final static int MAX_GUIDS = 1000;
+	// how many guids are listed, most expensive first
+	private final static int TOP_GUIDS = 50;
+	// bucket i counts the requests that took less than 2^i microseconds
+	private final static int NUM_BUCKETS = 32;
+
+	private final LoadingCache<String, Stats> guids = CacheBuilder.newBuilder().concurrencyLevel(5)
+			.maximumSize(MAX_GUIDS).build(new CacheLoader<String, Stats>(){
+				@Override
+				public Stats load(String guid) {
+					return new Stats();
+				}
+			});
+	private final Stats[] workers;
+	private final Stats total = new Stats();
+	private final AtomicLongArray histogram = new AtomicLongArray(NUM_BUCKETS);
+
+	/**
+	 * @param numWorkers
+	 */
+	public ActiveCodeMetrics(int numWorkers){
+		workers = new Stats[numWorkers];
+		for (int i=0; i<numWorkers; i++){
+			workers[i] = new Stats();
+		}
+	}
+
+	/**
+	 * Records a request that has been answered by a worker.
+	 *
+	 * @param worker the id of the worker
+	 * @param guid
+	 * @param elapsed the time in nanoseconds the worker took, not counting queries
+	 * @param queries the number of queries the code made
+	 * @param error whether the worker returned an error
+	 * @param budgetExceeded whether the code ran out of its budget
+	 */
+	public void recordRequest(int worker, String guid, long elapsed, int queries,
+			boolean error, boolean budgetExceeded){
+		total.record(elapsed, queries, error, budgetExceeded);
+		getWorker(worker).record(elapsed, queries, error, budgetExceeded);
+		if(guid != null){
+			try {
+				guids.get(guid).record(elapsed, queries, error, budgetExceeded);
+			} catch (ExecutionException e) {
+				// never happens as the loader doesn't throw
+			}
+		}
+		long micros = TimeUnit.NANOSECONDS.toMicros(elapsed);
+		histogram.incrementAndGet(Math.min(NUM_BUCKETS-1, 64-Long.numberOfLeadingZeros(micros)));
+	}
+
+	/**
+	 * Records that a worker was restarted.
+	 *
+	 * @param worker the id of the worker
+	 */
+	public void recordRestart(int worker){
+		total.restarts.incrementAndGet();
+		getWorker(worker).restarts.incrementAndGet();
+	}
+
+	private Stats getWorker(int worker){
+		return workers[worker % workers.length];
+	}
+
+	/**
+	 * @return the totals, the counters of each worker and of the most
+	 * expensive guids, and a histogram of how long requests took
+	 * @throws JSONException
+	 */
+	public JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("total", total.toJSON());
+
+		JSONArray workerArray = new JSONArray();
+		for (int i=0; i<workers.length; i++){
+			workerArray.put(workers[i].toJSON().put("worker", i));
+		}
+		json.put("workers", workerArray);
+
+		List<Map.Entry<String, Stats>> entries =
+				new ArrayList<Map.Entry<String, Stats>>(guids.asMap().entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Stats>>(){
+			@Override
+			public int compare(Map.Entry<String, Stats> e1, Map.Entry<String, Stats> e2) {
+				return Long.compare(e2.getValue().nanos.get(), e1.getValue().nanos.get());
+			}
+		});
+		JSONArray guidArray = new JSONArray();
+		for (Map.Entry<String, Stats> entry : entries.subList(0, Math.min(TOP_GUIDS, entries.size()))){
+			guidArray.put(entry.getValue().toJSON().put("guid", entry.getKey()));
+		}
+		json.put("guids", guidArray);
+
+		JSONObject buckets = new JSONObject();
+		for (int i=0; i<NUM_BUCKETS; i++){
+			long count = histogram.get(i);
+			if(count > 0){
+				buckets.put("<"+(1L<<i)+"us", count);
+			}
+		}
+		json.put("histogram", buckets);
+		return json;
+	}
+
+	private static class Stats {
+		final AtomicLong invocations = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		final AtomicLong queries = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong budgetExceeded = new AtomicLong();
+		final AtomicLong restarts = new AtomicLong();
+
+		void record(long elapsed, int numQueries, boolean error, boolean exceeded){
+			invocations.incrementAndGet();
+			nanos.addAndGet(elapsed);
+			long max;
+			while((max = maxNanos.get()) < elapsed && !maxNanos.compareAndSet(max, elapsed))
+				;
+			queries.addAndGet(numQueries);
+			if(error)
+				errors.incrementAndGet();
+			if(exceeded)
+				budgetExceeded.incrementAndGet();
+		}
+
+		JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			long n = invocations.get();
+			json.put("invocations", n);
+			json.put("totalMs", TimeUnit.NANOSECONDS.toMillis(nanos.get()));
+			json.put("avgUs", n > 0 ? TimeUnit.NANOSECONDS.toMicros(nanos.get()/n) : 0);
+			json.put("maxUs", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+			json.put("queries", queries.get());
+			json.put("errors", errors.get());
+			json.put("budgetExceeded", budgetExceeded.get());
+			json.put("restarts", restarts.get());
+			return json;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package edu.umass.cs.gnsserver.activecode.prototype;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umass.cs.gnscommon.utils.ByteUtils;
+
+/**
+ * This class keeps the code a worker has been sent by its digest, so
+ * that a REQUEST only needs to carry the code the first time the worker
+ * sees it. A REQUEST whose code has been dropped from the registry
+ * is answered with a CODE_MISS message, and the client sends the
+ * REQUEST again with its code.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveCodeRegistry {
+
+	private final static String DIGEST_ALGORITHM = "SHA-256";
+
+	private final static ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>(){
+		@Override
+		protected MessageDigest initialValue(){
+			try {
+				return MessageDigest.getInstance(DIGEST_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private final Cache<String, String> codes;
+
+	/**
+	 * @param size the number of pieces of code to keep
+	 */
+	public ActiveCodeRegistry(int size){
+		codes = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(size).build();
+	}
+
+	/**
+	 * Returns the request with its code, registering the code
+	 * if the request carried it.
+	 *
+	 * @param request
+	 * @return the request with its code or null if the code isn't known
+	 */
+	public ActiveMessage resolve(ActiveMessage request){
+		String digest = request.getCodeDigest();
+		if(request.getCode() != null){
+			if(digest != null){
+				codes.put(digest, request.getCode());
+			}
+			return request;
+		}
+		String code = (digest != null)?codes.getIfPresent(digest):null;
+		return (code != null)?request.withCode(code):null;
+	}
+
+	/**
+	 * @param code
+	 * @return the hex encoded digest of the code
+	 */
+	public static String digest(String code){
+		try {
+			return ByteUtils.toHex(digests.get().digest(code.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
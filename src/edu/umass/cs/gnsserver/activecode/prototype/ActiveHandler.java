@@ -14,6 +14,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONException;
 
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.ActiveCallback;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Client;
 import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
@@ -32,6 +33,8 @@ public class ActiveHandler {
 	private final static String suffix = "_pipe";
 	private final static int clientPort = 50000;
 	private final static int workerPort = 60000;
+	// how long in milliseconds code may run
+	private final static long DEFAULT_BUDGET = 2000;
 	
 	/**
 	 * Test then initialize this variable
@@ -41,6 +44,8 @@ public class ActiveHandler {
 	private final int numProcess;
 	final AtomicInteger counter = new AtomicInteger();
 	
+	private final ActiveCodeMetrics metrics;
+	
 	
 	/**
 	 * Initialize handler with multi-process multi-threaded workers.
@@ -60,6 +65,7 @@ public class ActiveHandler {
 		}
 		
 		this.numProcess = numProcess;
+		this.metrics = new ActiveCodeMetrics(numProcess);
 		
 		// initialize single clients and workers
 		clientPool = new ActiveNonBlockingClient[numProcess];
@@ -69,6 +75,7 @@ public class ActiveHandler {
 			} else {
 				clientPool[i] = new ActiveNonBlockingClient(app, clientPort+i, workerPort+i, i, numThread);
 			}
+			((ActiveNonBlockingClient) clientPool[i]).setMetrics(metrics);
 			new Thread((ActiveNonBlockingClient) clientPool[i]).start();
 		}
 		
@@ -105,7 +112,31 @@ public class ActiveHandler {
 	 * @throws ActiveException 
 	 */
 	public ValuesMap runCode(InternalRequestHeader header, String guid, String field, String code, ValuesMap value, int ttl) throws ActiveException{
-		return clientPool[counter.getAndIncrement()%numProcess].runCode(header, guid, field, code, value, ttl, 2000);
+		return clientPool[counter.getAndIncrement()%numProcess].runCode(header, guid, field, code, value, ttl, DEFAULT_BUDGET);
+	}
+	
+	/**
+	 * @return the metrics of the code run by this handler's workers
+	 */
+	public ActiveCodeMetrics getMetrics(){
+		return metrics;
+	}
+	
+	/**
+	 * Runs the code without waiting for it, the callback is called 
+	 * when the worker has answered.
+	 * 
+	 * @param header 
+	 * @param guid
+	 * @param field
+	 * @param code
+	 * @param value
+	 * @param ttl
+	 * @param callback 
+	 */
+	public void runCodeAsync(InternalRequestHeader header, String guid, String field, String code, ValuesMap value, int ttl,
+			ActiveCallback callback){
+		clientPool[counter.getAndIncrement()%numProcess].runCodeAsync(header, guid, field, code, value, ttl, DEFAULT_BUDGET, callback);
 	}
 	
 	/***************** Test methods ****************/	
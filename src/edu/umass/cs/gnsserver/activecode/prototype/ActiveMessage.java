@@ -23,6 +23,11 @@ public class ActiveMessage implements Message{
 	private final static String CHARSET = "ISO-8859-1";
 	private final static AtomicLong counter = new AtomicLong();
 	
+	/**
+	 * The error a worker returns when code runs out of its budget
+	 */
+	public final static String BUDGET_EXCEEDED = "budget exceeded";
+	
 	/**
 	 * Message type
 	 */
@@ -33,6 +38,7 @@ public class ActiveMessage implements Message{
 	private String guid;
 	private String field;
 	private String code;
+	private String codeDigest;
 	private ValuesMap value;
 	private String targetGuid;
 	private String error;
@@ -66,7 +72,14 @@ public class ActiveMessage implements Message{
 		 * This message is used for worker to send a write query
 		 * to GNS to update a field.
 		 */
-		WRITE_QUERY(3);		
+		WRITE_QUERY(3),
+		
+		/**
+		 * This message is sent from worker to GNS if a REQUEST
+		 * only carried the digest of code that the worker doesn't have,
+		 * so the GNS needs to send the REQUEST again with the code.
+		 */
+		CODE_MISS(4);
 		
 		private final int type;
 		Type(int type){
@@ -95,6 +108,23 @@ public class ActiveMessage implements Message{
 	 * @param error 
 	 */
 	public ActiveMessage(Type type, long id, int ttl, long budget, String guid, String field, String code, ValuesMap value, String targetGuid, String error){
+		this(type, id, ttl, budget, guid, field, code, null, value, targetGuid, error);
+	}
+	
+	/**
+	 * @param type 
+	 * @param id 
+	 * @param guid
+	 * @param field
+	 * @param code
+	 * @param codeDigest 
+	 * @param ttl
+	 * @param budget 
+	 * @param value  
+	 * @param targetGuid 
+	 * @param error 
+	 */
+	public ActiveMessage(Type type, long id, int ttl, long budget, String guid, String field, String code, String codeDigest, ValuesMap value, String targetGuid, String error){
 		this.type = type;
 		this.id = id;
 		this.ttl = ttl;
@@ -102,6 +132,7 @@ public class ActiveMessage implements Message{
 		this.guid = guid;
 		this.field = field;
 		this.code = code;		
+		this.codeDigest = codeDigest;
 		this.value = value;
 		this.targetGuid = targetGuid;
 		this.error = error;
@@ -120,6 +151,21 @@ public class ActiveMessage implements Message{
 		this(Type.REQUEST, counter.getAndIncrement(), ttl, budget, guid, field, code, value, null, null);
 	}
 	
+	/**
+	 * This is a REQUEST message that identifies its code by a digest.
+	 * The code can be null if the worker already has it.
+	 * @param guid
+	 * @param field
+	 * @param code
+	 * @param codeDigest
+	 * @param value
+	 * @param ttl
+	 * @param budget 
+	 */
+	public ActiveMessage(String guid, String field, String code, String codeDigest, ValuesMap value, int ttl, long budget){
+		this(Type.REQUEST, counter.getAndIncrement(), ttl, budget, guid, field, code, codeDigest, value, null, null);
+	}
+	
 	/**
 	 * This is a READ_QUERY message
 	 * @param ttl
@@ -156,6 +202,23 @@ public class ActiveMessage implements Message{
 		this(Type.RESPONSE, id, 0, 0, null, null, null, value, null, error);
 	}
 	
+	/**
+	 * This is a CODE_MISS message
+	 * @param id
+	 * @return a message asking for the request with the id to be sent with its code
+	 */
+	public static ActiveMessage codeMiss(long id){
+		return new ActiveMessage(Type.CODE_MISS, id, 0, 0, null, null, null, null, null, null);
+	}
+	
+	/**
+	 * @param code
+	 * @return a copy of this REQUEST message with the code
+	 */
+	public ActiveMessage withCode(String code){
+		return new ActiveMessage(type, id, ttl, budget, guid, field, code, codeDigest, value, targetGuid, error);
+	}
+	
 	/**
 	 * @return the TTL left for the request
 	 */
@@ -185,11 +248,18 @@ public class ActiveMessage implements Message{
 	}
 	
 	/**
-	 * @return the code to be run
+	 * @return the code to be run, null if only its digest was sent
 	 */
 	public String getCode() {
 		return code;
 	}
+	
+	/**
+	 * @return the digest identifying the code, null if there is none
+	 */
+	public String getCodeDigest() {
+		return codeDigest;
+	}
 
 	/**
 	 * @return value
@@ -227,7 +297,12 @@ public class ActiveMessage implements Message{
 			+ 2*Long.BYTES // id, budget
 			+ guid.length() // guid
 			+ (field!=null?field.length():0) // field
-			+ code.length();
+			+ Integer.BYTES + (code!=null?code.length():0)
+			+ Integer.BYTES + (codeDigest!=null?codeDigest.length():0);
+			break;
+			
+		case CODE_MISS:
+			length = Integer.BYTES + Long.BYTES; // type, id
 			break;
 			
 		case RESPONSE:
@@ -273,7 +348,7 @@ public class ActiveMessage implements Message{
 		
 		byte[] buffer = new byte[this.getEstimatedLengthExceptForValuesMap()+( (valuesMapString==null)?0:valuesMapString.length() )];
 		ByteBuffer bbuf = ByteBuffer.wrap(buffer);
-		byte[] guidBytes,fieldBytes,codeBytes,valuesMapBytes,targetGuidBytes;
+		byte[] guidBytes,fieldBytes,codeBytes,codeDigestBytes,valuesMapBytes,targetGuidBytes;
 		
 		// put type and request id
 		bbuf.putInt(type.getType());
@@ -304,12 +379,23 @@ public class ActiveMessage implements Message{
 			bbuf.put(fieldBytes);
 			exactLength += (Integer.BYTES + fieldBytes.length);
 			
-			// put code, can be null
-			assert(code != null):"code can't be null for active request";
-			codeBytes = code.getBytes(CHARSET);
-			bbuf.putInt( codeBytes.length );
-			bbuf.put(codeBytes);
-			exactLength += (Integer.BYTES + codeBytes.length);
+			// put code, can be null if there is a digest, -1 tells null from empty code
+			assert(code != null || codeDigest != null):"code and digest can't both be null for active request";
+			if(code != null){
+				codeBytes = code.getBytes(CHARSET);
+				bbuf.putInt( codeBytes.length );
+				bbuf.put(codeBytes);
+				exactLength += (Integer.BYTES + codeBytes.length);
+			} else {
+				bbuf.putInt(-1);
+				exactLength += Integer.BYTES;
+			}
+			
+			// put code digest, can be null
+			codeDigestBytes = (codeDigest!=null)?codeDigest.getBytes(CHARSET):new byte[0];
+			bbuf.putInt(codeDigestBytes.length);
+			bbuf.put(codeDigestBytes);
+			exactLength += (Integer.BYTES + codeDigestBytes.length);
 			
 			// put valuesMapString, can be null
 			assert(valuesMapString != null):"valuesMapString can't be null for active request";
@@ -424,7 +510,7 @@ public class ActiveMessage implements Message{
 		this.type = Type.values()[bbuf.getInt()];	
 		this.id = bbuf.getLong();
 		int length = 0;
-		byte[] guidBytes,fieldBytes,codeBytes,targetGuidBytes,valueBytes,errorBytes;
+		byte[] guidBytes,fieldBytes,codeBytes,codeDigestBytes,targetGuidBytes,valueBytes,errorBytes;
 		
 		switch(type){
 		case REQUEST:
@@ -447,9 +533,19 @@ public class ActiveMessage implements Message{
 			
 			// get code
 			length = bbuf.getInt();
-			codeBytes = new byte[length];
-			bbuf.get(codeBytes);
-			code = new String(codeBytes, CHARSET);
+			if(length>=0){
+				codeBytes = new byte[length];
+				bbuf.get(codeBytes);
+				code = new String(codeBytes, CHARSET);
+			}
+			
+			// get code digest
+			length = bbuf.getInt();
+			if(length>0){
+				codeDigestBytes = new byte[length];
+				bbuf.get(codeDigestBytes);
+				codeDigest = new String(codeDigestBytes, CHARSET);
+			}
 						
 			// get valuesMap
 			length = bbuf.getInt();
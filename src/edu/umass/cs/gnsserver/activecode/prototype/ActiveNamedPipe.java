@@ -75,12 +75,12 @@ public class ActiveNamedPipe implements Channel {
 	@Override
 	public Message receiveMessage() throws IOException {
 		Message am = null;
-		int len = -1;			
-		len = reader.read(readerLengthBuffer, 0, readerLengthBuffer.length);
-		if(len>0){
+		if(readFully(readerLengthBuffer, readerLengthBuffer.length)){
 			int length = ByteBuffer.wrap(readerLengthBuffer).getInt();
 			byte[] buffer = new byte[length];
-			reader.read(buffer, 0, length);			
+			if(!readFully(buffer, length)){
+				return null;
+			}
 			try {
 				am = new ActiveMessage(buffer);
 			} catch (JSONException e) {
@@ -91,6 +91,22 @@ public class ActiveNamedPipe implements Channel {
 		return am;
 	}
 	
+	/**
+	 * A read from a pipe may return fewer bytes than asked for,
+	 * returns false if the pipe is closed before length bytes are read.
+	 */
+	private boolean readFully(byte[] buffer, int length) throws IOException {
+		int offset = 0;
+		while(offset < length){
+			int len = reader.read(buffer, offset, length-offset);
+			if(len < 0){
+				return false;
+			}
+			offset += len;
+		}
+		return true;
+	}
+	
 	@Override
 	public void shutdown() {
 		try{
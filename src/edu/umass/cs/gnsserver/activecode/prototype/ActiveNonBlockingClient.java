@@ -7,12 +7,22 @@ import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONException;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage.Type;
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.ActiveCallback;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Client;
 import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
@@ -24,9 +34,11 @@ import edu.umass.cs.utils.DelayProfiler;
  * This is a Client implementation with unix named pipe as the way
  * to communicate with workers.
  * 
- * This client send requests to its worker and register a local monitor
- * to block the sending thread. Until the receiving thread receives the 
- * response or a query, it wakes up the sending thread. This design relies
+ * This client sends requests to its worker and keeps each one until its
+ * response arrives. The receiving thread calls the request's callback 
+ * when the response arrives and hands the queries the code makes to a 
+ * small pool of threads, so no thread waits while a request is running. 
+ * The synchronous runCode just waits for its callback. This design relies
  * on the fact that if the writer end of a named pipe is closed, the
  * reader end will also be closed, and return a {@code null} value.
  * Therefore, if the worker is crashed, this client will know immediately.
@@ -45,14 +57,29 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	private final String ofile;
 	private final int workerNumThread;
 	
-	private ConcurrentHashMap<Long, Monitor> tasks = new ConcurrentHashMap<Long, Monitor>();
+	private ConcurrentHashMap<Long, PendingRequest> tasks = new ConcurrentHashMap<Long, PendingRequest>();
+	
+	// each worker thread waits for at most one query at a time
+	private final ExecutorService queryExecutor;
+	
+	/**
+	 * The digests of the code sent to the current worker. Code is sent
+	 * with the first request that uses it and after that requests only
+	 * carry its digest.
+	 */
+	private final ConcurrentMap<String, Boolean> workerCodes = CacheBuilder.newBuilder().concurrencyLevel(5)
+			.maximumSize(1000).<String, Boolean>build().asMap();
+	private final Cache<String, String> codeDigests = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(1000).build();
 	
 	private Process workerProc;
 	final private int id;
 	final private boolean pipeEnable;
+	private boolean sharedMemory;
 	
 	private final int heapSize;
 	
+	private ActiveCodeMetrics metrics;
+	
 	
 	private AtomicBoolean isRestarting = new AtomicBoolean();
 	
@@ -87,8 +114,10 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		this.ifile = ifile;
 		this.ofile = ofile;
 		this.pipeEnable = true;
+		this.sharedMemory = ActiveCodeConfig.activeCodeEnableSharedMemory;
 		this.workerNumThread = workerNumThread;
 		this.heapSize = heapSize;
+		this.queryExecutor = newQueryExecutor(workerNumThread);
 		
 		initializeChannelAndStartWorker();
 		
@@ -107,6 +136,18 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		this(app, ifile, ofile, id, workerNumThread, DEFAULT_HEAP_SIZE);
 	}
 	
+	private ExecutorService newQueryExecutor(int numThread){
+		return Executors.newFixedThreadPool(numThread, new ThreadFactory(){
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, ActiveNonBlockingClient.this+"Query"+count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
 	private void initializeChannelAndStartWorker(){
 		Runtime runtime = Runtime.getRuntime();
 		try {
@@ -120,6 +161,22 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		if(sharedMemory){
+			try {
+				channel = new ActiveSharedMemoryChannel(ifile, ofile, ActiveCodeConfig.activeCodeChannelBufferSize);
+				return;
+			} catch (IOException e) {
+				// fall back to a worker that only uses the named pipes
+				e.printStackTrace();
+				sharedMemory = false;
+				workerProc.destroyForcibly();
+				try {
+					workerProc = startWorker(ofile, ifile, id);
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+			}
+		}
 		channel = new ActiveNamedPipe(ifile, ofile);				
 	}
 	
@@ -133,11 +190,13 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	 */
 	public ActiveNonBlockingClient(ActiveDBInterface app, int port, int serverPort, int id, int workerNumThread){
 		this.pipeEnable = false;
+		this.sharedMemory = false;
 		this.id = id;
 		this.workerNumThread = workerNumThread;
 		this.ifile = null;
 		this.ofile = null;
 		this.heapSize = DEFAULT_HEAP_SIZE;
+		this.queryExecutor = newQueryExecutor(workerNumThread);
 		
 		try {
 			// reverse the order of port and serverPort, so that worker 
@@ -177,18 +236,19 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 			ActiveMessage response;
 			try {
 				if( (response = (ActiveMessage) channel.receiveMessage()) != null){					
-					long id = response.getId();
-					Monitor monitor = tasks.get(id);
-					assert(monitor != null):"the corresponding monitor is null!";
-					monitor.setResult(response, response.type == Type.RESPONSE);
+					handleMessage(response);
 				} else {
 					if(!isRestarting.getAndSet(true)){
 						// restart the worker
 						this.shutdown();
+						workerCodes.clear();
+						if(metrics != null){
+							metrics.recordRestart(id);
+						}
 						this.initializeChannelAndStartWorker();
-						// resend all the requests that failed
-						for(Monitor monitor:this.tasks.values()){
-							monitor.setResult(null, false);
+						// resend all the requests that failed, it would work even for the queries
+						for(PendingRequest pending:this.tasks.values()){
+							sendMessage(pending.msg);
 						}
 						isRestarting.set(false);
 					}
@@ -199,6 +259,55 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		}
 	}
 	
+	private void handleMessage(final ActiveMessage response){
+		final PendingRequest pending = tasks.get(response.getId());
+		if(pending == null){
+			// it has already been answered
+			return;
+		}
+		if (response.type == Type.RESPONSE){
+			if(tasks.remove(response.getId()) != null){
+				complete(pending, response);
+			}
+		} else if (response.type == Type.CODE_MISS){
+			// the worker doesn't have the code, send it this time
+			pending.msg = pending.msg.withCode(pending.code);
+			workerCodes.put(pending.msg.getCodeDigest(), true);
+			// not from this thread, the worker may be waiting for it to read
+			queryExecutor.execute(new Runnable(){
+				@Override
+				public void run() {
+					sendMessage(pending.msg);
+				}
+			});
+		} else {
+			queryExecutor.execute(new Runnable(){
+				@Override
+				public void run() {
+					long queryStart = System.nanoTime();
+					ActiveMessage result = queryHandler.handleQuery(response, pending.header);
+					sendMessage(result);
+					pending.queryDone(System.nanoTime() - queryStart);
+				}
+			});
+		}
+	}
+	
+	private void complete(PendingRequest pending, ActiveMessage response){
+		long elapsed = System.nanoTime() - pending.start;
+		DelayProfiler.updateDelayNano("activeGetResult", pending.start);
+		if(metrics != null){
+			metrics.recordRequest(id, pending.msg.getGuid(), elapsed - pending.getQueryNanos(), pending.getQueries(), 
+					response.getError() != null, ActiveMessage.BUDGET_EXCEEDED.equals(response.getError()));
+		}
+		if(response.getError() != null){
+			pending.callback.onError(new ActiveException());
+			return;
+		}
+		counter.getAndIncrement();
+		pending.callback.onResult(response.getValue());
+	}
+	
 	/**
 	 * Destroy the worker process if it's still running,
 	 * delete the 
@@ -210,11 +319,18 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 			//FIXME: forcibly kill the worker
 			workerProc.destroyForcibly();						
 		}
+		if(!isRestarting.get()){
+			queryExecutor.shutdown();
+		}
 		
 		if(pipeEnable){
 			(new File(ifile)).delete();
 			(new File(ofile)).delete();
 		}
+		if(sharedMemory){
+			(new File(ifile+ActiveSharedMemoryChannel.RING_SUFFIX)).delete();
+			(new File(ofile+ActiveSharedMemoryChannel.RING_SUFFIX)).delete();
+		}
 		
 		channel.shutdown();
 	}
@@ -242,6 +358,8 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	    command.add(""+id);
 	    command.add(""+workerNumThread);
 	    command.add(Boolean.toString(pipeEnable));
+	    command.add(Boolean.toString(sharedMemory));
+	    command.add(""+ActiveCodeConfig.activeCodeChannelBufferSize);
 	    
 	    ProcessBuilder builder = new ProcessBuilder(command);
 		builder.directory(new File(System.getProperty("user.dir")));
@@ -342,87 +460,107 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	@Override
 	public ValuesMap runCode(InternalRequestHeader header, String guid, String field, 
 			String code, ValuesMap valuesMap, int ttl, long budget) throws ActiveException {
-		
+		BlockingCallback callback = new BlockingCallback();
+		runCodeAsync(header, guid, field, code, valuesMap, ttl, budget, callback);
+		return callback.get();
+	}
+	
+	@Override
+	public void runCodeAsync(InternalRequestHeader header, String guid, String field, 
+			String code, ValuesMap valuesMap, int ttl, long budget, ActiveCallback callback) {
 		long t1 = System.nanoTime();
-		ActiveMessage msg = new ActiveMessage(guid, field, code, valuesMap, ttl, budget);
-		Monitor monitor = new Monitor();
-		tasks.put(msg.getId(), monitor);
-		
-		long t2 = 0;
-		ActiveMessage response = null;
-		synchronized(monitor){
-			while( !monitor.getDone() ){				
-				try {
-					if(!monitor.getWait()){
-						sendMessage(msg);
-						DelayProfiler.updateDelayNano("activeSendMessage", t1);
-						monitor.setWait();
-					}					
-					monitor.wait();
-				} catch (InterruptedException e) {
-					// this thread is interrupted, do nothing
-				}				
-				t2 = System.nanoTime();
-				response = monitor.getResult();	
-				
-				if(response == null){
-					/**
-					 *  The worker is crashed, resend the request.
-					 *  It would work even for the query.
-					 */
-					sendMessage(msg);
-				} else if (response.type != Type.RESPONSE){
-					ActiveMessage result = queryHandler.handleQuery(response, header);
-					sendMessage(result);
-				}
-			}		
-		}
-		response = monitor.getResult();
-		
-		if(response.getError() != null){
-			throw new ActiveException();
+		String codeDigest = getCodeDigest(code);
+		boolean shipCode = workerCodes.putIfAbsent(codeDigest, true) == null;
+		ActiveMessage msg = new ActiveMessage(guid, field, shipCode ? code : null, codeDigest, valuesMap, ttl, budget);
+		tasks.put(msg.getId(), new PendingRequest(msg, code, header, callback, t1));
+		sendMessage(msg);
+		DelayProfiler.updateDelayNano("activeSendMessage", t1);
+	}
+	
+	/**
+	 * @param metrics where to record the requests run by this client's worker
+	 */
+	public void setMetrics(ActiveCodeMetrics metrics){
+		this.metrics = metrics;
+	}
+	
+	private String getCodeDigest(String code){
+		String digest = codeDigests.getIfPresent(code);
+		if(digest == null){
+			digest = ActiveCodeRegistry.digest(code);
+			codeDigests.put(code, digest);
 		}
-		counter.getAndIncrement();
-		tasks.remove(response.getId());		
-		DelayProfiler.updateDelayNano("activeGetResult", t2);
-		
-		return response.getValue();
+		return digest;
 	}
 	
 	public String toString(){
 		return this.getClass().getSimpleName()+id;
 	}
 	
-	private static class Monitor {
-		boolean isDone;
-		ActiveMessage response;
-		boolean waited;
+	private static class PendingRequest {
+		// replaced with the code if the worker doesn't have it
+		volatile ActiveMessage msg;
+		final String code;
+		final InternalRequestHeader header;
+		final ActiveCallback callback;
+		final long start;
+		// the code waits for each query before making the next one
+		private final AtomicInteger queries = new AtomicInteger();
+		private final AtomicLong queryNanos = new AtomicLong();
 		
-		Monitor(){
-			this.isDone = false;
-			this.waited = false;
+		PendingRequest(ActiveMessage msg, String code, InternalRequestHeader header, ActiveCallback callback, long start){
+			this.msg = msg;
+			this.code = code;
+			this.header = header;
+			this.callback = callback;
+			this.start = start;
 		}
 		
-		boolean getDone(){
-			return isDone;
+		void queryDone(long elapsed){
+			queries.incrementAndGet();
+			queryNanos.addAndGet(elapsed);
 		}
 		
-		synchronized void setResult(ActiveMessage response, boolean isDone){
-			this.response = response;
-			this.isDone = isDone;
-			notifyAll();
+		int getQueries(){
+			return queries.get();
 		}
 		
-		ActiveMessage getResult(){
-			return response;
+		long getQueryNanos(){
+			return queryNanos.get();
+		}
+	}
+	
+	private static class BlockingCallback implements ActiveCallback {
+		private boolean isDone;
+		private ValuesMap result;
+		private ActiveException error;
+		
+		@Override
+		public synchronized void onResult(ValuesMap result) {
+			this.result = result;
+			this.isDone = true;
+			notifyAll();
 		}
 		
-		void setWait(){
-			waited = true;
+		@Override
+		public synchronized void onError(ActiveException e) {
+			this.error = e;
+			this.isDone = true;
+			notifyAll();
 		}
 		
-		boolean getWait(){
-			return waited;
+		synchronized ValuesMap get() throws ActiveException {
+			while(!isDone){
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// this thread is interrupted, do nothing
+				}
+			}
+			if(error != null){
+				throw error;
+			}
+			return result;
 		}
 	}
 	
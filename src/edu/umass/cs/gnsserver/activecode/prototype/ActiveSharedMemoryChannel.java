@@ -0,0 +1,338 @@
+package edu.umass.cs.gnsserver.activecode.prototype;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Message;
+
+/**
+ * This is a Channel implementation that passes messages through
+ * a pair of memory mapped ring buffers, one for each direction.
+ * Each ring has exactly one writing process and one reading process,
+ * so the read and write positions in its header are all that is needed
+ * to hand bytes across. Messages are framed by a length and may wrap
+ * around the end of the ring or be larger than the ring, in which case
+ * they are passed through in pieces.
+ *
+ * <p>The named pipes used by {@link ActiveNamedPipe} are still opened
+ * but only to wake up a reader that has run out of bytes: the reader
+ * spins for a while, then sets a flag in the header and blocks on its
+ * pipe until the writer sees the flag and writes a byte to it. As with
+ * {@link ActiveNamedPipe}, if the other process dies the pipe is closed
+ * and {@link #receiveMessage()} returns {@code null}.
+ *
+ * <p>Threads in the same process that send messages are serialized
+ * by {@link #sendMessage(Message)}. Only one thread may receive messages.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveSharedMemoryChannel implements Channel {
+
+	/**
+	 * The suffix added to a pipe's file name to name the ring
+	 * buffer file written in the same direction.
+	 */
+	public final static String RING_SUFFIX = ".ring";
+
+	// header layout, the positions are on their own cache lines
+	private final static int WRITE_POSITION = 0;
+	private final static int READ_POSITION = 64;
+	private final static int READER_WAITING = 128;
+	private final static int DATA_OFFSET = 192;
+
+	// how many times the reader checks for bytes before it blocks on the pipe
+	private final static int SPIN_TRIES = 10000;
+	// how long the writer parks while the ring is full
+	private final static long FULL_PARK_NANOS = 50000;
+
+	// volatile and compare and set access to the header of the mapped file
+	private final static VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private final static VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private Ring in;
+	private Ring out;
+	private InputStream wakeupReader;
+	private OutputStream wakeupWriter;
+
+	private final byte[] lengthBytes = new byte[Integer.BYTES];
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates the ring this side writes to, then opens the pipes and
+	 * maps the ring the other side writes to. Both sides have to
+	 * construct their channel for either constructor to return.
+	 *
+	 * @param ifile the pipe the other side writes to
+	 * @param ofile the pipe this side writes to
+	 * @param capacity the number of bytes in the ring this side writes to, rounded up to a power of 2
+	 * @throws IOException
+	 */
+	public ActiveSharedMemoryChannel(String ifile, String ofile, int capacity) throws IOException{
+		int size = Integer.highestOneBit(Math.max(capacity, 1024) - 1) << 1;
+		File outFile = new File(ofile+RING_SUFFIX);
+		outFile.delete();
+		out = new Ring(outFile, DATA_OFFSET+size);
+
+		try {
+			Thread t = new Thread(new Runnable() {
+		         public void run()
+		         {
+		        	try {
+		        		wakeupReader = new FileInputStream(new File(ifile));
+					} catch (FileNotFoundException e) {
+						e.printStackTrace();
+					}
+		         }
+			});
+			t.start();
+			wakeupWriter = new FileOutputStream(new File(ofile));
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if(wakeupReader == null){
+				throw new IOException("Unable to open "+ifile);
+			}
+
+			// the other side created its ring before opening the pipes
+			File inFile = new File(ifile+RING_SUFFIX);
+			in = new Ring(inFile, (int) inFile.length());
+		} catch (IOException | RuntimeException e) {
+			// the caller never gets the channel to shut it down
+			shutdown();
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized void sendMessage(Message msg) throws IOException {
+		byte[] buf = msg.toBytes();
+		ByteBuffer.wrap(lengthBytes).putInt(0, buf.length);
+		write(lengthBytes, 0, lengthBytes.length);
+		write(buf, 0, buf.length);
+	}
+
+	@Override
+	public Message receiveMessage() throws IOException {
+		byte[] length = new byte[Integer.BYTES];
+		if(!read(length, 0, length.length)){
+			return null;
+		}
+		int size = ByteBuffer.wrap(length).getInt();
+		try {
+			ByteBuffer contiguous = in.contiguous(size);
+			if(contiguous != null){
+				// parse it where it is and only then let the writer reuse the space
+				ActiveMessage am = new ActiveMessage(contiguous);
+				in.advanceRead(size);
+				return am;
+			}
+			byte[] buffer = new byte[size];
+			if(!read(buffer, 0, size)){
+				return null;
+			}
+			return new ActiveMessage(buffer);
+		} catch (JSONException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private void write(byte[] src, int offset, int length) throws IOException {
+		while(length > 0){
+			int n = out.put(src, offset, length);
+			if(n == 0){
+				if(closed){
+					throw new IOException("Channel is closed");
+				}
+				LockSupport.parkNanos(FULL_PARK_NANOS);
+				continue;
+			}
+			offset += n;
+			length -= n;
+			// the reader may be blocked waiting for these bytes
+			if(out.clearReaderWaiting()){
+				wakeupWriter.write(0);
+				wakeupWriter.flush();
+			}
+		}
+	}
+
+	/**
+	 * Reads exactly length bytes, returns false if the other side has gone away.
+	 */
+	private boolean read(byte[] dst, int offset, int length) throws IOException {
+		while(length > 0){
+			int n = in.get(dst, offset, length);
+			if(n == 0){
+				if(!awaitBytes()){
+					return false;
+				}
+				continue;
+			}
+			offset += n;
+			length -= n;
+		}
+		return true;
+	}
+
+	private boolean awaitBytes() throws IOException {
+		for(int i=0; i<SPIN_TRIES; i++){
+			if(in.available() > 0){
+				return true;
+			}
+		}
+		// the flag and the write position are both volatile, so either we see
+		// the writer's bytes here or the writer sees the flag after writing them
+		in.setReaderWaiting();
+		if(in.available() > 0){
+			// if the writer cleared the flag first it also wrote a byte that will be read next time
+			in.clearReaderWaiting();
+			return true;
+		}
+		return !closed && wakeupReader.read() != -1;
+	}
+
+	@Override
+	public void shutdown() {
+		closed = true;
+		// each one is closed even if closing another fails
+		close(wakeupReader);
+		close(wakeupWriter);
+		close(in);
+		close(out);
+	}
+	
+	private static void close(Closeable closeable) {
+		if(closeable == null)
+			return;
+		try{
+			closeable.close();
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * One direction of the channel. The positions count all the bytes
+	 * ever written or read, their remainders modulo the capacity are
+	 * the offsets into the data.
+	 */
+	private static class Ring implements Closeable {
+		private final RandomAccessFile file;
+		private final ByteBuffer buffer;
+		private final ByteBuffer data;
+		private final int capacity;
+		private final int mask;
+
+		// the position of the side of the ring this process is on
+		private long writePosition;
+		private long readPosition;
+
+		Ring(File f, int fileLength) throws IOException {
+			capacity = fileLength - DATA_OFFSET;
+			if(capacity <= 0 || Integer.bitCount(capacity) != 1){
+				throw new IOException("Bad ring buffer "+f+" of length "+fileLength);
+			}
+			mask = capacity - 1;
+			file = new RandomAccessFile(f, "rw");
+			file.setLength(fileLength);
+			buffer = file.getChannel().map(MapMode.READ_WRITE, 0, fileLength);
+			buffer.position(DATA_OFFSET);
+			data = buffer.slice();
+			writePosition = (long) LONGS.getVolatile(buffer, WRITE_POSITION);
+			readPosition = (long) LONGS.getVolatile(buffer, READ_POSITION);
+		}
+
+		int available() {
+			return (int) ((long) LONGS.getVolatile(buffer, WRITE_POSITION) - readPosition);
+		}
+
+		/**
+		 * Copies as many of the bytes as there is room for, returns the number copied.
+		 */
+		int put(byte[] src, int offset, int length) {
+			long free = capacity - (writePosition - (long) LONGS.getVolatile(buffer, READ_POSITION));
+			int index = (int) (writePosition & mask);
+			int n = (int) Math.min(Math.min(length, free), capacity - index);
+			if(n > 0){
+				ByteBuffer dup = data.duplicate();
+				dup.position(index);
+				dup.put(src, offset, n);
+				writePosition += n;
+				// publishes the bytes copied above. A volatile rather than a release
+				// store, so that the check of the reader waiting flag that follows
+				// can't see the flag from before the reader last read the position.
+				LONGS.setVolatile(buffer, WRITE_POSITION, writePosition);
+			}
+			return n;
+		}
+
+		/**
+		 * Copies as many bytes as are available, returns the number copied.
+		 */
+		int get(byte[] dst, int offset, int length) {
+			int index = (int) (readPosition & mask);
+			int n = Math.min(Math.min(length, available()), capacity - index);
+			if(n > 0){
+				ByteBuffer dup = data.duplicate();
+				dup.position(index);
+				dup.get(dst, offset, n);
+				advanceRead(n);
+			}
+			return n;
+		}
+
+		/**
+		 * Returns the next length bytes without copying them if they have all
+		 * been written and don't wrap around the end of the ring.
+		 */
+		ByteBuffer contiguous(int length) {
+			int index = (int) (readPosition & mask);
+			if(length > available() || index + length > capacity){
+				return null;
+			}
+			ByteBuffer dup = data.duplicate();
+			dup.position(index);
+			dup.limit(index + length);
+			return dup.slice();
+		}
+
+		void advanceRead(int length) {
+			readPosition += length;
+			LONGS.setRelease(buffer, READ_POSITION, readPosition);
+		}
+
+		void setReaderWaiting() {
+			INTS.setVolatile(buffer, READER_WAITING, 1);
+		}
+
+		boolean clearReaderWaiting() {
+			return (int) INTS.getVolatile(buffer, READER_WAITING) == 1
+					&& INTS.compareAndSet(buffer, READER_WAITING, 1, 0);
+		}
+
+		@Override
+		public void close() throws IOException {
+			file.close();
+		}
+	}
+}
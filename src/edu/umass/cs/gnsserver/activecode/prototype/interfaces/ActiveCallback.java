@@ -0,0 +1,26 @@
+package edu.umass.cs.gnsserver.activecode.prototype.interfaces;
+
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveException;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+
+/**
+ * This callback is called once when a request sent with 
+ * {@link Client#runCodeAsync} has been answered by a worker.
+ * It is called on the thread that receives responses from the worker, 
+ * so it should return quickly.
+ * 
+ * @author gaozy
+ *
+ */
+public interface ActiveCallback {
+	
+	/**
+	 * @param result the value returned by the active code
+	 */
+	public void onResult(ValuesMap result);
+	
+	/**
+	 * @param e the reason the request failed
+	 */
+	public void onError(ActiveException e);
+}
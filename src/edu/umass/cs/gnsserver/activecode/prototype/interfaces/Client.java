@@ -34,6 +34,23 @@ public interface Client {
 	public ValuesMap runCode(InternalRequestHeader header, String guid, String field, String code, ValuesMap valuesMap, int ttl, long budget) throws ActiveException;
 	
 	
+	/**
+	 * Sends the request to a worker and returns without waiting for it.
+	 * The queries the code makes are handled by the client and the callback 
+	 * is called once the worker has answered, so no thread is held while 
+	 * the code runs.
+	 * 
+	 * @param header 
+	 * @param guid
+	 * @param field
+	 * @param code
+	 * @param valuesMap
+	 * @param ttl
+	 * @param budget 
+	 * @param callback 
+	 */
+	public void runCodeAsync(InternalRequestHeader header, String guid, String field, String code, ValuesMap valuesMap, int ttl, long budget, ActiveCallback callback);
+	
 	/**
 	 * Shutdown this client when system stopped.
 	 */
@@ -17,43 +17,60 @@ import edu.umass.cs.gnsserver.utils.ValuesMap;
  *
  */
 public class ActiveQuerier implements Querier {
-	private Channel channel;
+	private final Channel channel;
+	private final String currentGuid;
+	private final long currentID;
 	private int currentTTL;
-	private String currentGuid;
-	private long currentID;
+	// when the budget of the request runs out
+	private final long deadline;
 	
-	private Monitor monitor;
+	private final Monitor monitor;
 	
 	/**
+	 * Each request gets its own querier so that requests running at the 
+	 * same time don't share their ttl or their responses.
+	 * 
 	 * @param channel
 	 * @param ttl 
 	 * @param guid 
+	 * @param id the id of the request
+	 * @param budget the budget of the request in milliseconds, queries
+	 * don't wait past it. 0 means no limit.
 	 */
-	public ActiveQuerier(Channel channel, int ttl, String guid){
+	public ActiveQuerier(Channel channel, int ttl, String guid, long id, long budget){
 		this.channel = channel;
 		this.currentTTL = ttl;
 		this.currentGuid = guid;
+		this.currentID = id;
+		this.deadline = budget > 0 ? System.currentTimeMillis() + budget : Long.MAX_VALUE;
 		
 		monitor = new Monitor();
 	}
 	
+	/**
+	 * @param channel
+	 * @param ttl 
+	 * @param guid 
+	 * @param id the id of the request
+	 */
+	public ActiveQuerier(Channel channel, int ttl, String guid, long id){
+		this(channel, ttl, guid, id, 0);
+	}
 	
 	/**
 	 * @param channel
+	 * @param ttl 
+	 * @param guid 
 	 */
-	public ActiveQuerier(Channel channel){
-		this(channel, 0, null);
+	public ActiveQuerier(Channel channel, int ttl, String guid){
+		this(channel, ttl, guid, 0);
 	}
 	
 	/**
-	 * @param guid
-	 * @param ttl
-   * @param id
+	 * @param channel
 	 */
-	protected void resetQuerier(String guid, int ttl, long id){
-		this.currentGuid = guid;
-		this.currentTTL = ttl;
-		this.currentID = id;
+	public ActiveQuerier(Channel channel){
+		this(channel, 0, null);
 	}
 	
 	/**
@@ -90,63 +107,50 @@ public class ActiveQuerier implements Querier {
 	
 	private ValuesMap readValueFromField(String querierGuid, String queriedGuid, String field, int ttl)
 			throws ActiveException {
-		ValuesMap value = null;
-		try{
-			ActiveMessage am = new ActiveMessage(ttl, querierGuid, field, queriedGuid, currentID);
-			synchronized(monitor){
-				while(!monitor.getDone()){				
-					try {
-						channel.sendMessage(am);
-						monitor.wait();
-					} catch (InterruptedException e) {
-						//e.printStackTrace();
-					}
-				}
-			}
-						
-			ActiveMessage response = monitor.getResult();
-			if(response == null){
-				throw new ActiveException();
-			}
-			
-			if (response.getError() != null){
-				throw new ActiveException();
-			}
-			value = response.getValue();
-		} catch(IOException e) {
-			throw new ActiveException();
-		}
-		return value;
+		ActiveMessage response = query(new ActiveMessage(ttl, querierGuid, field, queriedGuid, currentID));
+		return response.getValue();
 	}
 
 	private void writeValueIntoField(String querierGuid, String queriedGuid, String field, ValuesMap value, int ttl)
 			throws ActiveException {
-		
-			ActiveMessage am = new ActiveMessage(ttl, querierGuid, field, queriedGuid, value, currentID);
-			try {
-				
+		query(new ActiveMessage(ttl, querierGuid, field, queriedGuid, value, currentID));
+	}
+	
+	/**
+	 * Sends the query and waits for its response, the monitor is held 
+	 * while sending so the response can't be released before we wait. 
+	 * Once the request is cancelled or its budget is used up no more 
+	 * queries are sent.
+	 */
+	private ActiveMessage query(ActiveMessage am) throws ActiveException {
+		ActiveMessage response = null;
+		try {
+			synchronized(monitor){
+				if(monitor.isCancelled())
+					throw new ActiveException(); //"Request cancelled"
+				monitor.reset();
+				channel.sendMessage(am);
 				while(!monitor.getDone()){
-					synchronized(monitor){
-						try {
-							channel.sendMessage(am);
-							monitor.wait();
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
+					long remaining = deadline - System.currentTimeMillis();
+					if(monitor.isCancelled() || remaining <= 0)
+						throw new ActiveException(); //"Out of budget"
+					try {
+						monitor.wait(remaining);
+					} catch (InterruptedException e) {
+						// the request is cancelled
+						monitor.cancel();
+						Thread.currentThread().interrupt();
 					}
 				}
-				
-				ActiveMessage response = monitor.getResult();
-				
-				if(response == null){
-					throw new ActiveException();
-				}
-				if (response.getError() != null){
-					throw new ActiveException();
-				}
-			} catch (IOException e) {
-				throw new ActiveException();
+				response = monitor.getResult();
 			}
+		} catch (IOException e) {
+			throw new ActiveException();
+		}
+		if(response == null || response.getError() != null){
+			throw new ActiveException();
+		}
+		return response;
 	}
 	
   /**
@@ -158,20 +162,35 @@ public class ActiveQuerier implements Querier {
 		monitor.setResult(response, isDone);
 	}
 	
+	/**
+	 * Cancels the request, the query waiting and any query sent after 
+	 * it throw an {@link ActiveException}.
+	 */
+	protected void cancel(){
+		monitor.cancel();
+	}
+	
 	private static class Monitor {
 		boolean isDone;
+		// not cleared by reset so a cancelled request can't query again
+		boolean cancelled;
 		ActiveMessage response;
 		
 		Monitor(){
 			this.isDone = false;
 		}
 		
+		void reset(){
+			this.isDone = false;
+			this.response = null;
+		}
+		
 		boolean getDone(){
 			return isDone;
 		}
 		
 		synchronized void setResult(ActiveMessage response, boolean isDone){
-			assert(response.type == Type.RESPONSE):"This is not a response!";
+			assert(response == null || response.type == Type.RESPONSE):"This is not a response!";
 			this.response = response;
 			this.isDone = isDone;	
 			notifyAll();
@@ -180,20 +199,28 @@ public class ActiveQuerier implements Querier {
 		ActiveMessage getResult(){
 			return response;
 		}
+		
+		synchronized void cancel(){
+			this.cancelled = true;
+			notifyAll();
+		}
+		
+		synchronized boolean isCancelled(){
+			return cancelled;
+		}
 	}
 	
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args){
-		ActiveQuerier querier = new ActiveQuerier(null);
 		int ttl = 1;
 		String guid = "Zhaoyu Gao";			
 		
 		int n = 1000000;		
 		long t1 = System.currentTimeMillis();		
 		for(int i=0; i<n; i++){
-			querier.resetQuerier(guid, ttl, 0);
+			new ActiveQuerier(null, ttl, guid, i);
 		}		
 		long elapsed = System.currentTimeMillis() - t1;
 		System.out.println("It takes "+elapsed+"ms, and the average latency for each operation is "+(elapsed*1000.0/n)+"us");
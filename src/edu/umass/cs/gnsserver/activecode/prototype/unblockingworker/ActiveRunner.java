@@ -4,15 +4,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import javax.script.Invocable;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -21,48 +23,113 @@ import javax.script.SimpleScriptContext;
 
 import org.json.JSONException;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import jdk.nashorn.api.scripting.JSObject;
+
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveCodeRegistry;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Querier;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 
 /**
+ * This class runs the active code of any number of guids on one
+ * script engine from many threads at once.
+ * 
+ * <p>Each piece of code is compiled once and the compiled script is
+ * shared by all the guids that run it. Each call takes a script
+ * context of its guid, with its own global scope, that no other call
+ * is using. The compiled script is evaluated into the context when 
+ * it is first used or its guid's code changes, and the run function 
+ * is then called in that context. So the code of one guid can't see 
+ * the globals of another, and no call ever waits for another, not even
+ * a call for the same guid made through the querier of a call that is
+ * still running. A guid gets a new context only when all of its contexts
+ * are in use, so its calls usually share the globals of one context,
+ * but the code must not rely on that.
+ * 
+ * <p>The contexts and compiled scripts of the guids that ran least
+ * recently are dropped once there are too many of them.
+ * 
  * @author gaozy
  *
  */
 public class ActiveRunner {
 	
-	private ScriptEngine engine;
-	private Invocable invocable;
+	private final static String RUN_FUNCTION = "run";
+	
+	/**
+	 * The default number of guids to keep contexts for
+	 */
+	public final static int DEFAULT_MAX_CONTEXTS = 10000;
+	
+	/**
+	 * The default number of compiled scripts to keep
+	 */
+	public final static int DEFAULT_MAX_SCRIPTS = 1000;
 	
-	private final HashMap<String, ScriptContext> contexts = new HashMap<String, ScriptContext>();
-	private final HashMap<String, Integer> codeHashes = new HashMap<String, Integer>();
+	private final ScriptEngine engine;
+	private final Compilable compiler;
 	
-	private ActiveQuerier querier;
+	// guid to its contexts not in use, most recently used first,
+	// evicted least recently used first
+	private final Cache<String, Deque<GuidContext>> contexts;
+	// code digest to the compiled code
+	private final Cache<String, CompiledScript> scripts;
 	
 	/**
-	 * @param querier
+	 * @param maxContexts the number of guids to keep contexts for
+	 * @param maxScripts the number of compiled scripts to keep
 	 */
-	public ActiveRunner(ActiveQuerier querier){
-		this.querier = querier;
-		
+	public ActiveRunner(int maxContexts, int maxScripts){
 		engine = new ScriptEngineManager().getEngineByName("nashorn");
-		
-		invocable = (Invocable) engine;
+		compiler = (Compilable) engine;
+		contexts = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(maxContexts).build();
+		scripts = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(maxScripts).build();
 	}
 	
-	private void updateCache(String codeId, String code) throws ScriptException {
-	    if (!contexts.containsKey(codeId)) {
-	      // Create a context if one does not yet exist and eval the code
-	      ScriptContext sc = new SimpleScriptContext();
-	      contexts.put(codeId, sc);
-	      codeHashes.put(codeId, code.hashCode());
-	      engine.eval(code, sc);
-	    } else if ( codeHashes.get(codeId) != code.hashCode()) {
-	      // The context exists, but we need to eval the new code
-	      ScriptContext sc = contexts.get(codeId);
-	      codeHashes.put(codeId, code.hashCode());
-	      engine.eval(code, sc);
-	    }
+	/**
+	 * 
+	 */
+	public ActiveRunner(){
+		this(DEFAULT_MAX_CONTEXTS, DEFAULT_MAX_SCRIPTS);
+	}
+	
+	private Deque<GuidContext> getContexts(String guid) throws ScriptException {
+		try {
+			return contexts.get(guid, new Callable<Deque<GuidContext>>(){
+				@Override
+				public Deque<GuidContext> call() {
+					return new ConcurrentLinkedDeque<GuidContext>();
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new ScriptException(e.getCause().getMessage());
+		}
+	}
+	
+	private GuidContext newContext() {
+		// a new set of engine bindings comes with a new global scope
+		ScriptContext sc = new SimpleScriptContext();
+		sc.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+		return new GuidContext(sc);
+	}
+	
+	private CompiledScript getScript(final String code, String codeDigest) throws ScriptException {
+		try {
+			return scripts.get(codeDigest, new Callable<CompiledScript>(){
+				@Override
+				public CompiledScript call() throws ScriptException {
+					return compiler.compile(code);
+				}
+			});
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof ScriptException){
+				throw (ScriptException) e.getCause();
+			}
+			throw new ScriptException(e.getCause().getMessage());
+		}
 	}
 	
 	/**
@@ -70,29 +137,69 @@ public class ActiveRunner {
 	 * @param field
 	 * @param code
 	 * @param value
-	 * @param ttl
-	 * @param id 
+	 * @param querier the querier of this request, can be null
 	 * @return ValuesMap result 
 	 * @throws ScriptException
 	 * @throws NoSuchMethodException
 	 */
-	public synchronized ValuesMap runCode(String guid, String field, String code, ValuesMap value, int ttl, long id) throws ScriptException, NoSuchMethodException {		
-		updateCache(guid, code);
-		engine.setContext(contexts.get(guid));
-		if(querier != null) ((ActiveQuerier) querier).resetQuerier(guid, ttl, id);
-		ValuesMap valuesMap = null;
-		
-		valuesMap = (ValuesMap) invocable.invokeFunction("run", value, field, querier);
-		
-		return valuesMap;
+	public ValuesMap runCode(String guid, String field, String code, ValuesMap value, Querier querier) throws ScriptException, NoSuchMethodException {
+		return runCode(guid, field, code, ActiveCodeRegistry.digest(code), value, querier);
+	}
+	
+	/**
+	 * @param guid
+	 * @param field
+	 * @param code
+	 * @param codeDigest the digest of the code, used to tell whether the code has changed
+	 * @param value
+	 * @param querier the querier of this request, can be null
+	 * @return ValuesMap result 
+	 * @throws ScriptException
+	 * @throws NoSuchMethodException
+	 */
+	public ValuesMap runCode(String guid, String field, String code, String codeDigest, ValuesMap value, 
+			Querier querier) throws ScriptException, NoSuchMethodException {
+		Deque<GuidContext> idle = getContexts(guid);
+		GuidContext gc = idle.pollFirst();
+		if(gc == null){
+			// all the contexts of the guid are in use, possibly by the call 
+			// that made this one through its querier
+			gc = newContext();
+		}
+		try {
+			if (!codeDigest.equals(gc.codeDigest)) {
+				// The context is new or its guid's code has changed
+				gc.codeDigest = null;
+				getScript(code, codeDigest).eval(gc.context);
+				gc.codeDigest = codeDigest;
+			}
+			Object run = gc.context.getAttribute(RUN_FUNCTION, ScriptContext.ENGINE_SCOPE);
+			if(!(run instanceof JSObject) || !((JSObject) run).isFunction()){
+				throw new NoSuchMethodException("No function "+RUN_FUNCTION+" in the code of "+guid);
+			}
+			return (ValuesMap) ((JSObject) run).call(null, value, field, querier);
+		} finally {
+			// handing it back through the deque publishes its digest to the next call
+			idle.offerFirst(gc);
+		}
 	}
 	
-  /**
-   *
-   * @param am
-   */
-  protected void release(ActiveMessage am){
-		querier.release(am, true);
+	/**
+	 * @return the number of guids contexts are kept for
+	 */
+	public long numContexts(){
+		return contexts.size();
+	}
+	
+	private static class GuidContext {
+		final ScriptContext context;
+		// the digest of the code evaluated in the context, only
+		// accessed by the call using the context
+		String codeDigest;
+		
+		GuidContext(ScriptContext context){
+			this.context = context;
+		}
 	}
 	
 	private static class SimpleTask implements Callable<ValuesMap>{
@@ -107,7 +214,7 @@ public class ActiveRunner {
 		
 		@Override
 		public ValuesMap call() throws Exception {
-			return runner.runCode(am.getGuid(), am.getField(), am.getCode(), am.getValue(), am.getTtl(), am.getId());
+			return runner.runCode(am.getGuid(), am.getField(), am.getCode(), am.getValue(), null);
 		}
 		
 	}
@@ -122,10 +229,7 @@ public class ActiveRunner {
 	public static void main(String[] args) throws JSONException, InterruptedException, ExecutionException{
 		
 		int numThread = 10; 		
-		final ActiveRunner[] runners = new ActiveRunner[numThread];
-		for (int i=0; i<numThread; i++){
-			runners[i] = new ActiveRunner(null);
-		}
+		final ActiveRunner runner = new ActiveRunner();
 		
 		final ThreadPoolExecutor executor = new ThreadPoolExecutor(numThread, numThread, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
 		executor.prestartAllCoreThreads();
@@ -149,7 +253,7 @@ public class ActiveRunner {
 		long t1 = System.currentTimeMillis();
 		
 		for(int i=0; i<n; i++){
-			tasks.add(executor.submit(new SimpleTask(runners[0], msg)));
+			tasks.add(executor.submit(new SimpleTask(runner, msg)));
 		}
 		for(Future<ValuesMap> task:tasks){
 			task.get();
@@ -164,7 +268,6 @@ public class ActiveRunner {
 		/**
 		 * Test runner's protected method
 		 */
-		ActiveRunner runner = new ActiveRunner(new ActiveQuerier(null));
 		String chain_code = null;
 		try {
 			//chain_code = new String(Files.readAllBytes(Paths.get("./scripts/activeCode/permissionTest.js")));
@@ -174,7 +277,7 @@ public class ActiveRunner {
 			e.printStackTrace();
 		}
 		try {
-			runner.runCode(guid, field, chain_code, value, 0, 0);			
+			runner.runCode(guid, field, chain_code, value, new ActiveQuerier(null, 0, guid, 0));			
 			// fail here
 			assert(false):"The code should not be here";
 		} catch (Exception e) {
@@ -5,12 +5,13 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONException;
 
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveCodeRegistry;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveNamedPipe;
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveSharedMemoryChannel;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage.Type;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 
@@ -21,7 +22,7 @@ import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 public class ActiveWorker {
 	
 	
-	private final ActiveRunner[] runners;
+	private final ActiveRunner runner;
 	
 	private final Channel channel;
 	private final int id;
@@ -29,8 +30,10 @@ public class ActiveWorker {
 	
 	private final ThreadPoolExecutor executor;
 	private final ThreadPoolExecutor taskExecutor;
-	private final ConcurrentHashMap<Long, ActiveRunner> map = new ConcurrentHashMap<Long, ActiveRunner>();
-	private final AtomicInteger counter = new AtomicInteger(0);	
+	private final ConcurrentHashMap<Long, ActiveQuerier> map = new ConcurrentHashMap<Long, ActiveQuerier>();
+	
+	private final static int CODE_REGISTRY_SIZE = 1000;
+	private final ActiveCodeRegistry codeRegistry = new ActiveCodeRegistry(CODE_REGISTRY_SIZE);
 	
 	
 	
@@ -42,6 +45,20 @@ public class ActiveWorker {
 	 * @param numThread
 	 */
 	protected ActiveWorker(String ifile, String ofile, int id, int numThread) {
+		this(ifile, ofile, id, numThread, false, 0);
+	}
+	
+	/**
+	 * Initialize a worker with a named pipe or, if sharedMemory is true,
+	 * with memory mapped ring buffers
+	 * @param ifile
+	 * @param ofile
+	 * @param id 
+	 * @param numThread
+	 * @param sharedMemory 
+	 * @param bufferSize the size of the ring buffer this worker writes to
+	 */
+	protected ActiveWorker(String ifile, String ofile, int id, int numThread, boolean sharedMemory, int bufferSize) {
 		this.id = id;
 		this.numThread = numThread;
 		
@@ -50,12 +67,10 @@ public class ActiveWorker {
 		taskExecutor = new ThreadPoolExecutor(numThread, numThread, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
 		taskExecutor.prestartAllCoreThreads();
 		
-		channel = new ActiveNamedPipe(ifile, ofile);
-		runners = new ActiveRunner[numThread];
-		
-		for (int i=0; i<numThread; i++){
-			runners[i] = new ActiveRunner(new ActiveQuerier(channel));
-		}		
+		channel = sharedMemory ? openSharedMemoryChannel(ifile, ofile, bufferSize) 
+				: new ActiveNamedPipe(ifile, ofile);
+		// one runner shared by all the threads, whichever thread is idle takes the next request
+		runner = new ActiveRunner();
 
 		try {
 			runWorker();
@@ -69,20 +84,41 @@ public class ActiveWorker {
 	}
 
 	
+	private static Channel openSharedMemoryChannel(String ifile, String ofile, int bufferSize) {
+		try {
+			return new ActiveSharedMemoryChannel(ifile, ofile, bufferSize);
+		} catch (IOException e) {
+			// the client will see the pipes close and restart the worker
+			e.printStackTrace();
+			System.exit(1);
+			return null;
+		}
+	}
+	
 	private void runWorker() throws JSONException, IOException {	
-		while(!((ActiveNamedPipe) channel).getReady())
+		while(channel instanceof ActiveNamedPipe && !((ActiveNamedPipe) channel).getReady())
 			;
 		
 		ActiveMessage msg = null;
 		while(!Thread.currentThread().isInterrupted()){
 			if((msg = (ActiveMessage) channel.receiveMessage()) != null){
 				if(msg.type == Type.REQUEST){
-					ActiveRunner runner = runners[counter.getAndIncrement()%numThread];
-					map.put(msg.getId(), runner);
-					taskExecutor.submit(new ActiveWorkerSubmittedTask(executor, runner, msg, channel, map));
+					ActiveMessage request = codeRegistry.resolve(msg);
+					if(request == null){
+						// ask for the request again with the code
+						channel.sendMessage(ActiveMessage.codeMiss(msg.getId()));
+						continue;
+					}
+					msg = request;
+					ActiveQuerier querier = new ActiveQuerier(channel, msg.getTtl(), msg.getGuid(), msg.getId(), msg.getBudget());
+					map.put(msg.getId(), querier);
+					taskExecutor.submit(new ActiveWorkerSubmittedTask(executor, runner, querier, msg, channel, map));
 					
 				} else if (msg.type == Type.RESPONSE ){
-					map.get(msg.getId()).release(msg);
+					ActiveQuerier querier = map.get(msg.getId());
+					if(querier != null){
+						querier.release(msg, true);
+					}
 				}
 			}else{
 				// The client is shutdown
@@ -108,7 +144,13 @@ public class ActiveWorker {
 			int id = Integer.parseInt(args[2]);
 			int numThread = Integer.parseInt(args[3]);
 			
-			new ActiveWorker(cfile, sfile, id, numThread);
+			boolean sharedMemory = args.length > 6 && Boolean.parseBoolean(args[5]);
+			
+			if(sharedMemory){
+				new ActiveWorker(cfile, sfile, id, numThread, true, Integer.parseInt(args[6]));
+			} else {
+				new ActiveWorker(cfile, sfile, id, numThread);
+			}
 		}
 	}
 }
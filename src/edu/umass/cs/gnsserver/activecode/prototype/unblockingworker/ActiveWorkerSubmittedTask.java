@@ -19,14 +19,16 @@ public class ActiveWorkerSubmittedTask implements Runnable {
 	
 	final ThreadPoolExecutor executor;
 	final ActiveRunner runner;
+	final ActiveQuerier querier;
 	final ActiveMessage request;
 	final Channel channel;
-	final ConcurrentHashMap<Long, ActiveRunner> map;
+	final ConcurrentHashMap<Long, ActiveQuerier> map;
 	
-	ActiveWorkerSubmittedTask(ThreadPoolExecutor executor, ActiveRunner runner, ActiveMessage request, 
-			Channel channel, ConcurrentHashMap<Long, ActiveRunner> map){
+	ActiveWorkerSubmittedTask(ThreadPoolExecutor executor, ActiveRunner runner, ActiveQuerier querier, 
+			ActiveMessage request, Channel channel, ConcurrentHashMap<Long, ActiveQuerier> map){
 		this.executor = executor;
 		this.runner = runner;
+		this.querier = querier;
 		this.request = request;
 		this.channel = channel;
 		this.map = map;
@@ -37,13 +39,19 @@ public class ActiveWorkerSubmittedTask implements Runnable {
 		ActiveMessage response = null;
 		long timeout = request.getBudget();
 		
-		Future<ActiveMessage> future = executor.submit(new ActiveWorkerTask(runner, request));
+		Future<ActiveMessage> future = executor.submit(new ActiveWorkerTask(runner, querier, request));
 		
 		try {
 			response = future.get(timeout, TimeUnit.MILLISECONDS);
-		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+		} catch (TimeoutException e) {
+			// stop the code and any query it is waiting on
+			querier.cancel();
+			future.cancel(true);
+			response = new ActiveMessage(request.getId(), null, ActiveMessage.BUDGET_EXCEEDED);
+		} catch (InterruptedException | ExecutionException e) {
 			// return an error
-			runner.release(null);
+			querier.cancel();
+			future.cancel(true);
 			response = new ActiveMessage(request.getId(), null, e.getMessage());			
 		}
 		
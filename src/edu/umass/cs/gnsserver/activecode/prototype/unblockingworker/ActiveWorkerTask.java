@@ -6,6 +6,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import javax.script.ScriptException;
 
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveCodeRegistry;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 
@@ -16,10 +17,12 @@ import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 public class ActiveWorkerTask implements Callable<ActiveMessage>  {
 	
 	final ActiveRunner runner;
+	final ActiveQuerier querier;
 	final ActiveMessage request;
 	
-	ActiveWorkerTask(ActiveRunner runner, ActiveMessage request){
+	ActiveWorkerTask(ActiveRunner runner, ActiveQuerier querier, ActiveMessage request){
 		this.runner = runner;
+		this.querier = querier;
 		this.request = request;
 	}
 		
@@ -28,7 +31,9 @@ public class ActiveWorkerTask implements Callable<ActiveMessage>  {
 		ActiveMessage response = null;
 		try {
 			response = new ActiveMessage(request.getId(), 
-					runner.runCode(request.getGuid(), request.getField(), request.getCode(), request.getValue(), request.getTtl(), request.getId()),
+					runner.runCode(request.getGuid(), request.getField(), request.getCode(), 
+							request.getCodeDigest() != null ? request.getCodeDigest() : ActiveCodeRegistry.digest(request.getCode()),
+							request.getValue(), querier),
 					null);
 		} catch (NoSuchMethodException | ScriptException e) {
 			response = new ActiveMessage(request.getId(), null, e.getMessage());
@@ -33,5 +33,10 @@ public abstract class AbstractRecordCursor implements RecordCursorInterface {
   public JSONObject nextJSONObject() throws FailedDBOperationException {
     throw new UnsupportedOperationException("Not supported yet.");
   }
+
+  @Override
+  public void close() {
+    // nothing to release by default
+  }
   
 }
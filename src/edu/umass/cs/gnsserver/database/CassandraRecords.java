@@ -331,22 +331,26 @@ public class CassandraRecords implements NoSQLRecords {
   }
 
   @Override
-  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value) {
+  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          List<String> projection) {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value) {
+  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          List<String> projection) {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance) {
+  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance,
+          List<String> projection) {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query) {
+  public AbstractRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query,
+          List<String> projection) {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
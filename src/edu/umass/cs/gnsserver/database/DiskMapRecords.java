@@ -22,6 +22,7 @@ import edu.umass.cs.utils.DiskMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -37,6 +38,11 @@ import org.json.JSONObject;
  *
  * See DiskMapCollection for more details.
  *
+ * The records in the diskmap are snapshots that are never changed once
+ * they are put there: writes put a copy of the caller's record or a record
+ * nobody else has seen. So lookupSomeFields can read the fields it needs
+ * straight from the snapshot and only copy those, while
+ * lookupEntireRecord still returns a copy the caller may change.
  *
  * @author westy, arun
  */
@@ -96,24 +102,35 @@ public class DiskMapRecords implements NoSQLRecords {
   @Override
   public void insert(String collection, String name, JSONObject value)
           throws FailedDBOperationException, RecordExistsException {
-    getMap(collection).put(name, value);
+    try {
+      // the caller may change the value after this
+      getMap(collection).put(name, recursiveCopyJSONObject(value));
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    }
   }
 
   @Override
   public JSONObject lookupEntireRecord(String collection, String name)
           throws FailedDBOperationException, RecordNotFoundException {
-    JSONObject record;
-    if ((record = getMap(collection).get(name)) == null) {
-      throw new RecordNotFoundException(name);
-    }
     try {
       // Make a new object to make sure there aren't any DBObjects lurking in here
-      return recursiveCopyJSONObject(record); //copyJsonObject(record);
+      // and that the caller can't change the snapshot
+      return recursiveCopyJSONObject(lookupSnapshot(collection, name)); //copyJsonObject(record);
     } catch (JSONException e) {
       throw new FailedDBOperationException(collection, name, "Unable to parse json record");
     }
   }
 
+  // The record as it is in the diskmap, which must not be changed.
+  private JSONObject lookupSnapshot(String collection, String name) throws RecordNotFoundException {
+    JSONObject record;
+    if ((record = getMap(collection).get(name)) == null) {
+      throw new RecordNotFoundException(name);
+    }
+    return record;
+  }
+
   /**
    * arun: The methods below copy a JSONObject recursively without stringification while
    * converting BasicDBObject and BasicDBList as needed. As in any JSONObject, it is assumed
@@ -197,8 +214,23 @@ public class DiskMapRecords implements NoSQLRecords {
   public HashMap<ColumnField, Object> lookupSomeFields(String collection, String name,
           ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
           throws RecordNotFoundException, FailedDBOperationException {
+    return selectFields(lookupSnapshot(collection, name), name, nameField, valuesMapField, valuesMapKeys);
+  }
 
-    JSONObject record = lookupEntireRecord(collection, name);
+  /**
+   * Returns the name and the given keys from the values map of a record
+   * in the form {@link #lookupSomeFields} returns them. The values are
+   * copied so the record isn't changed through them.
+   *
+   * @param record
+   * @param name
+   * @param nameField
+   * @param valuesMapField
+   * @param valuesMapKeys
+   * @return a hashmap of ColumnField to Objects
+   */
+  static HashMap<ColumnField, Object> selectFields(JSONObject record, String name,
+          ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys) {
 //    LOGGER.log(Level.FINE, "Full record " + record.toString());
     HashMap<ColumnField, Object> hashMap = new HashMap<>();
     hashMap.put(nameField, name);
@@ -219,7 +251,7 @@ public class DiskMapRecords implements NoSQLRecords {
                 Object value = JSONDotNotation.getWithDotNotation(userKey, readValuesMap);
                 LOGGER.log(Level.FINE,
                         "Object is {0}", new Object[]{value.toString()});
-                valuesMapOut.put(userKey, value);
+                valuesMapOut.put(userKey, recursiveCopyObject(value));
                 break;
               case LIST_STRING:
                 valuesMapOut.putAsArray(userKey,
@@ -262,7 +294,8 @@ public class DiskMapRecords implements NoSQLRecords {
     JSONObject json = new JSONObject();
     try {
       json.put(NameRecord.NAME.getName(), name);
-      json.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+      // the caller may change the values map after this
+      json.put(NameRecord.VALUES_MAP.getName(), recursiveCopyJSONObject(valuesMap));
       getMap(collection).put(name, json);
     } catch (JSONException e) {
 
@@ -291,11 +324,13 @@ public class DiskMapRecords implements NoSQLRecords {
           String fieldName = valuesMapKeys.get(i).getName();
           switch (valuesMapKeys.get(i).type()) {
             case LIST_STRING:
-              JSONDotNotation.putWithDotNotation(json, fieldName, valuesMapValues.get(i));
+              JSONDotNotation.putWithDotNotation(json, fieldName, recursiveCopyObject(valuesMapValues.get(i)));
               //json.put(fieldName, valuesMapValues.get(i));
               break;
             case USER_JSON:
-              JSONDotNotation.putWithDotNotation(json, fieldName, JSONParse(valuesMapValues.get(i)));
+              // copied to turn what JSON.parse returns into JSONObjects and JSONArrays
+              JSONDotNotation.putWithDotNotation(json, fieldName,
+                      recursiveCopyObject(JSONParse(valuesMapValues.get(i))));
               //json.put(fieldName, JSONParse(valuesMapValues.get(i)));
               break;
             default:
@@ -365,27 +400,31 @@ public class DiskMapRecords implements NoSQLRecords {
   }
 
   @Override
-  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value) throws FailedDBOperationException {
+  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value,
+          List<String> projection) throws FailedDBOperationException {
     getMap(collection).commit();
-    return getMongoRecords(collection).selectRecords(DBNAMERECORD, valuesMapField, key, value);
+    return getMongoRecords(collection).selectRecords(DBNAMERECORD, valuesMapField, key, value, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
+  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value,
+          List<String> projection) throws FailedDBOperationException {
     getMap(collection).commit();
-    return getMongoRecords(collection).selectRecordsWithin(DBNAMERECORD, valuesMapField, key, value);
+    return getMongoRecords(collection).selectRecordsWithin(DBNAMERECORD, valuesMapField, key, value, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
+  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value, Double maxDistance,
+          List<String> projection) throws FailedDBOperationException {
     getMap(collection).commit();
-    return getMongoRecords(collection).selectRecordsNear(DBNAMERECORD, valuesMapField, key, value, maxDistance);
+    return getMongoRecords(collection).selectRecordsNear(DBNAMERECORD, valuesMapField, key, value, maxDistance, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query) throws FailedDBOperationException {
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query,
+          List<String> projection) throws FailedDBOperationException {
     getMap(collection).commit();
-    return getMongoRecords(collection).selectRecordsQuery(DBNAMERECORD, valuesMapField, query);
+    return getMongoRecords(collection).selectRecordsQuery(DBNAMERECORD, valuesMapField, query, projection);
   }
 
   @Override
@@ -0,0 +1,119 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compares reading one field of a DiskMapRecords record the old way, by
+ * copying the entire record first, with reading it straight from the
+ * record snapshot, for records of different sizes.
+ * Prints the time and the bytes allocated per read.
+ *
+ * Typical incantation:
+
+ java -cp jars/GNS.jar edu.umass.cs.gnsserver.database.DiskMapRecordsReadBenchmark
+ *
+ * @author westy
+ */
+public class DiskMapRecordsReadBenchmark {
+
+  private static final int[] RECORD_SIZES = {10, 100, 1000, 10000};
+  private static final int WARMUP = 20000;
+  private static final long MEASURE_NANOS = 2000000000L;
+  private static final String FIELD = "field0";
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   * @throws JSONException
+   */
+  public static void main(String[] args) throws JSONException {
+    ArrayList<ColumnField> userFields = new ArrayList<>(Arrays.asList(new ColumnField(FIELD,
+            ColumnFieldType.USER_JSON)));
+    System.out.println("size\tcopy ns/op\tcopy B/op\tsnapshot ns/op\tsnapshot B/op");
+    for (int size : RECORD_SIZES) {
+      JSONObject record = record(size);
+      long[] copy = measure(record, userFields, true);
+      long[] snapshot = measure(record, userFields, false);
+      System.out.println(size + "\t" + copy[0] + "\t" + copy[1] + "\t" + snapshot[0] + "\t" + snapshot[1]);
+    }
+  }
+
+  // A record like those of account guids: some small fields, an ACL and a long list.
+  private static JSONObject record(int size) throws JSONException {
+    JSONObject valuesMap = new JSONObject();
+    for (int i = 0; i < size; i++) {
+      valuesMap.put("field" + i, "value" + i);
+    }
+    JSONArray list = new JSONArray();
+    for (int i = 0; i < size; i++) {
+      list.put("guid" + i);
+    }
+    JSONObject acl = new JSONObject();
+    acl.put("READ_WHITELIST", new JSONObject().put("+ALL+", new JSONObject().put("MD", list)));
+    valuesMap.put("_GNS_ACL", acl);
+    valuesMap.put("guids", list);
+    JSONObject record = new JSONObject();
+    record.put(NameRecord.NAME.getName(), "guid");
+    record.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+    return record;
+  }
+
+  // returns the nanoseconds and bytes allocated per read
+  private static long[] measure(JSONObject record, ArrayList<ColumnField> userFields, boolean copy)
+          throws JSONException {
+    for (int i = 0; i < WARMUP; i++) {
+      read(record, userFields, copy);
+    }
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    long reads = 0;
+    while (System.nanoTime() - start < MEASURE_NANOS) {
+      read(record, userFields, copy);
+      reads++;
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocatedBefore < 0 ? -1 : (allocatedBytes() - allocatedBefore) / reads;
+    return new long[]{elapsed / reads, allocated};
+  }
+
+  private static Object read(JSONObject record, ArrayList<ColumnField> userFields, boolean copy)
+          throws JSONException {
+    return DiskMapRecords.selectFields(copy ? DiskMapRecords.recursiveCopyJSONObject(record) : record,
+            "guid", NameRecord.NAME, NameRecord.VALUES_MAP, userFields);
+  }
+
+  // -1 when the JVM can't tell
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
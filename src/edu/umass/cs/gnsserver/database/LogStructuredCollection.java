@@ -0,0 +1,550 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A collection of records (in the sense of mongo) kept in an append only
+ * log on local disk with an in-memory index from record name to the
+ * latest entry for the name.
+ *
+ * The log is split into segments of a fixed size which are memory mapped,
+ * so reads never block on each other or on the writer. Every write appends
+ * an entry to the newest segment; an entry is its length, a checksum,
+ * whether it is a put or a remove, the name and the record as JSON.
+ * When the collection is opened the segments are read in order to rebuild
+ * the index and anything after the first bad entry is dropped.
+ *
+ * Entries that have been overwritten or removed are dead. {@link #compact}
+ * copies the live entries of mostly dead segments to the end of the log
+ * and deletes the segments.
+ *
+ * Secondary indexes map the values of a field to the names of the records
+ * that have them. They are kept in memory and rebuilt when the collection
+ * is opened, only the fields that are indexed are saved.
+ *
+ * @author westy
+ */
+public class LogStructuredCollection {
+
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String INDEXES_FILE = "indexes";
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+  // the length and checksum of the rest of the entry
+  private static final int HEADER_LENGTH = 8;
+  // segments with at least this fraction of dead bytes are compacted
+  private static final double COMPACTION_THRESHOLD = 0.5;
+  private static final byte[] EMPTY = new byte[0];
+
+  private final String name;
+  private final File directory;
+  private final int segmentSize;
+  private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+  // indexed field to value to the names of the records that have the value
+  private final ConcurrentHashMap<String, ConcurrentHashMap<Object, Set<String>>> secondaryIndexes
+          = new ConcurrentHashMap<>();
+  // held while appending and while changing the indexes
+  private final Object writeLock = new Object();
+  private volatile Segment active;
+
+  /**
+   * Opens the collection stored in the directory, creating it if needed.
+   *
+   * @param name the name of the collection
+   * @param directory
+   * @param segmentSize the size in bytes of each segment
+   * @throws IOException
+   */
+  public LogStructuredCollection(String name, File directory, int segmentSize) throws IOException {
+    this.name = name;
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create " + directory);
+    }
+    recover();
+    File indexes = new File(directory, INDEXES_FILE);
+    if (indexes.exists()) {
+      for (String field : Files.readAllLines(indexes.toPath(), StandardCharsets.UTF_8)) {
+        if (!field.isEmpty()) {
+          buildIndex(field);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the name of the collection
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param name
+   * @return the record or null if there isn't one
+   * @throws IOException
+   * @throws JSONException if the record can't be parsed
+   */
+  public JSONObject get(String name) throws IOException, JSONException {
+    while (true) {
+      Location location = index.get(name);
+      if (location == null) {
+        return null;
+      }
+      Segment segment = segments.get(location.segment);
+      byte[] entry = segment != null ? segment.read(location.offset, location.length) : null;
+      // otherwise the entry was moved by compaction so look again
+      if (entry != null) {
+        return new JSONObject(decodeValue(entry));
+      }
+    }
+  }
+
+  /**
+   * @param name
+   * @return true if there is a record with the name
+   */
+  public boolean contains(String name) {
+    return index.containsKey(name);
+  }
+
+  /**
+   * @return the names of all the records, which reflects later changes
+   */
+  public Set<String> names() {
+    return Collections.unmodifiableSet(index.keySet());
+  }
+
+  /**
+   * Writes the record replacing any record with the same name.
+   *
+   * @param name
+   * @param record
+   * @throws IOException
+   */
+  public void put(String name, JSONObject record) throws IOException {
+    ByteBuffer entry = encode(PUT, name, record.toString().getBytes(StandardCharsets.UTF_8));
+    synchronized (writeLock) {
+      JSONObject old = secondaryIndexes.isEmpty() ? null : getQuietly(name);
+      supersede(index.put(name, append(entry)));
+      if (!secondaryIndexes.isEmpty()) {
+        removeFromIndexes(name, old);
+        addToIndexes(name, record);
+      }
+    }
+  }
+
+  /**
+   * @param name
+   * @return true if there was a record with the name
+   * @throws IOException
+   */
+  public boolean remove(String name) throws IOException {
+    ByteBuffer entry = encode(REMOVE, name, EMPTY);
+    synchronized (writeLock) {
+      if (!index.containsKey(name)) {
+        return false;
+      }
+      JSONObject old = secondaryIndexes.isEmpty() ? null : getQuietly(name);
+      // the remove entry is dead as soon as it is written, it only
+      // has to be kept while older segments have entries for the name
+      supersede(append(entry));
+      supersede(index.remove(name));
+      removeFromIndexes(name, old);
+      return true;
+    }
+  }
+
+  /**
+   * Indexes the values of a field so that queries for records whose
+   * field equals a value don't look at every record.
+   *
+   * @param field a dotted path from the top of the record
+   * @throws IOException
+   */
+  public void createIndex(String field) throws IOException {
+    synchronized (writeLock) {
+      if (secondaryIndexes.containsKey(field)) {
+        return;
+      }
+      buildIndex(field);
+      Files.write(new File(directory, INDEXES_FILE).toPath(), secondaryIndexes.keySet(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * @return the fields that are indexed
+   */
+  public Set<String> getIndexedFields() {
+    return Collections.unmodifiableSet(secondaryIndexes.keySet());
+  }
+
+  /**
+   * @param field
+   * @param value
+   * @return the names of the records whose field equals or contains the value
+   * or null if the field isn't indexed
+   */
+  public Set<String> lookupIndex(String field, Object value) {
+    ConcurrentHashMap<Object, Set<String>> values = secondaryIndexes.get(field);
+    if (values == null) {
+      return null;
+    }
+    Object key = RecordQuery.getIndexKey(value);
+    Set<String> names = key != null ? values.get(key) : null;
+    return names != null ? new HashSet<>(names) : Collections.<String>emptySet();
+  }
+
+  private void buildIndex(String field) throws IOException {
+    ConcurrentHashMap<Object, Set<String>> values = new ConcurrentHashMap<>();
+    for (String recordName : index.keySet()) {
+      JSONObject record = getQuietly(recordName);
+      if (record != null) {
+        addToIndex(values, recordName, RecordQuery.getField(record, field));
+      }
+    }
+    secondaryIndexes.put(field, values);
+  }
+
+  private void addToIndexes(String name, JSONObject record) {
+    for (String field : secondaryIndexes.keySet()) {
+      addToIndex(secondaryIndexes.get(field), name, RecordQuery.getField(record, field));
+    }
+  }
+
+  private static void addToIndex(ConcurrentHashMap<Object, Set<String>> values, String name, Object value) {
+    for (Object key : RecordQuery.getIndexKeys(value)) {
+      Set<String> names = values.get(key);
+      if (names == null) {
+        names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        values.put(key, names);
+      }
+      names.add(name);
+    }
+  }
+
+  private void removeFromIndexes(String name, JSONObject record) {
+    if (record == null) {
+      return;
+    }
+    for (String field : secondaryIndexes.keySet()) {
+      ConcurrentHashMap<Object, Set<String>> values = secondaryIndexes.get(field);
+      for (Object key : RecordQuery.getIndexKeys(RecordQuery.getField(record, field))) {
+        Set<String> names = values.get(key);
+        if (names != null && names.remove(name) && names.isEmpty()) {
+          values.remove(key);
+        }
+      }
+    }
+  }
+
+  private JSONObject getQuietly(String name) throws IOException {
+    try {
+      return get(name);
+    } catch (JSONException e) {
+      DatabaseConfig.getLogger().log(Level.WARNING, "Unable to parse {0} in {1}: {2}",
+              new Object[]{name, this.name, e});
+      return null;
+    }
+  }
+
+  /**
+   * Copies the live entries of the segments that are mostly dead to the
+   * end of the log and deletes the segments.
+   *
+   * @return the number of segments compacted
+   * @throws IOException
+   */
+  public synchronized int compact() throws IOException {
+    int compacted = 0;
+    for (Segment segment : segments.values()) {
+      if (segment != active && segment.deadBytes.get() >= COMPACTION_THRESHOLD * segment.size) {
+        compact(segment);
+        compacted++;
+      }
+    }
+    return compacted;
+  }
+
+  private void compact(Segment segment) throws IOException {
+    Set<Segment> written = new HashSet<>();
+    int offset = 0;
+    while (offset < segment.size) {
+      int length = segment.readLength(offset);
+      byte[] entry = segment.read(offset, length);
+      String entryName = decodeName(entry);
+      synchronized (writeLock) {
+        if (entry[HEADER_LENGTH] == PUT) {
+          Location location = index.get(entryName);
+          if (location != null && location.segment == segment.id && location.offset == offset) {
+            index.put(entryName, append(ByteBuffer.wrap(entry)));
+            written.add(active);
+          }
+        } else if (segment.id != segments.firstKey() && !index.containsKey(entryName)) {
+          // an older segment may still have entries for the name, nothing older than
+          // the oldest segment does so a remove there can be dropped
+          supersede(append(ByteBuffer.wrap(entry)));
+          written.add(active);
+        }
+      }
+      offset += length;
+    }
+    // the copies have to be on disk before the only other copy is deleted
+    for (Segment copies : written) {
+      copies.force();
+    }
+    segments.remove(segment.id);
+    segment.release();
+    if (!segment.file.delete()) {
+      DatabaseConfig.getLogger().log(Level.WARNING, "Unable to delete {0}", segment.file);
+    }
+    DatabaseConfig.getLogger().log(Level.FINE, "Compacted {0}", segment.file);
+  }
+
+  /**
+   * Forces what has been written to disk.
+   */
+  public void sync() {
+    for (Segment segment : segments.values()) {
+      if (segment.dirty) {
+        segment.force();
+      }
+    }
+  }
+
+  /**
+   * Called with the write lock held.
+   */
+  private Location append(ByteBuffer entry) throws IOException {
+    int length = entry.remaining();
+    Segment segment = active;
+    if (segment == null || segment.size + length > segment.capacity) {
+      int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+      segment = new Segment(id, segmentFile(id), Math.max(segmentSize, length));
+      segments.put(id, segment);
+      active = segment;
+    }
+    int offset = segment.size;
+    segment.write(offset, entry);
+    // readers find the entry through the index which is changed after this
+    segment.size = offset + length;
+    return new Location(segment.id, offset, length);
+  }
+
+  private void supersede(Location location) {
+    if (location != null) {
+      Segment segment = segments.get(location.segment);
+      if (segment != null) {
+        segment.deadBytes.addAndGet(location.length);
+      }
+    }
+  }
+
+  private static ByteBuffer encode(byte type, String name, byte[] value) {
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    int length = 1 + 4 + nameBytes.length + value.length;
+    ByteBuffer entry = ByteBuffer.allocate(HEADER_LENGTH + length);
+    entry.putInt(length).putInt(0).put(type).putInt(nameBytes.length).put(nameBytes).put(value);
+    entry.putInt(4, checksum(entry.array(), HEADER_LENGTH, length));
+    entry.flip();
+    return entry;
+  }
+
+  private static int checksum(byte[] bytes, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+  private static String decodeName(byte[] entry) {
+    int nameLength = ByteBuffer.wrap(entry).getInt(HEADER_LENGTH + 1);
+    return new String(entry, HEADER_LENGTH + 5, nameLength, StandardCharsets.UTF_8);
+  }
+
+  private static String decodeValue(byte[] entry) {
+    int valueOffset = HEADER_LENGTH + 5 + ByteBuffer.wrap(entry).getInt(HEADER_LENGTH + 1);
+    return new String(entry, valueOffset, entry.length - valueOffset, StandardCharsets.UTF_8);
+  }
+
+  private File segmentFile(int id) {
+    return new File(directory, String.format("%010d", id) + SEGMENT_SUFFIX);
+  }
+
+  private void recover() throws IOException {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String fileName) {
+        return fileName.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    List<Integer> ids = new ArrayList<>();
+    for (File file : files) {
+      try {
+        ids.add(Integer.parseInt(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length())));
+      } catch (NumberFormatException e) {
+        DatabaseConfig.getLogger().log(Level.WARNING, "Ignoring {0}", file);
+      }
+    }
+    Collections.sort(ids);
+    for (int id : ids) {
+      Segment segment = new Segment(id, segmentFile(id), 0);
+      segments.put(id, segment);
+      replay(segment);
+      active = segment;
+    }
+    DatabaseConfig.getLogger().log(Level.INFO, "Read {0} records from {1} segments of {2}",
+            new Object[]{index.size(), segments.size(), name});
+  }
+
+  private void replay(Segment segment) {
+    int capacity = segment.capacity;
+    int offset = 0;
+    while (offset + HEADER_LENGTH <= capacity) {
+      int length = segment.readLength(offset);
+      // the rest of a segment is zeros
+      if (length == HEADER_LENGTH) {
+        break;
+      }
+      if (length < HEADER_LENGTH + 5 || offset + length > capacity) {
+        DatabaseConfig.getLogger().log(Level.WARNING, "Bad entry length at {0} in {1}, dropping the rest",
+                new Object[]{offset, segment.file});
+        break;
+      }
+      byte[] entry = segment.read(offset, length);
+      if (ByteBuffer.wrap(entry).getInt(4) != checksum(entry, HEADER_LENGTH, length - HEADER_LENGTH)) {
+        DatabaseConfig.getLogger().log(Level.WARNING, "Bad checksum at {0} in {1}, dropping the rest",
+                new Object[]{offset, segment.file});
+        break;
+      }
+      Location location = new Location(segment.id, offset, length);
+      String entryName = decodeName(entry);
+      if (entry[HEADER_LENGTH] == PUT) {
+        supersede(index.put(entryName, location));
+      } else {
+        supersede(location);
+        supersede(index.remove(entryName));
+      }
+      offset += length;
+    }
+    segment.size = offset;
+  }
+
+  @Override
+  public String toString() {
+    return name + " in " + directory + " (" + index.size() + " records in " + segments.size() + " segments)";
+  }
+
+  private static class Location {
+
+    final int segment;
+    final int offset;
+    // of the whole entry
+    final int length;
+
+    Location(int segment, int offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static class Segment {
+
+    final int id;
+    final File file;
+    final int capacity;
+    // null once the segment has been compacted, the mapping is then unmapped
+    // when it is collected, after the reads that were using it are done
+    private volatile MappedByteBuffer buffer;
+    final AtomicLong deadBytes = new AtomicLong();
+    volatile int size;
+    volatile boolean dirty;
+
+    /**
+     * Maps the file, growing it to the capacity if it is smaller.
+     * The mapping outlives the file if the segment is deleted by compaction
+     * while it is being read.
+     */
+    Segment(int id, File file, int capacity) throws IOException {
+      this.id = id;
+      this.file = file;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        if (raf.length() < capacity) {
+          raf.setLength(capacity);
+        }
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        this.capacity = buffer.capacity();
+      }
+    }
+
+    // the length of the whole entry at the offset
+    int readLength(int offset) {
+      return HEADER_LENGTH + buffer.getInt(offset);
+    }
+
+    // null if the segment has been released
+    byte[] read(int offset, int length) {
+      MappedByteBuffer mapped = buffer;
+      if (mapped == null) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      ByteBuffer view = mapped.duplicate();
+      view.position(offset);
+      view.get(bytes);
+      return bytes;
+    }
+
+    void write(int offset, ByteBuffer entry) {
+      ByteBuffer view = buffer.duplicate();
+      view.position(offset);
+      view.put(entry);
+      dirty = true;
+    }
+
+    void force() {
+      MappedByteBuffer mapped = buffer;
+      dirty = false;
+      if (mapped != null) {
+        mapped.force();
+      }
+    }
+
+    /**
+     * Drops the mapping, reads that haven't started yet return null.
+     */
+    void release() {
+      buffer = null;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Provides a cursor over the records of a {@link LogStructuredCollection}
+ * that match a query. Records are read as the cursor is advanced so ones
+ * that are removed before the cursor gets to them are skipped.
+ *
+ * @author westy
+ */
+public class LogStructuredRecordCursor extends AbstractRecordCursor {
+
+  private final LogStructuredCollection collection;
+  private final Iterator<String> names;
+  private final RecordQuery query;
+  private final ColumnField valuesMapField;
+  private final List<String> projection;
+  private JSONObject next;
+
+  /**
+   * @param collection
+   * @param names the names of the records to look at
+   * @param query the query records must match or null for all of them
+   * @param valuesMapField the field that contains the ValuesMap
+   * @param projection the *user* fields to return along with the record name; null returns
+   * entire records and an empty list returns just the record names
+   */
+  public LogStructuredRecordCursor(LogStructuredCollection collection, Iterator<String> names,
+          RecordQuery query, ColumnField valuesMapField, List<String> projection) {
+    this.collection = collection;
+    this.names = names;
+    this.query = query;
+    this.valuesMapField = valuesMapField;
+    this.projection = projection;
+  }
+
+  @Override
+  public boolean hasNext() throws FailedDBOperationException {
+    while (next == null && names.hasNext()) {
+      String name = names.next();
+      try {
+        JSONObject record = collection.get(name);
+        if (record != null && (query == null || query.matches(record))) {
+          next = project(record);
+        }
+      } catch (IOException | JSONException | IllegalArgumentException e) {
+        throw new FailedDBOperationException(collection.getName(), name, e.getMessage());
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public JSONObject nextJSONObject() throws FailedDBOperationException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    JSONObject record = next;
+    next = null;
+    return record;
+  }
+
+  private JSONObject project(JSONObject record) throws JSONException {
+    if (projection == null) {
+      return record;
+    }
+    JSONObject projected = new JSONObject();
+    projected.put(NameRecord.NAME.getName(), record.opt(NameRecord.NAME.getName()));
+    JSONObject valuesMap = record.optJSONObject(valuesMapField.getName());
+    if (valuesMap != null && !projection.isEmpty()) {
+      JSONObject projectedValues = new JSONObject();
+      for (String field : projection) {
+        Object value = RecordQuery.getField(valuesMap, field);
+        if (value != null) {
+          JSONDotNotation.putWithDotNotation(projectedValues, field, value);
+        }
+      }
+      projected.put(valuesMapField.getName(), projectedValues);
+    }
+    return projected;
+  }
+}
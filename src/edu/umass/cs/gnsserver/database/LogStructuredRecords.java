@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import com.google.common.util.concurrent.Striped;
+
+import edu.umass.cs.gnscommon.GNSCommandProtocol;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Keeps records in the server process in an append only log per collection,
+ * see {@link LogStructuredCollection}, so no separate database server is needed.
+ * Select it by setting NOSQL_RECORDS_CLASS to this class.
+ *
+ * Selects are answered by matching records against the query
+ * (see {@link RecordQuery}); a query that requires the record name or an
+ * indexed field to equal a value only looks at the records that do.
+ * Geospatial queries look at every record.
+ *
+ * @author westy
+ */
+public class LogStructuredRecords implements NoSQLRecords {
+
+  // how often mostly dead segments are compacted
+  private static final long COMPACTION_INTERVAL = 60000;
+  private final static double METERS_PER_DEGREE = 111.12 * 1000; // at the equator
+
+  private final File directory;
+  private final int segmentSize;
+  private final Map<String, LogStructuredCollection> collections = new ConcurrentHashMap<>();
+  // serializes the read, modify and write of partial updates to a record
+  private final Striped<Lock> recordLocks = Striped.lock(256);
+  private final ScheduledExecutorService maintenance;
+
+  /**
+   *
+   * @param nodeID
+   */
+  public LogStructuredRecords(String nodeID) {
+    this(nodeID, -1);
+  }
+
+  /**
+   * This is the constructor GNSApp uses. The port is ignored.
+   *
+   * @param nodeID
+   * @param port
+   */
+  public LogStructuredRecords(String nodeID, int port) {
+    this(new File(Config.getGlobalString(GNSConfig.GNSC.LOG_RECORDS_DIRECTORY), nodeID.replace('.', '_')),
+            Config.getGlobalInt(GNSConfig.GNSC.LOG_RECORDS_SEGMENT_SIZE),
+            Config.getGlobalInt(GNSConfig.GNSC.LOG_RECORDS_SYNC_INTERVAL));
+  }
+
+  /**
+   *
+   * @param directory where each collection gets a subdirectory
+   * @param segmentSize the size in bytes of each segment of the logs
+   * @param syncInterval how often in milliseconds the logs are forced to disk, 0 never
+   */
+  public LogStructuredRecords(File directory, int segmentSize, long syncInterval) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "LogStructuredRecords");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    if (syncInterval > 0) {
+      maintenance.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          // anything thrown from here would cancel the later syncs
+          try {
+            sync();
+          } catch (RuntimeException e) {
+            DatabaseConfig.getLogger().log(Level.SEVERE, "Problem syncing records: {0}", e);
+          }
+        }
+      }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+    }
+    maintenance.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          compact();
+        } catch (RuntimeException e) {
+          DatabaseConfig.getLogger().log(Level.SEVERE, "Problem compacting records: {0}", e);
+        }
+      }
+    }, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  private LogStructuredCollection getCollection(String name) throws FailedDBOperationException {
+    LogStructuredCollection collection = collections.get(name);
+    if (collection == null) {
+      synchronized (collections) {
+        collection = collections.get(name);
+        if (collection == null) {
+          try {
+            collection = new LogStructuredCollection(name, new File(directory, name), segmentSize);
+            // the same field MongoRecords indexes by default
+            collection.createIndex(NameRecord.VALUES_MAP.getName() + "." + GNSCommandProtocol.IPADDRESS_FIELD_NAME);
+          } catch (IOException e) {
+            DatabaseConfig.getLogger().log(Level.SEVERE, "Unable to open collection {0}: {1}",
+                    new Object[]{name, e});
+            throw new FailedDBOperationException(name, directory.toString(), e.getMessage());
+          }
+          collections.put(name, collection);
+        }
+      }
+    }
+    return collection;
+  }
+
+  @Override
+  public void insert(String collection, String name, JSONObject value)
+          throws FailedDBOperationException, RecordExistsException {
+    LogStructuredCollection records = getCollection(collection);
+    Lock lock = recordLocks.get(name);
+    lock.lock();
+    try {
+      if (records.contains(name)) {
+        throw new RecordExistsException(collection, name);
+      }
+      records.put(name, value);
+    } catch (IOException e) {
+      throw new FailedDBOperationException(collection, name, e.getMessage());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public JSONObject lookupEntireRecord(String collection, String name)
+          throws FailedDBOperationException, RecordNotFoundException {
+    JSONObject record = get(collection, name);
+    if (record == null) {
+      throw new RecordNotFoundException(name);
+    }
+    return record;
+  }
+
+  // Records are parsed from the log on every read so nothing else shares them.
+  private JSONObject get(String collection, String name) throws FailedDBOperationException {
+    try {
+      return getCollection(collection).get(name);
+    } catch (IOException | JSONException e) {
+      throw new FailedDBOperationException(collection, name, e.getMessage());
+    }
+  }
+
+  @Override
+  public HashMap<ColumnField, Object> lookupSomeFields(String collection, String name,
+          ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
+          throws RecordNotFoundException, FailedDBOperationException {
+    return DiskMapRecords.selectFields(lookupEntireRecord(collection, name), name,
+            nameField, valuesMapField, valuesMapKeys);
+  }
+
+  @Override
+  public boolean contains(String collection, String name) throws FailedDBOperationException {
+    return getCollection(collection).contains(name);
+  }
+
+  @Override
+  public void removeEntireRecord(String collection, String name) throws FailedDBOperationException {
+    DatabaseConfig.getLogger().log(Level.FINE, "Remove: {0}", name);
+    Lock lock = recordLocks.get(name);
+    lock.lock();
+    try {
+      getCollection(collection).remove(name);
+    } catch (IOException e) {
+      throw new FailedDBOperationException(collection, name, e.getMessage());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void updateEntireRecord(String collection, String name, ValuesMap valuesMap)
+          throws FailedDBOperationException {
+    DatabaseConfig.getLogger().log(Level.FINE, "Update record {0}/{1}", new Object[]{name, valuesMap});
+    Lock lock = recordLocks.get(name);
+    lock.lock();
+    try {
+      JSONObject json = new JSONObject();
+      json.put(NameRecord.NAME.getName(), name);
+      json.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+      getCollection(collection).put(name, json);
+    } catch (IOException | JSONException e) {
+      throw new FailedDBOperationException(collection, name, e.getMessage());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void updateIndividualFields(String collection, String name,
+          ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
+          ArrayList<Object> valuesMapValues) throws FailedDBOperationException {
+    DatabaseConfig.getLogger().log(Level.FINE, "Update fields {0}/{1}", new Object[]{name, valuesMapKeys});
+    Lock lock = recordLocks.get(name);
+    lock.lock();
+    try {
+      JSONObject record = get(collection, name);
+      if (record == null) {
+        throw new FailedDBOperationException(collection, name, "Record not found.");
+      }
+      if (valuesMapField != null && valuesMapKeys != null) {
+        JSONObject json = getValuesMap(record, valuesMapField);
+        for (int i = 0; i < valuesMapKeys.size(); i++) {
+          String fieldName = valuesMapKeys.get(i).getName();
+          switch (valuesMapKeys.get(i).type()) {
+            case LIST_STRING:
+              JSONDotNotation.putWithDotNotation(json, fieldName, valuesMapValues.get(i));
+              break;
+            case USER_JSON:
+              JSONDotNotation.putWithDotNotation(json, fieldName, JSONParse(valuesMapValues.get(i)));
+              break;
+            default:
+              DatabaseConfig.getLogger().log(Level.WARNING,
+                      "Ignoring unknown format: {0}", valuesMapKeys.get(i).type());
+              break;
+          }
+        }
+      }
+      getCollection(collection).put(name, record);
+    } catch (IOException | JSONException e) {
+      throw new FailedDBOperationException(collection, name, e.getMessage());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Values arrive as JSON or as their string forms.
+  private static Object JSONParse(Object object) throws JSONException {
+    if (object instanceof String || object instanceof Number || object instanceof Boolean
+            || object instanceof JSONObject || object instanceof JSONArray || object == JSONObject.NULL) {
+      return object;
+    } else if (object instanceof Map) {
+      return new JSONObject((Map<?, ?>) object);
+    } else if (object instanceof Collection) {
+      return new JSONArray((Collection<?>) object);
+    } else {
+      return new JSONTokener(object.toString()).nextValue();
+    }
+  }
+
+  @Override
+  public void removeMapKeys(String collection, String name,
+          ColumnField mapField, ArrayList<ColumnField> mapKeys)
+          throws FailedDBOperationException {
+    Lock lock = recordLocks.get(name);
+    lock.lock();
+    try {
+      JSONObject record = get(collection, name);
+      if (record == null) {
+        throw new FailedDBOperationException(collection, name, "Record not found.");
+      }
+      if (mapField != null && mapKeys != null) {
+        JSONObject json = getValuesMap(record, mapField);
+        for (ColumnField mapKey : mapKeys) {
+          try {
+            JSONDotNotation.removeWithDotNotation(mapKey.getName(), json);
+          } catch (JSONException e) {
+            // the key isn't there
+          }
+        }
+      }
+      getCollection(collection).put(name, record);
+    } catch (IOException | JSONException e) {
+      throw new FailedDBOperationException(collection, name, e.getMessage());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static JSONObject getValuesMap(JSONObject record, ColumnField valuesMapField) throws JSONException {
+    JSONObject json = record.optJSONObject(valuesMapField.getName());
+    if (json == null) {
+      json = new JSONObject();
+      record.put(valuesMapField.getName(), json);
+    }
+    return json;
+  }
+
+  @Override
+  public AbstractRecordCursor getAllRowsIterator(String collection) throws FailedDBOperationException {
+    LogStructuredCollection records = getCollection(collection);
+    return new LogStructuredRecordCursor(records, records.names().iterator(), null, null, null);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value,
+          List<String> projection) throws FailedDBOperationException {
+    try {
+      return select(collection, new RecordQuery(new JSONObject().put(valuesMapField.getName() + "." + key, value)),
+              valuesMapField, projection);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, key, e.getMessage());
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value,
+          List<String> projection) throws FailedDBOperationException {
+    try {
+      JSONObject within = new JSONObject().put("$geoWithin", new JSONObject().put("$box", new JSONArray(value)));
+      return select(collection, new RecordQuery(new JSONObject().put(valuesMapField.getName() + "." + key, within)),
+              valuesMapField, projection);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, key, e.getMessage());
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value,
+          Double maxDistance, List<String> projection) throws FailedDBOperationException {
+    try {
+      // the distance is in degrees as it is for mongo's 2d indexes
+      JSONObject near = new JSONObject().put("$near", new JSONArray(value))
+              .put("$maxDistance", maxDistance / METERS_PER_DEGREE);
+      return select(collection, new RecordQuery(new JSONObject().put(valuesMapField.getName() + "." + key, near)),
+              valuesMapField, projection);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, key, e.getMessage());
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query,
+          List<String> projection) throws FailedDBOperationException {
+    try {
+      return select(collection, RecordQuery.parse(query, valuesMapField), valuesMapField, projection);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, query, e.getMessage());
+    }
+  }
+
+  private AbstractRecordCursor select(String collection, RecordQuery query, ColumnField valuesMapField,
+          List<String> projection) throws FailedDBOperationException {
+    LogStructuredCollection records = getCollection(collection);
+    return new LogStructuredRecordCursor(records, getCandidates(records, query).iterator(), query,
+            valuesMapField, projection);
+  }
+
+  // The records that may match the query.
+  private static Collection<String> getCandidates(LogStructuredCollection records, RecordQuery query) {
+    Object name = query.getEqualityValue(NameRecord.NAME.getName());
+    if (name instanceof String) {
+      return Collections.singletonList((String) name);
+    }
+    for (String field : records.getIndexedFields()) {
+      Object value = query.getEqualityValue(field);
+      if (value != null) {
+        Set<String> names = records.lookupIndex(field, value);
+        if (names != null) {
+          return names;
+        }
+      }
+    }
+    return records.names();
+  }
+
+  @Override
+  public void createIndex(String collection, String field, String index) {
+    if ("2d".equals(index) || "2dsphere".equals(index)) {
+      DatabaseConfig.getLogger().log(Level.FINE, "Geospatial queries look at every record, not indexing {0}", field);
+      return;
+    }
+    try {
+      // Prepend this because of the way we store the records.
+      getCollection(collection).createIndex(NameRecord.VALUES_MAP.getName() + "." + field);
+    } catch (FailedDBOperationException | IOException e) {
+      DatabaseConfig.getLogger().log(Level.SEVERE, "Unable to index {0}: {1}", new Object[]{field, e});
+    }
+  }
+
+  @Override
+  public void printAllEntries(String collection) throws FailedDBOperationException {
+    AbstractRecordCursor cursor = getAllRowsIterator(collection);
+    while (cursor.hasNext()) {
+      System.out.println(cursor.nextJSONObject());
+    }
+  }
+
+  /**
+   * Forces the logs of all the collections to disk.
+   */
+  public void sync() {
+    for (LogStructuredCollection collection : collections.values()) {
+      collection.sync();
+    }
+  }
+
+  /**
+   * Compacts the logs of all the collections.
+   */
+  public void compact() {
+    for (LogStructuredCollection collection : collections.values()) {
+      try {
+        collection.compact();
+      } catch (IOException e) {
+        DatabaseConfig.getLogger().log(Level.WARNING, "Problem compacting {0}: {1}", new Object[]{collection, e});
+      }
+    }
+  }
+
+  /**
+   * Forces the logs to disk and stops compacting them.
+   */
+  public void close() {
+    maintenance.shutdown();
+    sync();
+  }
+
+  @Override
+  public String toString() {
+    return "Log DB " + directory;
+  }
+}
@@ -25,6 +25,7 @@ import edu.umass.cs.gnscommon.exceptions.server.ServerRuntimeException;
 import org.json.JSONException;
 import org.json.JSONObject;
 import java.util.NoSuchElementException;
+import java.util.logging.Level;
 
 /**
  * Provides a cursor that can be used to iterate through rows of a collection.
@@ -204,6 +205,18 @@ public class MongoRecordCursor extends AbstractRecordCursor {
     }
   }
 
+  /**
+   * Closes the underlying mongo cursor.
+   */
+  @Override
+  public void close() {
+    try {
+      cursor.close();
+    } catch (MongoException e) {
+      DatabaseConfig.getLogger().log(Level.FINE, "Problem closing cursor: {0}", e.getMessage());
+    }
+  }
+
 //  private JSONObject hashMapWithFieldsToJSONObject(HashMap<ColumnField, Object> map) throws FailedDBOperationException {
 //    try {
 //      JSONObject json = new JSONObject();
@@ -497,18 +497,20 @@ public class MongoRecords implements NoSQLRecords {
    * @param collectionName
    * @param key
    * @param value
+   * @param projection
    * // * @param explain
    * @return a MongoRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   @Override
-  public MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value)
+  public MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          List<String> projection)
           throws FailedDBOperationException {
-    return selectRecords(collectionName, valuesMapField, key, value, false);
+    return selectRecords(collectionName, valuesMapField, key, value, projection, false);
   }
 
   private MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
-          boolean explain) throws FailedDBOperationException {
+          List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
     // note that if the value of the key in the database is a list (which it is) this
@@ -526,7 +528,7 @@ public class MongoRecords implements NoSQLRecords {
     //System.out.println("***QUERY***: " + query.toString());
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collection, query, collectionName, valuesMapField, projection);
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName);
     }
@@ -537,12 +539,14 @@ public class MongoRecords implements NoSQLRecords {
   }
 
   @Override
-  public MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value)
+  public MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          List<String> projection)
           throws FailedDBOperationException {
-    return selectRecordsWithin(collectionName, valuesMapField, key, value, false);
+    return selectRecordsWithin(collectionName, valuesMapField, key, value, projection, false);
   }
 
-  private MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value, boolean explain)
+  private MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          List<String> projection, boolean explain)
           throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
@@ -554,7 +558,7 @@ public class MongoRecords implements NoSQLRecords {
     BasicDBObject query = new BasicDBObject(fieldName, withinClause);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collection, query, collectionName, valuesMapField, projection);
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName);
     }
@@ -586,12 +590,12 @@ public class MongoRecords implements NoSQLRecords {
 
   @Override
   public MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
-          Double maxDistance) throws FailedDBOperationException {
-    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, false);
+          Double maxDistance, List<String> projection) throws FailedDBOperationException {
+    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, projection, false);
   }
 
   private MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
-          Double maxDistance, boolean explain) throws FailedDBOperationException {
+          Double maxDistance, List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
 
@@ -609,7 +613,7 @@ public class MongoRecords implements NoSQLRecords {
     BasicDBObject query = new BasicDBObject(fieldName, nearClause);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collection, query, collectionName, valuesMapField, projection);
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName);
     }
@@ -620,16 +624,18 @@ public class MongoRecords implements NoSQLRecords {
   }
 
   @Override
-  public MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query) throws FailedDBOperationException {
-    return selectRecordsQuery(collectionName, valuesMapField, query, false);
+  public MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query,
+          List<String> projection) throws FailedDBOperationException {
+    return selectRecordsQuery(collectionName, valuesMapField, query, projection, false);
   }
 
-  private MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query, boolean explain) throws FailedDBOperationException {
+  private MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query,
+          List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(parseMongoQuery(query, valuesMapField));
+      cursor = find(collection, parseMongoQuery(query, valuesMapField), collectionName, valuesMapField, projection);
     } catch (Exception e) {
       throw new FailedDBOperationException(collectionName, query);
     }
@@ -639,6 +645,22 @@ public class MongoRecords implements NoSQLRecords {
     return new MongoRecordCursor(cursor, mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey());
   }
 
+  // Runs the query returning only the primary key and the projected user fields.
+  // A null projection returns the entire records.
+  private DBCursor find(DBCollection collection, DBObject query, String collectionName,
+          ColumnField valuesMapField, List<String> projection) {
+    if (projection == null) {
+      return collection.find(query);
+    }
+    String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+    BasicDBObject keys = new BasicDBObject().append("_id", 0);
+    keys.append(primaryKey, 1); // name field must be returned.
+    for (String field : projection) {
+      keys.append(valuesMapField.getName() + "." + field, 1);
+    }
+    return collection.find(query, keys);
+  }
+
   private DBObject parseMongoQuery(String query, ColumnField valuesMapField) {
     // convert something like this: ~fred : ($gt: 0) into the queryable 
     // format, namely this: {~nr_valuesMap.fred : ($gt: 0)}
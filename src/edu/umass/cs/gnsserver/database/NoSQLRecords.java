@@ -26,6 +26,7 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Provides an interface for insert, update, remove and lookup 
@@ -162,10 +163,13 @@ public interface NoSQLRecords {
    * @param valuesMapField
    * @param key
    * @param value
+   * @param projection the *user* fields to return along with the record name; null returns
+   * entire records and an empty list returns just the record names
    * @return AbstractRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value)
+  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          List<String> projection)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
   /**
@@ -176,10 +180,13 @@ public interface NoSQLRecords {
    * @param valuesMapField
    * @param key
    * @param value
+   * @param projection the *user* fields to return along with the record name; null returns
+   * entire records and an empty list returns just the record names
    * @return AbstractRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value)
+  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          List<String> projection)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
   /**
@@ -191,10 +198,13 @@ public interface NoSQLRecords {
    * @param key
    * @param value
    * @param maxDistance
+   * @param projection the *user* fields to return along with the record name; null returns
+   * entire records and an empty list returns just the record names
    * @return an AbstractRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance)
+  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance,
+          List<String> projection)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
   /**
@@ -204,10 +214,13 @@ public interface NoSQLRecords {
    * @param collection the name of the collection
    * @param valuesMapField the field that contains the ValuesMap
    * @param query the query to execute
+   * @param projection the *user* fields to return along with the record name; null returns
+   * entire records and an empty list returns just the record names
    * @return an AbstractRecordCursor
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query)
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query,
+          List<String> projection)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
   /**
@@ -44,5 +44,11 @@ public interface RecordCursorInterface {
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   public boolean hasNext() throws FailedDBOperationException;
+
+  /**
+   * Releases any resources held by the cursor.
+   * The cursor should not be used after it has been closed.
+   */
+  public void close();
   
 }
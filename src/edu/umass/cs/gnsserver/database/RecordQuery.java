@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Evaluates queries written in the subset of mongo's query language that
+ * the GNS uses against JSON records, so that backends other than mongo
+ * can answer selects.
+ *
+ * Supports equality, $eq, $ne, $gt, $gte, $lt, $lte, $in, $nin, $all,
+ * $exists, $size, $regex, $not, $and, $or and $nor, plus $geoWithin (or $within)
+ * with a $box and $near with $maxDistance on [LONG, LAT] points.
+ * As in mongo, a condition on a field whose value is a list matches
+ * if any element of the list matches.
+ *
+ * @author westy
+ */
+public class RecordQuery {
+
+  private final JSONObject query;
+
+  /**
+   * @param query a mongo style query
+   */
+  public RecordQuery(JSONObject query) {
+    this.query = query;
+  }
+
+  /**
+   * Parses a query in the format selectRecordsQuery takes.
+   *
+   * @param query something like ~fred : ($gt: 0)
+   * @param valuesMapField the field that contains the ValuesMap
+   * @return a RecordQuery
+   * @throws JSONException if the query can't be parsed
+   */
+  public static RecordQuery parse(String query, ColumnField valuesMapField) throws JSONException {
+    // the same conversion MongoRecords does: ~fred : ($gt: 0) becomes {nr_valuesMap.fred : {$gt: 0}}
+    query = "{" + query + "}";
+    query = query.replace("(", "{");
+    query = query.replace(")", "}");
+    query = query.replace("~", valuesMapField.getName() + ".");
+    return new RecordQuery(new JSONObject(query));
+  }
+
+  /**
+   * @return the query
+   */
+  public JSONObject getQuery() {
+    return query;
+  }
+
+  /**
+   * @param record
+   * @return true if the record matches the query
+   * @throws IllegalArgumentException if the query uses something that isn't supported
+   */
+  public boolean matches(JSONObject record) {
+    return matches(record, query);
+  }
+
+  /**
+   * Returns the value the query requires the field to equal, looking
+   * at the top level of the query and into $and clauses. Used to pick
+   * the records to look at before matching them.
+   *
+   * @param field a dotted path
+   * @return a string, number or boolean or null if there isn't one
+   */
+  public Object getEqualityValue(String field) {
+    return getEqualityValue(query, field);
+  }
+
+  private static Object getEqualityValue(JSONObject query, String field) {
+    Object condition = query.opt(field);
+    if (condition != null) {
+      if (isOperatorObject(condition)) {
+        condition = ((JSONObject) condition).opt("$eq");
+      }
+      if (isScalar(condition)) {
+        return condition;
+      }
+    }
+    JSONArray and = query.optJSONArray("$and");
+    if (and != null) {
+      for (int i = 0; i < and.length(); i++) {
+        JSONObject clause = and.optJSONObject(i);
+        Object value = clause != null ? getEqualityValue(clause, field) : null;
+        if (value != null) {
+          return value;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param record
+   * @param path a dotted path
+   * @return the value at the path or null if there isn't one
+   */
+  public static Object getField(JSONObject record, String path) {
+    Object value = record;
+    int start = 0;
+    while (value instanceof JSONObject) {
+      int dot = path.indexOf('.', start);
+      if (dot < 0) {
+        return ((JSONObject) value).opt(path.substring(start));
+      }
+      value = ((JSONObject) value).opt(path.substring(start, dot));
+      start = dot + 1;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the keys a value is indexed under. A list is indexed under
+   * each of its elements so that equality matches an element as it does in mongo.
+   *
+   * @param value
+   * @return the keys, empty if the value can't be indexed
+   */
+  public static List<Object> getIndexKeys(Object value) {
+    if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      List<Object> keys = new ArrayList<>(array.length());
+      for (int i = 0; i < array.length(); i++) {
+        Object key = getIndexKey(array.opt(i));
+        if (key != null) {
+          keys.add(key);
+        }
+      }
+      return keys;
+    }
+    Object key = getIndexKey(value);
+    return key != null ? Collections.singletonList(key) : Collections.emptyList();
+  }
+
+  /**
+   * @param value
+   * @return the key a scalar value is indexed under or null if it isn't a scalar
+   */
+  public static Object getIndexKey(Object value) {
+    if (value instanceof Number) {
+      // 1 and 1.0 are the same key as they are equal
+      return ((Number) value).doubleValue();
+    }
+    return value instanceof String || value instanceof Boolean ? value : null;
+  }
+
+  private static boolean matches(JSONObject record, JSONObject query) {
+    Iterator<?> keys = query.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      Object condition = query.opt(key);
+      boolean match;
+      switch (key) {
+        case "$and":
+          match = matchesAll(record, condition);
+          break;
+        case "$or":
+          match = matchesAny(record, condition);
+          break;
+        case "$nor":
+          match = !matchesAny(record, condition);
+          break;
+        default:
+          if (key.startsWith("$")) {
+            throw new IllegalArgumentException("Unsupported operator " + key);
+          }
+          match = matchesField(getField(record, key), condition);
+          break;
+      }
+      if (!match) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesAll(JSONObject record, Object clauses) {
+    JSONArray array = toClauses(clauses);
+    for (int i = 0; i < array.length(); i++) {
+      if (!matches(record, array.optJSONObject(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesAny(JSONObject record, Object clauses) {
+    JSONArray array = toClauses(clauses);
+    for (int i = 0; i < array.length(); i++) {
+      if (matches(record, array.optJSONObject(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static JSONArray toClauses(Object clauses) {
+    if (!(clauses instanceof JSONArray)) {
+      throw new IllegalArgumentException("Expected a list of clauses: " + clauses);
+    }
+    JSONArray array = (JSONArray) clauses;
+    for (int i = 0; i < array.length(); i++) {
+      if (array.optJSONObject(i) == null) {
+        throw new IllegalArgumentException("Expected a clause: " + array.opt(i));
+      }
+    }
+    return array;
+  }
+
+  private static boolean matchesField(Object value, Object condition) {
+    if (!isOperatorObject(condition)) {
+      return matchesValue(value, "$eq", condition);
+    }
+    JSONObject operators = (JSONObject) condition;
+    Iterator<?> keys = operators.keys();
+    while (keys.hasNext()) {
+      String operator = (String) keys.next();
+      if (!matchesOperator(value, operator, operators.opt(operator), operators)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean matchesOperator(Object value, String operator, Object argument, JSONObject operators) {
+    switch (operator) {
+      case "$eq":
+      case "$gt":
+      case "$gte":
+      case "$lt":
+      case "$lte":
+      case "$in":
+        return matchesValue(value, operator, argument);
+      case "$ne":
+        return !matchesValue(value, "$eq", argument);
+      case "$nin":
+        return !matchesValue(value, "$in", argument);
+      case "$all":
+        JSONArray all = toArray(argument);
+        for (int i = 0; i < all.length(); i++) {
+          if (!matchesValue(value, "$eq", all.opt(i))) {
+            return false;
+          }
+        }
+        return true;
+      case "$exists":
+        boolean exists = !Boolean.FALSE.equals(argument) && !Integer.valueOf(0).equals(argument);
+        return (value != null) == exists;
+      case "$size":
+        return value instanceof JSONArray && argument instanceof Number
+                && ((JSONArray) value).length() == ((Number) argument).intValue();
+      case "$regex":
+        return matchesValue(value, operator, compile(argument, operators.optString("$options")));
+      case "$options":
+      case "$maxDistance":
+        // read along with $regex and $near
+        return true;
+      case "$not":
+        return !matchesField(value, argument);
+      case "$geoWithin":
+      case "$within":
+        JSONArray box = argument instanceof JSONObject ? ((JSONObject) argument).optJSONArray("$box") : null;
+        if (box == null) {
+          throw new IllegalArgumentException("Only $box is supported in " + operator);
+        }
+        return isWithin(toPoint(value), toPoint(box.opt(0)), toPoint(box.opt(1)));
+      case "$near":
+        double[] point = toPoint(value);
+        double[] center = toPoint(argument);
+        if (point == null || center == null) {
+          return false;
+        }
+        double distance = Math.hypot(point[0] - center[0], point[1] - center[1]);
+        return distance <= operators.optDouble("$maxDistance", Double.POSITIVE_INFINITY);
+      default:
+        throw new IllegalArgumentException("Unsupported operator " + operator);
+    }
+  }
+
+  // A list matches if it equals the argument or any of its elements matches.
+  private static boolean matchesValue(Object value, String operator, Object argument) {
+    if (value instanceof JSONArray) {
+      if (matchesElement(value, operator, argument)) {
+        return true;
+      }
+      JSONArray array = (JSONArray) value;
+      for (int i = 0; i < array.length(); i++) {
+        if (matchesElement(array.opt(i), operator, argument)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return matchesElement(value, operator, argument);
+  }
+
+  private static boolean matchesElement(Object value, String operator, Object argument) {
+    switch (operator) {
+      case "$eq":
+        return isEqual(value, argument);
+      case "$gt":
+      case "$gte":
+      case "$lt":
+      case "$lte":
+        return matchesComparison(operator, compare(value, argument));
+      case "$in":
+        JSONArray in = toArray(argument);
+        for (int i = 0; i < in.length(); i++) {
+          if (isEqual(value, in.opt(i))) {
+            return true;
+          }
+        }
+        return false;
+      case "$regex":
+        return value instanceof String && ((Pattern) argument).matcher((String) value).find();
+      default:
+        throw new IllegalArgumentException("Unsupported operator " + operator);
+    }
+  }
+
+  private static boolean isEqual(Object value, Object argument) {
+    if (value == null || value == JSONObject.NULL) {
+      return argument == null || argument == JSONObject.NULL;
+    }
+    if (value instanceof Number && argument instanceof Number) {
+      return ((Number) value).doubleValue() == ((Number) argument).doubleValue();
+    }
+    if (value instanceof JSONObject || value instanceof JSONArray) {
+      return argument != null && value.getClass() == argument.getClass()
+              && value.toString().equals(argument.toString());
+    }
+    return value.equals(argument);
+  }
+
+  private static boolean matchesComparison(String operator, Integer comparison) {
+    if (comparison == null) {
+      return false;
+    }
+    switch (operator) {
+      case "$gt":
+        return comparison > 0;
+      case "$gte":
+        return comparison >= 0;
+      case "$lt":
+        return comparison < 0;
+      default:
+        return comparison <= 0;
+    }
+  }
+
+  // Values of different types don't compare, as in mongo.
+  private static Integer compare(Object value, Object argument) {
+    if (value instanceof Number && argument instanceof Number) {
+      return Double.compare(((Number) value).doubleValue(), ((Number) argument).doubleValue());
+    }
+    if (value instanceof String && argument instanceof String) {
+      return ((String) value).compareTo((String) argument);
+    }
+    return null;
+  }
+
+  private static Pattern compile(Object regex, String options) {
+    if (!(regex instanceof String)) {
+      throw new IllegalArgumentException("Expected a string for $regex: " + regex);
+    }
+    int flags = 0;
+    if (options.contains("i")) {
+      flags |= Pattern.CASE_INSENSITIVE;
+    }
+    if (options.contains("m")) {
+      flags |= Pattern.MULTILINE;
+    }
+    if (options.contains("s")) {
+      flags |= Pattern.DOTALL;
+    }
+    if (options.contains("x")) {
+      flags |= Pattern.COMMENTS;
+    }
+    return Pattern.compile((String) regex, flags);
+  }
+
+  private static JSONArray toArray(Object argument) {
+    if (!(argument instanceof JSONArray)) {
+      throw new IllegalArgumentException("Expected a list: " + argument);
+    }
+    return (JSONArray) argument;
+  }
+
+  private static boolean isWithin(double[] point, double[] corner1, double[] corner2) {
+    if (point == null || corner1 == null || corner2 == null) {
+      return false;
+    }
+    for (int i = 0; i < 2; i++) {
+      if (point[i] < Math.min(corner1[i], corner2[i]) || point[i] > Math.max(corner1[i], corner2[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static double[] toPoint(Object value) {
+    if (value instanceof JSONArray && ((JSONArray) value).length() == 2) {
+      JSONArray array = (JSONArray) value;
+      if (array.opt(0) instanceof Number && array.opt(1) instanceof Number) {
+        return new double[]{array.optDouble(0), array.optDouble(1)};
+      }
+    }
+    return null;
+  }
+
+  private static boolean isOperatorObject(Object condition) {
+    if (!(condition instanceof JSONObject) || ((JSONObject) condition).length() == 0) {
+      return false;
+    }
+    Iterator<?> keys = ((JSONObject) condition).keys();
+    while (keys.hasNext()) {
+      if (!((String) keys.next()).startsWith("$")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isScalar(Object value) {
+    return value instanceof String || value instanceof Number || value instanceof Boolean;
+  }
+
+  @Override
+  public String toString() {
+    return query.toString();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.Shutdownable;
+import edu.umass.cs.gnscommon.utils.ThreadUtils;
+import edu.umass.cs.utils.Config;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * The part of a UDP DNS server that receives queries. Queries are read
+ * from a non-blocking {@link DatagramChannel} by one selector thread and
+ * resolved by a pool of threads shared by all the DNS servers in the process,
+ * which send their responses back through the same channel.
+ *
+ * @author westy
+ */
+public abstract class DatagramDnsServer extends Thread implements Shutdownable {
+
+  // queries are at most this long unless EDNS is used
+  private static final int MAX_QUERY_LENGTH = 512;
+
+  // queries waiting for a resolver beyond this many per resolver are dropped
+  private static final int MAX_QUEUED_QUERIES = 64;
+
+  private static final ExecutorService RESOLVERS = newPool("DnsResolver",
+          Config.getGlobalInt(GNSConfig.GNSC.DNS_RESOLVER_THREADS),
+          new ArrayBlockingQueue<Runnable>(MAX_QUEUED_QUERIES
+                  * Config.getGlobalInt(GNSConfig.GNSC.DNS_RESOLVER_THREADS)));
+  // each resolver waits for at most two lookups at a time so this pool never makes them wait
+  private static final ExecutorService LOOKUPS = newPool("DnsLookup",
+          2 * Config.getGlobalInt(GNSConfig.GNSC.DNS_RESOLVER_THREADS),
+          new LinkedBlockingQueue<Runnable>());
+
+  private final DatagramChannel channel;
+  private final Selector selector;
+  private volatile boolean running = true;
+
+  /**
+   * Binds the channel to the given IP/port.
+   *
+   * @param name the name of the thread
+   * @param addr IP to bind (0.0.0.0 is acceptable)
+   * @param port port to bind (53 is default for DNS)
+   * @throws SocketException
+   */
+  protected DatagramDnsServer(String name, InetAddress addr, int port) throws SocketException {
+    super(name);
+    try {
+      this.channel = DatagramChannel.open();
+      this.channel.bind(new InetSocketAddress(addr, port));
+      this.channel.configureBlocking(false);
+      this.selector = Selector.open();
+      this.channel.register(selector, SelectionKey.OP_READ);
+    } catch (SocketException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new SocketException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the task that resolves a query and sends the response.
+   *
+   * @param channel the channel to send the response on
+   * @param client the address the query came from
+   * @param query the query bytes
+   * @return a runnable
+   */
+  protected abstract Runnable newLookupWorker(DatagramChannel channel, SocketAddress client, byte[] query);
+
+  /**
+   * @return the port the server is bound to
+   */
+  protected int getLocalPort() {
+    return channel.socket().getLocalPort();
+  }
+
+  /**
+   * @return the pool that lookups started by resolvers run in
+   */
+  static ExecutorService getLookupExecutor() {
+    return LOOKUPS;
+  }
+
+  @Override
+  public void run() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_QUERY_LENGTH);
+    while (running) {
+      try {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          keys.next();
+          keys.remove();
+          // read everything that has arrived before selecting again
+          SocketAddress client;
+          while (running && (client = channel.receive(buffer)) != null) {
+            buffer.flip();
+            byte[] query = new byte[buffer.remaining()];
+            buffer.get(query);
+            buffer.clear();
+            try {
+              RESOLVERS.execute(newLookupWorker(channel, client, query));
+            } catch (RejectedExecutionException e) {
+              NameResolution.getLogger().log(Level.FINE, "Dropping query from {0}", client);
+            }
+          }
+        }
+      } catch (IOException e) {
+        if (!running) {
+          break;
+        }
+        NameResolution.getLogger().log(Level.SEVERE,
+                "Error in {0} (will sleep for 3 seconds and try again): {1}", new Object[]{getName(), e});
+        ThreadUtils.sleep(3000);
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    try {
+      selector.close();
+      channel.close();
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Problem closing {0}: {1}", new Object[]{getName(), e});
+    }
+  }
+
+  /**
+   * @param name the prefix of the thread names
+   * @param threads
+   * @param queue holds the tasks waiting for a thread
+   * @return a fixed size pool of daemon threads
+   */
+  static ExecutorService newPool(final String name, int threads, BlockingQueue<Runnable> queue) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
@@ -20,19 +20,12 @@
 package edu.umass.cs.gnsserver.gnamed;
 
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
-import edu.umass.cs.gnsserver.utils.Shutdownable;
-import edu.umass.cs.gnscommon.utils.ThreadUtils;
-import edu.umass.cs.utils.DelayProfiler;
 
-import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.channels.DatagramChannel;
 import java.util.logging.Level;
 
 /**
@@ -43,11 +36,9 @@ import java.util.logging.Level;
  * @author Vijay
  * @version 1.0
  */
-public class DnsTranslator extends Thread implements Shutdownable {
+public class DnsTranslator extends DatagramDnsServer {
 
   private final int port;
-  private final DatagramSocket sock;
-  private ExecutorService executor = null;
   private final ClientRequestHandlerInterface handler;
 
   /**
@@ -61,9 +52,8 @@ public class DnsTranslator extends Thread implements Shutdownable {
    * @throws java.net.UnknownHostException
    */
   public DnsTranslator(InetAddress addr, int port, ClientRequestHandlerInterface handler) throws SecurityException, SocketException, UnknownHostException {
+    super(DnsTranslator.class.getSimpleName(), addr, port);
     this.port = port;
-    this.sock = new DatagramSocket(port, addr);
-    this.executor = Executors.newFixedThreadPool(5);
     this.handler = handler;
   }
 
@@ -71,34 +61,11 @@ public class DnsTranslator extends Thread implements Shutdownable {
   public void run() {
     NameResolution.getLogger().log(Level.INFO,
             "CCP Node starting local DNS Translator server on port {0}", port);
-    while (true) {
-      try {
-        final short udpLength = 512;
-        while (true) {
-          byte[] incomingData = new byte[udpLength];
-          DatagramPacket incomingPacket = new DatagramPacket(incomingData, incomingData.length);
-          // Read the incoming request
-          incomingPacket.setLength(incomingData.length);
-          try {
-            sock.receive(incomingPacket);
-          } catch (InterruptedIOException e) {
-            continue;
-          }
-          executor.execute(new LookupWorker(sock, incomingPacket, incomingData, null, null, null, handler));
-          NameResolution.getLogger().fine(DelayProfiler.getStats());
-        }
-      } catch (IOException e) {
-        NameResolution.getLogger().log(Level.SEVERE, 
-                "Error in DNS Translator Server (will sleep for 3 seconds and try again): {0}", e);
-        ThreadUtils.sleep(3000);
-      }
-    }
+    super.run();
   }
 
   @Override
-  public void shutdown() {
-    if (executor != null) {
-      executor.shutdown();
-    }
+  protected Runnable newLookupWorker(DatagramChannel channel, SocketAddress client, byte[] query) {
+    return new LookupWorker(channel, client, query, null, null, null, handler);
   }
 }
@@ -0,0 +1,187 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+/**
+ * Caches the fields the DNS service reads from the GNS for a name so that
+ * repeated queries for the same name don't go to the database.
+ *
+ * Entries expire after {@link GNSConfig.GNSC#DNS_CACHE_TTL}, which is
+ * no longer than the TTL of the records built from them, and are dropped
+ * as soon as the guid they were read from or the name record itself is updated
+ * or removed. A lookup that read a record just before it was updated may still
+ * cache the old values, but only until they expire.
+ *
+ * @author westy
+ */
+public class GnsRecordCache {
+
+  private static final long TTL = Config.getGlobalInt(GNSConfig.GNSC.DNS_CACHE_TTL);
+  private static final int SIZE = Config.getGlobalInt(GNSConfig.GNSC.DNS_CACHE_SIZE);
+
+  // guid or name to the keys of the cached answers read from it;
+  // keys only leave it with their answers so no answer outlives its entries here
+  private static final Map<String, Set<String>> KEYS = new HashMap<>();
+  // name and fields to the values read
+  private static final Cache<String, Answer> ANSWERS = CacheBuilder.newBuilder()
+          .concurrencyLevel(5).maximumSize(SIZE)
+          .expireAfterWrite(Math.max(TTL, 1), TimeUnit.MILLISECONDS)
+          .removalListener(new RemovalListener<String, Answer>() {
+            @Override
+            public void onRemoval(RemovalNotification<String, Answer> notification) {
+              removeKey(notification.getKey(), notification.getValue());
+            }
+          }).build();
+
+  private static class Answer {
+
+    private final JSONObject values;
+    private final String guid;
+    private final String domainName;
+
+    private Answer(JSONObject values, String guid, String domainName) {
+      this.values = values;
+      this.guid = guid;
+      this.domainName = domainName;
+    }
+
+    private boolean readFrom(String name) {
+      return name.equals(guid) || name.equals(domainName);
+    }
+  }
+
+  /**
+   * @param domainName
+   * @param fieldName
+   * @param fieldNames
+   * @return the cached values or null
+   */
+  public static JSONObject get(String domainName, String fieldName, Iterable<String> fieldNames) {
+    if (TTL <= 0) {
+      return null;
+    }
+    Answer answer = ANSWERS.getIfPresent(getKey(domainName, fieldName, fieldNames));
+    return answer != null ? answer.values : null;
+  }
+
+  /**
+   * Caches the values read for a name from the given guid.
+   *
+   * @param domainName
+   * @param fieldName
+   * @param fieldNames
+   * @param guid
+   * @param values
+   */
+  public static void put(String domainName, String fieldName, Iterable<String> fieldNames,
+          String guid, JSONObject values) {
+    if (TTL <= 0) {
+      return;
+    }
+    String key = getKey(domainName, fieldName, fieldNames);
+    synchronized (KEYS) {
+      addKey(guid, key);
+      addKey(domainName, key);
+      ANSWERS.put(key, new Answer(values, guid, domainName));
+    }
+  }
+
+  /**
+   * Drops everything read from the guid or name record.
+   * Called when the record is updated or removed.
+   *
+   * @param name a guid or a human readable name
+   */
+  public static void invalidate(String name) {
+    if (TTL <= 0 || name == null) {
+      return;
+    }
+    Set<String> keys;
+    synchronized (KEYS) {
+      keys = KEYS.remove(name);
+    }
+    if (keys != null) {
+      ANSWERS.invalidateAll(keys);
+    }
+  }
+
+  /**
+   * Drops everything.
+   */
+  public static void clear() {
+    ANSWERS.invalidateAll();
+    synchronized (KEYS) {
+      KEYS.clear();
+    }
+  }
+
+  private static void addKey(String name, String key) {
+    Set<String> keys = KEYS.get(name);
+    if (keys == null) {
+      keys = new HashSet<>();
+      KEYS.put(name, keys);
+    }
+    keys.add(key);
+  }
+
+  // called once an answer is evicted, expires, is invalidated or is replaced
+  private static void removeKey(String key, Answer answer) {
+    synchronized (KEYS) {
+      // a replacement may have been read from the same names
+      Answer current = ANSWERS.getIfPresent(key);
+      for (String name : new String[]{answer.guid, answer.domainName}) {
+        if (name == null || (current != null && current.readFrom(name))) {
+          continue;
+        }
+        Set<String> keys = KEYS.get(name);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+          KEYS.remove(name);
+        }
+      }
+    }
+  }
+
+  private static String getKey(String domainName, String fieldName, Iterable<String> fieldNames) {
+    StringBuilder key = new StringBuilder(domainName);
+    if (fieldName != null) {
+      key.append('/').append(fieldName);
+    } else if (fieldNames != null) {
+      for (String field : fieldNames) {
+        key.append('/').append(field);
+      }
+    }
+    return key.toString();
+  }
+}
@@ -23,16 +23,15 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandler
 import edu.umass.cs.utils.DelayProfiler;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 
@@ -62,26 +61,26 @@ public class LookupWorker implements Runnable {
   private final SimpleResolver dnsServer;
   private final SimpleResolver gnsServer;
   private final Cache dnsCache;
-  private final DatagramSocket socket;
-  private final DatagramPacket incomingPacket;
+  private final DatagramChannel channel;
+  private final SocketAddress client;
   private final byte[] incomingData;
   private final ClientRequestHandlerInterface handler;
 
   /**
    * Creates a new <code>LookupWorker</code> object which handles the parallel GNS and DNS requesting.
    *
-   * @param socket
-   * @param incomingPacket
+   * @param channel
+   * @param client the address the query came from
    * @param incomingData
    * @param dnsServer (might be null meaning don't send requests to a DNS server)
    * @param gnsServer (might be null gns requests are resolved locally)
    * @param dnsCache (might be null meaning DNS responses are not cached)
    * @param handler
    */
-  public LookupWorker(DatagramSocket socket, DatagramPacket incomingPacket, byte[] incomingData, SimpleResolver gnsServer,
+  public LookupWorker(DatagramChannel channel, SocketAddress client, byte[] incomingData, SimpleResolver gnsServer,
           SimpleResolver dnsServer, Cache dnsCache, ClientRequestHandlerInterface handler) {
-    this.socket = socket;
-    this.incomingPacket = incomingPacket;
+    this.channel = channel;
+    this.client = client;
     this.incomingData = incomingData;
     this.dnsServer = dnsServer;
     this.dnsCache = dnsCache;
@@ -189,8 +188,8 @@ public class LookupWorker implements Runnable {
 
     // A little bit of overkill for two tasks, but it's really not that much longer (if any) than
     // the altenative. Plus it's cool and trendy to use futures.
-    ExecutorService executor = Executors.newFixedThreadPool(2);
-    ExecutorCompletionService<Message> completionService = new ExecutorCompletionService<>(executor);
+    ExecutorCompletionService<Message> completionService
+            = new ExecutorCompletionService<>(DatagramDnsServer.getLookupExecutor());
     List<Future<Message>> futures = new ArrayList<>(2);
     for (Callable<Message> task : tasks) {
       futures.add(completionService.submit(task));
@@ -214,8 +213,10 @@ public class LookupWorker implements Runnable {
         NameResolution.getLogger().log(Level.WARNING, "Lookup task interrupted: {0}", e);
       }
     }
-    // Shutdown the executor threadpool
-    executor.shutdown();
+    // don't leave the slower lookup holding a shared thread
+    for (Future<Message> future : futures) {
+      future.cancel(true);
+    }
     if (successResponse != null) {
       // Cache the successful response
       try {
@@ -252,12 +253,11 @@ public class LookupWorker implements Runnable {
    * @param responseBytes
    */
   private void sendResponse(byte[] responseBytes) {
-    DatagramPacket outgoingPacket = new DatagramPacket(responseBytes, responseBytes.length, incomingPacket.getAddress(), incomingPacket.getPort());
     try {
-      socket.send(outgoingPacket);
+      // the channel is non-blocking, a full send buffer drops the response like the network could
+      channel.send(ByteBuffer.wrap(responseBytes), client);
       NameResolution.getLogger().log(Level.FINE,
-              "Response sent to {0} {1}", new Object[]{incomingPacket.getAddress().toString(),
-                incomingPacket.getPort()});
+              "Response sent to {0}", client);
     } catch (IOException e) {
       NameResolution.getLogger().log(Level.SEVERE, "Failed to send response{0}", e);
     }
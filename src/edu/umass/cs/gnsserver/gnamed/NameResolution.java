@@ -27,6 +27,8 @@ import static edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSuppor
 import edu.umass.cs.gnsserver.gnsapp.GNSApp;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
 
 import java.io.IOException;
@@ -35,6 +37,12 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,6 +77,14 @@ public class NameResolution {
 
   private static final Logger LOG = Logger.getLogger(NameResolution.class.getName());
 
+  // CNAME chains longer than this are treated as loops
+  private static final int MAX_CHAIN_LENGTH = 8;
+
+  // resolves the names in NS and MX records while the rest of the query is resolved,
+  // these lookups don't start others so they can't wait on this pool
+  private static final ExecutorService ADDITIONAL_LOOKUPS = DatagramDnsServer.newPool("DnsAdditionalLookup",
+          Config.getGlobalInt(GNSConfig.GNSC.DNS_RESOLVER_THREADS), new LinkedBlockingQueue<Runnable>());
+
   /**
    * @return Logger used by most of the client support package.
    */
@@ -165,8 +181,15 @@ public class NameResolution {
     ArrayList<String> fieldNames = new ArrayList<>(Arrays.asList("A", "NS", "CNAME", "SOA", "PTR", "MX"));
     Boolean nameResolved = false;
     String nameToResolve = domainName;
+    // the A records of the NS and MX targets, added once the chain is resolved
+    List<Future<Record>> additionalRecords = new ArrayList<>();
+    int chainLength = 0;
 
     while (!nameResolved) {
+      if (++chainLength > MAX_CHAIN_LENGTH) {
+        NameResolution.getLogger().log(Level.FINE, "CNAME chain for domain {0} is too long.", domainName);
+        return errorMessage(query, Rcode.SERVFAIL);
+      }
       long resolveStart = System.currentTimeMillis();
       JSONObject fieldResponseJson = lookupGuidField(nameToResolve, null, fieldNames, handler);
       if (fieldResponseJson == null) {
@@ -188,16 +211,7 @@ public class NameResolution {
           response.addRecord(nsRecord, Section.AUTHORITY);
 
           /* Resolve NS Record name to an IP address and add it to ADDITIONAL section */
-          JSONObject nsResponseJson = lookupGuidField(ns, fieldName, null, handler);
-          //CommandResponse nsResponse = lookupGuidGnsServer(ns, fieldName, null, handler);
-          if (nsResponseJson != null) {
-            //if (nsResponse != null && !nsResponse.isError()) {
-            String address = nsResponseJson.getString(ns);
-            //String address = (new JSONArray(nsResponse.getReturnValue())).get(0).toString();
-            NameResolution.getLogger().log(Level.FINE, "single field {0}", address);
-            ARecord nsARecord = new ARecord(new Name(ns), DClass.IN, 60, InetAddress.getByName(address));
-            response.addRecord(nsARecord, Section.ADDITIONAL);
-          }
+          additionalRecords.add(lookupAdditionalRecord(ns, fieldName, handler));
         }
         if (fieldResponseJson.has("MX")) {
           String mxname = fieldResponseJson.getString("MX");
@@ -205,16 +219,7 @@ public class NameResolution {
           response.addRecord(mxRecord, Section.AUTHORITY);
 
           /* Resolve MX Record name to an IP address and add it to ADDITIONAL section */
-          JSONObject mxResponseJson = lookupGuidField(mxname, fieldName, null, handler);
-          //CommandResponse mxResponse = lookupGuidGnsServer(mxname, fieldName, null, handler);
-          if (mxResponseJson != null) {
-            //if (mxResponse != null && !mxResponse.isError()) {
-            String address = mxResponseJson.getString(mxname);
-            //String address = (new JSONArray(mxResponse.getReturnValue())).get(0).toString();
-            NameResolution.getLogger().log(Level.FINER, "single field {0}", address);
-            ARecord mxARecord = new ARecord(new Name(mxname), DClass.IN, 60, InetAddress.getByName(address));
-            response.addRecord(mxARecord, Section.ADDITIONAL);
-          }
+          additionalRecords.add(lookupAdditionalRecord(mxname, fieldName, handler));
         }
         if (fieldResponseJson.has("CNAME")) {
           /* Resolve CNAME alias to an IP address and add it to ADDITIONAL section */
@@ -239,10 +244,54 @@ public class NameResolution {
       }
 
     }
+    for (Future<Record> additionalRecord : additionalRecords) {
+      try {
+        Record record = additionalRecord.get();
+        if (record != null) {
+          response.addRecord(record, Section.ADDITIONAL);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        NameResolution.getLogger().log(Level.FINE, "Additional lookup failed: {0}", e);
+      }
+    }
     NameResolution.getLogger().log(Level.FINER, "Outgoing response from GNS: {0}", response.toString());
     return response;
   }
 
+  /**
+   * Starts resolving the name in an NS or MX record to the A record
+   * that goes in the ADDITIONAL section.
+   *
+   * @param name
+   * @param fieldName
+   * @param handler
+   * @return the A record or null if the name couldn't be resolved
+   */
+  private static Future<Record> lookupAdditionalRecord(final String name, final String fieldName,
+          final ClientRequestHandlerInterface handler) {
+    return ADDITIONAL_LOOKUPS.submit(new Callable<Record>() {
+      @Override
+      public Record call() {
+        JSONObject responseJson = lookupGuidField(name, fieldName, null, handler);
+        if (responseJson == null) {
+          return null;
+        }
+        try {
+          String address = responseJson.getString(name);
+          NameResolution.getLogger().log(Level.FINE, "single field {0}", address);
+          return new ARecord(new Name(name), DClass.IN, 60, InetAddress.getByName(address));
+        } catch (JSONException | TextParseException | UnknownHostException e) {
+          NameResolution.getLogger().log(Level.FINE,
+                  "Couldn''t resolve {0} to an IP address: {1}", new Object[]{name, e});
+          return null;
+        }
+      }
+    });
+  }
+
   /**
    * Lookup the field or fields in the guid.
    * Returns a JSONObject containing the fields and values
@@ -256,6 +305,11 @@ public class NameResolution {
    */
   public static JSONObject lookupGuidField(String domainName, String fieldName, ArrayList<String> fieldNames, ClientRequestHandlerInterface handler) {
     long startTime = System.currentTimeMillis();
+    JSONObject cached = GnsRecordCache.get(domainName, fieldName, fieldNames);
+    if (cached != null) {
+      DelayProfiler.updateDelay("lookupGuidField.cached", startTime);
+      return cached;
+    }
     // Make an array of field names to fetch from fieldName or FieldNames
     String[] fieldArray = null;
     if (fieldName != null) {
@@ -281,8 +335,8 @@ public class NameResolution {
     long fieldTime = System.currentTimeMillis();
     // If the HRS record isn't null we then get all the fields from the guid record
     NameRecord guidNameRecord = null;
+    String guid = null;
     if (hrnNameRecord != null) {
-      String guid = null;
       try {
         guid = hrnNameRecord.getValuesMap().getString(HRN_GUID);
       } catch (JSONException | FieldNotFoundException e) {
@@ -304,7 +358,9 @@ public class NameResolution {
     // If the record actually exists we return all the values as a JSONObject
     if (guidNameRecord != null) {
       try {
-        return guidNameRecord.getValuesMap();
+        JSONObject values = guidNameRecord.getValuesMap();
+        GnsRecordCache.put(domainName, fieldName, fieldNames, guid, values);
+        return values;
       } catch (FieldNotFoundException e) {
         return null;
       }
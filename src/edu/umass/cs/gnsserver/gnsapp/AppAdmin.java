@@ -31,6 +31,8 @@ import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
 import edu.umass.cs.gnsserver.gnsapp.packet.admin.AdminRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.admin.DumpRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
+import edu.umass.cs.gnsserver.gnamed.GnsRecordCache;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 
 import org.json.JSONArray;
@@ -187,6 +189,9 @@ public class AppAdmin extends Thread implements Shutdownable {
                     //DBNameRecord.removeNameRecord(nameRecord.getName());
                     cnt++;
                   }
+                  Select.invalidateCachedResults(null);
+                  NSAuthentication.invalidateAclCache();
+                  GnsRecordCache.clear();
                   GNSConfig.getLogger().log(Level.FINE,
                           "NSListenerAdmin ({0}) : Deleting {1} records took {2}ms",
                           new Object[]{app.getNodeID(), cnt, System.currentTimeMillis() - startTime});
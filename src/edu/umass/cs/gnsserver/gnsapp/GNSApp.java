@@ -34,6 +34,9 @@ import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnscommon.packets.AdminCommandPacket;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSGroupMaintenance;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSSignatureVerificationStage;
 import edu.umass.cs.gnsserver.database.NoSQLRecords;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
@@ -41,6 +44,7 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ListenerAdmin;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.json.JSONException;
@@ -54,6 +58,7 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.Comma
 import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.packet.BasicPacketWithClientAddress;
 import edu.umass.cs.gnsserver.gnamed.DnsTranslator;
+import edu.umass.cs.gnsserver.gnamed.GnsRecordCache;
 import edu.umass.cs.gnsserver.gnamed.UdpDnsServer;
 import edu.umass.cs.gnsserver.gnsapp.packet.InternalCommandPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
@@ -467,12 +472,20 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
         DelayProfiler.updateDelayNano("jsonificationApp", t);
       }
       Request request = (Request) Packet.createInstance(json, nodeConfig);
+      verifyAhead(request);
       return request;
     } catch (JSONException e) {
       throw new RequestParseException(e);
     }
   }
 
+  // Starts checking the signature of signed commands before they get to execute.
+  private static void verifyAhead(Request request) {
+    if (request instanceof CommandPacket) {
+      NSSignatureVerificationStage.verifyAhead((CommandPacket) request);
+    }
+  }
+
   /**
    * This method avoids an unnecessary restringification (as is the case with
    * {@link #getRequest(String)} above) by decoding the JSON, stamping it with
@@ -541,7 +554,9 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
   @Override
   public Request getRequest(byte[] msgBytes, NIOHeader header)
           throws RequestParseException {
-    return getRequestStatic(msgBytes, header, nodeConfig);
+    Request request = getRequestStatic(msgBytes, header, nodeConfig);
+    verifyAhead(request);
+    return request;
   }
 
   /**
@@ -630,7 +645,9 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
         // delete
         // the record. If the record does not exists this is just a
         // noop.
+        List<String> groups = NSGroupMaintenance.getMaintainedGroups(name, nameRecordDB);
         NameRecord.removeNameRecord(nameRecordDB, name);
+        NSGroupMaintenance.recordRemoved(name, groups, this);
       } else // state does not equal null so we either create a new record
       // or update the existing one
        if (!NameRecord.containsRecord(nameRecordDB, name)) {
@@ -655,6 +672,13 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
                     "Problem updating state: {0}", e.getMessage());
           }
         }
+      // records were created, removed or replaced wholesale
+      Select.invalidateCachedResults(null);
+      NSAuthentication.invalidateAclCache(name);
+      GnsRecordCache.invalidate(name);
+      if (state != null) {
+        NSGroupMaintenance.recordUpdated(name, null, this);
+      }
       return true;
     } catch (FailedDBOperationException e) {
       GNSConfig.getLogger().log(Level.SEVERE,
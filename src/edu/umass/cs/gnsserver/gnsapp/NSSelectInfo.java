@@ -19,13 +19,17 @@
  */
 package edu.umass.cs.gnsserver.gnsapp;
 
+import edu.umass.cs.gigapaxos.interfaces.RequestCallback;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectGroupBehavior;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 
 import org.json.JSONObject;
 
+import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -43,6 +47,14 @@ public class NSSelectInfo<NodeIDType> {
   private final String guid; // the group GUID we are maintaining or null for simple select
   private final String query; // The string used to set up the query if applicable
   private final int minRefreshInterval; // in seconds
+  private final int limit; // maximum number of records to collect or -1 for no limit
+  private final List<String> projection; // user fields returned with each record or null for just guids
+  private final long requestId;
+  private final InetSocketAddress clientAddress;
+  private final RequestCallback callback; // called with the response when the query completes
+  private final ConcurrentHashMap<NodeIDType, Long> lastHeardFrom; // time we last heard from each server
+  private final Set<NodeIDType> timedOutServers;
+  private boolean finished = false;
   /**
    * 
    * @param id
@@ -54,6 +66,28 @@ public class NSSelectInfo<NodeIDType> {
    * @param guid 
    */
   public NSSelectInfo(int id, Set<NodeIDType> serverIds, SelectOperation selectOperation, SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid) {
+    this(id, serverIds, selectOperation, groupBehavior, query, minRefreshInterval, guid, -1, null,
+            -1, null, null);
+  }
+
+  /**
+   * Creates the info for a select request. The callback is invoked with the
+   * response once all the servers have responded, the limit is reached or the
+   * remaining servers have missed their deadlines.
+   * 
+   * @param id
+   * @param serverIds
+   * @param packet
+   * @param callback
+   */
+  public NSSelectInfo(int id, Set<NodeIDType> serverIds, SelectRequestPacket<?> packet, RequestCallback callback) {
+    this(id, serverIds, packet.getSelectOperation(), packet.getGroupBehavior(), packet.getQuery(),
+            packet.getMinRefreshInterval(), packet.getGuid(), packet.getLimit(), packet.getProjection(),
+            packet.getId(), packet.getClientAddress(), callback);
+  }
+
+  private NSSelectInfo(int id, Set<NodeIDType> serverIds, SelectOperation selectOperation, SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid,
+          int limit, List<String> projection, long requestId, InetSocketAddress clientAddress, RequestCallback callback) {
     this.id = id;
     this.serversToBeProcessed = Collections.newSetFromMap(new ConcurrentHashMap<NodeIDType, Boolean>());
     this.serversToBeProcessed.addAll(serverIds);
@@ -63,6 +97,17 @@ public class NSSelectInfo<NodeIDType> {
     this.query = query;
     this.guid = guid;
     this.minRefreshInterval = minRefreshInterval;
+    this.limit = limit;
+    this.projection = projection;
+    this.requestId = requestId;
+    this.clientAddress = clientAddress;
+    this.callback = callback;
+    this.lastHeardFrom = new ConcurrentHashMap<>(10, 0.75f, 3);
+    long now = System.currentTimeMillis();
+    for (NodeIDType serverId : serverIds) {
+      this.lastHeardFrom.put(serverId, now);
+    }
+    this.timedOutServers = Collections.newSetFromMap(new ConcurrentHashMap<NodeIDType, Boolean>());
   }
 
   /**
@@ -96,6 +141,95 @@ public class NSSelectInfo<NodeIDType> {
     return serversToBeProcessed.isEmpty();
   }
 
+  /**
+   * Records that we just heard from the server. This pushes back that server's deadline.
+   * 
+   * @param id
+   */
+  public void heardFrom(NodeIDType id) {
+    lastHeardFrom.put(id, System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the servers that have yet to respond that we haven't heard from in timeout ms.
+   * 
+   * @param timeout
+   * @return the set of servers
+   */
+  public Set<NodeIDType> serversPastDeadline(long timeout) {
+    Set<NodeIDType> result = new HashSet<>();
+    long now = System.currentTimeMillis();
+    for (NodeIDType serverId : serversToBeProcessed) {
+      Long lastHeard = lastHeardFrom.get(serverId);
+      if (lastHeard == null || now - lastHeard >= timeout) {
+        result.add(serverId);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the time at which the next server that has yet to respond will miss its deadline.
+   * 
+   * @param timeout
+   * @return the time in ms
+   */
+  public long nextDeadline(long timeout) {
+    long earliest = Long.MAX_VALUE;
+    for (NodeIDType serverId : serversToBeProcessed) {
+      Long lastHeard = lastHeardFrom.get(serverId);
+      earliest = Math.min(earliest, (lastHeard != null ? lastHeard : 0) + timeout);
+    }
+    return earliest;
+  }
+
+  /**
+   * Gives up on a server that missed its deadline. The query completes with the
+   * results from the other servers.
+   * 
+   * @param id
+   */
+  public void timeOutServer(NodeIDType id) {
+    timedOutServers.add(id);
+    serversToBeProcessed.remove(id);
+  }
+
+  /**
+   * Returns the servers that we gave up on.
+   * If this is not empty the results are partial.
+   * 
+   * @return the set of servers
+   */
+  public Set<NodeIDType> getTimedOutServers() {
+    return timedOutServers;
+  }
+
+  /**
+   * Returns true if we have collected as many responses as the limit allows.
+   * 
+   * @return true if the limit has been reached
+   */
+  public boolean limitReached() {
+    return limit >= 0 && responses.size() >= limit;
+  }
+
+  /**
+   * Returns true if the query has been marked as finished.
+   * 
+   * @return true if finished
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Marks the query as finished.
+   * Callers should synchronize on this object when testing and setting this.
+   */
+  public void setFinished() {
+    this.finished = true;
+  }
+
   /**
    * Adds the result of a query for a particular guid if the guid has not been seen yet.
    * 
@@ -165,5 +299,50 @@ public class NSSelectInfo<NodeIDType> {
   public int getMinRefreshInterval() {
     return minRefreshInterval;
   }
+
+  /**
+   * Return the maximum number of records to collect.
+   * 
+   * @return the limit or -1 if there is no limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Return the id of the original request.
+   * 
+   * @return the request id
+   */
+  public long getRequestId() {
+    return requestId;
+  }
+
+  /**
+   * Return the address of the client that sent the original request.
+   * 
+   * @return the address
+   */
+  public InetSocketAddress getClientAddress() {
+    return clientAddress;
+  }
+
+  /**
+   * Return the callback that is invoked when the query completes.
+   * 
+   * @return the callback or null
+   */
+  public RequestCallback getCallback() {
+    return callback;
+  }
+
+  /**
+   * Return the user fields returned with each record.
+   * 
+   * @return the list of fields or null if only guids are returned
+   */
+  public List<String> getProjection() {
+    return projection;
+  }
   
 }
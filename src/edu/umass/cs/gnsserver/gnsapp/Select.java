@@ -24,6 +24,8 @@ package edu.umass.cs.gnsserver.gnsapp;
  * University of Massachusetts
  * All Rights Reserved
  */
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.gigapaxos.interfaces.RequestCallback;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
@@ -38,23 +40,36 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSGroupAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSGroupMaintenance;
 import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectGroupBehavior;
-import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectPageBehavior;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.metrics.ServerMetrics;
 import edu.umass.cs.gnsserver.utils.ResultValue;
 import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.Util;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -66,10 +81,22 @@ import java.util.logging.Logger;
  * LNS). This NS handles the broadcast to all of the NSs and the collection of results.
  *
  * For all select operations the NS which receive the broadcasted select packet execute the
- * appropriate query to collect all the guids that satisfy it. They then send the full records
+ * appropriate query to collect all the guids that satisfy it. They then send the records
  * from all these queries back to the collecting NS. The collecting NS then extracts the GUIDS
  * from all the results removing duplicates and then sends back JUST THE GUIDs, not the full
- * records.
+ * records. The projection of the select request is pushed down to the database so that by default
+ * the records read and sent back contain only the name of the record. If the request names
+ * a list of fields those are read and sent as well and the collecting NS returns those records
+ * along with the GUIDs.
+ *
+ * Records are sent back a page (at most SELECT_PAGE_SIZE records) at a time. Each NS keeps
+ * its cursor open between pages and the collecting NS only asks for the next page from an NS after
+ * it has processed the previous one, so the memory used on the other NSs depends on the page size
+ * not the size of the result. If the select has a limit the collecting NS stops asking for pages
+ * once it has enough records and tells the other NSs to close their cursors.
+ *
+ * Each NS caches the records its part of a select matched (see {@link SelectResultCache}) so a repeated
+ * select is answered without another scan of the database until one of the fields it reads is updated.
  *
  * Here's the special handling the NS does for guid GROUPs:
  *
@@ -89,6 +116,10 @@ import java.util.logging.Logger;
  * (in the other case the response is sent back on request side of things).
  * We handle this exactly the same as we do GROUP_SETUP (set group, return results, time bookkeeping).
  *
+ * Every NS that runs the query of a GROUP_SETUP or GROUP_LOOKUP remembers it and adds or removes
+ * records from the group as they are updated (see {@link NSGroupMaintenance}). While that is on
+ * a GROUP_LOOKUP only does the usual query broadcast once GROUP_RESYNC_INTERVAL has passed.
+ *
  * @author westy
  */
 public class Select {
@@ -107,7 +138,8 @@ public class Select {
   private static final Random RANDOM_ID = new Random();
   private static final ConcurrentMap<Integer, NSSelectInfo<String>> QUERIES_IN_PROGRESS
           = new ConcurrentHashMap<>(10, 0.75f, 3);
-  private static final ConcurrentMap<Integer, SelectResponsePacket<String>> QUERY_RESULT
+  // cursors this NS is holding open for paged selects from collecting NSs
+  private static final ConcurrentMap<String, SelectCursorInfo> OPEN_CURSORS
           = new ConcurrentHashMap<>(10, 0.75f, 3);
 
   /**
@@ -133,21 +165,86 @@ public class Select {
   /* FIXME: arun: need to determine this timeout systematically, not an ad hoc constant.
    */
   private static final long SELECT_REQUEST_TIMEOUT = Config.getGlobalInt(GNSConfig.GNSC.SELECT_REQUEST_TIMEOUT);
+  private static final int SELECT_PAGE_SIZE = Config.getGlobalInt(GNSConfig.GNSC.SELECT_PAGE_SIZE);
+  private static final int SELECT_RESULT_LIMIT = Config.getGlobalInt(GNSConfig.GNSC.SELECT_RESULT_LIMIT);
+
+  // the records the local part of recent selects matched
+  private static final SelectResultCache RESULT_CACHE
+          = new SelectResultCache(Config.getGlobalInt(GNSConfig.GNSC.SELECT_CACHE_TTL),
+                  Config.getGlobalInt(GNSConfig.GNSC.SELECT_CACHE_SIZE),
+                  Config.getGlobalInt(GNSConfig.GNSC.SELECT_CACHE_MAX_RECORDS));
+
+  // Fires the per-server deadline checks for selects in progress and closes idle cursors.
+  private static final ScheduledExecutorService DEADLINE_TIMER
+          = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, Select.class.getSimpleName() + "DeadlineTimer");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  static {
+    DEADLINE_TIMER.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          expireIdleCursors();
+        } catch (RuntimeException e) {
+          getLogger().log(Level.SEVERE, "Problem closing idle select cursors: {0}", e);
+        }
+      }
+    }, SELECT_REQUEST_TIMEOUT, Math.max(SELECT_REQUEST_TIMEOUT, 1), TimeUnit.MILLISECONDS);
+  }
 
   /**
    * Handle a select request from a client.
    * This node is the broadcaster and selector.
    *
+   * This blocks until this select and only this select completes. Callers
+   * that do not need to wait should use
+   * {@link #handleSelectRequestFromClient(SelectRequestPacket, GNSApplicationInterface, RequestCallback)}.
+   * If the select stops making progress without completing, which the deadline checks
+   * should prevent, an error response is returned after two SELECT_REQUEST_TIMEOUTs.
+   *
    * @param packet
    * @param app
-   * @return a select response packet
+   * @return a select response packet or null if the select could not be completed
    * @throws JSONException
    * @throws UnknownHostException
    * @throws FailedDBOperationException
    */
-  @SuppressWarnings("unchecked")
   public static SelectResponsePacket<String> handleSelectRequestFromClient(SelectRequestPacket<String> packet,
           GNSApplicationInterface<String> app) throws JSONException, UnknownHostException, FailedDBOperationException {
+    SelectResponseWaiter waiter = new SelectResponseWaiter();
+    // Wait for responses, otherwise you are violating Replicable.execute(.)'s semantics.
+    if (handleSelectRequestFromClient(packet, app, waiter)) {
+      return waiter.waitForResponse(packet, app);
+    }
+    return null;
+  }
+
+  /**
+   * Handle a select request from a client without waiting for the result.
+   * This node is the broadcaster and selector.
+   *
+   * The callback is invoked with the {@link SelectResponsePacket} once all the servers have responded,
+   * the limit is reached or the servers that have yet to respond have each gone longer than
+   * SELECT_REQUEST_TIMEOUT without sending anything. In the last case the response contains
+   * the partial results from the servers that did respond.
+   *
+   * @param packet
+   * @param app
+   * @param callback
+   * @return true if the select was started or answered, false if it could not be sent
+   * @throws JSONException
+   * @throws UnknownHostException
+   * @throws FailedDBOperationException
+   */
+  @SuppressWarnings("unchecked")
+  public static boolean handleSelectRequestFromClient(SelectRequestPacket<String> packet,
+          GNSApplicationInterface<String> app, RequestCallback callback) throws JSONException, UnknownHostException, FailedDBOperationException {
     // special case handling of the GROUP_LOOK operation
     // If sufficient time hasn't passed we just send the current value back
     if (packet.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
@@ -159,12 +256,16 @@ public class Select {
                 "GROUP_LOOKUP Request: {0} - {1} <= {2}", new Object[]{new Date().getTime(), lastUpdate.getTime(), minRefreshInterval});
 
         // if not enough time has passed we just return the current value of the group
-        if (new Date().getTime() - lastUpdate.getTime() <= minRefreshInterval) {
+        // which is also the case if the members are being kept up to date as records change
+        long sinceLastUpdate = new Date().getTime() - lastUpdate.getTime();
+        if (sinceLastUpdate <= minRefreshInterval
+                || (NSGroupMaintenance.isEnabled() && sinceLastUpdate <= NSGroupMaintenance.getResyncInterval())) {
           getLogger().log(Level.FINE,
                   "GROUP_LOOKUP Request: Time has not elapsed. Returning current group value for {0}", packet.getGuid());
           ResultValue result = NSGroupAccess.lookupMembers(packet.getGuid(), true, app.getRequestHandler());
           //sendReponsePacketToCaller(packet.getId(), packet.getClientAddress(), result.toStringSet(), app);
-          return createReponsePacket(packet.getId(), packet.getClientAddress(), result.toStringSet(), app);
+          callback.handleResponse(createReponsePacket(packet.getId(), packet.getClientAddress(), result.toStringSet(), app));
+          return true;
         }
       } else {
         getLogger().fine("GROUP_LOOKUP Request: No Last Update Info ");
@@ -180,9 +281,13 @@ public class Select {
     // If it's not a group lookup or is but enough time has passed we do the usual thing
     // and send the request out to all the servers. We'll receive a response sent on the flipside.
     Set<String> serverIds = app.getGNSNodeConfig().getActiveReplicas();
+    if (packet.getLimit() == -1) {
+      packet.setLimit(SELECT_RESULT_LIMIT);
+    }
     // store the info for later
-    int queryId = addQueryInfo(serverIds, packet.getSelectOperation(), packet.getGroupBehavior(),
-            packet.getQuery(), packet.getMinRefreshInterval(), packet.getGuid());
+    int queryId = addQueryInfo(serverIds, packet, callback);
+    ServerMetrics.Counter.SELECTS.increment();
+    ServerMetrics.Counter.SELECT_SERVERS.add(serverIds.size());
     if (packet.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
       // the query string is supplied with a lookup so we stuff in it there. It was saved from the SETUP operation.
       packet.setQuery(NSGroupAccess.getQueryString(packet.getGuid(), app.getRequestHandler()));
@@ -198,61 +303,113 @@ public class Select {
       for (String serverId : (Set<String>) Util.getOtherThan(serverIds, app.getNodeID())) {
         app.sendToID(serverId, outgoingJSON);
       }
+      scheduleDeadlineCheck(queryId, SELECT_REQUEST_TIMEOUT, app);
 
-      // We handle our self by locally getting self-select records
-      handleSelectResponse(getMySelectedRecords(packet, app), app);
-      // Wait for responses, otherwise you are violating Replicable.execute(.)'s semantics.
-      synchronized (QUERIES_IN_PROGRESS) {
-        while (QUERIES_IN_PROGRESS.containsKey(queryId)) {
-          try {
-            QUERIES_IN_PROGRESS.wait(SELECT_REQUEST_TIMEOUT);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
+      // We handle our self by locally paging through self-select records
+      handleSelfSelect(packet, app);
+      return true;
+    } catch (IOException | ClientException e) {
+      getLogger().log(Level.SEVERE, "Exception while sending select request: {0}", e);
+      QUERIES_IN_PROGRESS.remove(queryId);
+    }
+    return false;
+  }
+
+  private static void scheduleDeadlineCheck(final int queryId, long delay,
+          final GNSApplicationInterface<String> app) {
+    DEADLINE_TIMER.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          checkDeadlines(queryId, app);
+        } catch (JSONException | ClientException | IOException | RuntimeException e) {
+          getLogger().log(Level.SEVERE, "Problem checking select deadlines: {0}", e);
         }
       }
-      if (QUERY_RESULT.containsKey(queryId)) {
-        return QUERY_RESULT.remove(queryId);
-      }
+    }, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+  }
 
-    } catch (IOException | ClientException e) {
-      getLogger().log(Level.SEVERE, "Exception while sending select request: {0}", e);
+  /**
+   * Gives up on the servers that have gone longer than SELECT_REQUEST_TIMEOUT without sending
+   * us a page. If that leaves no servers to wait for the query completes with what we have,
+   * otherwise we check again at the next deadline.
+   */
+  private static void checkDeadlines(int queryId, GNSApplicationInterface<String> app)
+          throws JSONException, ClientException, IOException {
+    NSSelectInfo<String> info = QUERIES_IN_PROGRESS.get(queryId);
+    if (info == null) {
+      return;
+    }
+    Set<String> lateServers;
+    boolean finished = false;
+    synchronized (info) {
+      if (info.isFinished()) {
+        return;
+      }
+      lateServers = info.serversPastDeadline(SELECT_REQUEST_TIMEOUT);
+      for (String serverId : lateServers) {
+        info.timeOutServer(serverId);
+      }
+      ServerMetrics.Counter.SELECT_SERVER_TIMEOUTS.add(lateServers.size());
+      if (info.allServersResponded()) {
+        info.setFinished();
+        finished = true;
+      }
+    }
+    for (String serverId : lateServers) {
+      getLogger().log(Level.WARNING,
+              "NS {0} select {1} gave up waiting for {2}",
+              new Object[]{app.getNodeID(), queryId, serverId});
+      if (!serverId.equals(app.getNodeID())) {
+        sendPageRequest(serverId, info, SelectPageBehavior.CLOSE, app);
+      }
+    }
+    if (finished) {
+      handledAllServersResponded(info, app);
+    } else {
+      scheduleDeadlineCheck(queryId, info.nextDeadline(SELECT_REQUEST_TIMEOUT) - System.currentTimeMillis(), app);
     }
-    return null;
   }
 
+  /**
+   * Pages through the records that satisfy the select on this NS and hands each page
+   * directly to the response handling code. This is the collecting NS's own share of the select.
+   *
+   * @param request
+   * @param app
+   */
   @SuppressWarnings("unchecked")
-  private static SelectResponsePacket<String> getMySelectedRecords(
-          SelectRequestPacket<String> request,
-          GNSApplicationInterface<String> app) {
-    SelectResponsePacket<String> response = null;
+  private static void handleSelfSelect(SelectRequestPacket<String> request,
+          GNSApplicationInterface<String> app) throws JSONException, ClientException, IOException {
+    SelectCursorInfo cursorInfo = null;
+    registerGroupQuery(request);
     try {
-      // grab the records
-      JSONArray jsonRecords = getJSONRecordsForSelect(request, app);
-      response = SelectResponsePacket.makeSuccessPacketForRecordsOnly(
-              request.getId(), request.getClientAddress(),
-              request.getCcpQueryId(), request.getNsQueryId(),
-              app.getNodeID(), jsonRecords);
-      getLogger().log(
-              Level.FINE,
-              "NS {0} sending back {1} record(s) in response to self-select request {2}",
-              new Object[]{app.getNodeID(), jsonRecords.length(),
-                request.getSummary()});
+      cursorInfo = openCursor(request, app);
+      SelectResponsePacket<String> response;
+      do {
+        response = getNextPage(request, cursorInfo, app);
+        handleSelectResponse(response, app);
+        // stop early if the query finished because the limit was reached
+      } while (!response.isLastPage() && isWaitingFor(request.getNsQueryId(), app.getNodeID()));
     } catch (FailedDBOperationException e) {
       getLogger().log(Level.SEVERE, "Exception while handling self-select request: {0}",
               e.getMessage());
-      //e.printStackTrace();
-      response = SelectResponsePacket.makeFailPacket(request.getId(), request.getClientAddress(),
-              request.getNsQueryId(), app.getNodeID(), e.getMessage());
+      handleSelectResponse(SelectResponsePacket.makeFailPacket(request.getId(), request.getClientAddress(),
+              request.getNsQueryId(), app.getNodeID(), e.getMessage()), app);
+    } finally {
+      if (cursorInfo != null) {
+        cursorInfo.close();
+      }
     }
-    return response;
   }
 
   /**
    * Handle a select request from the collecting NS. This is what other NSs do when they
    * get a SelectRequestPacket from the NS that originally received the packet (the one that is collecting
    * all the records).
-   * This NS looks up the records and returns them.
+   * This NS looks up the records and returns them a page at a time. The cursor is held open
+   * between pages until the last page is sent, the collecting NS closes it or it sits idle
+   * longer than the select timeout.
    *
    * @param incomingJSON
    * @param app
@@ -262,25 +419,51 @@ public class Select {
   private static void handleSelectRequestFromNS(SelectRequestPacket<String> request,
           GNSApplicationInterface<String> app) throws JSONException {
     getLogger().log(Level.FINE,
-            "NS {0} {1} received query {2}",
+            "NS {0} {1} received query {2} {3}",
             new Object[]{Select.class.getSimpleName(),
-              app.getNodeID(), request.getSummary()});
+              app.getNodeID(), request.getPageBehavior(), request.getSummary()});
+    String cursorKey = request.getNameServerID() + ":" + request.getNsQueryId();
     // SelectRequestPacket<String> request = new SelectRequestPacket<String>(incomingJSON, app.getGNSNodeConfig());
     try {
-      // grab the records
-      JSONArray jsonRecords = getJSONRecordsForSelect(request, app);
-      @SuppressWarnings("unchecked")
-      SelectResponsePacket<String> response = SelectResponsePacket.makeSuccessPacketForRecordsOnly(request.getId(),
-              request.getClientAddress(),
-              request.getCcpQueryId(), request.getNsQueryId(), app.getNodeID(), jsonRecords);
+      SelectCursorInfo cursorInfo;
+      switch (request.getPageBehavior()) {
+        case CLOSE:
+          cursorInfo = OPEN_CURSORS.remove(cursorKey);
+          if (cursorInfo != null) {
+            cursorInfo.close();
+          }
+          return;
+        case NEXT_PAGE:
+          cursorInfo = OPEN_CURSORS.get(cursorKey);
+          if (cursorInfo == null) {
+            throw new FailedDBOperationException(NameRecord.class.getSimpleName(), cursorKey,
+                    "No open cursor for select");
+          }
+          break;
+        default:
+          registerGroupQuery(request);
+          cursorInfo = openCursor(request, app);
+          OPEN_CURSORS.put(cursorKey, cursorInfo);
+          break;
+      }
+      SelectResponsePacket<String> response = getNextPage(request, cursorInfo, app);
+      if (response.isLastPage()) {
+        OPEN_CURSORS.remove(cursorKey);
+        cursorInfo.close();
+      }
       getLogger().log(Level.FINE,
-              "NS {0} sending back {1} record(s) in response to {2}",
-              new Object[]{app.getNodeID(), jsonRecords.length(), request.getSummary()});
+              "NS {0} sending back {1} record(s) in page {2} in response to {3}",
+              new Object[]{app.getNodeID(), response.getRecords().length(), response.getPage(),
+                request.getSummary()});
       // and send them back to the originating NS
       app.sendToID(request.getNameServerID(), response.toJSONObject());
     } catch (FailedDBOperationException | JSONException | IOException e) {
       getLogger().log(Level.SEVERE, "Exception while handling select request: {0}", e);
       e.printStackTrace();
+      SelectCursorInfo cursorInfo = OPEN_CURSORS.remove(cursorKey);
+      if (cursorInfo != null) {
+        cursorInfo.close();
+      }
       SelectResponsePacket<String> failResponse = SelectResponsePacket.makeFailPacket(request.getId(),
               request.getClientAddress(),
               request.getNsQueryId(), app.getNodeID(), e.getMessage());
@@ -292,6 +475,84 @@ public class Select {
     }
   }
 
+  // Every NS sees the query of a group when it is set up or refreshed so it can keep the members up to date.
+  private static void registerGroupQuery(SelectRequestPacket<String> request) {
+    if (!SelectGroupBehavior.NONE.equals(request.getGroupBehavior())) {
+      NSGroupMaintenance.registerGroupQuery(request);
+    }
+  }
+
+  // Opens a cursor over the cached records for the select if there are any, otherwise over the database.
+  private static SelectCursorInfo openCursor(SelectRequestPacket<String> request,
+          GNSApplicationInterface<String> app) throws FailedDBOperationException {
+    String cacheKey = RESULT_CACHE.isEnabled() ? SelectResultCache.getCacheKey(request) : null;
+    List<JSONObject> cachedRecords = RESULT_CACHE.get(cacheKey);
+    if (cachedRecords != null) {
+      getLogger().log(Level.FINE, "NS {0} answering {1} from {2} cached record(s)",
+              new Object[]{app.getNodeID(), request.getSummary(), cachedRecords.size()});
+      return new SelectCursorInfo(new CachedRecordCursor(cachedRecords), request.getLimit());
+    }
+    // grab the generation before reading so an update that happens while we read isn't missed
+    long generation = RESULT_CACHE.getGeneration();
+    SelectCursorInfo cursorInfo = new SelectCursorInfo(getRecordCursorForSelect(request, app), request.getLimit());
+    if (cacheKey != null) {
+      cursorInfo.cacheResultsAs(cacheKey, SelectResultCache.getReferencedFields(request), generation);
+    }
+    return cursorInfo;
+  }
+
+  /**
+   * Removes the cached select results that depend on any of the fields.
+   * Call this after a record on this name server is changed.
+   *
+   * @param fields the fields that changed or null if a whole record was created, removed or replaced
+   */
+  public static void invalidateCachedResults(Collection<String> fields) {
+    RESULT_CACHE.invalidate(fields);
+  }
+
+  // Reads the next page of records from the cursor and wraps them in a response packet.
+  @SuppressWarnings("unchecked")
+  private static SelectResponsePacket<String> getNextPage(SelectRequestPacket<String> request,
+          SelectCursorInfo cursorInfo, GNSApplicationInterface<String> app) throws FailedDBOperationException {
+    JSONArray jsonRecords = cursorInfo.nextPage(SELECT_PAGE_SIZE);
+    return SelectResponsePacket.makeSuccessPacketForRecordsPage(request.getId(),
+            request.getClientAddress(),
+            request.getCcpQueryId(), request.getNsQueryId(), app.getNodeID(), jsonRecords,
+            cursorInfo.getPage(), cursorInfo.isExhausted());
+  }
+
+  // Closes cursors that a collecting NS has stopped asking for pages from.
+  // Runs every SELECT_REQUEST_TIMEOUT so they are closed even if no more selects come in.
+  private static void expireIdleCursors() {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, SelectCursorInfo> entry : OPEN_CURSORS.entrySet()) {
+      if (now - entry.getValue().getLastAccess() > SELECT_REQUEST_TIMEOUT
+              && OPEN_CURSORS.remove(entry.getKey(), entry.getValue())) {
+        getLogger().log(Level.FINE, "Closing idle select cursor {0}", entry.getKey());
+        entry.getValue().close();
+      }
+    }
+  }
+
+  // Returns true if the query is in progress and still waiting for more from the server.
+  private static boolean isWaitingFor(int queryId, String serverId) {
+    NSSelectInfo<String> info = QUERIES_IN_PROGRESS.get(queryId);
+    return info != null && info.serversYetToRespond().contains(serverId);
+  }
+
+  // Asks a name server for the next page of records or to close its cursor.
+  private static void sendPageRequest(String serverId,
+          NSSelectInfo<String> info, SelectPageBehavior pageBehavior,
+          GNSApplicationInterface<String> replica) throws JSONException, IOException {
+    SelectRequestPacket<String> request = new SelectRequestPacket<>(info.getRequestId(),
+            info.getSelectOperation(), info.getGroupBehavior(), null, null, null);
+    request.setNameServerID(replica.getNodeID());
+    request.setNsQueryId(info.getId());
+    request.setPageBehavior(pageBehavior);
+    replica.sendToID(serverId, request.toJSONObject());
+  }
+
   /**
    * Handles a select response.
    * This code runs in the collecting NS.
@@ -315,6 +576,14 @@ public class Select {
               new Object[]{replica.getNodeID(), packet.getNsQueryId()});
       return;
     }
+    if (!info.serversYetToRespond().contains(packet.getNameServerID())) {
+      // we already gave up on this server or it already sent its last page
+      getLogger().log(Level.FINE,
+              "NS {0} ignoring late response from {1} for query {2}",
+              new Object[]{replica.getNodeID(), packet.getNameServerID(), packet.getNsQueryId()});
+      return;
+    }
+    info.heardFrom(packet.getNameServerID());
     // if there is no error update our results list
     if (SelectResponsePacket.ResponseCode.NOERROR.equals(packet.getResponseCode())) {
       // stuff all the unique records into the info structure
@@ -325,17 +594,41 @@ public class Select {
               "NS {0} processing error response: {1}",
               new Object[]{replica.getNodeID(), packet.getErrorMessage()});
     }
-    // Remove the NS ID from the list to keep track of who has responded
-    boolean allServersResponded = false;
+    // Errors and last pages mean that server is done.
+    boolean serverDone = !SelectResponsePacket.ResponseCode.NOERROR.equals(packet.getResponseCode())
+            || packet.isLastPage();
+    boolean finished = false;
+    boolean limitReached = false;
+    Set<String> unfinishedServers = null;
     /* synchronization needed, otherwise assertion in app.sendToClient
      * implying that an outstanding request is always found gets violated. */
     synchronized (info) {
-      // Remove the NS ID from the list to keep track of who has responded
-      info.removeServerID(packet.getNameServerID());
-      allServersResponded = info.allServersResponded();
+      if (serverDone) {
+        // Remove the NS ID from the list to keep track of who has responded
+        info.removeServerID(packet.getNameServerID());
+      }
+      limitReached = info.limitReached();
+      if (!info.isFinished() && (info.allServersResponded() || limitReached)) {
+        info.setFinished();
+        finished = true;
+        unfinishedServers = new HashSet<>(info.serversYetToRespond());
+      }
     }
-    if (allServersResponded) {
-      handledAllServersResponded(packet, info, replica);
+    if (finished) {
+      if (limitReached) {
+        // we have enough so tell everyone else to give up their cursors
+        for (String serverId : unfinishedServers) {
+          if (!serverId.equals(replica.getNodeID())) {
+            sendPageRequest(serverId, info, SelectPageBehavior.CLOSE, replica);
+          }
+        }
+      }
+      handledAllServersResponded(info, replica);
+    } else if (!serverDone && !packet.getNameServerID().equals(replica.getNodeID())) {
+      // Ask for the next page only now that this one is processed.
+      // Our own pages are read in handleSelfSelect.
+      sendPageRequest(packet.getNameServerID(), info, SelectPageBehavior.NEXT_PAGE, replica);
+      ServerMetrics.Counter.SELECT_PAGE_REQUESTS.increment();
     } else {
       getLogger().log(Level.FINE,
               "NS{0} servers yet to respond:{1}",
@@ -350,24 +643,37 @@ public class Select {
     return SelectResponsePacket.makeSuccessPacketForGuidsOnly(id, null, -1, null, new JSONArray(guids));
   }
 
-  private static void handledAllServersResponded(SelectResponsePacket<String> packet, NSSelectInfo<String> info,
+  @SuppressWarnings("unchecked")
+  private static SelectResponsePacket<String> createReponsePacket(long id,
+          InetSocketAddress address, Set<String> guids, JSONArray records,
+          GNSApplicationInterface<String> app) throws JSONException {
+    return SelectResponsePacket.makeSuccessPacketForGuidsAndRecords(id, null, -1, null, new JSONArray(guids), records);
+  }
+
+  private static void handledAllServersResponded(NSSelectInfo<String> info,
           GNSApplicationInterface<String> replica) throws JSONException, ClientException, IOException {
     // If all the servers have sent us a response we're done.
-    Set<String> guids = extractGuidsFromRecords(info.getResponsesAsSet());
+    Set<String> guids = extractGuidsFromRecords(info.getResponsesAsSet(), info.getLimit());
 
-    // must be done before the notify below
     // we're done processing this select query
-    QUERIES_IN_PROGRESS.remove(packet.getNsQueryId());
+    QUERIES_IN_PROGRESS.remove(info.getId());
+    if (!info.getTimedOutServers().isEmpty()) {
+      getLogger().log(Level.INFO,
+              "NS {0} returning partial results for select {1}; no response from {2}",
+              new Object[]{replica.getNodeID(), info.getId(), info.getTimedOutServers()});
+    }
 
     // Pull the records out of the info structure
-    SelectResponsePacket<String> response = createReponsePacket(packet.getId(), packet.getReturnAddress(), guids, replica);
-    // and put the result where the coordinator can see it.
-    QUERY_RESULT.put(packet.getNsQueryId(), response);
+    SelectResponsePacket<String> response;
+    if (info.getProjection() == null) {
+      response = createReponsePacket(info.getRequestId(), info.getClientAddress(), guids, replica);
+    } else {
+      response = createReponsePacket(info.getRequestId(), info.getClientAddress(), guids,
+              extractRecords(info.getResponsesAsSet(), guids), replica);
+    }
     // and let the coordinator know the value is there
-    if (GNSApp.DELEGATE_CLIENT_MESSAGING) {
-      synchronized (QUERIES_IN_PROGRESS) {
-        QUERIES_IN_PROGRESS.notify();
-      }
+    if (info.getCallback() != null) {
+      info.getCallback().handleResponse(response);
     }
     //sendReponsePacketToCaller(packet.getId(), packet.getReturnAddress(), guids, replica);
     // Now we update any group guid stuff
@@ -381,15 +687,18 @@ public class Select {
     if (info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_SETUP) || info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
       String guid = info.getGuid();
       getLogger().log(Level.FINE, "NS{0} updating group members", replica.getNodeID());
-      NSGroupAccess.updateMembers(guid, guids, replica.getRequestHandler(), packet.getReturnAddress());
+      NSGroupAccess.updateMembers(guid, guids, replica.getRequestHandler(), info.getClientAddress());
       //NSGroupAccess.updateRecords(guid, processResponsesIntoJSONArray(info.getResponsesAsMap()), replica); 
       NSGroupAccess.updateLastUpdate(guid, new Date(), replica.getRequestHandler());
     }
   }
 
-  private static Set<String> extractGuidsFromRecords(Set<JSONObject> records) {
+  private static Set<String> extractGuidsFromRecords(Set<JSONObject> records, int limit) {
     Set<String> result = new HashSet<>();
     for (JSONObject json : records) {
+      if (limit >= 0 && result.size() >= limit) {
+        break;
+      }
       try {
         result.add(json.getString(NameRecord.NAME.getName()));
       } catch (JSONException e) {
@@ -398,38 +707,51 @@ public class Select {
     return result;
   }
 
-  private static int addQueryInfo(Set<String> serverIds, SelectOperation selectOperation,
-          SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid) {
+  // Returns the records whose names are in guids.
+  private static JSONArray extractRecords(Set<JSONObject> records, Set<String> guids) {
+    JSONArray result = new JSONArray();
+    for (JSONObject json : records) {
+      if (guids.contains(json.optString(NameRecord.NAME.getName(), null))) {
+        result.put(json);
+      }
+    }
+    return result;
+  }
+
+  private static int addQueryInfo(Set<String> serverIds, SelectRequestPacket<String> packet,
+          RequestCallback callback) {
     int id;
     do {
       id = RANDOM_ID.nextInt();
     } while (QUERIES_IN_PROGRESS.containsKey(id));
     //Add query info
-    NSSelectInfo<String> info = new NSSelectInfo<>(id, serverIds, selectOperation, groupBehavior, query, minRefreshInterval, guid);
+    NSSelectInfo<String> info = new NSSelectInfo<>(id, serverIds, packet, callback);
     QUERIES_IN_PROGRESS.put(id, info);
     return id;
   }
 
-  private static JSONArray getJSONRecordsForSelect(SelectRequestPacket<String> request,
+  private static AbstractRecordCursor getRecordCursorForSelect(SelectRequestPacket<String> request,
           GNSApplicationInterface<String> ar) throws FailedDBOperationException {
-    JSONArray jsonRecords = new JSONArray();
-    // actually only need name and values map... fix this
+    // Just the names of the records unless some fields were asked for.
+    List<String> projection = request.getProjection() != null
+            ? request.getProjection() : Collections.<String>emptyList();
     AbstractRecordCursor cursor = null;
     switch (request.getSelectOperation()) {
       case EQUALS:
-        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue());
+        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue(), projection);
         break;
       case NEAR:
         if (request.getValue() instanceof String) {
           cursor = NameRecord.selectRecordsNear(ar.getDB(), request.getKey(), (String) request.getValue(),
-                  Double.parseDouble((String) request.getOtherValue()));
+                  Double.parseDouble((String) request.getOtherValue()), projection);
         } else {
           break;
         }
         break;
       case WITHIN:
         if (request.getValue() instanceof String) {
-          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue());
+          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue(),
+                  projection);
         } else {
           break;
         }
@@ -437,17 +759,12 @@ public class Select {
       case QUERY:
         getLogger().log(Level.FINE, "NS{0} query: {1}",
                 new Object[]{ar.getNodeID(), request.getQuery()});
-        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery());
+        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery(), projection);
         break;
       default:
         break;
     }
-    // think about returning a cursor that has prefetched a limited (100 which is like mongo limit)
-    // number of records in it and the ability to fetch more
-    while (cursor != null && cursor.hasNext()) {
-      jsonRecords.put(cursor.nextJSONObject());
-    }
-    return jsonRecords;
+    return cursor;
   }
 
   // takes the JSON records that are returned from an NS and stuffs the into the NSSelectInfo record
@@ -457,7 +774,7 @@ public class Select {
     getLogger().log(Level.FINE,
             "NS{0} processing {1} records", new Object[]{ar.getNodeID(), length});
     // org.json sucks... should have converted a long time ago
-    for (int i = 0; i < length; i++) {
+    for (int i = 0; i < length && !info.limitReached(); i++) {
       JSONObject record = jsonArray.getJSONObject(i);
       String name = record.getString(NameRecord.NAME.getName());
       if (info.addResponseIfNotSeenYet(name, record)) {
@@ -468,6 +785,157 @@ public class Select {
     }
   }
 
+  /**
+   * Lets a caller wait for the response to one select.
+   */
+  private static class SelectResponseWaiter implements RequestCallback {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private SelectResponsePacket<String> response;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void handleResponse(Request request) {
+      response = (SelectResponsePacket<String>) request;
+      done.countDown();
+    }
+
+    /**
+     * Waits while the select is making progress, that is while each server it waits
+     * for either sends something or is given up on within SELECT_REQUEST_TIMEOUT.
+     */
+    @SuppressWarnings("unchecked")
+    SelectResponsePacket<String> waitForResponse(SelectRequestPacket<String> packet,
+            GNSApplicationInterface<String> app) {
+      try {
+        boolean stalled = false;
+        while (!done.await(SELECT_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          NSSelectInfo<String> info = QUERIES_IN_PROGRESS.get(packet.getNsQueryId());
+          // a missed deadline that wasn't acted on or a finished query that didn't respond
+          boolean stalledNow = info == null
+                  || info.nextDeadline(SELECT_REQUEST_TIMEOUT) < System.currentTimeMillis() - SELECT_REQUEST_TIMEOUT;
+          if (stalled && stalledNow) {
+            QUERIES_IN_PROGRESS.remove(packet.getNsQueryId(), info);
+            getLogger().log(Level.WARNING, "NS {0} select {1} timed out",
+                    new Object[]{app.getNodeID(), packet.getNsQueryId()});
+            return SelectResponsePacket.makeFailPacket(packet.getId(), packet.getClientAddress(),
+                    packet.getNsQueryId(), app.getNodeID(), "Select timed out");
+          }
+          stalled = stalledNow;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+      return response;
+    }
+  }
+
+  /**
+   * Holds a record cursor open between the pages of a select.
+   */
+  private static class SelectCursorInfo {
+
+    private final AbstractRecordCursor cursor;
+    private int remaining; // records we are still allowed to return or -1 for no limit
+    private int page = -1;
+    private boolean exhausted = false;
+    private long lastAccess = System.currentTimeMillis();
+    // set when the records read are collected for the result cache
+    private String cacheKey;
+    private Set<String> cacheFields;
+    private long cacheGeneration;
+    private List<JSONObject> cacheRecords;
+
+    SelectCursorInfo(AbstractRecordCursor cursor, int limit) {
+      this.cursor = cursor;
+      this.remaining = limit;
+    }
+
+    /**
+     * Collects the records read and caches them once the cursor is used up.
+     */
+    synchronized void cacheResultsAs(String key, Set<String> fields, long generation) {
+      this.cacheKey = key;
+      this.cacheFields = fields;
+      this.cacheGeneration = generation;
+      this.cacheRecords = new ArrayList<>();
+    }
+
+    /**
+     * Reads at most pageSize records from the cursor.
+     */
+    synchronized JSONArray nextPage(int pageSize) throws FailedDBOperationException {
+      JSONArray jsonRecords = new JSONArray();
+      if (remaining >= 0) {
+        pageSize = Math.min(pageSize, remaining);
+      }
+      while (jsonRecords.length() < pageSize && cursor != null && cursor.hasNext()) {
+        JSONObject record = cursor.nextJSONObject();
+        jsonRecords.put(record);
+        if (cacheRecords != null) {
+          cacheRecords.add(record);
+          if (cacheRecords.size() > RESULT_CACHE.getMaxRecords()) {
+            cacheRecords = null; // too big to bother with
+          }
+        }
+      }
+      if (remaining >= 0) {
+        remaining -= jsonRecords.length();
+      }
+      boolean endOfCursor = cursor == null || !cursor.hasNext();
+      // only a complete result can be reused, so not one cut short by a limit
+      if (endOfCursor && cacheRecords != null) {
+        RESULT_CACHE.put(cacheKey, cacheFields, cacheRecords, cacheGeneration);
+        cacheRecords = null;
+      }
+      exhausted = endOfCursor || remaining == 0;
+      page++;
+      lastAccess = System.currentTimeMillis();
+      return jsonRecords;
+    }
+
+    synchronized int getPage() {
+      return page;
+    }
+
+    synchronized boolean isExhausted() {
+      return exhausted;
+    }
+
+    synchronized long getLastAccess() {
+      return lastAccess;
+    }
+
+    void close() {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Iterates through records from the select result cache.
+   */
+  private static class CachedRecordCursor extends AbstractRecordCursor {
+
+    private final Iterator<JSONObject> iterator;
+
+    CachedRecordCursor(List<JSONObject> records) {
+      this.iterator = records.iterator();
+    }
+
+    @Override
+    public JSONObject nextJSONObject() {
+      return iterator.next();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return iterator.hasNext();
+    }
+  }
+
   /**
    * Returns true if new local select code should be used.
    * Or obsolete remote local select should not be used.
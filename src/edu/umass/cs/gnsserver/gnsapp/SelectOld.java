@@ -410,19 +410,19 @@ public class SelectOld {
     AbstractRecordCursor cursor = null;
     switch (request.getSelectOperation()) {
       case EQUALS:
-        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue());
+        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue(), null);
         break;
       case NEAR:
         if (request.getValue() instanceof String) {
           cursor = NameRecord.selectRecordsNear(ar.getDB(), request.getKey(), (String) request.getValue(),
-                  Double.parseDouble((String) request.getOtherValue()));
+                  Double.parseDouble((String) request.getOtherValue()), null);
         } else {
           break;
         }
         break;
       case WITHIN:
         if (request.getValue() instanceof String) {
-          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue());
+          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue(), null);
         } else {
           break;
         }
@@ -430,7 +430,7 @@ public class SelectOld {
       case QUERY:
         GNSConfig.getLogger().log(Level.FINE, "NS{0} query: {1}",
                 new Object[]{ar.getNodeID(), request.getQuery()});
-        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery());
+        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery(), null);
         break;
       default:
         break;
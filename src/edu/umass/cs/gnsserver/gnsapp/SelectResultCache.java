@@ -0,0 +1,311 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+
+/**
+ * Caches the records that the local part of a select matched on this name server.
+ *
+ * Entries are keyed by the select operation and a normalized form of the query so that the same
+ * query written with different whitespace shares an entry. Each entry remembers the top level
+ * fields the query and projection reference. An update to one of those fields removes the entry,
+ * as does any change we can't attribute to particular fields such as creating or removing a record.
+ * Entries also expire after a fixed time.
+ *
+ * Because the entries hold what this name server's own database matched, the updates that can change
+ * them are exactly the ones applied to this name server's database.
+ *
+ * @author westy
+ */
+public class SelectResultCache {
+
+  // Entries indexed under this are removed by every update.
+  private static final String ANY_FIELD = "*";
+  // Field names in queries look like ~fieldname.
+  private static final Pattern QUERY_FIELD = Pattern.compile("~([^\\s:,(){}\\[\\]\"']+)");
+
+  private final Cache<String, CacheEntry> cache;
+  // top level field name to the keys of the entries that reference it
+  private final ConcurrentMap<String, Set<String>> keysByField = new ConcurrentHashMap<>();
+  // bumped by every invalidation so results read while one happens are not cached
+  private final AtomicLong generation = new AtomicLong();
+  private final int maxRecords;
+  private final boolean enabled;
+
+  /**
+   * Creates a SelectResultCache.
+   *
+   * @param ttl how long in milliseconds entries are kept, 0 disables the cache
+   * @param size the maximum number of entries
+   * @param maxRecords results with more records than this are not cached
+   */
+  public SelectResultCache(long ttl, int size, int maxRecords) {
+    this.enabled = ttl > 0 && size > 0;
+    this.maxRecords = maxRecords;
+    this.cache = CacheBuilder.newBuilder().concurrencyLevel(5)
+            .maximumSize(Math.max(size, 0))
+            .expireAfterWrite(Math.max(ttl, 0), TimeUnit.MILLISECONDS)
+            .removalListener(new RemovalListener<String, CacheEntry>() {
+              @Override
+              public void onRemoval(RemovalNotification<String, CacheEntry> notification) {
+                if (notification.getValue() != null) {
+                  for (String field : notification.getValue().fields) {
+                    Set<String> keys = keysByField.get(field);
+                    if (keys != null) {
+                      keys.remove(notification.getKey());
+                    }
+                  }
+                }
+              }
+            }).build();
+  }
+
+  /**
+   * Returns true if results are being cached.
+   *
+   * @return true if results are being cached
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the maximum number of records in a result that will be cached.
+   *
+   * @return the maximum number of records
+   */
+  public int getMaxRecords() {
+    return maxRecords;
+  }
+
+  /**
+   * Returns the current generation. Pass this to {@link #put} to
+   * make sure that results read while an update happened are not cached.
+   *
+   * @return the generation
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Returns the cached records for the key or null if there are none.
+   *
+   * @param key
+   * @return a list of records or null
+   */
+  public List<JSONObject> get(String key) {
+    if (!enabled || key == null) {
+      return null;
+    }
+    CacheEntry entry = cache.getIfPresent(key);
+    return entry != null ? entry.records : null;
+  }
+
+  /**
+   * Caches the records for the key unless the cache has been invalidated since
+   * startGeneration.
+   *
+   * @param key
+   * @param fields the fields the select references or null if they aren't known
+   * @param records
+   * @param startGeneration the generation when reading the records started
+   */
+  public void put(String key, Set<String> fields, List<JSONObject> records, long startGeneration) {
+    if (!enabled || key == null || records.size() > maxRecords
+            || generation.get() != startGeneration) {
+      return;
+    }
+    Set<String> indexFields = fields != null ? fields : Collections.singleton(ANY_FIELD);
+    // index first so that an invalidation that races with us will find the entry
+    for (String field : indexFields) {
+      Set<String> keys = keysByField.get(field);
+      if (keys == null) {
+        Set<String> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        keys = keysByField.putIfAbsent(field, newKeys);
+        if (keys == null) {
+          keys = newKeys;
+        }
+      }
+      keys.add(key);
+    }
+    cache.put(key, new CacheEntry(indexFields, Collections.unmodifiableList(records)));
+    // an invalidation that ran before we indexed the entry won't have removed it
+    if (generation.get() != startGeneration) {
+      cache.invalidate(key);
+    }
+  }
+
+  /**
+   * Removes the cached results of selects that reference any of the fields.
+   *
+   * @param fields the updated fields or null to remove everything
+   */
+  public void invalidate(Collection<String> fields) {
+    generation.incrementAndGet();
+    if (!enabled || cache.size() == 0) {
+      return;
+    }
+    if (fields == null) {
+      cache.invalidateAll();
+      return;
+    }
+    Set<String> topLevelFields = new HashSet<>();
+    topLevelFields.add(ANY_FIELD);
+    for (String field : fields) {
+      topLevelFields.add(getTopLevelField(field));
+    }
+    for (String field : topLevelFields) {
+      Set<String> keys = keysByField.get(field);
+      if (keys != null && !keys.isEmpty()) {
+        cache.invalidateAll(new HashSet<>(keys));
+      }
+    }
+  }
+
+  /**
+   * Returns the key the results of the select are cached under.
+   *
+   * @param request
+   * @return the key or null if the select can't be cached
+   */
+  public static String getCacheKey(SelectRequestPacket<?> request) {
+    if (request.getSelectOperation() == null) {
+      return null;
+    }
+    StringBuilder key = new StringBuilder(request.getSelectOperation().name());
+    switch (request.getSelectOperation()) {
+      case QUERY:
+        if (request.getQuery() == null) {
+          return null;
+        }
+        key.append('|').append(normalizeQuery(request.getQuery()));
+        break;
+      default:
+        key.append('|').append(request.getKey())
+                .append('|').append(request.getValue())
+                .append('|').append(request.getOtherValue());
+        break;
+    }
+    // The projection changes what is in the records
+    key.append('|').append(request.getProjection() != null ? request.getProjection() : "");
+    return key.toString();
+  }
+
+  /**
+   * Returns the top level fields the select reads.
+   *
+   * @param request
+   * @return a set of field names or null if they can't be determined
+   */
+  public static Set<String> getReferencedFields(SelectRequestPacket<?> request) {
+    Set<String> fields = new HashSet<>();
+    if (request.getSelectOperation() == null) {
+      return null;
+    }
+    switch (request.getSelectOperation()) {
+      case QUERY:
+        Matcher matcher = QUERY_FIELD.matcher(request.getQuery());
+        while (matcher.find()) {
+          fields.add(getTopLevelField(matcher.group(1)));
+        }
+        if (fields.isEmpty()) {
+          return null;
+        }
+        break;
+      default:
+        if (request.getKey() == null) {
+          return null;
+        }
+        fields.add(getTopLevelField(request.getKey()));
+        break;
+    }
+    if (request.getProjection() != null) {
+      for (String field : request.getProjection()) {
+        fields.add(getTopLevelField(field));
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Removes whitespace that isn't inside a quoted string.
+   *
+   * @param query
+   * @return the normalized query
+   */
+  static String normalizeQuery(String query) {
+    StringBuilder result = new StringBuilder(query.length());
+    char quote = 0;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (quote != 0) {
+        if (c == '\\' && i + 1 < query.length()) {
+          result.append(c);
+          c = query.charAt(++i);
+        } else if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (Character.isWhitespace(c)) {
+        continue;
+      }
+      result.append(c);
+    }
+    return result.toString();
+  }
+
+  // Updating fred.address changes what a query on fred.zip might match and vice versa.
+  private static String getTopLevelField(String field) {
+    int dot = field.indexOf('.');
+    return dot > 0 ? field.substring(0, dot) : field;
+  }
+
+  private static class CacheEntry {
+
+    private final Set<String> fields;
+    private final List<JSONObject> records;
+
+    CacheEntry(Set<String> fields, List<JSONObject> records) {
+      this.fields = fields;
+      this.records = records;
+    }
+  }
+}
@@ -36,8 +36,14 @@ import edu.umass.cs.gnscommon.utils.Base64;
 import edu.umass.cs.gnscommon.exceptions.server.ServerRuntimeException;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnscommon.utils.ByteUtils;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
 import edu.umass.cs.gnscommon.utils.RandomString;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.database.ColumnFieldType;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsclient.client.util.Password;
 import edu.umass.cs.gnsserver.utils.Email;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
@@ -58,6 +64,8 @@ import org.json.JSONException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -79,6 +87,7 @@ import static edu.umass.cs.gnscommon.GNSCommandProtocol.ENTIRE_RECORD;
  * follows:
  * <p>
  * GUID: "ACCOUNT_INFO" -- {account} for primary guid<br>
+ * GUID: "GUIDS" -- {chunk: {guid: true}} guids of the account for primary guid<br>
  * GUID: "GUID" -- GUID (primary) for secondary guid<br>
  * GUID: "GUID_INFO" -- {guid info}<br>
  * HRN: "GUID" -- GUID<br>
@@ -96,10 +105,28 @@ public class AccountAccess {
    */
   public static final String ACCOUNT_INFO = InternalField.makeInternalFieldString("account_info");
   /**
-   * Special case for guids which can only be read from client as a list
+   * Defines the field name in an account guid where the guids of the account
+   * are stored. Guids are grouped into chunks by their first characters and
+   * each guid is a key in its chunk, _GNS_guids.{chunk}.{guid}, so adding or
+   * removing a guid only writes that key.
    */
   public static final String ACCOUNT_INFO_GUIDS = InternalField.makeInternalFieldString("guids");
 
+  /**
+   * Defines the field name in an account guid where the number of guids of
+   * the account is stored. It is only changed at the replica, by the update
+   * that adds or removes the guids (see {@link #applyGuidsUpdate}).
+   */
+  public static final String ACCOUNT_GUID_COUNT = InternalField.makeInternalFieldString("guid_count");
+
+  // the number of leading (hex) characters of a guid that pick its chunk
+  private static final int GUID_CHUNK_PREFIX_LENGTH = 2;
+  /**
+   * The number of chunks the guids of an account are stored in.
+   * This is also the number of pages LookupAccountRecord returns them in.
+   */
+  public static final int GUID_CHUNK_COUNT = 1 << (4 * GUID_CHUNK_PREFIX_LENGTH);
+
   /**
    * Defines the field name in an HRN record (the reverse record) where guid
    * is stored.
@@ -126,6 +153,147 @@ public class AccountAccess {
     }
   }
 
+  private static String guidChunk(String guid) {
+    return guid.substring(0, Math.min(GUID_CHUNK_PREFIX_LENGTH, guid.length())).toUpperCase();
+  }
+
+  private static String guidChunk(int page) {
+    return String.format("%0" + GUID_CHUNK_PREFIX_LENGTH + "X", page);
+  }
+
+  private static String guidField(String guid) {
+    return ACCOUNT_INFO_GUIDS + "." + guidChunk(guid) + "." + guid;
+  }
+
+  /**
+   * Returns all the guids associated with the account.
+   * Only looks on the local server.
+   *
+   * @param accountInfo
+   * @param handler
+   * @return a list of guids
+   */
+  public static List<String> lookupGuidsLocally(AccountInfo accountInfo,
+          ClientRequestHandlerInterface handler) {
+    return lookupGuids(accountInfo, null, handler, false);
+  }
+
+  /**
+   * Returns all the guids associated with the account.
+   * Will do a remote query if needed.
+   *
+   * @param accountInfo
+   * @param handler
+   * @return a list of guids
+   */
+  public static List<String> lookupGuidsAnywhere(AccountInfo accountInfo,
+          ClientRequestHandlerInterface handler) {
+    return lookupGuids(accountInfo, null, handler, true);
+  }
+
+  /**
+   * Returns the number of guids associated with the account.
+   * Will do a remote query if needed. The guids themselves are only
+   * counted for an account that has no count yet.
+   *
+   * @param accountInfo
+   * @param handler
+   * @return the number of guids
+   */
+  public static int lookupGuidCount(AccountInfo accountInfo,
+          ClientRequestHandlerInterface handler) {
+    String guid = accountInfo.getGuid();
+    try {
+      ValuesMap result = NSFieldAccess.lookupJSONFieldLocalNoAuth(null, guid,
+              ACCOUNT_GUID_COUNT, handler.getApp(), false);
+      if (result != null && result.has(ACCOUNT_GUID_COUNT)) {
+        return result.getInt(ACCOUNT_GUID_COUNT);
+      }
+    } catch (FailedDBOperationException | JSONException e) {
+      // Do nothing as this is a normal result when the count isn't here.
+    }
+    try {
+      String value = handler.getRemoteQuery().fieldRead(guid, ACCOUNT_GUID_COUNT);
+      if (value != null) {
+        return !FieldAccess.SINGLE_FIELD_VALUE_ONLY
+                ? new JSONObject(value).getInt(ACCOUNT_GUID_COUNT) : Integer.parseInt(value);
+      }
+    } catch (IOException | JSONException | ClientException | NumberFormatException e) {
+      // Do nothing as this is a normal result when there is no count yet.
+    }
+    return lookupGuidsAnywhere(accountInfo, handler).size();
+  }
+
+  /**
+   * Returns one page of the guids associated with the account.
+   * Pages run from 0 to {@link #GUID_CHUNK_COUNT} - 1 and each one is
+   * read without reading the others. Only looks on the local server.
+   *
+   * @param accountInfo
+   * @param page
+   * @param handler
+   * @return a list of guids
+   */
+  public static List<String> lookupGuidPageLocally(AccountInfo accountInfo, int page,
+          ClientRequestHandlerInterface handler) {
+    return lookupGuids(accountInfo, guidChunk(page), handler, false);
+  }
+
+  // A null chunk means all of them.
+  private static List<String> lookupGuids(AccountInfo accountInfo, String chunk,
+          ClientRequestHandlerInterface handler, boolean allowRemoteLookup) {
+    Set<String> guids = new HashSet<>();
+    for (String guid : accountInfo.getLegacyGuids()) {
+      if (chunk == null || chunk.equals(guidChunk(guid))) {
+        guids.add(guid);
+      }
+    }
+    String field = chunk == null ? ACCOUNT_INFO_GUIDS : ACCOUNT_INFO_GUIDS + "." + chunk;
+    JSONObject json = lookupGuidsField(accountInfo.getGuid(), field, handler, allowRemoteLookup);
+    if (json != null && json.length() > 0) {
+      if (chunk == null) {
+        for (String name : JSONObject.getNames(json)) {
+          JSONObject chunkJSON = json.optJSONObject(name);
+          if (chunkJSON != null && chunkJSON.length() > 0) {
+            guids.addAll(Arrays.asList(JSONObject.getNames(chunkJSON)));
+          }
+        }
+      } else {
+        guids.addAll(Arrays.asList(JSONObject.getNames(json)));
+      }
+    }
+    return new ArrayList<>(guids);
+  }
+
+  private static JSONObject lookupGuidsField(String guid, String field,
+          ClientRequestHandlerInterface handler, boolean allowRemoteLookup) {
+    try {
+      ValuesMap result = NSFieldAccess.lookupJSONFieldLocalNoAuth(null, guid,
+              field, handler.getApp(), false);
+      if (result != null && result.has(field)) {
+        // a dotted field comes back either under its full name or nested
+        Object value = result.opt(field);
+        if (value == null) {
+          value = JSONDotNotation.getWithDotNotation(field, result);
+        }
+        return value instanceof JSONObject ? (JSONObject) value : new JSONObject(value.toString());
+      }
+    } catch (FailedDBOperationException | JSONException e) {
+      // Do nothing as this is a normal result when there are no guids.
+    }
+    if (allowRemoteLookup) {
+      try {
+        String value = handler.getRemoteQuery().fieldRead(guid, field);
+        if (value != null) {
+          return new JSONObject(value);
+        }
+      } catch (IOException | JSONException | ClientException e) {
+        // Do nothing as this is a normal result when there are no guids.
+      }
+    }
+    return null;
+  }
+
   /**
    * Obtains the account info record for the given GUID if that GUID was used
  to createField an account. Only looks on the local server.
@@ -853,6 +1021,7 @@ public class AccountAccess {
           ClientRequestHandlerInterface handler) throws ClientException,
           IOException, JSONException {
     boolean removedGroupLinks = false, deletedGUID = false, deletedName = false, deletedAliases = false;
+    int deletedGuids = 0;
     try {
       // First remove any group links
       GroupAccess.cleanupGroupsForDelete(accountInfo.getGuid(),
@@ -871,10 +1040,11 @@ public class AccountAccess {
         }
         deletedAliases = true;
         // get rid of all subguids
-        for (String subguid : accountInfo.getGuids()) {
+        for (String subguid : lookupGuidsAnywhere(accountInfo, handler)) {
           GuidInfo subGuidInfo = lookupGuidInfoAnywhere(subguid, handler);
           if (subGuidInfo != null) { // should not be null, ignore if it is
             removeGuid(subGuidInfo, accountInfo, true, handler);
+            deletedGuids++;
           }
         }
 
@@ -897,8 +1067,8 @@ public class AccountAccess {
               + (deletedAliases ? "; deleted "
                       + Util.truncatedLog(accountInfo.getAliases(), 16)
                       : "")
-              + (deletedName ? "; deleted "
-                      + Util.truncatedLog(accountInfo.getGuids(), 16)
+              + (deletedGuids > 0 ? "; deleted "
+                      + deletedGuids + " guids"
                       : "") + "; failed to update account info "
               + accountInfo.getGuid());
     }
@@ -995,9 +1165,16 @@ public class AccountAccess {
       }
       createdGUID = true;
       // else both name and guid created
-      accountInfo.addGuid(guid);
-      accountInfo.noteUpdate();
-      updateAccountInfoNoAuthentication(accountInfo, handler, true);
+      ResponseCode accountCode = updateAccountGuidsNoAuthentication(accountInfo, Arrays.asList(guid),
+              Collections.<String>emptyList(), handler);
+      if (accountCode.isExceptionOrError()) {
+        // the replica checks the limit on the number of guids so roll back both
+        handler.getRemoteQuery().deleteRecordSuppressExceptions(guid);
+        handler.getRemoteQuery().deleteRecordSuppressExceptions(name);
+        return new CommandResponse(accountCode, BAD_RESPONSE + " "
+                + accountCode.getProtocolCode() + " " + guid
+                + "; rolled back " + name + " and " + guid + " creation");
+      }
       return new CommandResponse(ResponseCode.NO_ERROR, GNSProtocol.OK_RESPONSE.toString()
               + " " + " [created " + name + " and " + guid
               + " and updated account info successfully]");
@@ -1048,7 +1225,6 @@ public class AccountAccess {
         String publicKey = publicKeys.get(i);
         String guid = SharedGuidUtils
                 .createGuidStringFromBase64PublicKey(publicKey);
-        accountInfo.addGuid(guid);
         guids.add(guid);
         // HRN records
         JSONObject jsonHRN = new JSONObject();
@@ -1072,7 +1248,6 @@ public class AccountAccess {
         guidInfoMap.put(guid, jsonGuid);
       }
       DelayProfiler.updateDelay("addMultipleGuidsSetup", startTime);
-      accountInfo.noteUpdate();
 
       // first we createField the HRN records as a batch
       ResponseCode returnCode;
@@ -1082,13 +1257,23 @@ public class AccountAccess {
               new HashSet<>(names), hrnMap, handler))
               .isExceptionOrError()) {
         // now we update the account info
-        if (updateAccountInfoNoAuthentication(accountInfo, handler, true)) {
+        if (!(returnCode = updateAccountGuidsNoAuthentication(accountInfo, guids,
+                Collections.<String>emptyList(), handler)).isExceptionOrError()) {
           handler.getRemoteQuery().createRecordBatch(guids,
                   guidInfoMap, handler);
           GNSConfig.getLogger().info(DelayProfiler.getStats());
           return new CommandResponse(ResponseCode.NO_ERROR,
                   GNSProtocol.OK_RESPONSE.toString());
         }
+        // the replica checks the limit on the number of guids so roll back the names
+        for (String name : names) {
+          try {
+            handler.getRemoteQuery().deleteRecordSuppressExceptions(name);
+          } catch (ClientException e) {
+            GNSConfig.getLogger().log(Level.WARNING, "Unable to roll back {0}: {1}",
+                    new Object[]{name, e});
+          }
+        }
       }
       return new CommandResponse(returnCode, BAD_RESPONSE + " "
               + returnCode.getProtocolCode() + " " + names);
@@ -1255,9 +1440,8 @@ public class AccountAccess {
                   GNSProtocol.OK_RESPONSE.toString());
         } else {
           // update the account guid to know that we deleted the guid
-          accountInfo.removeGuid(guidInfo.getGuid());
-          accountInfo.noteUpdate();
-          if (updateAccountInfoNoAuthentication(accountInfo, handler, true)) {
+          if (!updateAccountGuidsNoAuthentication(accountInfo, Collections.<String>emptyList(),
+                  Arrays.asList(guidInfo.getGuid()), handler).isExceptionOrError()) {
             return new CommandResponse(ResponseCode.NO_ERROR, GNSProtocol.OK_RESPONSE.toString());
           } else {
             return new CommandResponse(
@@ -1510,6 +1694,165 @@ public class AccountAccess {
             .isExceptionOrError();
   }
 
+  /**
+   * Adds and removes guids of the account. The change is sent as one update
+   * of the keys of the guids, true for the ones added and false for the ones
+   * removed, which the replica of the account guid applies to the stored record
+   * (see {@link #applyGuidsUpdate}).
+   *
+   * @param accountInfo
+   * @param added
+   * @param removed
+   * @param handler
+   * @return the response code of the update
+   */
+  private static ResponseCode updateAccountGuidsNoAuthentication(AccountInfo accountInfo,
+          Collection<String> added, Collection<String> removed,
+          ClientRequestHandlerInterface handler) {
+    try {
+      JSONObject json = new JSONObject();
+      for (String guid : added) {
+        json.put(guidField(guid), true);
+      }
+      for (String guid : removed) {
+        json.put(guidField(guid), false);
+      }
+      handler.getRemoteQuery().fieldUpdateMultiple(accountInfo.getGuid(), json);
+      return ResponseCode.NO_ERROR;
+    } catch (JSONException e) {
+      GNSConfig.getLogger().log(Level.SEVERE,
+              "JSON parse error with remote query:{0}", e);
+      return ResponseCode.JSON_PARSE_ERROR;
+    } catch (ClientException e) {
+      GNSConfig.getLogger().log(Level.FINE,
+              "Problem with remote query:{0}", e);
+      return e.getCode();
+    } catch (IOException e) {
+      GNSConfig.getLogger().log(Level.SEVERE,
+              "Problem with remote query:{0}", e);
+      return ResponseCode.UPDATE_ERROR;
+    }
+  }
+
+  /**
+   * Returns true if the update is one sent by {@link #updateAccountGuidsNoAuthentication}.
+   *
+   * @param userJSON
+   * @return true if the update changes the guids of an account
+   * @throws JSONException
+   */
+  public static boolean isGuidsUpdate(ValuesMap userJSON) throws JSONException {
+    for (String key : userJSON.getKeys()) {
+      if (key.startsWith(ACCOUNT_INFO_GUIDS + ".")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Applies an update of the guids of an account to the stored record.
+   * Called by the replica of the account guid where updates to it are
+   * executed one at a time, so the count of guids changes together with
+   * the guids. Guids that are added but already there and guids that are
+   * removed but aren't there don't change the count. Guids still kept in
+   * the account info are moved to their own keys. Reads only the count,
+   * the account info and the keys that change.
+   *
+   * @param accountGuid
+   * @param changes the keys of the guids, true to add and false to remove
+   * @param db
+   * @return {@link ResponseCode#TOO_MANY_GUIDS_EXCEPTION} if the guids added would
+   * exceed ACCOUNT_GUID_MAX_SUBGUIDS, otherwise {@link ResponseCode#NO_ERROR}
+   * @throws FailedDBOperationException
+   * @throws RecordNotFoundException
+   * @throws FieldNotFoundException
+   * @throws JSONException
+   */
+  public static ResponseCode applyGuidsUpdate(String accountGuid, ValuesMap changes,
+          BasicRecordMap db) throws FailedDBOperationException, RecordNotFoundException,
+          FieldNotFoundException, JSONException {
+    List<String> keys = changes.getKeys();
+    List<String> fields = new ArrayList<>(keys);
+    fields.add(ACCOUNT_GUID_COUNT);
+    fields.add(ACCOUNT_INFO);
+    ValuesMap stored = NameRecord.getNameRecordMultiUserFields(db, accountGuid,
+            ColumnFieldType.USER_JSON, fields.toArray(new String[fields.size()])).getValuesMap();
+    AccountInfo accountInfo = null;
+    if (stored.has(ACCOUNT_INFO)) {
+      try {
+        accountInfo = new AccountInfo(new JSONObject(stored.getString(ACCOUNT_INFO)));
+      } catch (ParseException e) {
+        GNSConfig.getLogger().log(Level.SEVERE,
+                "Problem parsing account info of {0}: {1}", new Object[]{accountGuid, e});
+      }
+    }
+    Set<String> legacyGuids = accountInfo != null ? accountInfo.getLegacyGuids()
+            : Collections.<String>emptySet();
+    int count = stored.has(ACCOUNT_GUID_COUNT) ? stored.getInt(ACCOUNT_GUID_COUNT)
+            : countStoredGuids(accountGuid, db) + legacyGuids.size();
+    int added = 0;
+    ValuesMap writes = new ValuesMap();
+    List<String> removedKeys = new ArrayList<>();
+    for (String key : keys) {
+      String guid = key.substring(key.lastIndexOf('.') + 1);
+      boolean present = legacyGuids.contains(guid)
+              || stored.has(key) || JSONDotNotation.containsFieldDotNotation(key, stored);
+      if (changes.getBoolean(key)) {
+        if (!present) {
+          writes.put(key, true);
+          added++;
+        }
+      } else if (present) {
+        count--;
+        if (!legacyGuids.remove(guid)) {
+          removedKeys.add(key);
+        }
+      }
+    }
+    if (added > 0 && count + added > Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUID_MAX_SUBGUIDS)) {
+      return ResponseCode.TOO_MANY_GUIDS_EXCEPTION;
+    }
+    if (accountInfo != null && !accountInfo.getLegacyGuids().isEmpty()) {
+      // the guids left are counted already
+      for (String guid : legacyGuids) {
+        writes.put(guidField(guid), true);
+      }
+      accountInfo.clearLegacyGuids();
+      accountInfo.noteUpdate();
+      writes.put(ACCOUNT_INFO, accountInfo.toJSONObject().toString());
+    }
+    writes.put(ACCOUNT_GUID_COUNT, count + added);
+    new NameRecord(db, accountGuid).updateNameRecord(null, null, null, -1, writes,
+            UpdateOperation.USER_JSON_REPLACE);
+    for (String key : removedKeys) {
+      new NameRecord(db, accountGuid).updateNameRecord(key, null, null, -1, null,
+              UpdateOperation.SINGLE_FIELD_REMOVE_FIELD);
+    }
+    return ResponseCode.NO_ERROR;
+  }
+
+  // Only needed once for an account that has no count yet.
+  private static int countStoredGuids(String accountGuid, BasicRecordMap db)
+          throws FailedDBOperationException, FieldNotFoundException, JSONException {
+    ValuesMap stored;
+    try {
+      stored = NameRecord.getNameRecordMultiUserFields(db, accountGuid,
+              ColumnFieldType.USER_JSON, ACCOUNT_INFO_GUIDS).getValuesMap();
+    } catch (RecordNotFoundException e) {
+      return 0;
+    }
+    JSONObject chunks = stored.optJSONObject(ACCOUNT_INFO_GUIDS);
+    int count = 0;
+    if (chunks != null && chunks.length() > 0) {
+      for (String chunk : JSONObject.getNames(chunks)) {
+        JSONObject chunkJSON = chunks.optJSONObject(chunk);
+        count += chunkJSON != null ? chunkJSON.length() : 0;
+      }
+    }
+    return count;
+  }
+
   private static ResponseCode updateGuidInfo(GuidInfo guidInfo,
           String writer, String signature, String message, Date timestamp,
           ClientRequestHandlerInterface handler) {
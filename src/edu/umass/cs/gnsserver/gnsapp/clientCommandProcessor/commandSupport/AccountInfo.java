@@ -41,6 +41,12 @@ import java.util.Set;
  * also have additional associated GUIDs. For certain things we also keep an encrypted
  * password.
  *
+ * The associated GUIDs are not kept here, nor is their number. They are
+ * stored in a separate field of the account guid so that adding or removing one
+ * doesn't rewrite all of them (see {@link AccountAccess#ACCOUNT_INFO_GUIDS}).
+ * Account infos written before that still have the guids in them; those are
+ * read as legacy guids until they are moved into the separate field.
+ *
  * @author westy
  */
 public class AccountInfo {
@@ -50,7 +56,8 @@ public class AccountInfo {
   // This is reserved for future use.
   private final String type;
   private final Set<String> aliases;
-  private final Set<String> guids;
+  // guids from account infos written when they were still kept in here
+  private final Set<String> legacyGuids;
   private final Date created;
   private Date updated;
   /**
@@ -87,7 +94,7 @@ public class AccountInfo {
     this.guid = guid;
     this.type = "DEFAULT"; // huh? :-)
     this.aliases = new HashSet<String>();
-    this.guids = new HashSet<String>();
+    this.legacyGuids = new HashSet<String>();
     this.created = new Date();
     this.updated = new Date();
     this.password = password;
@@ -182,31 +189,20 @@ public class AccountInfo {
   }
 
   /**
-   * Returns the guids associated with this account.
-   *
-   * @return a list of strings
-   */
-  public ArrayList<String> getGuids() {
-    return new ArrayList<String>(guids);
-  }
-
-  /**
-   * Adds a guid to this account.
+   * Returns the guids that are still stored in this account info
+   * instead of in their own field.
    *
-   * @param guid
+   * @return a set of strings
    */
-  public void addGuid(String guid) {
-    guids.add(guid);
+  Set<String> getLegacyGuids() {
+    return new HashSet<>(legacyGuids);
   }
 
   /**
-   * Removes a guid from this account.
-   *
-   * @param guid
-   * @return true if the guid was found
+   * Forgets the legacy guids once they are stored in their own field.
    */
-  public boolean removeGuid(String guid) {
-    return guids.remove(guid);
+  void clearLegacyGuids() {
+    legacyGuids.clear();
   }
 
   /**
@@ -308,7 +304,8 @@ public class AccountInfo {
     this.guid = json.getString(GUID);
     this.type = json.getString(TYPE);
     this.aliases = JSONUtils.JSONArrayToHashSet(json.getJSONArray(ALIASES));
-    this.guids = JSONUtils.JSONArrayToHashSet(json.getJSONArray(GUIDS));
+    this.legacyGuids = json.has(GUIDS) ? JSONUtils.JSONArrayToHashSet(json.getJSONArray(GUIDS))
+            : new HashSet<String>();
     this.created = Format.parseDateUTC(json.getString(CREATED));
     this.updated = Format.parseDateUTC(json.getString(UPDATED));
     this.password = json.optString(PASSWORD, null);
@@ -327,11 +324,10 @@ public class AccountInfo {
     return toJSONObject(false);
   }
 
-  private static final int TOO_MANY_GUIDS = 50000;
   /**
    * Converts this instance into a JSONObject.
-   * If forClient is true, we don't include information that
-   * is to large to be sent to the client.
+   * If forClient is true, we don't include the legacy guids,
+   * the caller sends back the guids it wants the client to see.
    *
    * @param forClient
    * @return the JSON Object
@@ -343,11 +339,8 @@ public class AccountInfo {
     json.put(GUID, guid);
     json.put(TYPE, type);
     json.put(ALIASES, new JSONArray(aliases));
-    if (forClient && guids.size() > TOO_MANY_GUIDS) {
-      json.put("guidCnt", guids.size());
-    } else {
-      json.put("guidCnt", guids.size());
-      json.put(GUIDS, new JSONArray(guids));
+    if (!forClient && !legacyGuids.isEmpty()) {
+      json.put(GUIDS, new JSONArray(legacyGuids));
     }
     json.put(CREATED, Format.formatDateUTC(created));
     json.put(UPDATED, Format.formatDateUTC(updated));
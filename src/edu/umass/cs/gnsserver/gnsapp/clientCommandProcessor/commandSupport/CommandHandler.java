@@ -20,16 +20,17 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCom
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.data.AbstractUpdate;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.*;
 import edu.umass.cs.gnsserver.gnsapp.GNSApp;
+import edu.umass.cs.gnscommon.CommandType;
 import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
 import edu.umass.cs.gnscommon.packets.PacketUtils;
-import edu.umass.cs.gnscommon.utils.CanonicalJSON;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientCommandProcessorConfig;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.metrics.ServerMetrics;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
 import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
@@ -86,6 +87,9 @@ public class CommandHandler {
           AbstractCommand commandHandler, ClientRequestHandlerInterface handler,
           boolean doNotReplyToClient, GNSApp app) {
     JSONObject jsonFormattedCommand = PacketUtils.getCommand(commandPacket);
+    CommandType commandType = commandHandler != null ? commandHandler.getCommandType() : null;
+    long startNanos = System.nanoTime(); // instrumentation
+    CommandType previousCommandType = ServerMetrics.startCommand(commandType);
     try {
       long receiptTime = System.currentTimeMillis(); // instrumentation
       final Long executeCommandStart = System.currentTimeMillis(); // instrumentation
@@ -128,8 +132,10 @@ public class CommandHandler {
                 "{0} handling command reply: {1}",
                 new Object[]{handler.getApp(), returnPacket});
         // Possibly send the return value back to the client
+        long replyStart = System.nanoTime(); // instrumentation
         handleCommandReturnValuePacketForApp(returnPacket,
                 doNotReplyToClient, app);
+        ServerMetrics.record(ServerMetrics.Phase.REPLY, replyStart);
       } catch (IOException e) {
         ClientCommandProcessorConfig.getLogger().log(Level.SEVERE,
                 "Problem replying to command: {0}", e);
@@ -140,6 +146,9 @@ public class CommandHandler {
               "{0}: problem  executing command: {1}",
               new Object[]{handler.getApp(), e});
       e.printStackTrace();
+    } finally {
+      ServerMetrics.record(commandType, ServerMetrics.Phase.TOTAL, startNanos);
+      ServerMetrics.endCommand(previousCommandType);
     }
 
     // reply to client is true, this means this is the active replica
@@ -176,12 +185,8 @@ public class CommandHandler {
     if (!command.has(SIGNATURE)) {
       return commandPacket;
     }
-
-    String signature = command.getString(SIGNATURE);
-    command.remove(SIGNATURE);
-    String commandSansSignature = CanonicalJSON.getCanonicalForm(command);
-    command.put(SIGNATURE, signature).put(SIGNATUREFULLMESSAGE,
-            commandSansSignature);
+    // the received bytes if the command was signed over them and sent as them
+    command.put(SIGNATUREFULLMESSAGE, commandPacket.getSignedMessage());
     return commandPacket;
   }
 
@@ -286,6 +291,8 @@ public class CommandHandler {
   public static CommandResponse executeCommand(AbstractCommand command,
           JSONObject json, ClientRequestHandlerInterface handler) {
     assert command != null;
+    long startNanos = System.nanoTime(); // instrumentation
+    CommandType previousCommandType = ServerMetrics.startCommand(command.getCommandType());
     try {
       ClientCommandProcessorConfig.getLogger().log(Level.FINE,
               "{0} Executing command {1} in packet {2}",
@@ -299,6 +306,9 @@ public class CommandHandler {
     } catch (NoSuchAlgorithmException | InvalidKeySpecException | ParseException | SignatureException | InvalidKeyException | UnsupportedEncodingException e) {
       return new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR,
               BAD_RESPONSE + " " + QUERY_PROCESSING_ERROR + " " + e);
+    } finally {
+      ServerMetrics.record(command.getCommandType(), ServerMetrics.Phase.TOTAL, startNanos);
+      ServerMetrics.endCommand(previousCommandType);
     }
   }
 
@@ -565,7 +565,8 @@ public class FieldAccess {
   private static JSONArray executeSelectHelper(SelectRequestPacket<String> packet, GNSApp app)
           throws FailedDBOperationException, JSONException, UnknownHostException {
     SelectResponsePacket<String> responsePacket = Select.handleSelectRequestFromClient(packet, app);
-    if (SelectResponsePacket.ResponseCode.NOERROR.equals(responsePacket.getResponseCode())) {
+    if (responsePacket != null
+            && SelectResponsePacket.ResponseCode.NOERROR.equals(responsePacket.getResponseCode())) {
       return responsePacket.getGuids();
     } else {
       return null;
@@ -704,7 +705,7 @@ public class FieldAccess {
       if (!accountInfo.isVerified()) {
         return new CommandResponse(ResponseCode.VERIFICATION_ERROR, GNSCommandProtocol.BAD_RESPONSE
                 + " " + GNSCommandProtocol.VERIFICATION_ERROR + " Account not verified");
-      } else if (accountInfo.getGuids().size() > Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUID_MAX_SUBGUIDS)) {
+      } else if (AccountAccess.lookupGuidCount(accountInfo, handler) > Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUID_MAX_SUBGUIDS)) {
         return new CommandResponse(ResponseCode.TOO_MANY_GUIDS_EXCEPTION, GNSCommandProtocol.BAD_RESPONSE
                 + " " + GNSCommandProtocol.TOO_MANY_GUIDS);
       } else {
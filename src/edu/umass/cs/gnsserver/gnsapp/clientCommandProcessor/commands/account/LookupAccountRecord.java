@@ -26,22 +26,33 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.Comma
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.CommandModule;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
 import edu.umass.cs.gnscommon.CommandType;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCOUNT_RECORD_GUIDS;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCOUNT_RECORD_GUID_PAGE;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCOUNT_RECORD_GUID_PAGE_CNT;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.BAD_ACCOUNT;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.BAD_GUID;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.BAD_RESPONSE;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.GUID;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.GUIDCNT;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.JSON_PARSE_ERROR;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.UNSPECIFIED_ERROR;
 
 import edu.umass.cs.gnscommon.ResponseCode;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
+ * Returns the account info. The guids of the account are returned in pages,
+ * the page given by the optional ACCOUNT_RECORD_GUID_PAGE parameter. Without it
+ * all the guids are returned unless there are too many to send back.
  *
  * @author westy
  */
 public class LookupAccountRecord extends AbstractCommand {
 
+  private static final int TOO_MANY_GUIDS = 50000;
+
   /**
    * Creates a LookupAccountRecord instance.
    *
@@ -70,7 +81,24 @@ public class LookupAccountRecord extends AbstractCommand {
     if (acccountInfo != null) {
       try {
         // the true below omits the list of guids which might be too big to send back to the client
-        return new CommandResponse(ResponseCode.NO_ERROR, acccountInfo.toJSONObject(true).toString());
+        JSONObject result = acccountInfo.toJSONObject(true);
+        result.put(ACCOUNT_RECORD_GUID_PAGE_CNT, AccountAccess.GUID_CHUNK_COUNT);
+        if (json.has(ACCOUNT_RECORD_GUID_PAGE)) {
+          int page = json.getInt(ACCOUNT_RECORD_GUID_PAGE);
+          if (page < 0 || page >= AccountAccess.GUID_CHUNK_COUNT) {
+            return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, BAD_RESPONSE + " " + UNSPECIFIED_ERROR
+                    + " bad guid page " + page);
+          }
+          result.put(ACCOUNT_RECORD_GUID_PAGE, page);
+          result.put(ACCOUNT_RECORD_GUIDS, new JSONArray(AccountAccess.lookupGuidPageLocally(acccountInfo, page, handler)));
+        } else {
+          int guidCount = AccountAccess.lookupGuidCount(acccountInfo, handler);
+          result.put(GUIDCNT, guidCount);
+          if (guidCount <= TOO_MANY_GUIDS) {
+            result.put(ACCOUNT_RECORD_GUIDS, new JSONArray(AccountAccess.lookupGuidsLocally(acccountInfo, handler)));
+          }
+        }
+        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
         //return new CommandResponse(acccountInfo.toJSONObject().toString());
       } catch (JSONException e) {
         return new CommandResponse(ResponseCode.JSON_PARSE_ERROR, BAD_RESPONSE + " " + JSON_PARSE_ERROR);
@@ -74,7 +74,7 @@ public class LookupRandomGuids extends AbstractCommand {
       return new CommandResponse(ResponseCode.BAD_ACCOUNT_ERROR, BAD_RESPONSE + " " + BAD_ACCOUNT + " " + guid);
     }
     if (acccountInfo != null) {
-      List<String> guids = acccountInfo.getGuids();
+      List<String> guids = AccountAccess.lookupGuidsLocally(acccountInfo, handler);
       if (count >= guids.size()) {
         return new CommandResponse(ResponseCode.NO_ERROR, new JSONArray(guids).toString());
       } else {
@@ -14,11 +14,19 @@ final class AclCheckResult {
   private final String publicKey;
   private final boolean aclCheckPassed;
   private final ResponseCode responseCode;
+  // true if the result only depends on the target guid's record
+  private final boolean cacheable;
 
   public AclCheckResult(String publicKey, boolean aclCheckPassed, ResponseCode responseCode) {
+    this(publicKey, aclCheckPassed, responseCode, false);
+  }
+
+  public AclCheckResult(String publicKey, boolean aclCheckPassed, ResponseCode responseCode,
+          boolean cacheable) {
     this.publicKey = publicKey;
     this.aclCheckPassed = aclCheckPassed;
     this.responseCode = responseCode;
+    this.cacheable = cacheable;
   }
 
   public String getPublicKey() {
@@ -33,4 +41,8 @@ final class AclCheckResult {
     return responseCode;
   }
 
+  public boolean isCacheable() {
+    return cacheable;
+  }
+
 }
@@ -19,6 +19,8 @@
  */
 package edu.umass.cs.gnsserver.gnsapp.clientSupport;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Sets;
 
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
@@ -26,8 +28,11 @@ import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
+import edu.umass.cs.gnsserver.metrics.ServerMetrics;
 import edu.umass.cs.gnscommon.utils.Base64;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
@@ -35,6 +40,7 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Level;
 import edu.umass.cs.gnscommon.utils.ByteUtils;
+import edu.umass.cs.gnscommon.utils.CanonicalCommand;
 import edu.umass.cs.gnscommon.GNSCommandProtocol;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.EVERYONE;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.RSA_ALGORITHM;
@@ -69,23 +75,63 @@ import static edu.umass.cs.gnscommon.GNSCommandProtocol.ENTIRE_RECORD;
  */
 public class NSAccessSupport {
 
-  private static KeyFactory keyFactory;
-  // arun: at least as many instances as cores for parallelism.
-  private static Signature[] signatureInstances = new Signature[2 * Runtime.getRuntime().availableProcessors()];
+  // Signature, KeyFactory, MessageDigest and Cipher instances aren't thread safe so each thread
+  // that verifies gets its own rather than contending for a shared pool.
+  private static final ThreadLocal<KeyFactory> KEY_FACTORIES = new ThreadLocal<KeyFactory>() {
+    @Override
+    protected KeyFactory initialValue() {
+      try {
+        return KeyFactory.getInstance(RSA_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        return null;
+      }
+    }
+  };
 
-  static {
-    try {
-      keyFactory = KeyFactory.getInstance(RSA_ALGORITHM);
-      for (int i = 0; i < signatureInstances.length; i++) {
-        signatureInstances[i] = Signature.getInstance(SIGNATURE_ALGORITHM);
+  private static final ThreadLocal<Signature> SIGNATURES = new ThreadLocal<Signature>() {
+    @Override
+    protected Signature initialValue() {
+      try {
+        return Signature.getInstance(SIGNATURE_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        return null;
       }
-    } catch (NoSuchAlgorithmException e) {
-      ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
     }
-  }
+  };
+
+  private static final ThreadLocal<MessageDigest> MESSAGE_DIGESTS = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance(GNSCommandProtocol.DIGEST_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        return null;
+      }
+    }
+  };
+
+  private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>() {
+    @Override
+    protected Cipher initialValue() {
+      try {
+        return Cipher.getInstance(GNSCommandProtocol.SECRET_KEY_ALGORITHM);
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        return null;
+      }
+    }
+  };
+
+  // Base64 encoded public key to the decoded key so we don't parse the X509 encoding every time.
+  private static final Cache<String, PublicKey> PUBLIC_KEYS
+          = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(1000).build();
 
   /**
    * Verifies that the signature corresponds to the message using the public key.
+   * This can be called from any number of threads at once.
    *
    * @param accessorPublicKey
    * @param signature
@@ -101,8 +147,35 @@ public class NSAccessSupport {
     if (!Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_SIGNATURE_AUTHENTICATION)) {
       return true;
     }
-    byte[] publickeyBytes = Base64.decode(accessorPublicKey);
-    if (publickeyBytes == null) { // bogus public key
+    long startNanos = System.nanoTime();
+    try {
+      // it may have been verified when the command arrived
+      Boolean verified = NSSignatureVerificationStage.takeResult(accessorPublicKey, signature, message);
+      if (verified != null) {
+        return verified;
+      }
+      return verifySignatureNow(accessorPublicKey, signature, message);
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.AUTH, startNanos);
+    }
+  }
+
+  /**
+   * Verifies the signature without checking for a result from the {@link NSSignatureVerificationStage}.
+   *
+   * @param accessorPublicKey
+   * @param signature
+   * @param message
+   * @return true if the signature verifies successfully
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws UnsupportedEncodingException
+   * @throws InvalidKeySpecException
+   */
+  static boolean verifySignatureNow(String accessorPublicKey, String signature, String message) throws
+          InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
+    PublicKey publicKey = getPublicKey(accessorPublicKey);
+    if (publicKey == null) { // bogus public key
       ClientSupportConfig.getLogger().log(Level.FINE, "&&&&Base 64 decoding is bogus!!!");
       return false;
     }
@@ -112,7 +185,7 @@ public class NSAccessSupport {
               Util.truncate(signature, 16, 16),
               Util.truncate(message, 16, 16)});
     long t = System.nanoTime();
-    boolean result = verifySignatureInternal(publickeyBytes, signature, message);
+    boolean result = verifySignatureInternal(publicKey, signature, message);
     if (Util.oneIn(100)) {
       DelayProfiler.updateDelayNano("verification", t);
     }
@@ -125,18 +198,26 @@ public class NSAccessSupport {
     return result;
   }
 
-  private static int sigIndex = 0;
-
-  private synchronized static Signature getSignatureInstance() {
-    return signatureInstances[sigIndex++ % signatureInstances.length];
+  // Returns the decoded public key or null if the Base64 encoding is bogus.
+  private static PublicKey getPublicKey(String accessorPublicKey) throws InvalidKeySpecException {
+    PublicKey publicKey = PUBLIC_KEYS.getIfPresent(accessorPublicKey);
+    if (publicKey == null) {
+      byte[] publickeyBytes = Base64.decode(accessorPublicKey);
+      if (publickeyBytes == null) {
+        return null;
+      }
+      publicKey = KEY_FACTORIES.get().generatePublic(new X509EncodedKeySpec(publickeyBytes));
+      PUBLIC_KEYS.put(accessorPublicKey, publicKey);
+    }
+    return publicKey;
   }
 
-  private static synchronized boolean verifySignatureInternal(byte[] publickeyBytes, String signature, String message)
-          throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
+  private static boolean verifySignatureInternal(PublicKey publicKey, String signature, String message)
+          throws InvalidKeyException, SignatureException, UnsupportedEncodingException {
 
     if (Config.getGlobalBoolean(GNSC.ENABLE_SECRET_KEY)) {
       try {
-        return verifySignatureInternalSecretKey(publickeyBytes, signature, message);
+        return verifySignatureInternalSecretKey(publicKey, signature, message);
       } catch (Exception e) {
         // don't print anything
         //e.printStackTrace();
@@ -145,65 +226,22 @@ public class NSAccessSupport {
       }
     }
 
-    X509EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(publickeyBytes);
-    PublicKey publicKey = keyFactory.generatePublic(publicKeySpec);
-
-    Signature sigInstance = getSignatureInstance();
-    synchronized (sigInstance) {
-      sigInstance.initVerify(publicKey);
-      sigInstance.update(message.getBytes("UTF-8"));
-      // FIXME CHANGE THIS TO BASE64 (below) TO SAVE SOME SPACE ONCE THE
-      // IOS CLIENT IS UPDATED AS WELL
-      return sigInstance.verify(ByteUtils
-              .hexStringToByteArray(signature));
-      //return sig.verify(Base64.decode(signature));
-    }
-  }
-
-  private static final MessageDigest[] mds = new MessageDigest[Runtime.getRuntime().availableProcessors()];
-
-  static {
-    for (int i = 0; i < mds.length; i++) {
-      try {
-        mds[i] = MessageDigest.getInstance(GNSCommandProtocol.DIGEST_ALGORITHM);
-      } catch (NoSuchAlgorithmException e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
-    }
+    Signature sigInstance = SIGNATURES.get();
+    sigInstance.initVerify(publicKey);
+    sigInstance.update(CanonicalCommand.getMessageBytes(message, StandardCharsets.UTF_8));
+    // FIXME CHANGE THIS TO BASE64 (below) TO SAVE SOME SPACE ONCE THE
+    // IOS CLIENT IS UPDATED AS WELL
+    return sigInstance.verify(ByteUtils
+            .hexStringToByteArray(signature));
+    //return sig.verify(Base64.decode(signature));
   }
-  private static int mdIndex = 0;
 
-  private static MessageDigest getMessageDigestInstance() {
-    return mds[mdIndex++ % mds.length];
-  }
-
-  private static final Cipher[] ciphers = new Cipher[2 * Runtime.getRuntime().availableProcessors()];
-
-  static {
-    for (int i = 0; i < ciphers.length; i++) {
-      try {
-        ciphers[i] = Cipher.getInstance(GNSCommandProtocol.SECRET_KEY_ALGORITHM);
-      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
-    }
-  }
-
-  private static int cipherIndex = 0;
-
-  private static Cipher getCipherInstance() {
-    return ciphers[cipherIndex++ % ciphers.length];
-  }
-
-  private static synchronized boolean verifySignatureInternalSecretKey(byte[] publickeyBytes, String signature, String message)
+  private static boolean verifySignatureInternalSecretKey(PublicKey publicKey, String signature, String message)
           throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException {
 
-    PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publickeyBytes));
-
     byte[] sigBytes = signature.getBytes(GNSCommandProtocol.CHARSET);
-    byte[] bytes = message.getBytes(GNSCommandProtocol.CHARSET);
+    byte[] bytes = CanonicalCommand.getMessageBytes(message,
+            Charset.forName(GNSCommandProtocol.CHARSET));
 
     ByteBuffer bbuf = ByteBuffer.wrap(sigBytes);
     byte[] sign = new byte[bbuf.getShort()];
@@ -212,16 +250,10 @@ public class NSAccessSupport {
     bbuf.get(skCertEncoded);
     SecretKey secretKey = SessionKeys.getSecretKeyFromCertificate(skCertEncoded, publicKey);
 
-    MessageDigest md = getMessageDigestInstance();
-    byte[] digest = null;
-    synchronized (md) {
-      digest = md.digest(bytes);
-    }
-    Cipher cipher = getCipherInstance();
-    synchronized (cipher) {
-      cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-      return Arrays.equals(sign, cipher.doFinal(digest));
-    }
+    byte[] digest = MESSAGE_DIGESTS.get().digest(bytes);
+    Cipher cipher = CIPHERS.get();
+    cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+    return Arrays.equals(sign, cipher.doFinal(digest));
   }
 
   /**
@@ -33,8 +33,12 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.ENTIRE_RECORD;
 import edu.umass.cs.gnsserver.main.GNSConfig;
@@ -49,6 +53,14 @@ public class NSAuthentication {
   private static final Cache<String, String> PUBLIC_KEY_CACHE
           = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(1000).build();
 
+  private static final int ACL_CACHE_SIZE = Config.getGlobalInt(GNSConfig.GNSC.ACL_CACHE_SIZE);
+  private static final int ACL_CACHE_ENTRIES_PER_GUID = Config.getGlobalInt(GNSConfig.GNSC.ACL_CACHE_ENTRIES_PER_GUID);
+  // target guid to the ACL decisions for it keyed by access type, field and accessor guid
+  private static final Cache<String, ConcurrentMap<String, AclCheckResult>> ACL_CACHE
+          = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(Math.max(ACL_CACHE_SIZE, 0)).build();
+  // bumped by every invalidation so decisions made while the ACLs changed are not cached
+  private static final AtomicLong ACL_CACHE_GENERATION = new AtomicLong();
+
   /**
    * Does access and signature checking for a field OR fields in a guid.
    * For explicit multi-field access all fields must be accessible or
@@ -131,7 +143,9 @@ public class NSAuthentication {
       ClientSupportConfig.getLogger().log(Level.FINE,
               "Name {0} key={1} : SIGNATURE_ERROR", new Object[]{guid, field});
       return ResponseCode.SIGNATURE_ERROR;
-    } else if (!aclCheckPassed) {
+    }
+    NSSignatureVerificationStage.rememberPublicKey(accessorGuid, publicKey);
+    if (!aclCheckPassed) {
       ClientSupportConfig.getLogger().log(Level.FINE,
               "Name {0} key={1} : ACCESS_ERROR", new Object[]{guid, field});
       return ResponseCode.ACCESS_ERROR;
@@ -145,9 +159,69 @@ public class NSAuthentication {
           GNSApplicationInterface<String> gnsApp) throws FailedDBOperationException {
     if (Config.getGlobalBoolean(GNSConfig.GNSC.USE_OLD_ACL_MODEL)) {
       return oldAclCheck(targetGuid, field, accessorGuid, access, gnsApp);
-    } else {
+    }
+    if (ACL_CACHE_SIZE <= 0) {
       return newAclCheck(targetGuid, field, accessorGuid, access, gnsApp);
     }
+    String key = access.name() + ":" + field + ":" + accessorGuid;
+    ConcurrentMap<String, AclCheckResult> decisions = ACL_CACHE.getIfPresent(targetGuid);
+    AclCheckResult result;
+    if (decisions != null && (result = decisions.get(key)) != null) {
+      return result;
+    }
+    long generation = ACL_CACHE_GENERATION.get();
+    result = newAclCheck(targetGuid, field, accessorGuid, access, gnsApp);
+    if (result.isCacheable()) {
+      cacheAclCheck(targetGuid, key, result, generation);
+    }
+    return result;
+  }
+
+  private static void cacheAclCheck(String targetGuid, String key, AclCheckResult result, long generation) {
+    ConcurrentMap<String, AclCheckResult> decisions = ACL_CACHE.getIfPresent(targetGuid);
+    if (decisions == null) {
+      ConcurrentMap<String, AclCheckResult> newDecisions = new ConcurrentHashMap<>();
+      decisions = ACL_CACHE.asMap().putIfAbsent(targetGuid, newDecisions);
+      if (decisions == null) {
+        decisions = newDecisions;
+      }
+    }
+    if (decisions.size() < ACL_CACHE_ENTRIES_PER_GUID) {
+      decisions.put(key, result);
+    }
+    // an invalidation that ran before we added the decision won't have removed it
+    if (ACL_CACHE_GENERATION.get() != generation) {
+      ACL_CACHE.invalidate(targetGuid);
+    }
+  }
+
+  /**
+   * Forgets the cached ACL decisions for the guid.
+   * Call this when the ACLs of a guid on this server change or the guid is removed.
+   *
+   * @param guid
+   */
+  public static void invalidateAclCache(String guid) {
+    ACL_CACHE_GENERATION.incrementAndGet();
+    ACL_CACHE.invalidate(guid);
+  }
+
+  /**
+   * Forgets all the cached ACL decisions.
+   */
+  public static void invalidateAclCache() {
+    ACL_CACHE_GENERATION.incrementAndGet();
+    ACL_CACHE.invalidateAll();
+  }
+
+  /**
+   * Returns true if the field holds ACL metadata.
+   *
+   * @param field
+   * @return true if the field holds ACL metadata
+   */
+  public static boolean isAclField(String field) {
+    return field.startsWith(MetaDataTypeName.READ_WHITELIST.getPrefix());
   }
 
   private static AclCheckResult newAclCheck(String targetGuid, String field,
@@ -159,6 +233,8 @@ public class NSAuthentication {
 
     // This method attempts to look up the public key as well as check for ACL access.
     String publicKey;
+    // Decisions that only depend on the target guid's record can be cached
+    boolean cacheable;
     if (accessorGuid.equals(targetGuid)) {
       // This handles the base case where we're accessing our own guid. 
       // Access to all of our fields is always allowed to our own guid so we just need to get
@@ -169,11 +245,18 @@ public class NSAuthentication {
       if (publicKey == null) {
         return new AclCheckResult("", false, ResponseCode.BAD_GUID_ERROR);
       }
+      cacheable = true;
     } else {
       // Otherwise we attempt to find the public key for the accessorGuid in the ACL of the guid being
       // accesssed.
       // Note that field can be ENTIRE_RECORD here
-      publicKey = lookupPublicKeyInACL(targetGuid, field, accessorGuid, access, gnsApp);
+      Set<String> publicKeys = new HashSet<>();
+      publicKey = findPublicKeyInACL(targetGuid, field, accessorGuid, access, publicKeys, gnsApp);
+      cacheable = publicKey != null;
+      if (publicKey == null && publicKeys.contains(EVERYONE)) {
+        // depends on the accessor's record which might be somewhere else
+        publicKey = lookupPublicKeyForEveryone(accessorGuid, access, gnsApp);
+      }
     }
     // Handle the one final case: the accessorGuid is a member of a group guid and
     // that group guid is in the ACL
@@ -197,7 +280,7 @@ public class NSAuthentication {
     }
     // If we found a public key then the ACL checks out
     if (publicKey != null) {
-      return new AclCheckResult(publicKey, true, ResponseCode.NO_ERROR);
+      return new AclCheckResult(publicKey, true, ResponseCode.NO_ERROR, cacheable);
     } else {
       return new AclCheckResult("", false, ResponseCode.NO_ERROR);
     }
@@ -279,9 +362,40 @@ public class NSAuthentication {
   private static String lookupPublicKeyInACL(String guid, String field, String accessorGuid,
           MetaDataTypeName access, GNSApplicationInterface<String> gnsApp)
           throws FailedDBOperationException {
+    Set<String> publicKeys = new HashSet<>();
+    String publicKey = findPublicKeyInACL(guid, field, accessorGuid, access, publicKeys, gnsApp);
+    // See if public keys contains EVERYONE which means we need to go old school and lookup the guid 
+    // explicitly because it's not going to have an entry in the ACL
+    if (publicKey == null && publicKeys.contains(EVERYONE)) {
+      publicKey = lookupPublicKeyForEveryone(accessorGuid, access, gnsApp);
+    }
+    if (publicKey == null) {
+      ClientSupportConfig.getLogger().log(Level.FINE,
+              "================> Public key not found: accessor={0} guid={1} field={2} public keys={3}",
+              new Object[]{accessorGuid, guid, field, publicKeys});
+    }
+    return publicKey;
+  }
+
+  /**
+   * Looks for the public key of the accessorGuid in the ACL of the guid for the given field.
+   * Only reads the guid's record.
+   *
+   * @param guid
+   * @param field
+   * @param accessorGuid
+   * @param access
+   * @param publicKeys the public keys in the ACL are added to this
+   * @param gnsApp
+   * @return the public key or null if the ACL doesn't have it
+   * @throws FailedDBOperationException
+   */
+  private static String findPublicKeyInACL(String guid, String field, String accessorGuid,
+          MetaDataTypeName access, Set<String> publicKeys, GNSApplicationInterface<String> gnsApp)
+          throws FailedDBOperationException {
     String publicKey;
     // Field could also be ENTIRE_RECORD here 
-    Set<String> publicKeys = NSAccessSupport.lookupPublicKeysFromAcl(access, guid, field, gnsApp.getDB());
+    publicKeys.addAll(NSAccessSupport.lookupPublicKeysFromAcl(access, guid, field, gnsApp.getDB()));
     publicKey = SharedGuidUtils.findPublicKeyForGuid(accessorGuid, publicKeys);
     ClientSupportConfig.getLogger().log(Level.FINE,
             "================> {0} lookup for {1} returned: {2} public keys={3}",
@@ -299,23 +413,20 @@ public class NSAuthentication {
               "================> {0} lookup with +ALL+ returned: {1} public keys={2}",
               new Object[]{access.toString(), publicKey, publicKeys});
     }
-    // See if public keys contains EVERYONE which means we need to go old school and lookup the guid 
-    // explicitly because it's not going to have an entry in the ACL
-    if (publicKey == null && publicKeys.contains(EVERYONE)) {
-      GuidInfo accessorGuidInfo;
-      if ((accessorGuidInfo = NSAccountAccess.lookupGuidInfoAnywhere(accessorGuid, gnsApp)) != null) {
-        ClientSupportConfig.getLogger().log(Level.FINE,
-                "================> {0} lookup for EVERYONE returned {1}",
-                new Object[]{access.toString(), accessorGuidInfo});
-        publicKey = accessorGuidInfo.getPublicKey();
-      }
-    }
-    if (publicKey == null) {
+    return publicKey;
+  }
+
+  // The ACL contains EVERYONE so the public key has to come from the accessorGuid's record.
+  private static String lookupPublicKeyForEveryone(String accessorGuid, MetaDataTypeName access,
+          GNSApplicationInterface<String> gnsApp) throws FailedDBOperationException {
+    GuidInfo accessorGuidInfo;
+    if ((accessorGuidInfo = NSAccountAccess.lookupGuidInfoAnywhere(accessorGuid, gnsApp)) != null) {
       ClientSupportConfig.getLogger().log(Level.FINE,
-              "================> Public key not found: accessor={0} guid={1} field={2} public keys={3}",
-              new Object[]{accessorGuid, guid, field, publicKeys});
+              "================> {0} lookup for EVERYONE returned {1}",
+              new Object[]{access.toString(), accessorGuidInfo});
+      return accessorGuidInfo.getPublicKey();
     }
-    return publicKey;
+    return null;
   }
 
   private static String lookupPublicKeyFromGuidLocallyWithCacheing(String guid, GNSApplicationInterface<String> gnsApp)
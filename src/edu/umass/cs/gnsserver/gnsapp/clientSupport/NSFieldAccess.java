@@ -19,8 +19,10 @@
  */
 package edu.umass.cs.gnsserver.gnsapp.clientSupport;
 
+import edu.umass.cs.gigapaxos.interfaces.Callback;
 import edu.umass.cs.gnscommon.GNSCommandProtocol;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.database.ColumnFieldType;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
@@ -33,13 +35,17 @@ import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.metrics.ServerMetrics;
 import edu.umass.cs.gnsserver.utils.ResultValue;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 
 import org.json.JSONException;
@@ -183,8 +189,7 @@ public class NSFieldAccess {
         // active code handling
         ValuesMap valuesMap = nameRecord.getValuesMap();
         if (handleActiveCode) {
-          valuesMap = handler.getApp().getActiveCodeHandler().handleActiveCode(header, fields,
-                  guid, valuesMap, handler.getApp());
+          valuesMap = NSFieldAccess.handleActiveCode(header, guid, valuesMap, handler.getApp());
         }
         return valuesMap;
       }
@@ -370,25 +375,9 @@ public class NSFieldAccess {
     // Only do this for user fields.
     if (field == null || !InternalField.isInternalField(field)) {
       int hopLimit = 1;
-      // Grab the code because it is of a different type
-      NameRecord codeRecord = null;
-      try {
-        codeRecord = NameRecord.getNameRecordMultiUserFields(gnsApp.getDB(), guid,
-                ColumnFieldType.USER_JSON, ActiveCode.ON_READ);
-      } catch (RecordNotFoundException e) {
-        //GNS.getLogger().severe("Active code read record not found: " + e.getMessage());
-      }
-
-      ValuesMap codeMap = null;
-      try {
-        codeMap = codeRecord.getValuesMap();
-      } catch (FieldNotFoundException e) {
-        // do nothing
-      }
-      if (codeRecord != null && originalValues != null && gnsApp.getActiveCodeHandler() != null
-              && gnsApp.getActiveCodeHandler().hasCode(codeMap, ActiveCode.READ_ACTION)) {
+      String code = originalValues != null ? getReadCode(guid, gnsApp) : null;
+      if (code != null) {
         try {
-          String code = codeMap.getString(ActiveCode.ON_READ);
           ClientSupportConfig.getLogger().log(Level.FINE, "AC--->>> {0} {1} {2}",
                   new Object[]{guid, field, originalValues.toString()});
 
@@ -405,4 +394,98 @@ public class NSFieldAccess {
     }
     return newResult;
   }
+
+  /**
+   * Runs the read active code of the guid on each of the user fields
+   * in the values map. The code for all the fields is started before
+   * waiting for any of it so the fields are handled at the same time
+   * and this thread doesn't handle the queries the code makes.
+   */
+  private static ValuesMap handleActiveCode(InternalRequestHeader header, String guid,
+          ValuesMap originalValues, GNSApplicationInterface<String> gnsApp)
+          throws FailedDBOperationException {
+    if (!GNSConfig.enableActiveCode || originalValues == null) {
+      return originalValues;
+    }
+    String code = getReadCode(guid, gnsApp);
+    if (code == null) {
+      return originalValues;
+    }
+    int hopLimit = 1;
+    final ValuesMap newResult = new ValuesMap(originalValues);
+    List<String> fields = new ArrayList<>();
+    Iterator<?> keys = originalValues.keys();
+    while (keys.hasNext()) {
+      String field = (String) keys.next();
+      if (!InternalField.isInternalField(field)) {
+        fields.add(field);
+      }
+    }
+    long startNanos = System.nanoTime();
+    final CountDownLatch remaining = new CountDownLatch(fields.size());
+    for (final String field : fields) {
+      ValuesMap fieldValues = new ValuesMap();
+      try {
+        fieldValues.put(field, originalValues.get(field));
+      } catch (JSONException e) {
+        remaining.countDown();
+        continue;
+      }
+      gnsApp.getActiveCodeHandler().runCodeAsync(header, code, guid, field, "read", fieldValues, hopLimit,
+              new Callback<ValuesMap, ValuesMap>() {
+        @Override
+        public ValuesMap processResponse(ValuesMap result) {
+          if (result != null) {
+            synchronized (newResult) {
+              newResult.remove(field);
+              result.writeToValuesMap(newResult);
+            }
+          }
+          remaining.countDown();
+          return result;
+        }
+      });
+    }
+    try {
+      remaining.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return originalValues;
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.ACTIVE_CODE, startNanos);
+    }
+    synchronized (newResult) {
+      return newResult;
+    }
+  }
+
+  /**
+   * Returns the read active code of the guid or null if it doesn't have any.
+   */
+  private static String getReadCode(String guid, GNSApplicationInterface<String> gnsApp)
+          throws FailedDBOperationException {
+    if (gnsApp.getActiveCodeHandler() == null) {
+      return null;
+    }
+    // Grab the code because it is of a different type
+    NameRecord codeRecord = null;
+    try {
+      codeRecord = NameRecord.getNameRecordMultiUserFields(gnsApp.getDB(), guid,
+              ColumnFieldType.USER_JSON, ActiveCode.ON_READ);
+    } catch (RecordNotFoundException e) {
+      //GNS.getLogger().severe("Active code read record not found: " + e.getMessage());
+    }
+    if (codeRecord == null) {
+      return null;
+    }
+    try {
+      ValuesMap codeMap = codeRecord.getValuesMap();
+      if (ActiveCodeHandler.hasCode(codeMap, ActiveCode.READ_ACTION)) {
+        return codeMap.getString(ActiveCode.ON_READ);
+      }
+    } catch (FieldNotFoundException | JSONException e) {
+      // do nothing
+    }
+    return null;
+  }
 }
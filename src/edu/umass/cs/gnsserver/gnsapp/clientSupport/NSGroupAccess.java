@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.text.ParseException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Set;
 import java.util.logging.Level;
@@ -76,6 +77,7 @@ public class NSGroupAccess {
 
   /**
    * Update the members of a group guid.
+   * Only the members that were added or removed have their GROUPS field changed.
    *
    * @param guid
    * @param members
@@ -89,7 +91,12 @@ public class NSGroupAccess {
           ClientRequestHandlerInterface handler, InetSocketAddress lnsAddress)
           throws ClientException, IOException, JSONException {
     //ClientSupportConfig.getLogger().info("RQ: ");
-
+    Set<String> oldMembers;
+    try {
+      oldMembers = lookupMembers(guid, true, handler).toStringSet();
+    } catch (FailedDBOperationException e) {
+      oldMembers = Collections.emptySet();
+    }
     String response = handler.getRemoteQuery().fieldReplaceOrCreateArray(guid, GroupAccess.GROUP,
             new ResultValue(members));
 //    NSResponseCode groupResponse = LNSUpdateHandler.sendUpdate(guid, GroupAccess.GROUP, new ResultValue(members),
@@ -99,13 +106,19 @@ public class NSGroupAccess {
 
     if (response.equals(GNSProtocol.OK_RESPONSE.toString())) {
       //if (!groupResponse.isAnError()) {
-      // This is probably a bad idea to update every member
       for (String member : members) {
-        handler.getRemoteQuery().fieldReplaceOrCreateArray(member, GroupAccess.GROUPS,
-                new ResultValue(Arrays.asList(guid)));
+        if (!oldMembers.contains(member)) {
+          handler.getRemoteQuery().fieldAppendToArray(member, GroupAccess.GROUPS,
+                  new ResultValue(Arrays.asList(guid)));
+        }
 //        LNSUpdateHandler.sendUpdate(member, GroupAccess.GROUPS, new ResultValue(Arrays.asList(guid)),
 //                UpdateOperation.SINGLE_FIELD_APPEND_OR_CREATE, activeReplica, lnsAddress);
       }
+      for (String oldMember : oldMembers) {
+        if (!members.contains(oldMember)) {
+          handler.getRemoteQuery().fieldRemove(oldMember, GroupAccess.GROUPS, guid);
+        }
+      }
     }
   }
 
@@ -162,6 +175,27 @@ public class NSGroupAccess {
     return NSFieldAccess.lookupListFieldAnywhere(guid, GroupAccess.GROUPS, false, handler).toStringSet();
   }
 
+  /**
+   * Adds the memberGuid to the groupGuid.
+   *
+   * @param groupGuid
+   * @param memberGuid
+   * @param handler
+   * @return an {@link ResponseCode}
+   */
+  public static ResponseCode addToGroup(String groupGuid, String memberGuid,
+          ClientRequestHandlerInterface handler) {
+    try {
+      handler.getRemoteQuery().fieldAppendToArray(groupGuid, GroupAccess.GROUP,
+              new ResultValue(Arrays.asList(memberGuid)));
+      handler.getRemoteQuery().fieldAppendToArray(memberGuid, GroupAccess.GROUPS,
+              new ResultValue(Arrays.asList(groupGuid)));
+      return ResponseCode.NO_ERROR;
+    } catch (IOException | JSONException | ClientException e) {
+      return ResponseCode.UNSPECIFIED_ERROR;
+    }
+  }
+
   /**
    * Removes from the groupGuid the memberGuid.
    *
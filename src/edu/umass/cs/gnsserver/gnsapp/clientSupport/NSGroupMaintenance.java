@@ -0,0 +1,304 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.database.RecordQuery;
+import edu.umass.cs.gnsserver.gnsapp.SelectResultCache;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GroupAccess;
+import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.json.JSONException;
+
+/**
+ * Keeps the members of context aware group guids up to date as records change.
+ *
+ * Every name server sees the query of a group guid when the group is set up or refreshed
+ * because the select is sent to all of them. Each one remembers the queries. When an update
+ * on this name server changes a field that a group's query reads, we check whether the updated
+ * record still matches and add it to or remove it from the group. The query is evaluated against
+ * the one record and the membership comes from the record's own GROUPS field, so updates that
+ * don't change membership don't leave this server.
+ *
+ * When a member record is removed from this name server it is taken out of the groups its GROUPS
+ * field listed.
+ *
+ * The checks run on a few threads with bounded queues, the ones for a record always on the same
+ * thread so they are applied in order. A check already queued for a record and group covers later
+ * updates too, and checks that don't fit in the queue are dropped.
+ *
+ * The full select still runs every GROUP_RESYNC_INTERVAL so that name servers that restarted
+ * since the last one learn the query again and anything the incremental changes missed, such as
+ * records created with the matching values already set or dropped checks, is picked up.
+ *
+ * @author westy
+ */
+public class NSGroupMaintenance {
+
+  private static final long GROUP_RESYNC_INTERVAL = Config.getGlobalInt(GNSConfig.GNSC.GROUP_RESYNC_INTERVAL);
+
+  // group guid to the query that defines it
+  private static final ConcurrentMap<String, GroupQuery> GROUP_QUERIES = new ConcurrentHashMap<>();
+
+  // Membership changes send updates to other name servers so they don't run on the update path.
+  private static final int MEMBERSHIP_UPDATER_THREADS = 4;
+  private static final int MAX_QUEUED_CHECKS = 1000; // per thread
+  private static final ThreadPoolExecutor[] MEMBERSHIP_UPDATERS
+          = new ThreadPoolExecutor[MEMBERSHIP_UPDATER_THREADS];
+
+  static {
+    for (int i = 0; i < MEMBERSHIP_UPDATERS.length; i++) {
+      final String name = NSGroupMaintenance.class.getSimpleName() + i;
+      MEMBERSHIP_UPDATERS[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(MAX_QUEUED_CHECKS), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, name);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+  }
+
+  // the record and group pairs with a check queued
+  private static final Set<String> QUEUED_CHECKS
+          = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * Returns true if group members are maintained as records are updated.
+   *
+   * @return true if group members are maintained incrementally
+   */
+  public static boolean isEnabled() {
+    return GROUP_RESYNC_INTERVAL > 0;
+  }
+
+  /**
+   * Returns how long in milliseconds a group can go between full selects of its members.
+   *
+   * @return the resync interval
+   */
+  public static long getResyncInterval() {
+    return GROUP_RESYNC_INTERVAL;
+  }
+
+  /**
+   * Remembers the query of a group guid so that updates can be checked against it.
+   *
+   * @param request a GROUP_SETUP or GROUP_LOOKUP select
+   */
+  public static void registerGroupQuery(SelectRequestPacket<?> request) {
+    if (!isEnabled() || request.getGuid() == null || request.getQuery() == null) {
+      return;
+    }
+    Set<String> fields = SelectResultCache.getReferencedFields(request);
+    if (fields == null) {
+      // we'd have to check every update against it
+      return;
+    }
+    RecordQuery query;
+    try {
+      query = RecordQuery.parse(request.getQuery(), NameRecord.VALUES_MAP);
+    } catch (JSONException e) {
+      ClientSupportConfig.getLogger().log(Level.FINE,
+              "Not maintaining members of group {0}, unable to parse {1}: {2}",
+              new Object[]{request.getGuid(), request.getQuery(), e.getMessage()});
+      return;
+    }
+    GROUP_QUERIES.put(request.getGuid(), new GroupQuery(query, fields));
+    ClientSupportConfig.getLogger().log(Level.FINE,
+            "Maintaining members of group {0} for query {1}",
+            new Object[]{request.getGuid(), request.getQuery()});
+  }
+
+  /**
+   * Checks an updated record against the queries of the groups that read the updated fields
+   * and changes its group membership if necessary.
+   * Call this after a record on this name server is updated.
+   *
+   * @param guid
+   * @param fields the updated fields or null if they aren't known
+   * @param app
+   */
+  public static void recordUpdated(final String guid, Collection<String> fields,
+          final GNSApplicationInterface<String> app) {
+    if (GROUP_QUERIES.isEmpty()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, GroupQuery> entry : GROUP_QUERIES.entrySet()) {
+      final String groupGuid = entry.getKey();
+      final GroupQuery groupQuery = entry.getValue();
+      // a group nobody has looked up for a while will get a full select when they do
+      if (now - groupQuery.registered > 2 * GROUP_RESYNC_INTERVAL) {
+        GROUP_QUERIES.remove(groupGuid, groupQuery);
+        continue;
+      }
+      if (groupGuid.equals(guid) || !groupQuery.reads(fields)) {
+        continue;
+      }
+      checkMembership(groupGuid, groupQuery, guid, app);
+    }
+  }
+
+  /**
+   * Returns the groups with maintained members that the record is a member of.
+   * Call this before a record on this name server is removed and pass the
+   * result to {@link #recordRemoved} once it is.
+   *
+   * @param guid
+   * @param database
+   * @return the groups
+   */
+  public static List<String> getMaintainedGroups(String guid, BasicRecordMap database) {
+    if (GROUP_QUERIES.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<String> groups = new ArrayList<>();
+    for (String groupGuid : NSFieldAccess.lookupListFieldLocallySafe(guid, GroupAccess.GROUPS,
+            database).toStringSet()) {
+      if (GROUP_QUERIES.containsKey(groupGuid)) {
+        groups.add(groupGuid);
+      }
+    }
+    return groups;
+  }
+
+  /**
+   * Takes a removed record out of the groups it was a member of.
+   *
+   * @param guid
+   * @param groups the groups from {@link #getMaintainedGroups}
+   * @param app
+   */
+  public static void recordRemoved(String guid, Collection<String> groups,
+          GNSApplicationInterface<String> app) {
+    for (String groupGuid : groups) {
+      GroupQuery groupQuery = GROUP_QUERIES.get(groupGuid);
+      if (groupQuery != null) {
+        checkMembership(groupGuid, groupQuery, guid, app);
+      }
+    }
+  }
+
+  private static void checkMembership(final String groupGuid, final GroupQuery groupQuery,
+          final String guid, final GNSApplicationInterface<String> app) {
+    final String check = groupGuid + " " + guid;
+    if (!QUEUED_CHECKS.add(check)) {
+      // the queued check will see this change too
+      return;
+    }
+    try {
+      MEMBERSHIP_UPDATERS[(guid.hashCode() & Integer.MAX_VALUE) % MEMBERSHIP_UPDATERS.length]
+              .execute(new Runnable() {
+                @Override
+                public void run() {
+                  QUEUED_CHECKS.remove(check);
+                  updateMembership(groupGuid, groupQuery.query, guid, app);
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      QUEUED_CHECKS.remove(check);
+      ClientSupportConfig.getLogger().log(Level.FINE,
+              "Too many membership checks queued, leaving {0} in group {1} to the next full select",
+              new Object[]{guid, groupGuid});
+    }
+  }
+
+  private static void updateMembership(String groupGuid, RecordQuery query, String guid,
+          GNSApplicationInterface<String> app) {
+    try {
+      if (!NameRecord.containsRecord(app.getDB(), guid)) {
+        // removed, its GROUPS field went with it
+        ClientSupportConfig.getLogger().log(Level.FINE,
+                "Removing deleted {0} from group {1}", new Object[]{guid, groupGuid});
+        app.getRequestHandler().getRemoteQuery().fieldRemove(groupGuid, GroupAccess.GROUP, guid);
+        return;
+      }
+      boolean matches = NameRecord.recordMatchesQuery(app.getDB(), guid, query);
+      boolean member = NSFieldAccess.lookupListFieldLocallySafe(guid, GroupAccess.GROUPS,
+              app.getDB()).contains(groupGuid);
+      if (matches && !member) {
+        ClientSupportConfig.getLogger().log(Level.FINE,
+                "Adding {0} to group {1}", new Object[]{guid, groupGuid});
+        NSGroupAccess.addToGroup(groupGuid, guid, app.getRequestHandler());
+      } else if (!matches && member) {
+        ClientSupportConfig.getLogger().log(Level.FINE,
+                "Removing {0} from group {1}", new Object[]{guid, groupGuid});
+        NSGroupAccess.removeFromGroup(groupGuid, guid, app.getRequestHandler());
+      }
+    } catch (FailedDBOperationException e) {
+      ClientSupportConfig.getLogger().log(Level.WARNING,
+              "Unable to check {0} against the query for group {1}: {2}",
+              new Object[]{guid, groupGuid, e.getMessage()});
+    } catch (IOException | JSONException | ClientException e) {
+      ClientSupportConfig.getLogger().log(Level.WARNING,
+              "Unable to remove {0} from group {1}: {2}",
+              new Object[]{guid, groupGuid, e.getMessage()});
+    }
+  }
+
+  private static class GroupQuery {
+
+    private final RecordQuery query;
+    private final Set<String> fields; // top level fields the query reads
+    private final long registered = System.currentTimeMillis();
+
+    GroupQuery(RecordQuery query, Set<String> fields) {
+      this.query = query;
+      this.fields = fields;
+    }
+
+    boolean reads(Collection<String> updatedFields) {
+      if (updatedFields == null) {
+        return true;
+      }
+      for (String field : updatedFields) {
+        int dot = field.indexOf('.');
+        if (fields.contains(dot > 0 ? field.substring(0, dot) : field)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnscommon.packets.PacketUtils;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.ACCESSER;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.GUID;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.READER;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.SIGNATURE;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.WRITER;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Verifies the signatures of signed commands in parallel as they arrive so that
+ * the crypto is mostly done before the commands are executed.
+ *
+ * Commands have to be executed in the order the replicas agree on, so we can't hold
+ * them back until they are verified. Instead, when a command is received we start verifying
+ * its signature on a pool of threads and when it is executed
+ * {@link NSAccessSupport#verifySignature} picks up the result. If the verification hasn't
+ * started yet the executing thread does it and if it is running the executing thread waits for it.
+ *
+ * We only know which public key to verify with once the ACL check is done, so we guess using
+ * the keys of accessors whose signatures we have verified before. The result is only used if
+ * the executing thread ends up verifying the same signature and message with the same key,
+ * so a wrong guess just means the signature is verified when the command is executed.
+ *
+ * @author westy
+ */
+public class NSSignatureVerificationStage {
+
+  private static final boolean ENABLED = Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_SIGNATURE_PREVERIFICATION);
+
+  // accessor guid to a public key that has verified one of its signatures
+  private static final Cache<String, String> ACCESSOR_KEYS
+          = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(10000).build();
+
+  // signature to the verification started for it
+  private static final Cache<String, Verification> VERIFICATIONS
+          = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(10000)
+          .expireAfterWrite(1, TimeUnit.MINUTES).build();
+
+  private static final ThreadPoolExecutor VERIFIERS;
+
+  static {
+    final int threads = Runtime.getRuntime().availableProcessors();
+    VERIFIERS = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            // when the pool falls behind the commands are verified as they are executed
+            new ArrayBlockingQueue<Runnable>(1000), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable,
+                NSSignatureVerificationStage.class.getSimpleName() + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Starts verifying the signature of the command if it is signed by an accessor
+   * whose public key we know.
+   * Call this when a command is received and before anything else can modify it.
+   *
+   * @param packet
+   */
+  public static void verifyAhead(CommandPacket packet) {
+    if (!ENABLED || !Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_SIGNATURE_AUTHENTICATION)) {
+      return;
+    }
+    JSONObject command = PacketUtils.getCommand(packet);
+    if (command == null || !command.has(SIGNATURE)) {
+      return;
+    }
+    final String publicKey = guessPublicKey(command);
+    if (publicKey == null) {
+      return;
+    }
+    try {
+      final String signature = command.getString(SIGNATURE);
+      final Verification verification = new Verification(publicKey);
+      // cheap when the command was signed over the bytes it was received as
+      final String receivedMessage = packet.getReceivedSignedMessage();
+      // otherwise copy it here because the executing thread adds the message to the command
+      final JSONObject commandCopy = receivedMessage != null ? null
+              : new JSONObject(command, JSONObject.getNames(command));
+      verification.task = new FutureTask<>(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          verification.message = receivedMessage != null ? receivedMessage
+                  : CommandPacket.getSignedMessage(commandCopy);
+          return NSAccessSupport.verifySignatureNow(publicKey, signature, verification.message);
+        }
+      });
+      VERIFICATIONS.put(signature, verification);
+      VERIFIERS.execute(verification.task);
+    } catch (JSONException e) {
+      ClientSupportConfig.getLogger().log(Level.FINE,
+              "Unable to verify command ahead: {0}", e.getMessage());
+    } catch (RejectedExecutionException e) {
+      // the executing thread will run the task
+    }
+  }
+
+  /**
+   * Returns the result of verifying the signature ahead of time or null
+   * if it wasn't verified with this public key and message.
+   *
+   * @param publicKey
+   * @param signature
+   * @param message
+   * @return true or false if the signature was verified, otherwise null
+   */
+  static Boolean takeResult(String publicKey, String signature, String message) {
+    Verification verification;
+    if (!ENABLED || (verification = VERIFICATIONS.getIfPresent(signature)) == null) {
+      return null;
+    }
+    VERIFICATIONS.invalidate(signature);
+    if (!verification.publicKey.equals(publicKey)) {
+      return null;
+    }
+    // does nothing if it has already been run
+    verification.task.run();
+    try {
+      Boolean result = verification.task.get();
+      return message.equals(verification.message) ? result : null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Remembers the public key that verified a signature of the accessor.
+   *
+   * @param accessorGuid
+   * @param publicKey
+   */
+  static void rememberPublicKey(String accessorGuid, String publicKey) {
+    if (ENABLED && accessorGuid != null) {
+      ACCESSOR_KEYS.put(accessorGuid, publicKey);
+    }
+  }
+
+  private static String guessPublicKey(JSONObject command) {
+    for (String field : new String[]{WRITER, READER, ACCESSER, GUID}) {
+      String accessorGuid = command.optString(field, null);
+      String publicKey;
+      if (accessorGuid != null && (publicKey = ACCESSOR_KEYS.getIfPresent(accessorGuid)) != null) {
+        return publicKey;
+      }
+    }
+    return null;
+  }
+
+  private static class Verification {
+
+    private final String publicKey;
+    // written by the task before it completes and read after it has
+    private volatile String message;
+    private FutureTask<Boolean> task;
+
+    Verification(String publicKey) {
+      this.publicKey = publicKey;
+    }
+  }
+}
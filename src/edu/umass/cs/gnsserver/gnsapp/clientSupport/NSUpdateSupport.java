@@ -13,10 +13,13 @@ import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.database.ColumnFieldType;
+import edu.umass.cs.gnsserver.gnamed.GnsRecordCache;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.UpdateOperation;
+import edu.umass.cs.gnsserver.gnsapp.Select;
 import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
@@ -31,6 +34,7 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Collections;
 import java.util.Date;
 import java.util.logging.Level;
 
@@ -109,10 +113,27 @@ public class NSUpdateSupport {
       return errorCode;
     }
     if (!operation.equals(UpdateOperation.CREATE_INDEX)) {
-      // Handle usual case
-      NameRecord nameRecord = getNameRecord(guid, field, operation, app.getDB());
-      updateNameRecord(header, nameRecord, guid, field, operation, updateValue, oldValue, argument, userJSON,
-              app.getDB(), app.getActiveCodeHandler());
+      if (userJSON != null && operation.equals(UpdateOperation.USER_JSON_REPLACE)
+              && Config.getGlobalString(GNSConfig.GNSC.INTERNAL_OP_SECRET).equals(writer)
+              && AccountAccess.isGuidsUpdate(userJSON)) {
+        // The guids of an account are applied to the stored record here so
+        // that the count of them changes in the same execute
+        errorCode = AccountAccess.applyGuidsUpdate(guid, userJSON, app.getDB());
+        if (errorCode.isExceptionOrError()) {
+          return errorCode;
+        }
+      } else {
+        // Handle usual case
+        NameRecord nameRecord = getNameRecord(guid, field, operation, app.getDB());
+        updateNameRecord(header, nameRecord, guid, field, operation, updateValue, oldValue, argument, userJSON,
+                app.getDB(), app.getActiveCodeHandler());
+      }
+      invalidateCachedSelects(field, userJSON);
+      invalidateCachedAclChecks(guid, field, userJSON);
+      // the record may be a guid or a name the DNS service has read from
+      GnsRecordCache.invalidate(guid);
+      NSGroupMaintenance.recordUpdated(guid, field != null ? Collections.singletonList(field)
+              : userJSON != null ? userJSON.getKeys() : null, app);
       return ResponseCode.NO_ERROR;
     } else // Handle special case of a create index
      if (!updateValue.isEmpty() && updateValue.get(0) instanceof String) {
@@ -127,6 +148,35 @@ public class NSUpdateSupport {
       }
   }
 
+  // ACL changes made by AclAdd, AclRemove, AclCreateField and AclDeleteField all come through here.
+  private static void invalidateCachedAclChecks(String guid, String field, ValuesMap userJSON) throws JSONException {
+    if (field != null) {
+      if (NSAuthentication.isAclField(field)) {
+        NSAuthentication.invalidateAclCache(guid);
+      }
+    } else if (userJSON != null) {
+      for (String key : userJSON.getKeys()) {
+        if (NSAuthentication.isAclField(key)) {
+          NSAuthentication.invalidateAclCache(guid);
+          break;
+        }
+      }
+    } else {
+      NSAuthentication.invalidateAclCache(guid);
+    }
+  }
+
+  // Selects whose results depended on the updated fields have to go back to the database.
+  private static void invalidateCachedSelects(String field, ValuesMap userJSON) throws JSONException {
+    if (field != null) {
+      Select.invalidateCachedResults(Collections.singleton(field));
+    } else if (userJSON != null) {
+      Select.invalidateCachedResults(userJSON.getKeys());
+    } else {
+      Select.invalidateCachedResults(null);
+    }
+  }
+
   private static NameRecord getNameRecord(String guid, String field, UpdateOperation operation, BasicRecordMap db) throws RecordNotFoundException, FailedDBOperationException {
     if (operation.isAbleToSkipRead()) {
       // some operations don't require a read first
@@ -26,6 +26,7 @@ import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.metrics.ServerMetrics;
 import edu.umass.cs.gnsserver.utils.ResultValue;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ActiveReplicaError;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ClientReconfigurationPacket;
@@ -214,6 +215,7 @@ public class RemoteQuery extends ClientAsynchBase {
 
   private ClientRequest waitForReplicaResponse(long id, Object monitor, RequestCallbackWithRequest callback, long timeout)
           throws ClientException, ActiveReplicaException {
+    ServerMetrics.Counter.REPLICA_QUERIES.increment();
     try {
       synchronized (monitor) {
         long monitorStartTime = System.currentTimeMillis();
@@ -227,6 +229,7 @@ public class RemoteQuery extends ClientAsynchBase {
         if (timeout != 0
                 && System.currentTimeMillis() - monitorStartTime >= timeout) {
           // TODO: arun
+          ServerMetrics.Counter.REMOTE_QUERY_TIMEOUTS.increment();
           ClientException e = new ClientException(
                   this + ": Timed out on active replica response after waiting for "
                   + timeout + "ms for response packet for response for " + (callback != null && callback.getRequest() != null ? callback.getRequest().getSummary() : id));
@@ -274,6 +277,7 @@ public class RemoteQuery extends ClientAsynchBase {
           monitor.wait(WAIT_TIMESTEP);
         }
         if (timeout != 0 && System.currentTimeMillis() - monitorStartTime >= timeout) {
+          ServerMetrics.Counter.REMOTE_QUERY_TIMEOUTS.increment();
           ClientException e = new ClientException(ResponseCode.TIMEOUT,
                   this
                   + ": Timed out on reconfigurator response after waiting for "
@@ -314,6 +318,7 @@ public class RemoteQuery extends ClientAsynchBase {
    */
   private ResponseCode sendReconRequest(ClientReconfigurationPacket request, long timeout) throws IOException, ClientException {
     Object monitor = new Object();
+    ServerMetrics.Counter.RECONFIGURATOR_QUERIES.increment();
     sendRequest(request, this.getReconfiguratoRequestCallback(monitor));
     ClientReconfigurationPacket response = waitForReconResponse(request, monitor, timeout);
     // FIXME: return better error codes.
@@ -559,6 +564,29 @@ public class RemoteQuery extends ClientAsynchBase {
             BAD_RESPONSE + " " + BAD_GUID + " " + guid);
   }
 
+  /**
+   * Updates all the fields in the given JSON at a remote replica.
+   * Field names can use dot notation.
+   *
+   * @param guid
+   * @param json
+   * @return the response to the query
+   * @throws IOException
+   * @throws JSONException
+   * @throws ClientException
+   */
+  public String fieldUpdateMultiple(String guid, JSONObject json)
+          throws IOException, JSONException, ClientException {
+    LOGGER.log(Level.FINE,
+            "{0} Field update multiple {1} : {2}",
+            new Object[]{this, guid, Util.truncate(json, 64, 64)});
+    Object monitor = new Object();
+    RequestCallbackWithRequest callback;
+    long requestId = update(guid, null, json, callback = this.getRequestCallback(monitor));
+    return handleQueryResponse(requestId, monitor, callback, REPLICA_UPDATE_TIMEOUT,
+            BAD_RESPONSE + " " + BAD_GUID + " " + guid);
+  }
+
   /**
    * Updates or creates a field that is an array at a remote replica.
    *
@@ -630,6 +658,28 @@ public class RemoteQuery extends ClientAsynchBase {
             REPLICA_UPDATE_TIMEOUT, BAD_RESPONSE + " " + BAD_GUID + " " + guid);
   }
 
+  /**
+   * Removes a field at a remote replica. The field name can use dot notation.
+   *
+   * @param guid
+   * @param field
+   * @return the response to the query
+   * @throws IOException
+   * @throws JSONException
+   * @throws ClientException
+   */
+  public String fieldRemoveField(String guid, String field)
+          throws IOException, JSONException, ClientException {
+    LOGGER.log(Level.FINE,
+            "{0} Field remove field {1} / {2}",
+            new Object[]{this, guid, field});
+    Object monitor = new Object();
+    RequestCallbackWithRequest callback;
+    long requestId = fieldRemoveField(guid, field, callback = this.getRequestCallback(monitor));
+    return handleQueryResponse(requestId, monitor, callback, REPLICA_UPDATE_TIMEOUT,
+            BAD_RESPONSE + " " + BAD_GUID + " " + guid);
+  }
+
   /**
    * Removes all the values given from a field that is an array at a remote replica.
    *
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved 
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.packet;
+
+/**
+ * The paging behavior for select requests sent from the collecting NS to the other NSs.
+ * Records are returned a page at a time and the collecting NS asks for the next page
+ * only after it has processed the previous one.
+ */
+public enum SelectPageBehavior {
+  /**
+   * Run the query and return the first page of records.
+   */
+  FIRST_PAGE, //
+  /**
+   * Return the next page of records from a previously started query.
+   */
+  NEXT_PAGE, //
+  /**
+   * Discard a previously started query; no response is sent.
+   */
+  CLOSE
+
+}
@@ -24,6 +24,11 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ShaOn
 import edu.umass.cs.gnscommon.utils.Base64;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 
+import edu.umass.cs.gnsserver.utils.JSONUtils;
+
+import java.util.List;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -48,6 +53,9 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
   private final static String GROUP_BEHAVIOR = "group";
   private final static String GUID = "guid";
   private final static String REFRESH = "refresh";
+  private final static String LIMIT = "limit";
+  private final static String PAGE_BEHAVIOR = "page";
+  private final static String PROJECTION = "projection";
   //
   private long requestId;
   private String key;
@@ -61,6 +69,11 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
   // for group guid
   private String guid; // the group GUID we are maintaning or null for simple select
   private int minRefreshInterval; // minimum time between allowed refreshes of the guid
+  // for paging
+  private int limit = -1; // maximum number of records to return or -1 for no limit
+  private SelectPageBehavior pageBehavior = SelectPageBehavior.FIRST_PAGE;
+  // the user fields returned with each record or null to return just the guids
+  private List<String> projection = null;
 
   /**
    * Constructs a new SelectRequestPacket
@@ -179,6 +192,11 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
     this.groupBehavior = SelectGroupBehavior.valueOf(json.getString(GROUP_BEHAVIOR));
     this.guid = json.optString(GUID, null);
     this.minRefreshInterval = json.optInt(REFRESH, -1);
+    this.limit = json.optInt(LIMIT, -1);
+    this.pageBehavior = json.has(PAGE_BEHAVIOR)
+            ? SelectPageBehavior.valueOf(json.getString(PAGE_BEHAVIOR)) : SelectPageBehavior.FIRST_PAGE;
+    this.projection = json.has(PROJECTION)
+            ? JSONUtils.JSONArrayToArrayListString(json.getJSONArray(PROJECTION)) : null;
   }
 
   /**
@@ -222,6 +240,13 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
     if (minRefreshInterval != -1) {
       json.put(REFRESH, minRefreshInterval);
     }
+    if (limit != -1) {
+      json.put(LIMIT, limit);
+    }
+    json.put(PAGE_BEHAVIOR, pageBehavior.name());
+    if (projection != null) {
+      json.put(PROJECTION, new JSONArray(projection));
+    }
   }
 
   /**
@@ -374,6 +399,60 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
     return minRefreshInterval;
   }
 
+  /**
+   * Return the maximum number of records to return.
+   *
+   * @return the limit or -1 if there is no limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Set the maximum number of records to return.
+   *
+   * @param limit the limit or -1 for no limit
+   */
+  public void setLimit(int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Return the user fields that are returned with each record.
+   *
+   * @return the list of fields or null if only guids are returned
+   */
+  public List<String> getProjection() {
+    return projection;
+  }
+
+  /**
+   * Set the user fields that are returned with each record.
+   *
+   * @param projection the list of fields or null to return only guids
+   */
+  public void setProjection(List<String> projection) {
+    this.projection = projection;
+  }
+
+  /**
+   * Return the page behavior.
+   *
+   * @return the page behavior
+   */
+  public SelectPageBehavior getPageBehavior() {
+    return pageBehavior;
+  }
+
+  /**
+   * Set the page behavior.
+   *
+   * @param pageBehavior
+   */
+  public void setPageBehavior(SelectPageBehavior pageBehavior) {
+    this.pageBehavior = pageBehavior;
+  }
+
   /**
    *
    * @return the response
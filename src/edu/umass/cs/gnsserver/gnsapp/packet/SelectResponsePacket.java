@@ -45,6 +45,8 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
   private final static String NSQUERYID = "nsQueryId";
   private final static String RESPONSECODE = "code";
   private final static String ERRORSTRING = "error";
+  private final static String PAGE = "page";
+  private final static String LASTPAGE = "lastPage";
   
 
   /**
@@ -68,6 +70,8 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
   private JSONArray guids;
   private ResponseCode responseCode;
   private String errorMessage;
+  private int page = 0;
+  private boolean lastPage = true;
 
   /**
    * Constructs a new SelectResponsePacket
@@ -107,6 +111,30 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
             ResponseCode.NOERROR, null);
   }
 
+  /**
+   * Used by a NameServer to a send one page of full records back to the collecting NameServer.
+   *
+   * @param id
+   * @param lnsAddress
+   * @param lnsQueryId
+   * @param nsQueryId
+   * @param nameServerID
+   * @param records
+   * @param page
+   * @param lastPage
+   * @return a SelectResponsePacket
+   */
+  @SuppressWarnings("unchecked")
+  public static SelectResponsePacket makeSuccessPacketForRecordsPage(long id, InetSocketAddress lnsAddress,
+          long lnsQueryId,
+          int nsQueryId, Object nameServerID, JSONArray records, int page, boolean lastPage) {
+    SelectResponsePacket<Object> packet = new SelectResponsePacket<>(id, lnsAddress, nsQueryId, nameServerID,
+            records, null, ResponseCode.NOERROR, null);
+    packet.page = page;
+    packet.lastPage = lastPage;
+    return packet;
+  }
+
   /**
    * Used by a NameServer to a send response with only a list of guids back to the Local NameServer
    *
@@ -125,6 +153,26 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
             null, guids, ResponseCode.NOERROR, null);
   }
 
+  /**
+   * Used by a NameServer to a send response with a list of guids and the projected fields of
+   * each record back to the Local NameServer
+   *
+   * @param id
+   * @param lnsAddress
+   * @param nsQueryId
+   * @param nameServerID
+   * @param guids
+   * @param records
+   * @return a SelectResponsePacket
+   */
+  @SuppressWarnings("unchecked")
+  public static SelectResponsePacket makeSuccessPacketForGuidsAndRecords(long id,
+          InetSocketAddress lnsAddress,
+          int nsQueryId, Object nameServerID, JSONArray guids, JSONArray records) {
+    return new SelectResponsePacket<>(id, lnsAddress, nsQueryId, nameServerID,
+            records, guids, ResponseCode.NOERROR, null);
+  }
+
   /**
    * Used by a NameServer to a failure response to a NameServer or Local NameServer
    *
@@ -164,6 +212,8 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
     this.records = json.optJSONArray(RECORDS);
     this.guids = json.optJSONArray(GUIDS);
     this.errorMessage = json.optString(ERRORSTRING, null);
+    this.page = json.optInt(PAGE, 0);
+    this.lastPage = json.optBoolean(LASTPAGE, true);
 
   }
 
@@ -192,6 +242,12 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
     if (errorMessage != null) {
       json.put(ERRORSTRING, errorMessage);
     }
+    if (page != 0) {
+      json.put(PAGE, page);
+    }
+    if (!lastPage) {
+      json.put(LASTPAGE, lastPage);
+    }
     return json;
   }
 
@@ -249,6 +305,24 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
     return errorMessage;
   }
 
+  /**
+   * Return the page number of the records in this response.
+   *
+   * @return the page number
+   */
+  public int getPage() {
+    return page;
+  }
+
+  /**
+   * Returns true if this response contains the last page of records.
+   *
+   * @return true if this is the last page
+   */
+  public boolean isLastPage() {
+    return lastPage;
+  }
+
   /**
    *
    * @return the service name
@@ -26,12 +26,14 @@ import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.metrics.ServerMetrics;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.logging.Level;
 
 /**
@@ -64,19 +66,30 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
 
   @Override
   public JSONObject lookupEntireRecord(String name) throws RecordNotFoundException, FailedDBOperationException {
-    return noSqlRecords.lookupEntireRecord(collectionName, name);
+    long startNanos = System.nanoTime();
+    try {
+      return noSqlRecords.lookupEntireRecord(collectionName, name);
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.DB, startNanos);
+    }
   }
 
   @Override
   public HashMap<ColumnField, Object> lookupUserFields(String name, ColumnField nameField,
           ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
           throws RecordNotFoundException, FailedDBOperationException {
-    return noSqlRecords.lookupSomeFields(collectionName, name, nameField, valuesMapField, valuesMapKeys);
+    long startNanos = System.nanoTime();
+    try {
+      return noSqlRecords.lookupSomeFields(collectionName, name, nameField, valuesMapField, valuesMapKeys);
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.DB, startNanos);
+    }
   }
 
   @Override
   public void addRecord(JSONObject json) throws FailedDBOperationException, RecordExistsException {
     NoSQLRecords records = noSqlRecords;
+    long startNanos = System.nanoTime();
     try {
       String name = json.getString(NameRecord.NAME.getName());
       records.insert(collectionName, name, json);
@@ -85,30 +98,52 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     } catch (JSONException e) {
       GNSConfig.getLogger().log(Level.SEVERE, "{0}:: Error adding name record: {1}",
               new Object[]{records.toString(), e});
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.DB, startNanos);
     }
   }
 
   @Override
   public void removeRecord(String name) throws FailedDBOperationException {
-    noSqlRecords.removeEntireRecord(collectionName, name);
+    long startNanos = System.nanoTime();
+    try {
+      noSqlRecords.removeEntireRecord(collectionName, name);
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.DB, startNanos);
+    }
   }
 
   @Override
   public boolean containsName(String name) throws FailedDBOperationException {
-    return noSqlRecords.contains(collectionName, name);
+    long startNanos = System.nanoTime();
+    try {
+      return noSqlRecords.contains(collectionName, name);
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.DB, startNanos);
+    }
   }
 
   @Override
   public void updateEntireValuesMap(String name, ValuesMap valuesMap)
           throws FailedDBOperationException {
-    noSqlRecords.updateEntireRecord(collectionName, name, valuesMap);
+    long startNanos = System.nanoTime();
+    try {
+      noSqlRecords.updateEntireRecord(collectionName, name, valuesMap);
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.DB, startNanos);
+    }
   }
 
   @Override
   public void updateIndividualFields(String name, ArrayList<ColumnField> valuesMapKeys, ArrayList<Object> valuesMapValues)
           throws FailedDBOperationException {
-    noSqlRecords.updateIndividualFields(collectionName, name,
-            NameRecord.VALUES_MAP, valuesMapKeys, valuesMapValues);
+    long startNanos = System.nanoTime();
+    try {
+      noSqlRecords.updateIndividualFields(collectionName, name,
+              NameRecord.VALUES_MAP, valuesMapKeys, valuesMapValues);
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.DB, startNanos);
+    }
 //    noSqlRecords.updateFields(collectionName, name, NameRecord.NAME, null, null, 
 //            NameRecord.VALUES_MAP, valuesMapKeys, valuesMapValues);
   }
@@ -116,7 +151,12 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
   @Override
   public void removeMapKeys(String name, ColumnField mapField, ArrayList<ColumnField> mapKeys)
           throws FailedDBOperationException {
-    noSqlRecords.removeMapKeys(collectionName, name, mapField, mapKeys);
+    long startNanos = System.nanoTime();
+    try {
+      noSqlRecords.removeMapKeys(collectionName, name, mapField, mapKeys);
+    } finally {
+      ServerMetrics.record(ServerMetrics.Phase.DB, startNanos);
+    }
   }
 
   @Override
@@ -125,23 +165,27 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
   }
 
   @Override
-  public AbstractRecordCursor selectRecords(ColumnField valuesMapField, String key, Object value) throws FailedDBOperationException {
-    return noSqlRecords.selectRecords(collectionName, valuesMapField, key, value);
+  public AbstractRecordCursor selectRecords(ColumnField valuesMapField, String key, Object value,
+          List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecords(collectionName, valuesMapField, key, value, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
-    return noSqlRecords.selectRecordsWithin(collectionName, valuesMapField, key, value);
+  public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value,
+          List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsWithin(collectionName, valuesMapField, key, value, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
-    return noSqlRecords.selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance);
+  public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value, Double maxDistance,
+          List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, projection);
   }
 
   @Override
-  public AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField, String query) throws FailedDBOperationException {
-    return noSqlRecords.selectRecordsQuery(collectionName, valuesMapField, query);
+  public AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField, String query,
+          List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsQuery(collectionName, valuesMapField, query, projection);
   }
 
   @Override
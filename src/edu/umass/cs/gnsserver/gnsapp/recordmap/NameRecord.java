@@ -24,6 +24,7 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.Updat
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
 import edu.umass.cs.gnsserver.database.ColumnField;
 import edu.umass.cs.gnsserver.database.ColumnFieldType;
+import edu.umass.cs.gnsserver.database.RecordQuery;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
@@ -38,6 +39,7 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 
 /**
@@ -430,11 +432,13 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    * @param recordMap
    * @param key
    * @param value
+   * @param projection
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public static AbstractRecordCursor selectRecords(BasicRecordMap recordMap, String key, Object value) throws FailedDBOperationException {
-    return recordMap.selectRecords(NameRecord.VALUES_MAP, key, value);
+  public static AbstractRecordCursor selectRecords(BasicRecordMap recordMap, String key, Object value,
+          List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecords(NameRecord.VALUES_MAP, key, value, projection);
   }
 
   /**
@@ -444,11 +448,13 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    * @param recordMap
    * @param key
    * @param value - a string that looks like this: [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]]
+   * @param projection
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public static AbstractRecordCursor selectRecordsWithin(BasicRecordMap recordMap, String key, String value) throws FailedDBOperationException {
-    return recordMap.selectRecordsWithin(NameRecord.VALUES_MAP, key, value);
+  public static AbstractRecordCursor selectRecordsWithin(BasicRecordMap recordMap, String key, String value,
+          List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsWithin(NameRecord.VALUES_MAP, key, value, projection);
   }
 
   /**
@@ -459,11 +465,13 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    * @param key
    * @param value - a string that looks like this: [LONG, LAT]
    * @param maxDistance - the distance in meters
+   * @param projection
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public static AbstractRecordCursor selectRecordsNear(BasicRecordMap recordMap, String key, String value, Double maxDistance) throws FailedDBOperationException {
-    return recordMap.selectRecordsNear(NameRecord.VALUES_MAP, key, value, maxDistance);
+  public static AbstractRecordCursor selectRecordsNear(BasicRecordMap recordMap, String key, String value, Double maxDistance,
+          List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsNear(NameRecord.VALUES_MAP, key, value, maxDistance, projection);
   }
 
   /**
@@ -471,11 +479,39 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    *
    * @param recordMap
    * @param query
+   * @param projection
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
-  public static AbstractRecordCursor selectRecordsQuery(BasicRecordMap recordMap, String query) throws FailedDBOperationException {
-    return recordMap.selectRecordsQuery(NameRecord.VALUES_MAP, query);
+  public static AbstractRecordCursor selectRecordsQuery(BasicRecordMap recordMap, String query,
+          List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsQuery(NameRecord.VALUES_MAP, query, projection);
+  }
+
+  /**
+   * Returns true if the record with the given name matches the query.
+   * The record is looked up by its name and the query is evaluated
+   * against it here rather than by the database.
+   *
+   * @param recordMap
+   * @param name
+   * @param query a query parsed with {@link RecordQuery#parse} and {@link #VALUES_MAP}
+   * @return true if the record exists and matches the query
+   * @throws FailedDBOperationException if the query uses something that can't be evaluated
+   */
+  public static boolean recordMatchesQuery(BasicRecordMap recordMap, String name, RecordQuery query)
+          throws FailedDBOperationException {
+    JSONObject record;
+    try {
+      record = recordMap.lookupEntireRecord(name);
+    } catch (RecordNotFoundException e) {
+      return false;
+    }
+    try {
+      return query.matches(record);
+    } catch (IllegalArgumentException e) {
+      throw new FailedDBOperationException(VALUES_MAP.getName(), name, e.getMessage());
+    }
   }
 
   /**
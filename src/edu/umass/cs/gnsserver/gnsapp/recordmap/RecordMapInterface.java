@@ -29,6 +29,7 @@ import edu.umass.cs.gnsserver.utils.ValuesMap;
 import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  *
@@ -153,11 +154,12 @@ public interface RecordMapInterface {
    * @param valuesMapField - the field in the row that contains the *user* fields
    * @param key
    * @param value
+   * @param projection - the *user* fields to return or null for entire records
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   public abstract AbstractRecordCursor selectRecords(ColumnField valuesMapField,
-          String key, Object value) throws FailedDBOperationException;
+          String key, Object value, List<String> projection) throws FailedDBOperationException;
 
   /**
    * If key is a GeoSpatial field return all fields that are within value which is a bounding box specified
@@ -166,11 +168,12 @@ public interface RecordMapInterface {
    * @param valuesMapField - the field in the row that contains the *user* fields
    * @param key
    * @param value - a string that looks like this [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]]
+   * @param projection - the *user* fields to return or null for entire records
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   public abstract AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField,
-          String key, String value) throws FailedDBOperationException;
+          String key, String value, List<String> projection) throws FailedDBOperationException;
 
   /**
    * If key is a GeoSpatial field return all fields that are near value which is a point specified
@@ -180,21 +183,23 @@ public interface RecordMapInterface {
    * @param key
    * @param value - a string that looks like this [LONG, LAT]
    * @param maxDistance - the distance in meters
+   * @param projection - the *user* fields to return or null for entire records
    * @return an {@link AbstractRecordCursor}
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
    */
   public abstract AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField,
-          String key, String value, Double maxDistance) throws FailedDBOperationException;
+          String key, String value, Double maxDistance, List<String> projection) throws FailedDBOperationException;
 
   /**
    * Return all the fields that match the query.
    *
    * @param valuesMapField
    * @param query
+   * @param projection - the *user* fields to return or null for entire records
    * @return {@link AbstractRecordCursor}
    * @throws FailedDBOperationException
    */
   public abstract AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField,
-          String query) throws FailedDBOperationException;
+          String query, List<String> projection) throws FailedDBOperationException;
 
 }
@@ -23,6 +23,7 @@ package edu.umass.cs.gnsserver.httpserver;
  *
  * @author westy
  */
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -30,21 +31,38 @@ import com.sun.net.httpserver.HttpServer;
 
 import edu.umass.cs.gnsclient.client.GNSClient;
 import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.BAD_RESPONSE;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.JSON_PARSE_ERROR;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.OPERATION_NOT_SUPPORTED;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.QUERY_PROCESSING_ERROR;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.SIGNATURE;
 import static edu.umass.cs.gnscommon.GNSCommandProtocol.SIGNATUREFULLMESSAGE;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import edu.umass.cs.gnscommon.ResponseCode;
 import static edu.umass.cs.gnsserver.httpserver.Defs.KEYSEP;
 import static edu.umass.cs.gnsserver.httpserver.Defs.QUERYPREFIX;
@@ -58,6 +76,7 @@ import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.utils.Format;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandResponse;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAccessSupport;
+import edu.umass.cs.gnsserver.metrics.ServerMetrics;
 import edu.umass.cs.gnsserver.utils.Util;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
 import edu.umass.cs.utils.Config;
@@ -66,6 +85,8 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang.time.DurationFormatUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
@@ -79,6 +100,10 @@ public class GNSHttpServer {
    *
    */
   protected static final String GNS_PATH = Config.getGlobalString(GNSConfig.GNSC.HTTP_SERVER_GNS_URL_PATH);
+  /**
+   * The path of the page with the metrics of the server in the Prometheus text format.
+   */
+  protected static final String METRICS_PATH = "metrics";
   private HttpServer httpServer = null;
   private int port;
   // handles command processing
@@ -89,6 +114,38 @@ public class GNSHttpServer {
    */
   protected final ClientRequestHandlerInterface requestHandler;
   private final Date serverStartDate = new Date();
+  private static final int MAX_BATCH_SIZE = Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_MAX_BATCH_SIZE);
+  private static final int MAX_BODY_SIZE = Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_MAX_BODY_SIZE);
+  private static final int MAX_QUEUED_REQUESTS = Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_MAX_QUEUED_REQUESTS);
+  // set on the thread that answers the requests there was no room for
+  private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+  // answers the requests there was no room for with 503; the server closes
+  // the connection of any it has no room for either
+  private final ExecutorService overloadExecutor = createExecutor("GNSHttpOverload", 1,
+          new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS), new ThreadPoolExecutor.AbortPolicy());
+  // handles the requests; the JDK server itself only has the one thread that does the IO
+  private final ExecutorService requestExecutor = createExecutor("GNSHttpRequest",
+          Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_THREADS),
+          new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS), new RejectedExecutionHandler() {
+    @Override
+    public void rejectedExecution(final Runnable exchange, ThreadPoolExecutor executor) {
+      overloadExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          OVERLOADED.set(true);
+          try {
+            exchange.run();
+          } finally {
+            OVERLOADED.remove();
+          }
+        }
+      });
+    }
+  });
+  // executes the commands of batches concurrently
+  private final ExecutorService batchExecutor = createExecutor("GNSHttpBatch",
+          Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_BATCH_THREADS), new SynchronousQueue<Runnable>(),
+          new ThreadPoolExecutor.CallerRunsPolicy());
 
   private final static Logger LOG = Logger.getLogger(GNSHttpServer.class.getName());
   
@@ -126,6 +183,74 @@ public class GNSHttpServer {
     if (httpServer != null) {
       httpServer.stop(0);
     }
+    stopExecutors();
+  }
+
+  /**
+   * Stops the threads that handle requests.
+   */
+  protected void stopExecutors() {
+    requestExecutor.shutdown();
+    overloadExecutor.shutdown();
+    batchExecutor.shutdown();
+  }
+
+  /**
+   * Adds the pages of the GNS to the server and has the threads
+   * of this server handle its requests.
+   *
+   * @param server
+   */
+  protected void createContexts(HttpServer server) {
+    createContext(server, "/", new EchoHandler());
+    createContext(server, "/" + GNS_PATH, new DefaultHandler());
+    createContext(server, "/" + METRICS_PATH, new MetricsHandler());
+    server.setExecutor(requestExecutor);
+  }
+
+  private static void createContext(HttpServer server, String path, HttpHandler handler) {
+    server.createContext(path, handler).getFilters().add(new OverloadFilter());
+  }
+
+  /**
+   * Answers the requests that arrive while all the request threads are busy
+   * and the queue of requests waiting for them is full.
+   */
+  private static class OverloadFilter extends Filter {
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+      if (Boolean.TRUE.equals(OVERLOADED.get())) {
+        LOG.log(Level.FINE, "Server overloaded, refusing request from {0}", exchange.getRemoteAddress());
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendError(exchange, HttpURLConnection.HTTP_UNAVAILABLE,
+                BAD_RESPONSE + " " + QUERY_PROCESSING_ERROR + " Server is overloaded");
+      } else {
+        chain.doFilter(exchange);
+      }
+    }
+
+    @Override
+    public String description() {
+      return "Refuses requests while the server is overloaded";
+    }
+  }
+
+  private static ExecutorService createExecutor(final String name, int threads,
+          BlockingQueue<Runnable> queue, RejectedExecutionHandler rejectedHandler) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            queue, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    }, rejectedHandler);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
  
   /**
@@ -139,9 +264,7 @@ public class GNSHttpServer {
       InetSocketAddress addr = new InetSocketAddress(port);
       httpServer = HttpServer.create(addr, 0);
 
-      httpServer.createContext("/", new EchoHandler());
-      httpServer.createContext("/" + GNS_PATH, new DefaultHandler());
-      httpServer.setExecutor(Executors.newCachedThreadPool());
+      createContexts(httpServer);
       httpServer.start();
       // Need to do this for the places where we expose the insecure http service to the user
       requestHandler.setHttpServerPort(port);
@@ -157,7 +280,8 @@ public class GNSHttpServer {
   }
 
   /**
-   * The default handler.
+   * The default handler. Executes a command encoded in the URL of a GET
+   * or a batch of JSON commands in the body of a POST.
    */
   protected class DefaultHandler implements HttpHandler {
 
@@ -199,6 +323,11 @@ public class GNSHttpServer {
           // FIXME: This totally ignores the error code.
           responseBody.write(response.getReturnValue().getBytes());
           responseBody.close();
+        } else if (requestMethod.equalsIgnoreCase("POST")) {
+          processBatch(exchange);
+        } else {
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+          exchange.close();
         }
       } catch (Exception e) {
         LOG.log(Level.SEVERE, "Error: " + e);
@@ -249,6 +378,122 @@ public class GNSHttpServer {
             + " Sorry, don't understand " + action + QUERYPREFIX + queryString);
   }
 
+  /**
+   * Executes a batch of commands POSTed to the server. The body is a JSON array of commands
+   * in the JSON form the GNS client sends them in, signed the same way. The response is a
+   * JSON array with the return value and error code of each command, in the same order.
+   * The commands are executed concurrently and each response is written as soon as
+   * it and the ones before it are done, so the client can start on the first ones
+   * while later ones are still being executed.
+   */
+  private void processBatch(HttpExchange exchange) throws IOException {
+    JSONArray commands;
+    try {
+      commands = readBatch(exchange.getRequestBody());
+    } catch (JSONException e) {
+      sendError(exchange, HttpURLConnection.HTTP_BAD_REQUEST, BAD_RESPONSE + " " + JSON_PARSE_ERROR + " " + e);
+      return;
+    }
+    if (commands == null || commands.length() > MAX_BATCH_SIZE) {
+      sendError(exchange, HttpURLConnection.HTTP_ENTITY_TOO_LARGE, BAD_RESPONSE + " " + QUERY_PROCESSING_ERROR
+              + " Batches can be at most " + MAX_BODY_SIZE + " bytes and " + MAX_BATCH_SIZE + " commands");
+      return;
+    }
+    List<Future<CommandResponse>> responses = new ArrayList<>(commands.length());
+    for (int i = 0; i < commands.length(); i++) {
+      final JSONObject json = commands.optJSONObject(i);
+      responses.add(batchExecutor.submit(new Callable<CommandResponse>() {
+        @Override
+        public CommandResponse call() {
+          return processJSONCommand(json);
+        }
+      }));
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+    OutputStream responseBody = exchange.getResponseBody();
+    responseBody.write('[');
+    for (int i = 0; i < responses.size(); i++) {
+      CommandResponse response;
+      try {
+        response = responses.get(i).get();
+      } catch (ExecutionException | InterruptedException e) {
+        response = new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR,
+                BAD_RESPONSE + " " + QUERY_PROCESSING_ERROR + " " + e);
+      }
+      if (i > 0) {
+        responseBody.write(',');
+      }
+      responseBody.write(toJSON(response).getBytes(StandardCharsets.UTF_8));
+      responseBody.flush();
+    }
+    responseBody.write(']');
+    responseBody.close();
+  }
+
+  // Returns null if the body is too large.
+  private static JSONArray readBatch(InputStream body) throws IOException, JSONException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int length;
+    while ((length = body.read(buffer)) >= 0) {
+      bytes.write(buffer, 0, length);
+      if (bytes.size() > MAX_BODY_SIZE) {
+        return null;
+      }
+    }
+    String string = bytes.toString(StandardCharsets.UTF_8.name()).trim();
+    // a single command is a batch of one
+    return string.startsWith("{") ? new JSONArray().put(new JSONObject(string)) : new JSONArray(string);
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] body = message.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+    exchange.sendResponseHeaders(status, body.length);
+    OutputStream responseBody = exchange.getResponseBody();
+    responseBody.write(body);
+    responseBody.close();
+  }
+
+  // The same fields a ResponsePacket has for the return value and error code.
+  private static String toJSON(CommandResponse response) {
+    JSONObject json = new JSONObject();
+    try {
+      json.put(GNSProtocol.RETURN_VALUE.toString(), response.getReturnValue());
+      json.put(GNSProtocol.ERROR_CODE.toString(), response.getExceptionOrErrorCode() != null
+              ? response.getExceptionOrErrorCode().getCodeValue() : ResponseCode.NO_ERROR.getCodeValue());
+    } catch (JSONException e) {
+      // can't happen with a string and an int
+    }
+    return json.toString();
+  }
+
+  /**
+   * Executes a command in the JSON form the GNS client sends them in.
+   */
+  private CommandResponse processJSONCommand(JSONObject json) {
+    if (json == null) {
+      return new CommandResponse(ResponseCode.JSON_PARSE_ERROR,
+              BAD_RESPONSE + " " + JSON_PARSE_ERROR + " Command is not a JSON object");
+    }
+    AbstractCommand command = commandModule.lookupCommandHandler(json);
+    if (command == null) {
+      return new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
+              BAD_RESPONSE + " " + OPERATION_NOT_SUPPORTED + " Sorry, don't understand " + json);
+    }
+    try {
+      // like the CommandHandler does for commands that come in packets
+      if (json.has(SIGNATURE)) {
+        json.put(SIGNATUREFULLMESSAGE, CommandPacket.getSignedMessage(json));
+      }
+    } catch (JSONException e) {
+      return new CommandResponse(ResponseCode.JSON_PARSE_ERROR,
+              BAD_RESPONSE + " " + JSON_PARSE_ERROR + " " + e);
+    }
+    return CommandHandler.executeCommand(command, json, requestHandler);
+  }
+
   private CommandPacket getResponseUsingGNSClient(GNSClient client,
           JSONObject jsonFormattedCommand) throws ClientException, IOException {
     CommandPacket commandPacket = client.execute(new CommandPacket(
@@ -261,6 +506,32 @@ public class GNSHttpServer {
 
   }
 
+  /**
+   * Returns the metrics of the server for Prometheus to scrape.
+   */
+  protected class MetricsHandler implements HttpHandler {
+
+    /**
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      if (exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+        byte[] metrics = ServerMetrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, metrics.length);
+        OutputStream responseBody = exchange.getResponseBody();
+        responseBody.write(metrics);
+        responseBody.close();
+      } else {
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+        exchange.close();
+      }
+    }
+  }
+
   /**
    * Returns info about the server.
    */
@@ -28,7 +28,6 @@ import com.sun.net.httpserver.HttpsParameters;
 import com.sun.net.httpserver.HttpsServer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import java.io.FileInputStream;
 import java.net.BindException;
@@ -73,6 +72,7 @@ public class GNSHttpsServer extends GNSHttpServer {
     if (httpsServer != null) {
       httpsServer.stop(0);
     }
+    stopExecutors();
   }
 
   /**
@@ -126,9 +126,7 @@ public class GNSHttpsServer extends GNSHttpServer {
         }
       });
 
-      httpsServer.createContext("/", new EchoHandler());
-      httpsServer.createContext("/" + GNS_PATH, new DefaultHandler());
-      httpsServer.setExecutor(Executors.newCachedThreadPool());
+      createContexts(httpsServer);
       httpsServer.start();
       // Need to do this for the places where we expose the secure http service to the user
       requestHandler.setHttpsServerPort(port);
@@ -23,68 +23,55 @@ import java.net.InetSocketAddress;
 import java.util.Set;
 
 /**
- * Represents the cache entry used at the local name server to cache records.
+ * Represents the cache entry used at the local name server to cache the
+ * active replicas of a name.
  */
 public class CacheEntry implements Comparable<CacheEntry> {
 
+  // Rough sizes used to weigh entries when the cache is limited by bytes.
+  private static final int ENTRY_OVERHEAD = 128;
+  private static final int ADDRESS_SIZE = 64;
+  // Fresh actives are prefetched once this fraction of the ttl has passed.
+  private static final double ACTIVES_REFRESH_AFTER = 0.75;
+
   /**
    * The GUID.
    */
   private String name;
   /**
-   * Time interval (in milliseconds) that the resource record may be cached before it should be discarded (default to zero)
-   * Notice that we have ONE TTL for the entire cache entry which means one TTL for the whole record.
-   */
-  private int timeToLive = LocalNameServer.DEFAULT_VALUE_CACHE_TTL;
-  /**
-   * Time stamp (in milleseconds) when the value for each field was inserted into record.
+   * Time interval (in milliseconds) that the active replicas may be cached before they should be discarded.
    */
-  private long valueTimestamp;
-  /**
-   * The value.
-   */
-  private String value = null;
+  private final int timeToLive;
 
   private Set<InetSocketAddress> activeNameServers;
 
   private long activeNameServersTimestamp;
 
+  private boolean activesRefreshStarted = false;
+
   /**
-   * Constructs a cache entry for a name.
+   * Constructs a cache entry for a name from a list of active replicas.
    *
    * @param name
-   * @param value
+   * @param activeNameServers
    */
-  public CacheEntry(String name, String value) {
-    this.name = name;
-    this.value = value;
-    this.valueTimestamp = System.currentTimeMillis();
-    this.activeNameServers = null;
-    this.activeNameServersTimestamp = 0;
+  public CacheEntry(String name, Set<InetSocketAddress> activeNameServers) {
+    this(name, activeNameServers, LocalNameServer.DEFAULT_VALUE_CACHE_TTL);
   }
 
   /**
-   * Constructs a cache entry for a name from a list of active replicas.
+   * Constructs a cache entry for a name from a list of active replicas
+   * which are valid for timeToLive milliseconds.
    *
    * @param name
    * @param activeNameServers
+   * @param timeToLive
    */
-  public CacheEntry(String name, Set<InetSocketAddress> activeNameServers) {
+  public CacheEntry(String name, Set<InetSocketAddress> activeNameServers, int timeToLive) {
     this.name = name;
+    this.timeToLive = timeToLive;
     this.activeNameServers = activeNameServers;
     this.activeNameServersTimestamp = System.currentTimeMillis();
-    this.value = null;
-    this.valueTimestamp = 0;
-  }
-
-  /**
-   * Updates a cache entry with a new value.
-   *
-   * @param value
-   */
-  public synchronized void updateCacheEntry(String value) {
-    this.value = value;
-    this.valueTimestamp = System.currentTimeMillis();
   }
 
   /**
@@ -95,18 +82,22 @@ public class CacheEntry implements Comparable<CacheEntry> {
   public synchronized void updateCacheEntry(Set<InetSocketAddress> activeNameServers) {
     this.activeNameServers = activeNameServers;
     this.activeNameServersTimestamp = System.currentTimeMillis();
+    this.activesRefreshStarted = false;
   }
 
   /**
-   * Returns true if the contains the key and the ttl associated with key has not expired in the cache.
+   * Returns true if the active replicas are close to timing out and fresh ones
+   * haven't been asked for yet, and notes that they are being asked for.
    *
-   * @return true or false value regarding cache being valid
+   * @return true if the caller should ask for fresh active replicas
    */
-  public synchronized boolean isValidValue() {
-    if (value == null) {
+  public synchronized boolean startActivesRefresh() {
+    if (activeNameServers == null || activesRefreshStarted
+            || System.currentTimeMillis() - activeNameServersTimestamp < timeToLive * ACTIVES_REFRESH_AFTER) {
       return false;
     }
-    return (System.currentTimeMillis() - valueTimestamp) < timeToLive;
+    activesRefreshStarted = true;
+    return true;
   }
 
   /**
@@ -122,23 +113,26 @@ public class CacheEntry implements Comparable<CacheEntry> {
   }
 
   /**
-   * Returns the time since the cache value was updated.
+   * Returns the time since the active replicas were updated.
    *
    * @param key
    * @return a long
    */
-  public synchronized long timeSinceValueCached(String key) {
-    return (int) (System.currentTimeMillis() - valueTimestamp);
+  public synchronized long timeSinceActivesCached(String key) {
+    return (int) (System.currentTimeMillis() - activeNameServersTimestamp);
   }
 
   /**
-   * Returns the time since the active replicas were updated.
+   * Returns a rough estimate of the number of bytes the entry takes up.
    *
-   * @param key
-   * @return a long
+   * @return the size in bytes
    */
-  public synchronized long timeSinceActivesCached(String key) {
-    return (int) (System.currentTimeMillis() - activeNameServersTimestamp);
+  public synchronized int getSize() {
+    int size = ENTRY_OVERHEAD + 2 * name.length();
+    if (activeNameServers != null) {
+      size += ADDRESS_SIZE * activeNameServers.size();
+    }
+    return size;
   }
 
   /**
@@ -150,13 +144,6 @@ public class CacheEntry implements Comparable<CacheEntry> {
   public synchronized String toString() {
     StringBuilder result = new StringBuilder();
     result.append("Name:").append(name);
-    result.append("\nValue:").append(value);
-    if (value != null) {
-      result.append(" (age: ").append(System.currentTimeMillis() - valueTimestamp).append("ms)");
-      if (!isValidValue()) {
-        result.append("\n    ***Expired***");
-      }
-    }
     result.append("\nActives: ").append(activeNameServers);
     if (activeNameServers != null) {
       result.append("  (age: ").append(System.currentTimeMillis() - activeNameServersTimestamp).append("ms)");
@@ -165,7 +152,6 @@ public class CacheEntry implements Comparable<CacheEntry> {
       }
     }
     result.append("\n    TTL:").append(timeToLive).append("ms");
-    result.append("\n    Value Timestamp: ").append(valueTimestamp);
     result.append("\n    Actives Timestamp: ").append(activeNameServersTimestamp);
 
     return result.toString();
@@ -200,24 +186,6 @@ public class CacheEntry implements Comparable<CacheEntry> {
     return timeToLive;
   }
 
-  /**
-   * Returns the timestamp of the value.
-   *
-   * @return the timestamp
-   */
-  public long getValueTimestamp() {
-    return valueTimestamp;
-  }
-
-  /**
-   * Returns the cached value.
-   *
-   * @return the value
-   */
-  public String getValue() {
-    return value;
-  }
-
   /**
    * Returns the set of active replicas.
    *
@@ -41,6 +41,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import org.json.JSONException;
@@ -143,13 +147,64 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
     }
   };
 
-  private NearestServerSelector redirector = new NearestServerSelector() {
+  // sends the hedged copies of reads
+  private static final ScheduledExecutorService HEDGE_TIMER
+          = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, LNSPacketDemultiplexer.class.getSimpleName() + "Hedger");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
 
-    @Override
-    public InetSocketAddress getNearest(Set<InetSocketAddress> servers) {
-      return (handler).getClosestReplica(servers);
+  /**
+   * Returns a selector that picks the closest replica for a request and
+   * remembers where the request went so the response time can be recorded.
+   */
+  private NearestServerSelector getRedirector(final long requestId) {
+    return new NearestServerSelector() {
+
+      @Override
+      public InetSocketAddress getNearest(Set<InetSocketAddress> servers) {
+        InetSocketAddress server = handler.getClosestReplica(servers);
+        if (server != null) {
+          handler.getReplicaSelector().requestSent(requestId, server, servers);
+        }
+        return server;
+      }
+    };
+  }
+
+  /**
+   * Sends a copy of the read to the next best replica if it hasn't
+   * been answered by the time most reads have been.
+   */
+  private void scheduleHedge(final CommandPacket packet) {
+    long delay = handler.getReplicaSelector().getHedgeDelay();
+    if (delay < 0) {
+      return;
     }
-  };
+    HEDGE_TIMER.schedule(new Runnable() {
+      @Override
+      public void run() {
+        long requestId = packet.getRequestID();
+        InetSocketAddress replica;
+        if (handler.getRequestInfo(requestId) == null
+                || (replica = handler.getReplicaSelector().hedgeRequest(requestId)) == null) {
+          return;
+        }
+        try {
+          GNSConfig.getLogger().log(Level.FINE, "{0} hedging request {1} to {2}",
+                  new Object[]{LNSPacketDemultiplexer.this, requestId + "", replica});
+          handler.sendToReplica(replica, packet.toJSONObject());
+        } catch (JSONException | IOException e) {
+          GNSConfig.getLogger().log(Level.FINE, "Unable to hedge request {0}: {1}",
+                  new Object[]{requestId + "", e});
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
 
   /**
    * Handles a command packet that has come in from a client.
@@ -177,7 +232,10 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
 //            || requestInfo.getCommandName().equals(GNSCommandProtocol.SELECT)) {
       this.asyncLNSClient.sendRequestAnycast(packet, callback);
     } else {
-      this.asyncLNSClient.sendRequest(packet, callback, redirector);
+      this.asyncLNSClient.sendRequest(packet, callback, getRedirector(packet.getRequestID()));
+      if (requestInfo.getCommandType().isRead()) {
+        scheduleHedge(packet);
+      }
     }
   }
   
@@ -267,6 +325,8 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
     assert (returnPacket != null || error != null);
     long id = returnPacket != null ? returnPacket.getRequestID() : error.getRequestID();
     String serviceName = returnPacket != null ? returnPacket.getServiceName() : error.getServiceName();
+    // responses to the async client come without json, hedged copies come in with it
+    handler.getReplicaSelector().responseReceived(id, json != null);
     LNSRequestInfo sentInfo;
     GNSConfig.getLogger().log(Level.INFO, "{0} matching {1} with {2}",
             new Object[]{this, id + "", handler.getRequestInfo(id)});
@@ -281,17 +341,6 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
         GNSConfig.getLogger().log(Level.INFO, "{0} about to remove {1}",
                 new Object[]{this, id + ""});
         handler.removeRequestInfo(id);
-        // update cache - if the service name isn't missing (invalid)
-        // and if it is a READ command
-        // FIXME: THIS ISN'T GOING TO WORK WITHOUT MORE INFO ABOUT THE
-        // REQUEST
-        if (!CommandPacket.BOGUS_SERVICE_NAME.equals(serviceName)
-                && sentInfo.getCommandType().isRead()
-                //&& sentInfo.getCommandName().equals(GNSCommandProtocol.READ)
-                && returnPacket != null) {
-          handler.updateCacheEntry(serviceName,
-                  returnPacket.getReturnValue());
-        }
         // send the response back
         GNSConfig.getLogger()
                 .log(Level.FINE,
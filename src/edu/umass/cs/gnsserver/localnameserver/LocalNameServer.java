@@ -25,8 +25,11 @@ import edu.umass.cs.gnsserver.localnameserver.nodeconfig.LNSConsistentReconfigur
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
 
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
+import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.Shutdownable;
 import edu.umass.cs.gnsclient.client.GNSClientConfig;
 import edu.umass.cs.gnscommon.utils.NetworkUtils;
@@ -44,18 +47,28 @@ import edu.umass.cs.nio.interfaces.Stringifiable;
 import edu.umass.cs.nio.nioutils.NIOHeader;
 import edu.umass.cs.nio.nioutils.StringifiableDefault;
 import edu.umass.cs.reconfiguration.ReconfigurableAppClientAsync;
+import edu.umass.cs.reconfiguration.ActiveReplica;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket.PacketType;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.RequestActiveReplicas;
 import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import edu.umass.cs.utils.Config;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -97,7 +110,16 @@ public class LocalNameServer implements RequestHandlerInterface, Shutdownable {
   private static final ConcurrentMap<Long, LNSRequestInfo> outstandingRequests
           = new ConcurrentHashMap<>(10, 0.75f, 3);
 
+  // how long the replica selector waits for responses before forgetting a request
+  private static final long REPLICA_REQUEST_TIMEOUT = 60000;
+
   private final Cache<String, CacheEntry> cache;
+  private final ReplicaSelector replicaSelector;
+  private final int cacheTTL;
+  // Guava's stats count entries, these count valid actives
+  private final AtomicLong activesHits = new AtomicLong();
+  private final AtomicLong activesMisses = new AtomicLong();
+  private ScheduledExecutorService statsLogger;
   private JSONMessenger<InetSocketAddress> messenger;
   private JSONMessenger<InetSocketAddress> sslServer;
   private ProtocolExecutor<InetSocketAddress, ReconfigurationPacket.PacketType, String> protocolExecutor;
@@ -137,6 +159,10 @@ public class LocalNameServer implements RequestHandlerInterface, Shutdownable {
 
     this.nodeConfig = nodeConfig;
     this.crNodeConfig = new LNSConsistentReconfigurableNodeConfig(nodeConfig);
+    this.replicaSelector = new ReplicaSelector(nodeConfig,
+            Config.getGlobalInt(GNSConfig.GNSC.LNS_HEDGE_PERCENTILE),
+            Config.getGlobalInt(GNSConfig.GNSC.LNS_HEDGE_MIN_DELAY),
+            REPLICA_REQUEST_TIMEOUT);
     AsyncLNSClient asyncClient;
     this.demultiplexer = new LNSPacketDemultiplexer<>(this, asyncClient = new AsyncLNSClient(
             ReconfigurationConfig.getReconfiguratorAddresses(),
@@ -145,7 +171,9 @@ public class LocalNameServer implements RequestHandlerInterface, Shutdownable {
     // eventually need separate servers for ssl and clear
     LNSPacketDemultiplexer<String> sslDemultiplexer = new LNSPacketDemultiplexer<>(this, asyncClient);
 
-    this.cache = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(1000).build();
+    this.cacheTTL = Config.getGlobalInt(GNSConfig.GNSC.LNS_CACHE_TTL);
+    this.cache = buildCache();
+    startLoggingCacheStats();
     try {
       JSONNIOTransport<InetSocketAddress> gnsNiot = new JSONNIOTransport<>(
               address, crNodeConfig, demultiplexer, sslMode);
@@ -159,11 +187,58 @@ public class LocalNameServer implements RequestHandlerInterface, Shutdownable {
     LOG.log(Level.INFO, "Started LNS listener on {0}", address);
   }
 
+  /**
+   * Builds the cache. Entries are limited by bytes if LNS_CACHE_MAX_BYTES is set
+   * and by count otherwise. The cache itself doesn't expire entries: the value and
+   * the actives of an entry are written at different times, so each CacheEntry
+   * keeps its own ttl for them, and entries that have expired are evicted by the limit.
+   */
+  private static Cache<String, CacheEntry> buildCache() {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+            .concurrencyLevel(Config.getGlobalInt(GNSConfig.GNSC.LNS_CACHE_CONCURRENCY))
+            .recordStats();
+    int maxBytes = Config.getGlobalInt(GNSConfig.GNSC.LNS_CACHE_MAX_BYTES);
+    if (maxBytes > 0) {
+      return builder.maximumWeight(maxBytes).weigher(new Weigher<String, CacheEntry>() {
+        @Override
+        public int weigh(String name, CacheEntry entry) {
+          return entry.getSize();
+        }
+      }).build();
+    } else {
+      return builder.maximumSize(Config.getGlobalInt(GNSConfig.GNSC.LNS_CACHE_SIZE)).build();
+    }
+  }
+
+  private void startLoggingCacheStats() {
+    int interval = Config.getGlobalInt(GNSConfig.GNSC.LNS_CACHE_STATS_INTERVAL);
+    if (interval <= 0) {
+      return;
+    }
+    statsLogger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, LocalNameServer.class.getSimpleName() + "CacheStats");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    statsLogger.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        LOG.log(Level.INFO, "{0} cache stats: {1}", new Object[]{LocalNameServer.this, getCacheStats()});
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
   /**
    * Handles LNS shutdown.
    */
   @Override
   public void shutdown() {
+    if (statsLogger != null) {
+      statsLogger.shutdownNow();
+    }
     messenger.stop();
     demultiplexer.stop();
     protocolExecutor.stop();
@@ -369,7 +444,8 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
   /**
    * Selects the closest Name Server from a set of Name Servers.
    * excludeNameServers is a set of Name Servers from the first list to not consider.
-   * If the local server is one of the serverIds and not excluded this will return it.
+   * Servers are ranked by their observed response times and outstanding requests
+   * (see {@link ReplicaSelector}).
    *
    * @param serverIds
    * @param excludeServers
@@ -377,57 +453,19 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
    */
   @Override
   public InetSocketAddress getClosestReplica(Set<InetSocketAddress> serverIds, Set<InetSocketAddress> excludeServers) {
-    if (serverIds == null || serverIds.isEmpty()) {
-      return null;
-    }
-
-    long lowestLatency = Long.MAX_VALUE;
-    InetSocketAddress serverAddress = null;
-    for (InetSocketAddress serverId : serverIds) {
-      if (excludeServers != null && excludeServers.contains(serverId)) {
-        continue;
-      }
-      long pingLatency = nodeConfig.getPingLatency(serverId);
-      if (pingLatency != LNSNodeConfig.INVALID_PING_LATENCY && pingLatency < lowestLatency) {
-        lowestLatency = pingLatency;
-        serverAddress = serverId;
-      }
-    }
+    InetSocketAddress serverAddress = replicaSelector.select(serverIds, excludeServers);
     LOG.log(Level.FINE, "Closest server is {0}", serverAddress);
     return serverAddress;
   }
 
   /**
-   * Updates the value in the cache.
-   *
-   * @param name
-   * @param value
-   */
-  @Override
-  public void updateCacheEntry(String name, String value) {
-    CacheEntry cacheEntry = cache.getIfPresent(name);
-    if (cacheEntry != null) {
-      cacheEntry.updateCacheEntry(value);
-    } else {
-      CacheEntry entry = new CacheEntry(name, value);
-      cache.put(entry.getName(), entry);
-    }
-  }
-
-  /**
-   * Returns the value if it has not timed out.
+   * Returns the replica selector.
    *
-   * @param name
-   * @return the value
+   * @return the replica selector
    */
   @Override
-  public String getValueIfValid(String name) {
-    CacheEntry cacheEntry = cache.getIfPresent(name);
-    if (cacheEntry != null && cacheEntry.isValidValue()) {
-      return cacheEntry.getValue();
-    } else {
-      return null;
-    }
+  public ReplicaSelector getReplicaSelector() {
+    return replicaSelector;
   }
 
   /**
@@ -442,9 +480,9 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
     if (cacheEntry != null) {
       cacheEntry.updateCacheEntry(actives);
     } else {
-      CacheEntry entry = new CacheEntry(name, actives);
-      cache.put(entry.getName(), entry);
+      cacheEntry = new CacheEntry(name, actives, cacheTTL);
     }
+    cache.put(name, cacheEntry);
   }
 
   @Override
@@ -454,6 +492,8 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
 
   /**
    * Returns the set of active replicas if they have not timed out.
+   * If they are about to, fresh ones are prefetched so that requests
+   * for a name in use don't have to wait for them.
    *
    * @param name
    * @return a set of active replicas
@@ -462,12 +502,67 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
   public Set<InetSocketAddress> getActivesIfValid(String name) {
     CacheEntry cacheEntry = cache.getIfPresent(name);
     if (cacheEntry != null && cacheEntry.isValidActives()) {
+      activesHits.incrementAndGet();
+      if (cacheEntry.startActivesRefresh()) {
+        requestActives(name, 0);
+      }
       return cacheEntry.getActiveNameServers();
     } else {
+      activesMisses.incrementAndGet();
       return null;
     }
   }
 
+  /**
+   * Sends a request for the active replicas of the name to one of its reconfigurators
+   * without waiting for the response, which updates the cache when it arrives.
+   *
+   * @param name
+   * @param index picks the reconfigurator
+   * @return true if the request was sent
+   */
+  private boolean requestActives(String name, int index) {
+    if (messenger == null) {
+      return false;
+    }
+    List<InetSocketAddress> reconfigurators = new ArrayList<>(crNodeConfig.getReplicatedReconfigurators(name));
+    if (reconfigurators.isEmpty()) {
+      return false;
+    }
+    InetSocketAddress reconfigurator = reconfigurators.get(index % reconfigurators.size());
+    try {
+      messenger.sendToAddress(new InetSocketAddress(reconfigurator.getAddress(),
+              ActiveReplica.getClientFacingPort(reconfigurator.getPort())),
+              new RequestActiveReplicas(address, name, 0).toJSONObject());
+      return true;
+    } catch (IOException | JSONException e) {
+      LOG.log(Level.WARNING, "{0} unable to prefetch actives for {1}: {2}",
+              new Object[]{this, name, e});
+      return false;
+    }
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts of the cache.
+   *
+   * @return a JSON object
+   */
+  @Override
+  public JSONObject getCacheStats() {
+    CacheStats stats = cache.stats();
+    JSONObject json = new JSONObject();
+    try {
+      json.put("size", cache.size());
+      json.put("activesHits", activesHits.get());
+      json.put("activesMisses", activesMisses.get());
+      json.put("hitRate", stats.hitRate());
+      json.put("evictions", stats.evictionCount());
+    } catch (JSONException e) {
+      LOG.log(Level.WARNING, "Problem creating cache stats: {0}", e);
+    }
+    return json;
+  }
+
   /**
    * Clears the cache.
    */
@@ -512,7 +607,18 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
    */
   @Override
   public void sendToClosestReplica(Set<InetSocketAddress> servers, JSONObject packet) throws IOException {
-    InetSocketAddress replicaAddress = LocalNameServer.this.getClosestReplica(servers);
+    sendToReplica(LocalNameServer.this.getClosestReplica(servers), packet);
+  }
+
+  /**
+   * Sends a JSON packet to an active replica.
+   *
+   * @param replicaAddress
+   * @param packet
+   * @throws IOException
+   */
+  @Override
+  public void sendToReplica(InetSocketAddress replicaAddress, JSONObject packet) throws IOException {
     // Remove these so the stamper will put new ones in so the packet will find it's way back here.
     // FIXME: arun: why not just not include them in toJSONObject()?
     packet.remove(MessageNIOTransport.SNDR_IP_FIELD);
@@ -0,0 +1,302 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.localnameserver;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import edu.umass.cs.gnsserver.localnameserver.nodeconfig.LNSNodeConfig;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the active replica to send a request to from the response times the LNS
+ * has observed rather than from static ping latencies.
+ *
+ * For each replica we keep an exponentially weighted moving average of its response
+ * times and the number of requests sent to it that haven't been answered. Replicas are
+ * ranked by their average times one plus their outstanding requests so a replica that
+ * slows down or gets backed up loses traffic right away instead of when a timeout fires.
+ * Replicas we haven't heard from yet start out with their ping latency.
+ *
+ * We also keep the last few response times of all replicas so that a read that has taken
+ * longer than most reads can be sent again to the next best replica (a hedged request).
+ *
+ * @author westy
+ */
+public class ReplicaSelector {
+
+  // weight of the newest response time in the moving average
+  private static final double EWMA_WEIGHT = 0.2;
+  private static final int LATENCY_SAMPLES = 512;
+  // recompute the hedge delay after this many new samples
+  private static final int HEDGE_DELAY_REFRESH = 64;
+  // don't hedge until we've seen this many responses
+  private static final int MIN_HEDGE_SAMPLES = 32;
+
+  private final LNSNodeConfig nodeConfig;
+  private final int hedgePercentile;
+  private final long minHedgeDelay;
+  private final ConcurrentMap<InetSocketAddress, ReplicaStats> replicas = new ConcurrentHashMap<>();
+  // request id to where and when the request was sent
+  private final Cache<Long, SentRequest> sentRequests;
+
+  // recent response times in milliseconds, guarded by this
+  private final long[] latencies = new long[LATENCY_SAMPLES];
+  private int latencyCount = 0;
+  private volatile long hedgeDelay = -1;
+
+  /**
+   * Creates a ReplicaSelector.
+   *
+   * @param nodeConfig used for the ping latencies of replicas we haven't heard from
+   * @param hedgePercentile reads that take longer than this percentile of response times are hedged, 0 turns hedging off
+   * @param minHedgeDelay the least time in milliseconds to wait before hedging
+   * @param requestTimeout how long in milliseconds to wait for responses before forgetting a request
+   */
+  public ReplicaSelector(LNSNodeConfig nodeConfig, int hedgePercentile, long minHedgeDelay,
+          long requestTimeout) {
+    this.nodeConfig = nodeConfig;
+    this.hedgePercentile = Math.min(hedgePercentile, 100);
+    this.minHedgeDelay = minHedgeDelay;
+    this.sentRequests = CacheBuilder.newBuilder().concurrencyLevel(5)
+            .expireAfterWrite(requestTimeout, TimeUnit.MILLISECONDS)
+            .removalListener(new RemovalListener<Long, SentRequest>() {
+              @Override
+              public void onRemoval(RemovalNotification<Long, SentRequest> notification) {
+                // the replicas that never answered aren't busy with it anymore
+                if (notification.getCause() != RemovalCause.EXPLICIT && notification.getValue() != null) {
+                  notification.getValue().abandon();
+                }
+              }
+            }).build();
+  }
+
+  /**
+   * Returns the replica with the lowest expected response time.
+   *
+   * @param servers
+   * @param excludeServers servers not to consider, can be null
+   * @return the address of a replica or null if there are none to pick from
+   */
+  public InetSocketAddress select(Set<InetSocketAddress> servers, Set<InetSocketAddress> excludeServers) {
+    if (servers == null || servers.isEmpty()) {
+      return null;
+    }
+    double lowestCost = Double.MAX_VALUE;
+    InetSocketAddress best = null;
+    InetSocketAddress fallback = null;
+    for (InetSocketAddress server : servers) {
+      if (excludeServers != null && excludeServers.contains(server)) {
+        continue;
+      }
+      double cost = getExpectedLatency(server);
+      if (cost < 0) {
+        // nothing known about it, only pick it if nothing else will do
+        fallback = fallback == null ? server : fallback;
+        continue;
+      }
+      if (cost < lowestCost) {
+        lowestCost = cost;
+        best = server;
+      }
+    }
+    return best != null ? best : fallback;
+  }
+
+  /**
+   * Records that a request was sent to a replica.
+   *
+   * @param requestId
+   * @param server
+   * @param servers the replicas the request could have been sent to
+   */
+  public void requestSent(long requestId, InetSocketAddress server, Set<InetSocketAddress> servers) {
+    // if the request is being resent the removal listener forgets the earlier send
+    sentRequests.put(requestId, new SentRequest(server, servers));
+    getStats(server).outstanding.incrementAndGet();
+  }
+
+  /**
+   * Picks the best replica that a request wasn't sent to for another copy of the request
+   * if it hasn't been answered yet and records that the copy was sent.
+   *
+   * @param requestId
+   * @return the replica to send the copy to or null if it shouldn't be sent
+   */
+  public InetSocketAddress hedgeRequest(long requestId) {
+    SentRequest sent = sentRequests.getIfPresent(requestId);
+    if (sent == null) {
+      return null;
+    }
+    synchronized (sent) {
+      if (sent.answered || sent.hedge != null) {
+        return null;
+      }
+      InetSocketAddress hedge = select(sent.servers, Collections.singleton(sent.primary));
+      if (hedge != null) {
+        sent.hedge = hedge;
+        sent.hedgeStart = System.nanoTime();
+        getStats(hedge).outstanding.incrementAndGet();
+      }
+      return hedge;
+    }
+  }
+
+  /**
+   * Records a response to a request.
+   *
+   * @param requestId
+   * @param hedged true if the response is to the hedged copy of the request
+   */
+  public void responseReceived(long requestId, boolean hedged) {
+    SentRequest sent = sentRequests.getIfPresent(requestId);
+    if (sent == null) {
+      return;
+    }
+    long latency;
+    InetSocketAddress server;
+    boolean done;
+    synchronized (sent) {
+      if (hedged ? sent.hedge == null || sent.hedgeAnswered : sent.primaryAnswered) {
+        return;
+      }
+      if (hedged) {
+        sent.hedgeAnswered = true;
+        server = sent.hedge;
+        latency = System.nanoTime() - sent.hedgeStart;
+      } else {
+        sent.primaryAnswered = true;
+        server = sent.primary;
+        latency = System.nanoTime() - sent.primaryStart;
+      }
+      sent.answered = true;
+      done = sent.primaryAnswered && (sent.hedge == null || sent.hedgeAnswered);
+    }
+    if (done) {
+      sentRequests.invalidate(requestId);
+    }
+    ReplicaStats stats = getStats(server);
+    stats.outstanding.decrementAndGet();
+    stats.update(TimeUnit.NANOSECONDS.toMillis(latency));
+    addLatencySample(TimeUnit.NANOSECONDS.toMillis(latency));
+  }
+
+  /**
+   * Returns how long in milliseconds to wait for a response to a read
+   * before hedging it or -1 if reads shouldn't be hedged yet.
+   *
+   * @return the delay in milliseconds or -1
+   */
+  public long getHedgeDelay() {
+    return hedgePercentile > 0 ? hedgeDelay : -1;
+  }
+
+  private double getExpectedLatency(InetSocketAddress server) {
+    ReplicaStats stats = replicas.get(server);
+    double latency = stats != null ? stats.getAverage() : -1;
+    if (latency < 0) {
+      latency = nodeConfig.getPingLatency(server);
+      if (latency == LNSNodeConfig.INVALID_PING_LATENCY) {
+        return -1;
+      }
+    }
+    int outstanding = stats != null ? Math.max(stats.outstanding.get(), 0) : 0;
+    // a replica that answers in 0ms still has to be charged for its queue
+    return (latency + 1) * (outstanding + 1);
+  }
+
+  private ReplicaStats getStats(InetSocketAddress server) {
+    ReplicaStats stats = replicas.get(server);
+    if (stats == null) {
+      ReplicaStats newStats = new ReplicaStats();
+      stats = replicas.putIfAbsent(server, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  private synchronized void addLatencySample(long latency) {
+    latencies[latencyCount % LATENCY_SAMPLES] = latency;
+    latencyCount++;
+    if (hedgePercentile > 0 && latencyCount >= MIN_HEDGE_SAMPLES
+            && (hedgeDelay < 0 || latencyCount % HEDGE_DELAY_REFRESH == 0)) {
+      long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+      Arrays.sort(sorted);
+      int index = Math.min(sorted.length - 1, (sorted.length * hedgePercentile) / 100);
+      hedgeDelay = Math.max(sorted[index], minHedgeDelay);
+    }
+  }
+
+  private static class ReplicaStats {
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // guarded by this
+    private double average = -1;
+
+    synchronized void update(long latency) {
+      average = average < 0 ? latency : EWMA_WEIGHT * latency + (1 - EWMA_WEIGHT) * average;
+    }
+
+    synchronized double getAverage() {
+      return average;
+    }
+  }
+
+  private class SentRequest {
+
+    private final InetSocketAddress primary;
+    private final Set<InetSocketAddress> servers;
+    private final long primaryStart = System.nanoTime();
+    // the rest are guarded by this
+    private InetSocketAddress hedge;
+    private long hedgeStart;
+    private boolean primaryAnswered;
+    private boolean hedgeAnswered;
+    private boolean answered;
+
+    SentRequest(InetSocketAddress primary, Set<InetSocketAddress> servers) {
+      this.primary = primary;
+      this.servers = servers;
+    }
+
+    synchronized void abandon() {
+      if (!primaryAnswered) {
+        primaryAnswered = true;
+        getStats(primary).outstanding.decrementAndGet();
+      }
+      if (hedge != null && !hedgeAnswered) {
+        hedgeAnswered = true;
+        getStats(hedge).outstanding.decrementAndGet();
+      }
+    }
+  }
+}
@@ -102,6 +102,13 @@ public interface RequestHandlerInterface {
    */
   public InetSocketAddress getClosestReplica(Set<InetSocketAddress> serverIds, Set<InetSocketAddress> excludeServers);
   
+  /**
+   * Returns the selector that ranks active replicas by their observed response times.
+   * 
+   * @return the replica selector
+   */
+  public ReplicaSelector getReplicaSelector();
+  
   /**
    * Clears the cache.
    */
@@ -115,22 +122,6 @@ public interface RequestHandlerInterface {
    */
   public boolean containsCacheEntry(String name);
   
-  /**
-   * Updates the cache entry with a new value.
-   * 
-   * @param name
-   * @param value
-   */
-  public void updateCacheEntry(String name, String value);
-  
-  /**
-   * Retrieves the value in the cache if it has not timed out.
-   * 
-   * @param name
-   * @return a string
-   */
-  public String getValueIfValid(String name);
-  
   /**
    * Updates the active replicas associated with the name in the cache.
    * 
@@ -154,6 +145,13 @@ public interface RequestHandlerInterface {
    */
   public Set<InetSocketAddress> getActivesIfValid(String name);
   
+  /**
+   * Returns the hit, miss and eviction counts of the cache.
+   * 
+   * @return a JSON object
+   */
+  public JSONObject getCacheStats();
+  
   /**
    * Returns the protocol executor.
    * 
@@ -179,6 +177,15 @@ public interface RequestHandlerInterface {
    */
   public void sendToClosestReplica(Set<InetSocketAddress> actives, JSONObject packet) throws IOException;
   
+  /**
+   * Sends a JSON packet to an active replica.
+   * 
+   * @param replicaAddress
+   * @param packet
+   * @throws IOException
+   */
+  public void sendToReplica(InetSocketAddress replicaAddress, JSONObject packet) throws IOException;
+  
   /**
    * Sends a JSON packet to a client.
    * 
@@ -90,6 +90,24 @@ public class GNSConfig {
      * Never set this to false, but if you do you'll disable signature authentication.
      */
     ENABLE_SIGNATURE_AUTHENTICATION(true),
+    /**
+     * If this is true signatures are verified on a pool of threads as commands arrive
+     * instead of when they are executed.
+     */
+    ENABLE_SIGNATURE_PREVERIFICATION(true),
+    /**
+     * The number of guids whose ACL decisions are cached. 0 disables the cache.
+     */
+    ACL_CACHE_SIZE(1000),
+    /**
+     * The maximum number of ACL decisions cached for each guid.
+     */
+    ACL_CACHE_ENTRIES_PER_GUID(100),
+    /**
+     * Keeps latency histograms of each command type and of the phases of
+     * executing it, which the HTTP server shows on its metrics page.
+     */
+    ENABLE_METRICS(true),
     /**
      * A secret shared between the server and a trusted client in order to circumvent
      * account verification. Must be changed using properties file if manual
@@ -169,6 +187,67 @@ public class GNSConfig {
      */
     /* FIXME: arun: need to determine this timeout systematically, not an ad hoc constant. */
     SELECT_REQUEST_TIMEOUT(5000),
+    /**
+     * The maximum number of records a name server sends back in each page of a select response.
+     */
+    SELECT_PAGE_SIZE(1000),
+    /**
+     * The default maximum number of records returned by a select. -1 means no limit.
+     */
+    SELECT_RESULT_LIMIT(-1),
+    /**
+     * How long in milliseconds a name server keeps the records its local part of a select
+     * matched. Updates to the fields a cached select references remove it sooner. 0 disables the cache.
+     */
+    SELECT_CACHE_TTL(10000),
+    /**
+     * The maximum number of selects whose results are cached.
+     */
+    SELECT_CACHE_SIZE(1000),
+    /**
+     * Selects that match more than this many records on a name server are not cached.
+     */
+    SELECT_CACHE_MAX_RECORDS(10000),
+    /**
+     * How long in milliseconds the members of a context aware group guid are maintained from
+     * updates before a lookup runs the group's select again. 0 turns off maintaining members
+     * from updates so that lookups run the select whenever the group's min refresh interval has passed.
+     */
+    GROUP_RESYNC_INTERVAL(600000),
+    //
+    // LOCAL NAME SERVER
+    //
+    /**
+     * How long in milliseconds values and active replicas are kept in the local name server cache.
+     */
+    LNS_CACHE_TTL(10000),
+    /**
+     * The maximum number of names in the local name server cache.
+     */
+    LNS_CACHE_SIZE(1000),
+    /**
+     * The maximum number of bytes the local name server cache holds. If this is
+     * greater than 0 it limits the cache instead of LNS_CACHE_SIZE.
+     */
+    LNS_CACHE_MAX_BYTES(0),
+    /**
+     * The number of threads expected to update the local name server cache concurrently.
+     */
+    LNS_CACHE_CONCURRENCY(5),
+    /**
+     * How often in milliseconds the local name server logs its cache statistics. 0 turns it off.
+     */
+    LNS_CACHE_STATS_INTERVAL(60000),
+    /**
+     * Reads through the local name server that take longer than this percentile of recent
+     * response times are also sent to the next best active replica. 0 turns this off.
+     */
+    LNS_HEDGE_PERCENTILE(95),
+    /**
+     * The least time in milliseconds the local name server waits for a read before
+     * sending it to another active replica.
+     */
+    LNS_HEDGE_MIN_DELAY(10),
     //
     // NO SQL BACKING DATABASE
     //
@@ -181,6 +260,21 @@ public class GNSConfig {
      * The class used to represent NoSQL records.
      */
     NOSQL_RECORDS_CLASS("edu.umass.cs.gnsserver.database.MongoRecords"),
+    /**
+     * The directory where LogStructuredRecords keeps its logs. Each node
+     * uses a subdirectory named after its id.
+     */
+    LOG_RECORDS_DIRECTORY("./gns_records"),
+    /**
+     * The size in bytes of each LogStructuredRecords log segment.
+     * A record larger than this gets a segment of its own.
+     */
+    LOG_RECORDS_SEGMENT_SIZE(64 * 1024 * 1024),
+    /**
+     * How often in milliseconds LogStructuredRecords forces its logs to disk.
+     * 0 leaves it to the operating system.
+     */
+    LOG_RECORDS_SYNC_INTERVAL(100),
     //
     // ACCOUNT GUIDS
     //
@@ -260,6 +354,28 @@ public class GNSConfig {
      * The URL path used by the HTTP server.
      */
     HTTP_SERVER_GNS_URL_PATH("GNS"),
+    /**
+     * The number of threads that handle HTTP requests.
+     */
+    HTTP_SERVER_THREADS(32),
+    /**
+     * The number of threads that execute the commands of batch requests.
+     * When they are all busy the thread handling the request executes the command.
+     */
+    HTTP_SERVER_BATCH_THREADS(32),
+    /**
+     * The most HTTP requests that can wait for one of the threads that handle them.
+     * Requests beyond that are answered with 503 Service Unavailable.
+     */
+    HTTP_SERVER_MAX_QUEUED_REQUESTS(1000),
+    /**
+     * The most commands a batch request can have.
+     */
+    HTTP_SERVER_MAX_BATCH_SIZE(1000),
+    /**
+     * The largest request body in bytes the HTTP server accepts.
+     */
+    HTTP_SERVER_MAX_BODY_SIZE(4 * 1024 * 1024),
     // 
     // LOCAL NAME SERVER SETUP
     // 
@@ -287,6 +403,19 @@ public class GNSConfig {
      * For the DNS service set to true if you want the DNS server to forward requests to DNS and GNS servers.
      */
     DNS_ONLY(false),
+    /**
+     * The number of threads shared by the DNS servers to resolve queries.
+     */
+    DNS_RESOLVER_THREADS(16),
+    /**
+     * How long in milliseconds the DNS service caches the records it read from the GNS.
+     * Records are also dropped when their guid is updated. 0 turns the cache off.
+     */
+    DNS_CACHE_TTL(60000),
+    /**
+     * The number of names whose GNS records the DNS service caches.
+     */
+    DNS_CACHE_SIZE(10000),
     //
     // Contect Name Service
     //
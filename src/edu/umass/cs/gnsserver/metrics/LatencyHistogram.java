@@ -0,0 +1,144 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds that can be recorded into from
+ * any number of threads without locking.
+ *
+ * Like an HDR histogram the buckets are log-linear: each power of two is split
+ * into {@link #SUB_BUCKETS} buckets of equal width, so a percentile is off by
+ * at most about 3% of its value whatever the value is.
+ * Values of a bit more than 18 minutes or more go in the last bucket.
+ *
+ * @author westy
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  /**
+   * The number of buckets each power of two is split into.
+   */
+  public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // 2^40 nanoseconds is a bit more than 18 minutes
+  private static final int MAX_VALUE_BITS = 40;
+  private static final int NUM_BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(bucket(nanos));
+    count.increment();
+    sum.add(nanos);
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return the sum of the latencies recorded in nanoseconds
+   */
+  public long getSum() {
+    return sum.sum();
+  }
+
+  /**
+   * Returns the latency that the given fraction of the recorded latencies
+   * are at most. This is the upper end of the bucket the percentile falls
+   * into so it overestimates a little rather than underestimates.
+   *
+   * @param quantile between 0 and 1
+   * @return the latency in nanoseconds or 0 if nothing has been recorded
+   */
+  public long getValueAtQuantile(double quantile) {
+    return getValuesAtQuantiles(new double[]{quantile})[0];
+  }
+
+  /**
+   * Returns the latencies at each of the quantiles, which must be in
+   * increasing order, with one pass over the buckets.
+   *
+   * @param quantiles
+   * @return the latencies in nanoseconds
+   */
+  public long[] getValuesAtQuantiles(double[] quantiles) {
+    long[] values = new long[quantiles.length];
+    // a snapshot so that the ranks and the buckets agree
+    long[] snapshot = new long[NUM_BUCKETS];
+    long total = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return values;
+    }
+    int q = 0;
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS && q < quantiles.length; i++) {
+      seen += snapshot[i];
+      while (q < quantiles.length && seen >= Math.max(1, (long) Math.ceil(quantiles[q] * total))) {
+        values[q++] = bucketUpperBound(i);
+      }
+    }
+    return values;
+  }
+
+  // the bucket a value goes in
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS * 2) {
+      return (int) value;
+    }
+    int highestBit = 63 - Long.numberOfLeadingZeros(value);
+    if (highestBit >= MAX_VALUE_BITS) {
+      return NUM_BUCKETS - 1;
+    }
+    int shift = highestBit - SUB_BUCKET_BITS;
+    // the top SUB_BUCKET_BITS + 1 bits of the value
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  // the largest value that goes in a bucket
+  static long bucketUpperBound(int bucket) {
+    if (bucket < SUB_BUCKETS * 2) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.metrics;
+
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps latency histograms of the commands this server executes, one for
+ * each command type and {@link Phase}, and counters of selects and remote queries.
+ * Everything is kept since the server started, and can be written in the Prometheus
+ * text format for the metrics page of the HTTP server.
+ *
+ * The phases of a command are recorded in the thread that executes it.
+ * {@link #startCommand(CommandType)} remembers the type of the command the
+ * thread is executing so that the code that measures a phase, which doesn't
+ * know about commands, is charged to the right one.
+ * Phases measured outside of a command are charged to "none".
+ *
+ * @author westy
+ */
+public class ServerMetrics {
+
+  /**
+   * The parts of executing a command that are measured separately.
+   * They don't add up to the total, which also includes parsing the command
+   * and whatever isn't measured.
+   */
+  public enum Phase {
+    /**
+     * From the start of executing the command until the reply was sent.
+     */
+    TOTAL("total"),
+    /**
+     * Verifying signatures, including waiting for ones verified as the command arrived.
+     */
+    AUTH("auth"),
+    /**
+     * Reading and writing the database.
+     */
+    DB("db"),
+    /**
+     * Running active code.
+     */
+    ACTIVE_CODE("activecode"),
+    /**
+     * Sending the reply.
+     */
+    REPLY("reply");
+
+    private final String label;
+
+    private Phase(String label) {
+      this.label = label;
+    }
+
+    /**
+     * @return the name of the phase in the metrics
+     */
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  /**
+   * Counts of the work done for selects and remote queries.
+   */
+  public enum Counter {
+    /**
+     * Selects this server collected the results of.
+     */
+    SELECTS("gns_select_requests_total", "Selects this server collected the results of."),
+    /**
+     * Name servers that selects were sent to, so divided by the number of selects
+     * it's the average fan-out.
+     */
+    SELECT_SERVERS("gns_select_fanout_servers_total", "Name servers that selects were sent to."),
+    /**
+     * Requests for further pages of select results.
+     */
+    SELECT_PAGE_REQUESTS("gns_select_page_requests_total", "Requests for further pages of select results."),
+    /**
+     * Name servers that didn't answer a select in time.
+     */
+    SELECT_SERVER_TIMEOUTS("gns_select_server_timeouts_total", "Name servers that didn't answer a select in time."),
+    /**
+     * Queries sent to other active replicas.
+     */
+    REPLICA_QUERIES("gns_remote_replica_queries_total", "Queries sent to other active replicas."),
+    /**
+     * Requests sent to reconfigurators.
+     */
+    RECONFIGURATOR_QUERIES("gns_remote_reconfigurator_queries_total", "Requests sent to reconfigurators."),
+    /**
+     * Remote queries and requests that timed out.
+     */
+    REMOTE_QUERY_TIMEOUTS("gns_remote_query_timeouts_total", "Remote queries and requests that timed out.");
+
+    private final String name;
+    private final String help;
+    private final LongAdder value = new LongAdder();
+
+    private Counter(String name, String help) {
+      this.name = name;
+      this.help = help;
+    }
+
+    /**
+     * Adds one to the counter.
+     */
+    public void increment() {
+      add(1);
+    }
+
+    /**
+     * Adds to the counter.
+     *
+     * @param amount
+     */
+    public void add(long amount) {
+      if (ENABLED) {
+        value.add(amount);
+      }
+    }
+
+    /**
+     * @return the value of the counter
+     */
+    public long get() {
+      return value.sum();
+    }
+  }
+
+  private static final boolean ENABLED = Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_METRICS);
+  private static final String LATENCY_NAME = "gns_command_latency_seconds";
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+  private static final CommandType[] COMMAND_TYPES = CommandType.values();
+  private static final Phase[] PHASES = Phase.values();
+  // the slot after those of the command types is for phases measured outside of commands
+  private static final int NO_COMMAND = COMMAND_TYPES.length;
+  // created when first recorded into as most command types are never used
+  private static final AtomicReferenceArray<LatencyHistogram> HISTOGRAMS
+          = new AtomicReferenceArray<>((COMMAND_TYPES.length + 1) * PHASES.length);
+  private static final ThreadLocal<CommandType> CURRENT_COMMAND = new ThreadLocal<>();
+
+  /**
+   * @return true if metrics are being kept
+   */
+  public static boolean isEnabled() {
+    return ENABLED;
+  }
+
+  /**
+   * Notes that this thread is executing a command of the given type.
+   *
+   * @param commandType
+   * @return the type of the command this thread was executing before, which
+   * should be passed to {@link #endCommand(CommandType)}
+   */
+  public static CommandType startCommand(CommandType commandType) {
+    if (!ENABLED) {
+      return null;
+    }
+    CommandType previous = CURRENT_COMMAND.get();
+    CURRENT_COMMAND.set(commandType);
+    return previous;
+  }
+
+  /**
+   * Notes that this thread is done executing a command.
+   *
+   * @param previous the value returned by {@link #startCommand(CommandType)}
+   */
+  public static void endCommand(CommandType previous) {
+    if (!ENABLED) {
+      return;
+    }
+    if (previous == null) {
+      CURRENT_COMMAND.remove();
+    } else {
+      CURRENT_COMMAND.set(previous);
+    }
+  }
+
+  /**
+   * Records a phase of the command this thread is executing.
+   *
+   * @param phase
+   * @param startNanos the value of {@link System#nanoTime()} when the phase started
+   */
+  public static void record(Phase phase, long startNanos) {
+    if (ENABLED) {
+      record(CURRENT_COMMAND.get(), phase, startNanos);
+    }
+  }
+
+  /**
+   * Records a phase of a command of the given type.
+   *
+   * @param commandType or null if the phase isn't part of a command
+   * @param phase
+   * @param startNanos the value of {@link System#nanoTime()} when the phase started
+   */
+  public static void record(CommandType commandType, Phase phase, long startNanos) {
+    if (!ENABLED) {
+      return;
+    }
+    long elapsed = System.nanoTime() - startNanos;
+    int index = (commandType != null ? commandType.ordinal() : NO_COMMAND) * PHASES.length + phase.ordinal();
+    LatencyHistogram histogram = HISTOGRAMS.get(index);
+    if (histogram == null) {
+      HISTOGRAMS.compareAndSet(index, null, new LatencyHistogram());
+      histogram = HISTOGRAMS.get(index);
+    }
+    histogram.record(elapsed);
+  }
+
+  /**
+   * Returns the latency histogram of a phase of commands of the given type.
+   *
+   * @param commandType or null for the phases measured outside of commands
+   * @param phase
+   * @return the histogram or null if nothing has been recorded
+   */
+  public static LatencyHistogram getHistogram(CommandType commandType, Phase phase) {
+    return HISTOGRAMS.get((commandType != null ? commandType.ordinal() : NO_COMMAND)
+            * PHASES.length + phase.ordinal());
+  }
+
+  /**
+   * Returns all the metrics in the Prometheus text format. The latencies are
+   * summaries with quantiles in seconds.
+   *
+   * @return the metrics
+   */
+  public static String toPrometheusText() {
+    StringBuilder result = new StringBuilder();
+    result.append("# HELP ").append(LATENCY_NAME)
+            .append(" Latency of the phases of the commands executed by this server.\n");
+    result.append("# TYPE ").append(LATENCY_NAME).append(" summary\n");
+    for (int i = 0; i <= COMMAND_TYPES.length; i++) {
+      String command = i < COMMAND_TYPES.length ? COMMAND_TYPES[i].name() : "none";
+      for (Phase phase : PHASES) {
+        LatencyHistogram histogram = HISTOGRAMS.get(i * PHASES.length + phase.ordinal());
+        if (histogram != null) {
+          appendSummary(result, command, phase, histogram);
+        }
+      }
+    }
+    for (Counter counter : Counter.values()) {
+      result.append("# HELP ").append(counter.name).append(" ").append(counter.help).append("\n");
+      result.append("# TYPE ").append(counter.name).append(" counter\n");
+      result.append(counter.name).append(" ").append(counter.get()).append("\n");
+    }
+    return result.toString();
+  }
+
+  private static void appendSummary(StringBuilder result, String command, Phase phase,
+          LatencyHistogram histogram) {
+    long count = histogram.getCount();
+    long sum = histogram.getSum();
+    long[] values = histogram.getValuesAtQuantiles(QUANTILES);
+    String labels = "command=\"" + command + "\",phase=\"" + phase.getLabel() + "\"";
+    for (int q = 0; q < QUANTILES.length; q++) {
+      result.append(LATENCY_NAME).append("{").append(labels).append(",quantile=\"")
+              .append(QUANTILE_LABELS[q]).append("\"} ").append(seconds(values[q])).append("\n");
+    }
+    result.append(LATENCY_NAME).append("_sum{").append(labels).append("} ").append(seconds(sum)).append("\n");
+    result.append(LATENCY_NAME).append("_count{").append(labels).append("} ").append(count).append("\n");
+  }
+
+  private static String seconds(long nanos) {
+    return Double.toString(nanos / 1e9);
+  }
+}
@@ -1789,17 +1789,27 @@ public class ConnectionInfo
 
     if (dataSendSeqNum > DataAck)
     {
-      byte[] buf = getDataFromOutBuffer(DataAck, dataSendSeqNum);
-
-      int arrayCopyOffset = 0;
-      DataMessage dm = new DataMessage(DataMessage.DATA_MESG, DataAck, getDataAckSeq(), buf.length, 0, buf,
-          arrayCopyOffset);
-      byte[] writebuf = dm.getBytes();
-      ByteBuffer bytebuf = ByteBuffer.allocate(writebuf.length);
-      bytebuf.put(writebuf);
-      bytebuf.flip();
-      while (bytebuf.hasRemaining())
-        Obj.getDataChannel().write(bytebuf);
+      // the header and the data straight from the out buffer's segments in
+      // one gathering write, without copying the data
+      ByteBuffer[] views = getObuffer().getViews(DataAck, dataSendSeqNum);
+      try
+      {
+        ByteBuffer[] writebufs = new ByteBuffer[views.length + 1];
+        int length = 0;
+        for (int i = 0; i < views.length; i++)
+        {
+          writebufs[i + 1] = views[i];
+          length += views[i].remaining();
+        }
+        DataMessage dm = new DataMessage(DataMessage.DATA_MESG, DataAck, getDataAckSeq(), length, 0, null, -1);
+        writebufs[0] = dm.getHeader();
+        while (writebufs[writebufs.length - 1].hasRemaining())
+          Obj.getDataChannel().write(writebufs);
+      }
+      finally
+      {
+        getObuffer().releaseViews();
+      }
     }
     Obj.setneedToReqeustACK(false);
   }
@@ -2285,10 +2295,7 @@ public class ConnectionInfo
 
     byte[] writebuf = (byte[]) Obj.queueOperations(SocketInfo.QUEUE_GET, null);
     int curroffset = Obj.currentChunkWriteOffsetOper(-1, SocketInfo.VARIABLE_GET);
-    ByteBuffer bytebuf = ByteBuffer.allocate(writebuf.length - curroffset);
-
-    bytebuf.put(writebuf, curroffset, writebuf.length - curroffset);
-    bytebuf.flip();
+    ByteBuffer bytebuf = ByteBuffer.wrap(writebuf, curroffset, writebuf.length - curroffset);
     long startTime = System.currentTimeMillis();
     int gotWritten = Obj.getDataChannel().write(bytebuf);
 
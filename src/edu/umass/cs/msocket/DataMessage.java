@@ -180,11 +180,7 @@ public class DataMessage
   public byte[] getBytes()
   {
     ByteBuffer buf = ByteBuffer.allocate(DataMessage.HEADER_SIZE + (msg != null ? length : 0));
-    buf.putInt(Type);
-    buf.putInt(sendSeq);
-    buf.putInt(ackSeq);
-    buf.putInt(length);
-    buf.putLong(RecvdBytes);
+    putHeader(buf);
     if (msg != null)
       {
     	buf.put(msg, arrayCopyOffset, length);
@@ -197,6 +193,31 @@ public class DataMessage
     return buf.array();
   }
 
+  /**
+   * Returns just the header, ready to be written. With a header-only message
+   * it is the whole message. Otherwise the payload can be written after it
+   * with a gathering write, without copying it into the message, see
+   * {@link OutBuffer#getViews(long, long)}.
+   * 
+   * @return
+   */
+  public ByteBuffer getHeader()
+  {
+    ByteBuffer buf = ByteBuffer.allocate(DataMessage.HEADER_SIZE);
+    putHeader(buf);
+    buf.flip();
+    return buf;
+  }
+
+  private void putHeader(ByteBuffer buf)
+  {
+    buf.putInt(Type);
+    buf.putInt(sendSeq);
+    buf.putInt(ackSeq);
+    buf.putInt(length);
+    buf.putLong(RecvdBytes);
+  }
+
   /*
    * This method assumes that the byte[] argument b exactly contains a
    * DataMessage object, i.e., there is no excess bytes beyond the header and
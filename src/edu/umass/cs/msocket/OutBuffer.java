@@ -21,15 +21,25 @@
  *******************************************************************************/
 
 package edu.umass.cs.msocket;
-
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.umass.cs.msocket.logger.MSocketLogger;
 
 /**
  * This class implements the Output buffer of MSocket. Data is stored in the
  * outbput buffer, before it is sent out to the other side.
+ * <p>
+ * The data is kept in a ring of fixed size segments, direct buffers that are
+ * taken from a pool shared by all the out buffers and given back to it once
+ * all of their bytes are acknowledged. Every segment but the last is full, so
+ * the segment a sequence number is in is found by arithmetic instead of a
+ * scan. Ranges are either copied out for retransmission or returned as views
+ * for a gathering write of a header and the payload, see
+ * {@link #getViews(long, long)}.
  * 
  * @author aditya
  */
@@ -42,7 +52,44 @@ public class OutBuffer
    */
   public static final int MAX_OUTBUFFER_SIZE = 30000000;                                   // 30MB
 
-  ArrayList<byte[]>       sbuf               = null;
+  /**
+   * The size of the segments the data is kept in.
+   */
+  public static final int SEGMENT_SIZE       = 64 * 1024;
+
+  /*
+   * The most segments kept in the pool, 16MB of direct memory. Segments given
+   * back beyond that are left to the garbage collector.
+   */
+  private static final int                               MAX_POOLED_SEGMENTS = 256;
+  private static final ConcurrentLinkedQueue<ByteBuffer> segmentPool         = new ConcurrentLinkedQueue<ByteBuffer>();
+  private static final AtomicInteger                     numPooledSegments   = new AtomicInteger();
+
+  /*
+   * The segments held by all the out buffers, not counting the pool. Adds fail
+   * instead of taking more than half of the direct memory, as allocateDirect
+   * throws an OutOfMemoryError once it runs out.
+   */
+  private static final AtomicInteger                     numUsedSegments     = new AtomicInteger();
+  private static final long                              MAX_USED_SEGMENTS   = getMaxDirectMemory() / 2
+                                                                                 / SEGMENT_SIZE;
+
+  /*
+   * The ring of segments. The first one starts at dataStartSeq and
+   * numSegments of them from headSegment on are in use. The position of a
+   * segment is how much of it is filled.
+   */
+  private ByteBuffer[]    segments           = new ByteBuffer[16];
+  private int             headSegment        = 0;
+  private int             numSegments        = 0;
+
+  /*
+   * The number of views returned by getViews that haven't been released. While
+   * there are any, acknowledged segments are kept in retiredSegments instead
+   * of going back to the pool, as the views may still be being written out.
+   */
+  private int                         numViews        = 0;
+  private final ArrayList<ByteBuffer> retiredSegments = new ArrayList<ByteBuffer>();
 
   /*
    * Same as ConnectionInfo.dataSendSeq, this is the sequence number of the next
@@ -59,7 +106,7 @@ public class OutBuffer
   /*
    * dataStartSeq is the sequence number of first byte in the buffer. It may be
    * less than dataBaseSeq as dataStartSeq is advanced only when dataBaseSeq
-   * moves beyond the first whole buffer in the buffer list sbuf.
+   * moves beyond the first whole segment.
    */
   long                    dataStartSeq       = 0;
 
@@ -94,7 +141,6 @@ public class OutBuffer
 
   OutBuffer()
   {
-    sbuf = new ArrayList<byte[]>();
   }
 
   /**
@@ -108,18 +154,27 @@ public class OutBuffer
   {
     if (src.length < offset + length)
       return false;
-    // FIXME: may need to improve here
-    if ((getOutbufferSize() + length) > (java.lang.Runtime.getRuntime().maxMemory() / 2))
+    ByteBuffer last = numSegments > 0 ? segmentAt(numSegments - 1) : null;
+    int newSegments = (length - (last != null ? last.remaining() : 0) + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+    if (newSegments > 0 && numUsedSegments.get() + newSegments > MAX_USED_SEGMENTS)
     {
-      MSocketLogger.getLogger().fine("Local write fail JVM Heap memeory threshold exceeded");
+      MSocketLogger.getLogger().fine("Local write fail direct memory threshold exceeded");
       return false;
     }
-    byte[] dst = null;
-
-    dst = new byte[length];
-
-    System.arraycopy(src, offset, dst, 0, length);
-    sbuf.add(dst);
+    int remaining = length;
+    while (remaining > 0)
+    {
+      ByteBuffer tail = numSegments > 0 ? segmentAt(numSegments - 1) : null;
+      if (tail == null || !tail.hasRemaining())
+      {
+        tail = allocateSegment();
+        appendSegment(tail);
+      }
+      int copy = Math.min(remaining, tail.remaining());
+      tail.put(src, offset, copy);
+      offset += copy;
+      remaining -= copy;
+    }
     dataSendSeq += length;
     return true;
   }
@@ -130,13 +185,7 @@ public class OutBuffer
    */
   public synchronized int getOutbufferSize()
   {
-    int i = 0;
-    int sizeinbytes = 0;
-    for (i = 0; i < sbuf.size(); i++)
-    {
-      sizeinbytes += sbuf.get(i).length;
-    }
-    return sizeinbytes;
+    return (int) (dataSendSeq - dataStartSeq);
   }
 
   /**
@@ -159,44 +208,24 @@ public class OutBuffer
     if (ack - dataBaseSeq <= 0 || ack - dataSendSeq > 0)
       return false;
     dataBaseSeq = ack;
-    while ((ack - dataStartSeq > 0) && sbuf.size() > 0)
-    {
-      byte[] b = sbuf.get(0);
-      if (ack - (dataStartSeq + b.length) >= 0)
-      {
-        sbuf.remove(0);
-        dataStartSeq += b.length;
-      }
-      else
-        break;
-    }
+    freeOutBuffer();
     return true;
   }
 
   /**
-   *
+   * Gives back the segments all of whose bytes are acknowledged.
    */
-  public void freeOutBuffer()
+  public synchronized void freeOutBuffer()
   {
-    long curStart = dataStartSeq;
-    int freeIndex = -1;
-    for (int i = 0; i < sbuf.size(); i++)
+    while (numSegments > 0)
     {
-      byte[] b = sbuf.get(i);
-      if (curStart + b.length - dataBaseSeq > 0)
-      {
-        freeIndex = i;
+      ByteBuffer head = segmentAt(0);
+      // the last segment is kept while it can still be added to
+      if (head.hasRemaining() || dataStartSeq + head.position() - dataBaseSeq > 0)
         break;
-      }
-      curStart += b.length;
-    }
-    dataStartSeq = curStart;
-
-    int i = 0;
-    while (i < freeIndex)
-    {
-      sbuf.remove(0); // remove the first element, as element slides left
-      i++;
+      removeHeadSegment();
+      dataStartSeq += head.position();
+      retireSegment(head);
     }
   }
 
@@ -205,7 +234,11 @@ public class OutBuffer
    */
   public synchronized void releaseOutBuffer()
   {
-    sbuf.clear();
+    while (numSegments > 0)
+    {
+      retireSegment(removeHeadSegment());
+    }
+    dataStartSeq = dataSendSeq;
   }
 
   /**
@@ -238,21 +271,7 @@ public class OutBuffer
   {
     if (dataSendSeq - dataBaseSeq <= 0)
       return null;
-    ByteBuffer buf = ByteBuffer.wrap(new byte[(int) (dataSendSeq - dataBaseSeq)]);
-    long curStart = dataStartSeq;
-    for (int i = 0; i < sbuf.size(); i++)
-    {
-      byte[] b = sbuf.get(i);
-      if (curStart + b.length - dataBaseSeq > 0)
-      {
-        int srcPos = (int) Math.max(0, dataBaseSeq - curStart);
-        buf.put(b, srcPos, b.length - srcPos);
-      }
-      curStart += b.length;
-    }
-    if (buf.array().length == 0)
-      MSocketLogger.getLogger().fine("base=" + this.dataBaseSeq + "send=" + this.dataSendSeq);
-    return buf.array();
+    return copyRange(dataBaseSeq, dataSendSeq);
   }
 
   /**
@@ -265,33 +284,158 @@ public class OutBuffer
   {
     if (EndSeqNum - startSeqNum <= 0)
       return null;
-    ByteBuffer buf = ByteBuffer.wrap(new byte[(int) (EndSeqNum - startSeqNum)]);
-    long curStart = dataStartSeq;
+    return copyRange(startSeqNum, EndSeqNum);
+  }
 
-    for (int i = 0; i < sbuf.size(); i++)
+  /**
+   * Returns read-only views of the bytes from startSeqNum up to EndSeqNum, or
+   * up to the last byte in the buffer if that's sooner, without copying them.
+   * The segments the views are of aren't reused until
+   * {@link #releaseViews()} is called, even if the bytes are acknowledged in
+   * the meantime, so it must be called once the views are written out.
+   * 
+   * @param startSeqNum
+   * @param EndSeqNum
+   * @return the views, none if there are no such bytes in the buffer
+   */
+  public synchronized ByteBuffer[] getViews(long startSeqNum, long EndSeqNum)
+  {
+    long from = Math.max(startSeqNum, dataStartSeq);
+    long to = Math.min(EndSeqNum, dataSendSeq);
+    numViews++;
+    if (to - from <= 0)
+      return new ByteBuffer[0];
+    int first = (int) ((from - dataStartSeq) / SEGMENT_SIZE);
+    int last = (int) ((to - 1 - dataStartSeq) / SEGMENT_SIZE);
+    ByteBuffer[] views = new ByteBuffer[last - first + 1];
+    for (int i = first; i <= last; i++)
     {
-      byte[] b = sbuf.get(i);
-      if (curStart + b.length - startSeqNum > 0)
+      long segmentStart = dataStartSeq + (long) i * SEGMENT_SIZE;
+      ByteBuffer view = segmentAt(i).asReadOnlyBuffer();
+      view.limit((int) (Math.min(to, segmentStart + SEGMENT_SIZE) - segmentStart));
+      view.position((int) (Math.max(from, segmentStart) - segmentStart));
+      views[i - first] = view;
+    }
+    return views;
+  }
+
+  /**
+   * Says that the views returned by a call to {@link #getViews(long, long)}
+   * are no longer used.
+   */
+  public synchronized void releaseViews()
+  {
+    if (--numViews == 0)
+    {
+      for (ByteBuffer segment : retiredSegments)
       {
-        int srcPos = (int) Math.max(0, startSeqNum - curStart);
-        int copy = 0;
-        if (buf.remaining() > (b.length - srcPos))
-        {
-          copy = (b.length - srcPos);
-          buf.put(b, srcPos, copy);
-        }
-        else
-        {
-          copy = buf.remaining();
-          buf.put(b, srcPos, copy);
-          break;
-        }
+        releaseSegment(segment);
       }
-      curStart += b.length;
+      retiredSegments.clear();
     }
-    if (buf.array().length == 0)
+  }
+
+  /*
+   * Copies the bytes from startSeqNum to EndSeqNum into a new array, each at
+   * its offset from startSeqNum. Bytes that aren't in the buffer are left 0.
+   */
+  private byte[] copyRange(long startSeqNum, long EndSeqNum)
+  {
+    byte[] buf = new byte[(int) (EndSeqNum - startSeqNum)];
+    long from = Math.max(startSeqNum, dataStartSeq);
+    long to = Math.min(EndSeqNum, dataSendSeq);
+    int i = (int) ((from - dataStartSeq) / SEGMENT_SIZE);
+    while (to - from > 0)
+    {
+      long segmentStart = dataStartSeq + (long) i * SEGMENT_SIZE;
+      int copy = (int) (Math.min(to, segmentStart + SEGMENT_SIZE) - from);
+      ByteBuffer segment = segmentAt(i).duplicate();
+      segment.position((int) (from - segmentStart));
+      segment.get(buf, (int) (from - startSeqNum), copy);
+      from += copy;
+      i++;
+    }
+    if (buf.length == 0)
       MSocketLogger.getLogger().fine("base=" + startSeqNum + "send=" + EndSeqNum);
-    return buf.array();
+    return buf;
+  }
+
+  private ByteBuffer segmentAt(int i)
+  {
+    return segments[(headSegment + i) % segments.length];
+  }
+
+  private void appendSegment(ByteBuffer segment)
+  {
+    if (numSegments == segments.length)
+    {
+      ByteBuffer[] larger = new ByteBuffer[segments.length * 2];
+      for (int i = 0; i < numSegments; i++)
+      {
+        larger[i] = segmentAt(i);
+      }
+      segments = larger;
+      headSegment = 0;
+    }
+    segments[(headSegment + numSegments) % segments.length] = segment;
+    numSegments++;
+  }
+
+  private ByteBuffer removeHeadSegment()
+  {
+    ByteBuffer head = segments[headSegment];
+    segments[headSegment] = null;
+    headSegment = (headSegment + 1) % segments.length;
+    numSegments--;
+    return head;
+  }
+
+  private void retireSegment(ByteBuffer segment)
+  {
+    if (numViews > 0)
+      retiredSegments.add(segment);
+    else
+      releaseSegment(segment);
+  }
+
+  private static ByteBuffer allocateSegment()
+  {
+    numUsedSegments.incrementAndGet();
+    ByteBuffer segment = segmentPool.poll();
+    if (segment == null)
+      return ByteBuffer.allocateDirect(SEGMENT_SIZE);
+    numPooledSegments.decrementAndGet();
+    segment.clear();
+    return segment;
+  }
+
+  private static void releaseSegment(ByteBuffer segment)
+  {
+    numUsedSegments.decrementAndGet();
+    if (numPooledSegments.incrementAndGet() <= MAX_POOLED_SEGMENTS)
+      segmentPool.add(segment);
+    else
+      numPooledSegments.decrementAndGet();
+  }
+
+  /*
+   * The -XX:MaxDirectMemorySize of the JVM, which is the heap size when it
+   * isn't set.
+   */
+  private static long getMaxDirectMemory()
+  {
+    try
+    {
+      long max = Long.parseLong(ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class)
+          .getVMOption("MaxDirectMemorySize").getValue());
+      if (max > 0)
+        return max;
+    }
+    catch (RuntimeException e)
+    {
+      // not a HotSpot JVM
+    }
+    return java.lang.Runtime.getRuntime().maxMemory();
   }
 
   public String toString()
@@ -300,7 +444,7 @@ public class OutBuffer
     s += "dataSendSeq=" + dataSendSeq + ", ";
     s += "dataBaseSeq=" + dataBaseSeq + ", ";
     s += "dataStartSeq=" + dataStartSeq + ", ";
-    s += "numbufs=" + sbuf.size();
+    s += "numbufs=" + numSegments;
     s += "]";
 
     return s;
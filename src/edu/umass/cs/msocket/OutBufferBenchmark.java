@@ -0,0 +1,151 @@
+/*******************************************************************************
+ *
+ * Mobility First - mSocket library
+ * Copyright (C) 2013, 2014 - University of Massachusetts Amherst
+ * Contact: arun@cs.umass.edu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Initial developer(s): Arun Venkataramani, Aditya Yadav, Emmanuel Cecchet.
+ * Contributor(s): ______________________.
+ *
+ *******************************************************************************/
+
+package edu.umass.cs.msocket;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Measures the throughput of sending the data of an out buffer as data
+ * messages over a loopback connection, for each size of write. The data is
+ * either copied out of the out buffer and into a message like the writing
+ * policies do, or written straight from the out buffer with a gathering write
+ * of the header and views of the data. Prints MB/s and the bytes allocated
+ * per message.
+ *
+ * Typical incantation: java -cp jars/GNS.jar edu.umass.cs.msocket.OutBufferBenchmark
+ *
+ * @author aditya
+ */
+public class OutBufferBenchmark
+{
+  private static final int[] WRITE_SIZES  = {1024, 16 * 1024, 256 * 1024};
+  private static final long  TOTAL_BYTES  = 1024L * 1024 * 1024;
+  private static final long  WARMUP_BYTES = 128L * 1024 * 1024;
+
+  private enum Mode
+  {
+    COPY, GATHER
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException
+  {
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    SocketChannel channel = SocketChannel.open(server.socket().getLocalSocketAddress());
+    final SocketChannel receiver = server.accept();
+    Thread drain = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+        try
+        {
+          while (receiver.read(buf) >= 0)
+            buf.clear();
+        }
+        catch (IOException e)
+        {
+          // closed at the end
+        }
+      }
+    });
+    drain.setDaemon(true);
+    drain.start();
+
+    System.out.println("write size\tcopy MB/s\tcopy B/msg\tgather MB/s\tgather B/msg");
+    for (int size : WRITE_SIZES)
+    {
+      StringBuilder line = new StringBuilder().append(size);
+      for (Mode mode : Mode.values())
+      {
+        send(channel, size, WARMUP_BYTES, mode);
+        long[] result = send(channel, size, TOTAL_BYTES, mode);
+        line.append("\t").append(result[0]).append("\t").append(result[1]);
+      }
+      System.out.println(line);
+    }
+    channel.close();
+    receiver.close();
+    server.close();
+  }
+
+  // returns the MB/s and the bytes allocated per message
+  private static long[] send(SocketChannel channel, int size, long total, Mode mode) throws IOException
+  {
+    OutBuffer ob = new OutBuffer();
+    byte[] data = new byte[size];
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    long messages = 0;
+    for (long sent = 0; sent < total; sent += size)
+    {
+      ob.add(data);
+      long end = ob.dataSendSeq;
+      if (mode == Mode.COPY)
+      {
+        byte[] buf = ob.getDataFromOutBuffer(sent, end);
+        DataMessage dm = new DataMessage(DataMessage.DATA_MESG, (int) sent, 0, buf.length, 0, buf, 0);
+        ByteBuffer writebuf = ByteBuffer.wrap(dm.getBytes());
+        while (writebuf.hasRemaining())
+          channel.write(writebuf);
+      }
+      else
+      {
+        ByteBuffer[] views = ob.getViews(sent, end);
+        ByteBuffer[] writebufs = new ByteBuffer[views.length + 1];
+        System.arraycopy(views, 0, writebufs, 1, views.length);
+        writebufs[0] = new DataMessage(DataMessage.DATA_MESG, (int) sent, 0, size, 0, null, -1).getHeader();
+        while (writebufs[writebufs.length - 1].hasRemaining())
+          channel.write(writebufs);
+        ob.releaseViews();
+      }
+      // acknowledged right away so the segments go back to the pool
+      ob.ack(end);
+      messages++;
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocatedBefore < 0 ? -1 : (allocatedBytes() - allocatedBefore) / messages;
+    return new long[]{total * 1000 / elapsed, allocated};
+  }
+
+  // -1 when the JVM can't tell
+  private static long allocatedBytes()
+  {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    return -1;
+  }
+}
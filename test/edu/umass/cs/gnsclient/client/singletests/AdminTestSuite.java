@@ -171,6 +171,15 @@ public class AdminTestSuite extends DefaultTest{
       String result = client.clearCache();
   }
   
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_07_ActiveCodeStats() throws Exception {
+      String result = client.activeCodeStats();
+  }
+  
   
 
 }
@@ -7,6 +7,7 @@
  */
 package edu.umass.cs.gnsclient.client.singletests;
 
+import edu.umass.cs.gnsclient.client.CommandUtils;
 import edu.umass.cs.gnsclient.client.http.HttpClient;
 import edu.umass.cs.gnsclient.client.util.GuidEntry;
 import edu.umass.cs.gnsclient.client.util.GuidUtils;
@@ -14,21 +15,36 @@ import edu.umass.cs.gnsclient.client.util.JSONUtils;
 import edu.umass.cs.gnsclient.jsonassert.JSONAssert;
 import edu.umass.cs.gnsclient.jsonassert.JSONCompareMode;
 import edu.umass.cs.gnscommon.AclAccessType;
+import edu.umass.cs.gnscommon.CommandType;
 import edu.umass.cs.gnscommon.GNSCommandProtocol;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.utils.RandomString;
 import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import org.junit.Test;
 import org.junit.FixMethodOrder;
 import org.junit.runners.MethodSorters;
@@ -612,6 +628,176 @@ public class HttpClientTest {
     }
   }
 
+  /**
+   * Posts a batch and checks each command gets its own response in order.
+   */
+  @Test
+  public void test_990_Http_PostBatch() {
+    try {
+      JSONArray batch = new JSONArray();
+      batch.put(readCommand(httpOneEntry, "environment", httpOneEntry));
+      // httpTwoEntry can't read this field so only this command fails
+      batch.put(readCommand(httpOneEntry, "ssn", httpTwoEntry));
+      batch.put(readCommand(httpOneEntry, "password", httpOneEntry));
+      HttpURLConnection connection = postBatch(batch.toString());
+      assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+      JSONArray responses = new JSONArray(readFully(connection.getInputStream()));
+      assertEquals(3, responses.length());
+      assertEquals(ResponseCode.NO_ERROR.getCodeValue(),
+              responses.getJSONObject(0).getInt(GNSProtocol.ERROR_CODE.toString()));
+      assertEquals("work", CommandUtils.specialCaseSingleField(
+              responses.getJSONObject(0).getString(GNSProtocol.RETURN_VALUE.toString())));
+      assertNotEquals(ResponseCode.NO_ERROR.getCodeValue(),
+              responses.getJSONObject(1).getInt(GNSProtocol.ERROR_CODE.toString()));
+      assertEquals(ResponseCode.NO_ERROR.getCodeValue(),
+              responses.getJSONObject(2).getInt(GNSProtocol.ERROR_CODE.toString()));
+      assertEquals("666flapJack", CommandUtils.specialCaseSingleField(
+              responses.getJSONObject(2).getString(GNSProtocol.RETURN_VALUE.toString())));
+    } catch (IOException | ClientException | JSONException e) {
+      failWithStackTrace("Exception in Http_PostBatch: " + e);
+    }
+  }
+
+  /**
+   * Posts a single command, which is a batch of one, and a body that isn't JSON.
+   */
+  @Test
+  public void test_991_Http_PostBatchSingleAndBad() {
+    try {
+      HttpURLConnection connection = postBatch(readCommand(httpOneEntry, "environment", httpOneEntry).toString());
+      assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+      JSONArray responses = new JSONArray(readFully(connection.getInputStream()));
+      assertEquals(1, responses.length());
+      assertEquals("work", CommandUtils.specialCaseSingleField(
+              responses.getJSONObject(0).getString(GNSProtocol.RETURN_VALUE.toString())));
+
+      connection = postBatch("[{not json");
+      assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, connection.getResponseCode());
+    } catch (IOException | ClientException | JSONException e) {
+      failWithStackTrace("Exception in Http_PostBatchSingleAndBad: " + e);
+    }
+  }
+
+  /**
+   * The asynchronous methods complete with what the blocking ones return.
+   */
+  @Test
+  public void test_992_Http_AsyncResults() {
+    try {
+      CompletableFuture<String> guid = client.lookupGuidAsync(ACCOUNT_ALIAS);
+      CompletableFuture<String> environment = client.fieldReadAsync(httpOneEntry.getGuid(),
+              "environment", httpOneEntry);
+      CompletableFuture<JSONArray> cats = client.fieldReadArrayAsync(httpOneEntry.getGuid(),
+              "cats", httpOneEntry);
+      assertEquals(masterGuid.getGuid(), guid.get());
+      assertEquals("work", environment.get());
+      assertEquals(new HashSet<>(Arrays.asList("hooch", "red", "sox", "whacky", "fred")),
+              JSONUtils.JSONArrayToHashSet(cats.get()));
+
+      client.fieldUpdateAsync(httpOneEntry.getGuid(), "asyncField", "asyncValue", httpOneEntry).get();
+      assertEquals("asyncValue", client.fieldReadAsync(httpOneEntry.getGuid(), "asyncField",
+              httpOneEntry).get());
+    } catch (InterruptedException | ExecutionException | JSONException e) {
+      failWithStackTrace("Exception in Http_AsyncResults: " + e);
+    }
+  }
+
+  /**
+   * A failing call completes its future exceptionally with what the blocking method throws.
+   */
+  @Test
+  public void test_993_Http_AsyncException() {
+    try {
+      client.fieldReadAsync(httpOneEntry.getGuid(), "ssn", httpTwoEntry).get();
+      failWithStackTrace("Read of httpOneEntry's ssn by httpTwoEntry should have been rejected.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(ClientException.class));
+    } catch (InterruptedException e) {
+      failWithStackTrace("Exception in Http_AsyncException: " + e);
+    }
+
+    final IOException thrown = new IOException("failed");
+    try {
+      client.submitAsync(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          throw thrown;
+        }
+      }).get();
+      failWithStackTrace("submitAsync should have failed.");
+    } catch (ExecutionException e) {
+      assertSame(thrown, e.getCause());
+    } catch (InterruptedException e) {
+      failWithStackTrace("Exception in Http_AsyncException: " + e);
+    }
+  }
+
+  /**
+   * The results of a batch are in the order of its commands and one
+   * failing command only fails its own result.
+   */
+  @Test
+  public void test_994_Http_ExecuteBatch() {
+    try {
+      List<JSONObject> commands = Arrays.asList(
+              readCommand(httpOneEntry, "environment", httpOneEntry),
+              readCommand(httpOneEntry, "ssn", httpTwoEntry),
+              readCommand(httpOneEntry, "password", httpOneEntry),
+              readCommand(httpOneEntry, "address", httpOneEntry));
+      List<String> results = client.executeBatch(commands);
+      assertEquals(commands.size(), results.size());
+      assertEquals("work", CommandUtils.specialCaseSingleField(
+              CommandUtils.checkResponseOldSchool(results.get(0))));
+      try {
+        CommandUtils.checkResponseOldSchool(results.get(1));
+        failWithStackTrace("Read of httpOneEntry's ssn by httpTwoEntry should have been rejected.");
+      } catch (ClientException e) {
+        // expected
+      }
+      assertEquals("666flapJack", CommandUtils.specialCaseSingleField(
+              CommandUtils.checkResponseOldSchool(results.get(2))));
+      assertEquals("100 Hinkledinkle Drive", CommandUtils.specialCaseSingleField(
+              CommandUtils.checkResponseOldSchool(results.get(3))));
+
+      results = client.executeBatchAsync(commands.subList(2, 4)).get();
+      assertEquals(2, results.size());
+      assertEquals("666flapJack", CommandUtils.specialCaseSingleField(
+              CommandUtils.checkResponseOldSchool(results.get(0))));
+      assertEquals("100 Hinkledinkle Drive", CommandUtils.specialCaseSingleField(
+              CommandUtils.checkResponseOldSchool(results.get(1))));
+    } catch (IOException | ClientException | InterruptedException | ExecutionException e) {
+      failWithStackTrace("Exception in Http_ExecuteBatch: " + e);
+    }
+  }
+
+  private static JSONObject readCommand(GuidEntry target, String field, GuidEntry reader) throws ClientException {
+    return CommandUtils.createAndSignCommand(CommandType.Read, reader,
+            GNSCommandProtocol.GUID, target.getGuid(), GNSCommandProtocol.FIELD, field,
+            GNSCommandProtocol.READER, reader.getGuid());
+  }
+
+  private static HttpURLConnection postBatch(String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:8080/GNS").openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/json");
+    try (OutputStream outputStream = connection.getOutputStream()) {
+      outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return connection;
+  }
+
+  private static String readFully(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int length;
+    while ((length = inputStream.read(buffer)) >= 0) {
+      bytes.write(buffer, 0, length);
+    }
+    inputStream.close();
+    return bytes.toString(StandardCharsets.UTF_8.name());
+  }
+
   // HELPER STUFF
   private static final String POLYGON = "Polygon";
   private static final String COORDINATES = "coordinates";
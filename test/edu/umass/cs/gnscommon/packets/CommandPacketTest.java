@@ -0,0 +1,124 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.packets;
+
+import edu.umass.cs.gnsclient.client.CommandUtils;
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSCommandProtocol;
+import edu.umass.cs.gnscommon.utils.ByteUtils;
+import edu.umass.cs.gnscommon.utils.CanonicalCommand;
+import edu.umass.cs.gnsserver.gnsapp.packet.Packet.PacketType;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Arrays;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that commands received as their canonical bytes are only
+ * authenticated by what their signature covers.
+ *
+ */
+public class CommandPacketTest {
+
+  // the CANONICAL byte mode
+  private static final byte CANONICAL = 5;
+  private static final String FIELD = "field1";
+
+  private static KeyPair keyPair;
+  private static byte[] canonical;
+  private static String signature;
+
+  /**
+   * @throws Exception
+   */
+  @BeforeClass
+  public static void setUp() throws Exception {
+    keyPair = KeyPairGenerator.getInstance(GNSCommandProtocol.RSA_ALGORITHM).generateKeyPair();
+    JSONObject command = new JSONObject();
+    command.put(GNSCommandProtocol.COMMAND_INT, CommandType.Read.getInt());
+    command.put(GNSCommandProtocol.GUID, "guid1");
+    command.put(GNSCommandProtocol.FIELD, FIELD);
+    command.put(GNSCommandProtocol.READER, "guid1");
+    command.put(GNSCommandProtocol.SIGNATURE_FORMAT, CanonicalCommand.VERSION);
+    canonical = CanonicalCommand.getCanonicalBytes(command);
+    signature = CommandUtils.signDigestOfMessage(keyPair.getPrivate(), canonical);
+  }
+
+  // the bytes CommandPacket.toBytes writes in the CANONICAL byte mode
+  private static byte[] toBytes(byte[] canonical, JSONObject unsigned) throws Exception {
+    ByteBuffer buf = ByteBuffer.allocate(1024)
+            .putInt(PacketType.COMMAND.getInt())
+            .putLong(1)
+            .put((byte) 0)
+            .put(CANONICAL)
+            .putInt(canonical.length)
+            .put(canonical);
+    buf = CanonicalCommand.putObject(unsigned, buf);
+    return Arrays.copyOf(buf.array(), buf.position());
+  }
+
+  private static boolean authenticates(CommandPacket packet) throws Exception {
+    Signature verifier = Signature.getInstance(GNSCommandProtocol.SIGNATURE_ALGORITHM);
+    verifier.initVerify(keyPair.getPublic());
+    verifier.update(CanonicalCommand.getMessageBytes(packet.getSignedMessage(), StandardCharsets.UTF_8));
+    return verifier.verify(ByteUtils.hexStringToByteArray(
+            packet.getCommand().getString(GNSCommandProtocol.SIGNATURE)));
+  }
+
+  /**
+   * @throws Exception
+   */
+  @Test
+  public void testSigned() throws Exception {
+    CommandPacket packet = new CommandPacket(toBytes(canonical,
+            new JSONObject().put(GNSCommandProtocol.SIGNATURE, signature)));
+    assertEquals(FIELD, packet.getCommand().getString(GNSCommandProtocol.FIELD));
+    assertTrue(authenticates(packet));
+  }
+
+  /**
+   * Fields other than the signature after the signed bytes are rejected.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testTamperedTrailer() throws Exception {
+    for (JSONObject unsigned : new JSONObject[]{
+      new JSONObject().put(GNSCommandProtocol.SIGNATURE, signature).put(GNSCommandProtocol.FIELD, "field2"),
+      new JSONObject().put(GNSCommandProtocol.SIGNATURE, signature).put(GNSCommandProtocol.READER, "guid2"),
+      new JSONObject().put(GNSCommandProtocol.SIGNATURE, signature)
+              .put(GNSCommandProtocol.SIGNATUREFULLMESSAGE, "message")}) {
+      try {
+        // the signature would still verify against the received bytes
+        new CommandPacket(toBytes(canonical, unsigned));
+        fail("Accepted " + unsigned);
+      } catch (RequestParseException e) {
+        // expected
+      }
+    }
+  }
+}
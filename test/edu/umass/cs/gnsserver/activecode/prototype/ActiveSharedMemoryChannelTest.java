@@ -0,0 +1,79 @@
+package edu.umass.cs.gnsserver.activecode.prototype;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+
+/**
+ * Passes messages of different sizes, including ones larger than the ring,
+ * between two ends of an ActiveSharedMemoryChannel in the same process.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveSharedMemoryChannelTest {
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void test_echoThroughRings() throws Exception {
+		final String cfile = "/tmp/client_ring_test";
+		final String sfile = "/tmp/server_ring_test";
+		Runtime.getRuntime().exec("mkfifo "+cfile).waitFor();
+		Runtime.getRuntime().exec("mkfifo "+sfile).waitFor();
+
+		final int n = 1000;
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		// the worker end echoes every message back
+		Future<ActiveSharedMemoryChannel> worker = executor.submit(new Callable<ActiveSharedMemoryChannel>() {
+			@Override
+			public ActiveSharedMemoryChannel call() throws IOException {
+				ActiveSharedMemoryChannel channel = new ActiveSharedMemoryChannel(sfile, cfile, 1024);
+				for (int i=0; i<n; i++){
+					channel.sendMessage(channel.receiveMessage());
+				}
+				return channel;
+			}
+		});
+		ActiveSharedMemoryChannel client = new ActiveSharedMemoryChannel(cfile, sfile, 1024);
+
+		StringBuilder value = new StringBuilder();
+		for (int i=0; i<n; i++){
+			value.append(i % 10);
+			ActiveMessage msg = new ActiveMessage(i, valuesMap(value.toString()), null);
+			client.sendMessage(msg);
+			ActiveMessage echo = (ActiveMessage) client.receiveMessage();
+			assertEquals(msg.getId(), echo.getId());
+			assertEquals(msg.getValue().toString(), echo.getValue().toString());
+		}
+
+		worker.get().shutdown();
+		// the other end has gone away
+		assertNull(client.receiveMessage());
+		client.shutdown();
+		executor.shutdown();
+
+		for (String file : new String[]{cfile, sfile}){
+			new File(file).delete();
+			new File(file+ActiveSharedMemoryChannel.RING_SUFFIX).delete();
+		}
+	}
+
+	private static ValuesMap valuesMap(String value) throws JSONException {
+		ValuesMap map = new ValuesMap();
+		map.put("value", value);
+		return map;
+	}
+}
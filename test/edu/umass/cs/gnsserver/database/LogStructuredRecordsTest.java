@@ -0,0 +1,203 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests LogStructuredRecords, including reading the logs back after
+ * reopening them and compacting them.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LogStructuredRecordsTest {
+
+  private static final String collection = "testCollection";
+  // small so that the records are spread over several segments
+  private static final int segmentSize = 4096;
+  private static final int numRecords = 100;
+  private static File directory;
+  private static LogStructuredRecords instance;
+
+  /**
+   * @throws Exception
+   */
+  @BeforeClass
+  public static void setUp() throws Exception {
+    directory = Files.createTempDirectory("LogStructuredRecordsTest").toFile();
+    instance = new LogStructuredRecords(directory, segmentSize, 0);
+  }
+
+  /**
+   *
+   */
+  @AfterClass
+  public static void tearDown() {
+    instance.close();
+    delete(directory);
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static String guid(int i) {
+    return "guid" + i;
+  }
+
+  private static JSONObject record(int i) throws Exception {
+    JSONObject valuesMap = new JSONObject();
+    valuesMap.put("count", i);
+    valuesMap.put("parity", i % 2 == 0 ? "even" : "odd");
+    valuesMap.put("tags", new JSONArray(Arrays.asList("all", "tag" + (i % 10))));
+    valuesMap.put("location", new JSONArray(Arrays.asList(i, i)));
+    JSONObject record = new JSONObject();
+    record.put(NameRecord.NAME.getName(), guid(i));
+    record.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+    return record;
+  }
+
+  private static Set<String> names(AbstractRecordCursor cursor) throws Exception {
+    Set<String> names = new HashSet<>();
+    while (cursor.hasNext()) {
+      names.add(cursor.nextJSONObject().getString(NameRecord.NAME.getName()));
+    }
+    cursor.close();
+    return names;
+  }
+
+  /**
+   * @throws Exception
+   */
+  @Test
+  public void test_01_Insert() throws Exception {
+    for (int i = 0; i < numRecords; i++) {
+      instance.insert(collection, guid(i), record(i));
+    }
+    assertTrue(instance.contains(collection, guid(0)));
+    assertEquals(7, instance.lookupEntireRecord(collection, guid(7))
+            .getJSONObject(NameRecord.VALUES_MAP.getName()).getInt("count"));
+  }
+
+  /**
+   * @throws Exception
+   */
+  @Test
+  public void test_02_SelectRecords() throws Exception {
+    instance.createIndex(collection, "parity", "1");
+    assertEquals(numRecords / 2, names(instance.selectRecords(collection, NameRecord.VALUES_MAP,
+            "parity", "odd", null)).size());
+    // matches an element of the list
+    assertEquals(numRecords / 10, names(instance.selectRecords(collection, NameRecord.VALUES_MAP,
+            "tags", "tag3", null)).size());
+  }
+
+  /**
+   * @throws Exception
+   */
+  @Test
+  public void test_03_SelectRecordsQuery() throws Exception {
+    assertEquals(new HashSet<>(Arrays.asList(guid(97), guid(99))),
+            names(instance.selectRecordsQuery(collection, NameRecord.VALUES_MAP,
+                    "$and: [(~count: ($gt: 95)), (~parity: \"odd\")]", Collections.<String>emptyList())));
+    assertEquals(Collections.singleton(guid(5)),
+            names(instance.selectRecordsQuery(collection, NameRecord.VALUES_MAP,
+                    "$and: [(~count: ($lt: 10)), (\"nr_name\": \"guid5\")]", null)));
+    assertEquals(new HashSet<>(Arrays.asList(guid(1), guid(2))),
+            names(instance.selectRecordsWithin(collection, NameRecord.VALUES_MAP,
+                    "location", "[[0.5, 0.5], [2.5, 2.5]]", null)));
+  }
+
+  /**
+   * @throws Exception
+   */
+  @Test
+  public void test_04_Projection() throws Exception {
+    AbstractRecordCursor cursor = instance.selectRecords(collection, NameRecord.VALUES_MAP,
+            "count", 3, Arrays.asList("parity"));
+    assertTrue(cursor.hasNext());
+    JSONObject json = cursor.nextJSONObject();
+    assertFalse(cursor.hasNext());
+    assertEquals(guid(3), json.getString(NameRecord.NAME.getName()));
+    assertEquals("{\"parity\":\"odd\"}", json.getJSONObject(NameRecord.VALUES_MAP.getName()).toString());
+  }
+
+  /**
+   * @throws Exception
+   */
+  @Test
+  public void test_05_UpdateAndRemove() throws Exception {
+    for (int i = 0; i < numRecords; i++) {
+      instance.updateIndividualFields(collection, guid(i), NameRecord.VALUES_MAP,
+              new ArrayList<>(Arrays.asList(new ColumnField("parity", ColumnFieldType.USER_JSON))),
+              new ArrayList<Object>(Arrays.asList("none")));
+    }
+    for (int i = 0; i < numRecords; i += 2) {
+      instance.removeEntireRecord(collection, guid(i));
+    }
+    assertEquals(numRecords / 2, names(instance.selectRecords(collection, NameRecord.VALUES_MAP,
+            "parity", "none", null)).size());
+    assertTrue(names(instance.selectRecords(collection, NameRecord.VALUES_MAP,
+            "parity", "odd", null)).isEmpty());
+  }
+
+  /**
+   * @throws Exception
+   */
+  @Test
+  public void test_06_Reopen() throws Exception {
+    instance.compact();
+    instance.close();
+    instance = new LogStructuredRecords(directory, segmentSize, 0);
+    try {
+      instance.lookupEntireRecord(collection, guid(0));
+      fail("Record should not exist");
+    } catch (RecordNotFoundException e) {
+    }
+    assertEquals("none", instance.lookupEntireRecord(collection, guid(1))
+            .getJSONObject(NameRecord.VALUES_MAP.getName()).getString("parity"));
+    assertEquals(numRecords / 2, names(instance.getAllRowsIterator(collection)).size());
+    // the index was rebuilt
+    assertEquals(numRecords / 2, names(instance.selectRecords(collection, NameRecord.VALUES_MAP,
+            "parity", "none", null)).size());
+  }
+}
@@ -0,0 +1,75 @@
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.RSA_ALGORITHM;
+import static edu.umass.cs.gnscommon.GNSCommandProtocol.SIGNATURE_ALGORITHM;
+import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnscommon.utils.ByteUtils;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Measures how many signatures NSAccessSupport verifies per second as
+ * the number of verifying threads goes up.
+ */
+public class SignatureVerificationThroughputTest {
+
+  private static final int VERIFICATIONS_PER_THREAD = 2000;
+
+  /**
+   * Verifies the same signed message from 1 up to 2 * cores threads and prints the throughput.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_01_VerificationThroughput() throws Exception {
+    KeyPair keyPair = KeyPairGenerator.getInstance(RSA_ALGORITHM).generateKeyPair();
+    final String publicKey = Base64.encodeToString(keyPair.getPublic().getEncoded(), false);
+    final String message = "{\"COMMANDINT\":110,\"guid\":\"0123456789ABCDEF\",\"field\":\"fred\",\"value\":\"x\"}";
+    Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+    signer.initSign(keyPair.getPrivate());
+    signer.update(message.getBytes("UTF-8"));
+    final String signature = ByteUtils.toHex(signer.sign());
+
+    assertTrue(NSAccessSupport.verifySignature(publicKey, signature, message));
+    assertFalse(NSAccessSupport.verifySignature(publicKey, signature, message + " "));
+
+    int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      List<Future<Integer>> results = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            int verified = 0;
+            for (int j = 0; j < VERIFICATIONS_PER_THREAD; j++) {
+              if (NSAccessSupport.verifySignature(publicKey, signature, message)) {
+                verified++;
+              }
+            }
+            return verified;
+          }
+        }));
+      }
+      int verified = 0;
+      for (Future<Integer> result : results) {
+        verified += result.get();
+      }
+      long elapsed = System.nanoTime() - start;
+      executor.shutdown();
+      assertEquals(threads * VERIFICATIONS_PER_THREAD, verified);
+      System.out.println(threads + " thread(s): "
+              + (long) (verified / (elapsed / 1000000000.0)) + " verifications/s");
+    }
+  }
+}
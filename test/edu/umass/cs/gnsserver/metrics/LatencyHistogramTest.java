@@ -0,0 +1,69 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.metrics;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the buckets and quantiles of LatencyHistogram.
+ *
+ */
+public class LatencyHistogramTest {
+
+  /**
+   * Every value goes in a bucket whose upper bound is at least the value
+   * and within the promised error of it.
+   */
+  @Test
+  public void test_01_Buckets() {
+    int previous = -1;
+    for (long value = 0; value < (1L << 41); value = value < 1000 ? value + 1 : value + value / 7) {
+      int bucket = LatencyHistogram.bucket(value);
+      assertTrue(bucket >= previous);
+      previous = bucket;
+      long upper = LatencyHistogram.bucketUpperBound(bucket);
+      if (value < (1L << 40)) {
+        assertTrue(value + " " + upper, upper >= value);
+        assertTrue(value + " " + upper, upper - value <= value / LatencyHistogram.SUB_BUCKETS);
+        // the bucket below ends below the value
+        assertTrue(bucket == 0 || LatencyHistogram.bucketUpperBound(bucket - 1) < value);
+      }
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_02_Quantiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtQuantile(0.99));
+    for (long i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500500000L, histogram.getSum());
+    long[] values = histogram.getValuesAtQuantiles(new double[]{0.5, 0.99, 1});
+    assertEquals(500000, values[0], 500000 / LatencyHistogram.SUB_BUCKETS);
+    assertEquals(990000, values[1], 990000 / LatencyHistogram.SUB_BUCKETS);
+    assertEquals(1000000, values[2], 1000000 / LatencyHistogram.SUB_BUCKETS);
+  }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ *
+ * Mobility First - mSocket library
+ * Copyright (C) 2013, 2014 - University of Massachusetts Amherst
+ * Contact: arun@cs.umass.edu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Initial developer(s): Arun Venkataramani, Aditya Yadav, Emmanuel Cecchet.
+ * Contributor(s): ______________________.
+ *
+ *******************************************************************************/
+
+package edu.umass.cs.msocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests the sequence number bookkeeping of the OutBuffer segments.
+ */
+public class OutBufferTest
+{
+  // bytes that tell where they are in the stream
+  private static byte[] data(long start, int length)
+  {
+    byte[] b = new byte[length];
+    for (int i = 0; i < length; i++)
+      b[i] = (byte) ((start + i) % 251);
+    return b;
+  }
+
+  private static byte[] concat(ByteBuffer[] views)
+  {
+    int length = 0;
+    for (ByteBuffer view : views)
+      length += view.remaining();
+    ByteBuffer all = ByteBuffer.allocate(length);
+    for (ByteBuffer view : views)
+      all.put(view);
+    return all.array();
+  }
+
+  /**
+   * Ranges across segments are copied and viewed in order.
+   */
+  @Test
+  public void testRanges()
+  {
+    OutBuffer ob = new OutBuffer();
+    int total = 0;
+    // writes of odd sizes so they straddle segments
+    for (int size : new int[]{1, 1000, OutBuffer.SEGMENT_SIZE, 3 * OutBuffer.SEGMENT_SIZE + 7, 12345})
+    {
+      assertTrue(ob.add(data(total, size)));
+      total += size;
+    }
+    assertEquals(total, ob.getOutbufferSize());
+    byte[] all = data(0, total);
+    assertArrayEquals(all, ob.getUnacked());
+
+    long start = OutBuffer.SEGMENT_SIZE - 10;
+    long end = 3 * OutBuffer.SEGMENT_SIZE + 10;
+    byte[] expected = Arrays.copyOfRange(all, (int) start, (int) end);
+    assertArrayEquals(expected, ob.getDataFromOutBuffer(start, end));
+    ByteBuffer[] views = ob.getViews(start, end);
+    assertEquals(4, views.length);
+    assertArrayEquals(expected, concat(views));
+    ob.releaseViews();
+    // views stop at the end of the data
+    views = ob.getViews(total - 5, total + 100);
+    assertArrayEquals(Arrays.copyOfRange(all, total - 5, total), concat(views));
+    ob.releaseViews();
+  }
+
+  /**
+   * Acknowledged segments are freed and the rest are still found by their
+   * sequence numbers.
+   */
+  @Test
+  public void testAck()
+  {
+    OutBuffer ob = new OutBuffer();
+    int total = 5 * OutBuffer.SEGMENT_SIZE / 2;
+    byte[] all = data(0, total);
+    ob.add(all);
+    assertTrue(ob.ack(OutBuffer.SEGMENT_SIZE + 1));
+    // only the first whole segment is freed
+    assertEquals(OutBuffer.SEGMENT_SIZE, ob.dataStartSeq);
+    assertEquals(total - OutBuffer.SEGMENT_SIZE, ob.getOutbufferSize());
+    assertArrayEquals(Arrays.copyOfRange(all, OutBuffer.SEGMENT_SIZE + 1, total), ob.getUnacked());
+
+    ByteBuffer[] views = ob.getViews(OutBuffer.SEGMENT_SIZE + 1, 2 * OutBuffer.SEGMENT_SIZE);
+    // acknowledged while the views are out, yet the views keep their bytes
+    assertTrue(ob.ack(total));
+    assertNull(ob.getUnacked());
+    byte[] more = data(total, OutBuffer.SEGMENT_SIZE);
+    ob.add(more);
+    assertArrayEquals(Arrays.copyOfRange(all, OutBuffer.SEGMENT_SIZE + 1, 2 * OutBuffer.SEGMENT_SIZE), concat(views));
+    ob.releaseViews();
+    assertArrayEquals(more, ob.getUnacked());
+    assertTrue(!ob.ack(total));
+  }
+}